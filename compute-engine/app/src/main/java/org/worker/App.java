@@ -4,13 +4,14 @@
 package org.worker;
 
 import org.worker.rest.WorkerController;
+import org.worker.runtime.WorkerRuntime;
 
 public class App {
     public String getGreeting() {
         return "Hello World!";
     }
 
-    private static String workerId;
+    private static volatile String workerId;
 
     public static void main(String[] args) {
         System.out.println(new App().getGreeting());
@@ -44,6 +45,8 @@ public class App {
             Runtime.getRuntime().addShutdownHook(new Thread(() -> {
                 System.out.println("Shutting down WorkerController...");
                 controller.stop();
+                // the shared pools outlive any one controller, so they only go down with the process
+                WorkerRuntime.INSTANCE.shutdown();
             }));
 
         } catch (Exception e) {
@@ -56,4 +59,9 @@ public class App {
     public static String getWorkerId() {
         return workerId;
     }
+
+    /** Take the id the orchestrator assigned at registration. */
+    public static void setWorkerId(String id) {
+        workerId = id;
+    }
 }
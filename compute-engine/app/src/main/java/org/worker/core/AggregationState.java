@@ -0,0 +1,230 @@
+package org.worker.core;
+
+import java.util.Arrays;
+import java.util.function.IntFunction;
+
+import org.worker.model.TransientVolatileTable;
+
+/**
+ * Single-threaded, int-keyed min/max/sum/count aggregation state.
+ *
+ * Each scanning thread owns one of these and merges it into the shared
+ * {@link TransientVolatileTable} once at the end of its file, so the per-row path takes no
+ * locks and touches no shared memory.
+ *
+ * Two slot layouts share the same value arrays:
+ * - dense: slot = key - base, used while the key range fits in {@link #DENSE_MAX_SPAN}
+ *   (e.g. the ~20 years of student_scores)
+ * - hash: open addressing with linear probing over an int key array, switched to once the
+ *   key range grows past the dense limit
+ */
+public final class AggregationState implements RowSink {
+
+    /** Interface for walking the groups without boxing. */
+    @FunctionalInterface
+    public interface GroupConsumer {
+        void accept(int key, int min, int max, long sum, long count);
+    }
+
+    // Largest key range kept in the dense layout before switching to hashing
+    static final int DENSE_MAX_SPAN = 1 << 16;
+    private static final int INITIAL_CAPACITY = 64;
+
+    private boolean dense = true;
+    private boolean empty = true;
+    // dense layout: key held in slot 0
+    private int base;
+    // hash layout: key held in each slot, live slots have count > 0
+    private int[] keys;
+    private int hashSize;
+
+    private int[] minVal;
+    private int[] maxVal;
+    private long[] sum;
+    private long[] count;
+
+    public AggregationState() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    @Override
+    public void accept(int key, int value) {
+        update(key, value);
+    }
+
+    public void update(int key, int value) {
+        int slot = slotFor(key);
+        if (value < minVal[slot]) minVal[slot] = value;
+        if (value > maxVal[slot]) maxVal[slot] = value;
+        sum[slot] += value;
+        count[slot]++;
+    }
+
+    /** Fold an already aggregated group into this state. */
+    public void merge(int key, int min, int max, long groupSum, long groupCount) {
+        if (groupCount == 0) {
+            return;
+        }
+        int slot = slotFor(key);
+        if (min < minVal[slot]) minVal[slot] = min;
+        if (max > maxVal[slot]) maxVal[slot] = max;
+        sum[slot] += groupSum;
+        count[slot] += groupCount;
+    }
+
+    public void mergeFrom(AggregationState other) {
+        other.forEachGroup(this::merge);
+    }
+
+    public void forEachGroup(GroupConsumer consumer) {
+        for (int slot = 0; slot < count.length; slot++) {
+            if (count[slot] > 0) {
+                int key = dense ? base + slot : keys[slot];
+                consumer.accept(key, minVal[slot], maxVal[slot], sum[slot], count[slot]);
+            }
+        }
+    }
+
+    /** Merge every group into the shared table, one table update per group. */
+    public void flushInto(TransientVolatileTable table) {
+        flushInto(table, Integer::toString);
+    }
+
+    /** Same as {@link #flushInto(TransientVolatileTable)}, with keys decoded to group ids by keyName. */
+    public void flushInto(TransientVolatileTable table, IntFunction<String> keyName) {
+        forEachGroup((key, min, max, groupSum, groupCount) ->
+                table.mergeGroup(keyName.apply(key), min, max, groupSum, groupCount));
+    }
+
+    public int size() {
+        if (!dense) {
+            return hashSize;
+        }
+        int size = 0;
+        for (long c : count) {
+            if (c > 0) size++;
+        }
+        return size;
+    }
+
+    public boolean isDense() {
+        return dense;
+    }
+
+    private int slotFor(int key) {
+        if (dense) {
+            if (empty) {
+                // centre the first window on the first key so it can grow either way
+                long first = Math.max(Integer.MIN_VALUE, (long) key - INITIAL_CAPACITY / 2);
+                base = (int) Math.min(first, (long) Integer.MAX_VALUE - count.length + 1);
+                empty = false;
+            }
+            long slot = (long) key - base;
+            if (slot >= 0 && slot < count.length) {
+                return (int) slot;
+            }
+            growDense(key);
+            if (dense) {
+                return key - base;
+            }
+        }
+        return hashSlot(key);
+    }
+
+    private void growDense(int key) {
+        long lo = Math.min(base, key);
+        long hi = Math.max((long) base + count.length - 1, key);
+        long span = hi - lo + 1;
+        if (span > DENSE_MAX_SPAN) {
+            toHash();
+            return;
+        }
+        int capacity = (int) Math.min(DENSE_MAX_SPAN, Math.max(Long.highestOneBit(span) << 1, count.length * 2L));
+        // leave the headroom on the side the key range is growing towards
+        long newBase = key < base ? hi - capacity + 1 : lo;
+        if (newBase + capacity - 1 > Integer.MAX_VALUE) newBase = (long) Integer.MAX_VALUE - capacity + 1;
+        if (newBase < Integer.MIN_VALUE) newBase = Integer.MIN_VALUE;
+
+        int[] oldMin = minVal, oldMax = maxVal;
+        long[] oldSum = sum, oldCount = count;
+        int oldBase = base;
+        allocate(capacity);
+        base = (int) newBase;
+        int shift = oldBase - base;
+        System.arraycopy(oldMin, 0, minVal, shift, oldMin.length);
+        System.arraycopy(oldMax, 0, maxVal, shift, oldMax.length);
+        System.arraycopy(oldSum, 0, sum, shift, oldSum.length);
+        System.arraycopy(oldCount, 0, count, shift, oldCount.length);
+    }
+
+    private void toHash() {
+        int[] oldMin = minVal, oldMax = maxVal;
+        long[] oldSum = sum, oldCount = count;
+        int oldBase = base;
+        dense = false;
+        hashSize = 0;
+        int groups = 0;
+        for (long c : oldCount) {
+            if (c > 0) groups++;
+        }
+        allocate(Math.max(INITIAL_CAPACITY, Integer.highestOneBit(groups * 4 + 1)));
+        keys = new int[count.length];
+        for (int slot = 0; slot < oldCount.length; slot++) {
+            if (oldCount[slot] > 0) {
+                merge(oldBase + slot, oldMin[slot], oldMax[slot], oldSum[slot], oldCount[slot]);
+            }
+        }
+    }
+
+    private int hashSlot(int key) {
+        int mask = count.length - 1;
+        int slot = mix(key) & mask;
+        while (count[slot] > 0) {
+            if (keys[slot] == key) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        // claim the empty slot; keep the load factor at or below 1/2
+        if ((hashSize + 1) * 2 > count.length) {
+            rehash(count.length * 2);
+            return hashSlot(key);
+        }
+        keys[slot] = key;
+        hashSize++;
+        return slot;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys, oldMin = minVal, oldMax = maxVal;
+        long[] oldSum = sum, oldCount = count;
+        allocate(capacity);
+        keys = new int[capacity];
+        hashSize = 0;
+        for (int slot = 0; slot < oldCount.length; slot++) {
+            if (oldCount[slot] > 0) {
+                merge(oldKeys[slot], oldMin[slot], oldMax[slot], oldSum[slot], oldCount[slot]);
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        minVal = new int[capacity];
+        maxVal = new int[capacity];
+        sum = new long[capacity];
+        count = new long[capacity];
+        Arrays.fill(minVal, Integer.MAX_VALUE);
+        Arrays.fill(maxVal, Integer.MIN_VALUE);
+    }
+
+    // murmur3 finalizer, spreads sequential keys across the table
+    private static int mix(int key) {
+        int h = key;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
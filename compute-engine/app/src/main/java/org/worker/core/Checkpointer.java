@@ -0,0 +1,272 @@
+package org.worker.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import org.worker.model.QuerySpec;
+import org.worker.model.TransientVolatileTable;
+
+/**
+ * Periodic copy of a query's partial table on local disk, so a worker restarted mid-query resumes
+ * from it: the orchestrator only re-runs the blobs the checkpoint doesn't cover, instead of every
+ * blob the worker had read.
+ *
+ * Every blob's merge into the table goes through {@link #merge}, under a shared lock; a checkpoint
+ * takes the lock exclusively, so it holds exactly the blobs it lists. One is written after every
+ * -Dworker.checkpoint.everyFiles merged blobs (0, the default, turns checkpoints off) to
+ * -Dworker.checkpoint.dir (default ./checkpoints), one file per query, replaced atomically.
+ *
+ * File: int magic "DQCK", UTF queryId, UTF spec params, int blob count, UTF blob ids, then the
+ * table in {@link ShuffleCodec} format.
+ */
+public final class Checkpointer {
+    public static final int EVERY_FILES = Integer.getInteger("worker.checkpoint.everyFiles", 0);
+    public static final Path DIR = Path.of(System.getProperty("worker.checkpoint.dir", "checkpoints"));
+    private static final int MAGIC = 0x4451434B; // "DQCK"
+    private static final String SUFFIX = ".ckpt";
+
+    /** One merge of a blob's rows into the table; returns false if nothing was merged. */
+    @FunctionalInterface
+    public interface Merge {
+        boolean run() throws IOException;
+    }
+
+    /** What a checkpoint file holds, as read back by {@link #restoreAll}. */
+    public record Restored(String queryId, QuerySpec spec, List<String> blobIds, TransientVolatileTable table) {}
+
+    private final String queryId;
+    private final Path file;
+    private final int everyFiles;
+    private final TransientVolatileTable table;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // blobs merged into the table, in merge order; merges append under the shared lock, so also synchronized
+    private final List<String> blobIds = new ArrayList<>();
+    private final AtomicInteger sinceCheckpoint = new AtomicInteger();
+    private final AtomicBoolean writing = new AtomicBoolean();
+    private volatile QuerySpec spec = QuerySpec.DEFAULT;
+    // set once the table holds rows that came from elsewhere (see absorb)
+    private volatile boolean frozen;
+    // set by delete, under the write lock; no checkpoint may land after it
+    private boolean deleted;
+
+    public Checkpointer(String queryId, TransientVolatileTable table, Path dir, int everyFiles) {
+        this.queryId = queryId;
+        this.table = table;
+        this.file = dir.resolve(fileName(queryId));
+        this.everyFiles = everyFiles;
+    }
+
+    /** Checkpointer configured by the -Dworker.checkpoint.* properties, or null when they're off. */
+    public static Checkpointer configured(String queryId, TransientVolatileTable table) {
+        return EVERY_FILES > 0 ? new Checkpointer(queryId, table, DIR, EVERY_FILES) : null;
+    }
+
+    public void setSpec(QuerySpec spec) {
+        this.spec = spec;
+    }
+
+    /** Start from a restored checkpoint: its blobs count as merged already. */
+    public void restored(List<String> covered) {
+        synchronized (blobIds) {
+            blobIds.addAll(covered);
+        }
+    }
+
+    /**
+     * Run one blob's merge so no checkpoint sees half of it, and write a checkpoint when enough
+     * blobs have been merged since the last one.
+     */
+    public boolean merge(String blobId, Merge merge) throws IOException {
+        boolean merged;
+        lock.readLock().lock();
+        try {
+            merged = merge.run();
+            if (merged) {
+                synchronized (blobIds) {
+                    blobIds.add(blobId);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (merged && !frozen && sinceCheckpoint.incrementAndGet() >= everyFiles && writing.compareAndSet(false, true)) {
+            try {
+                sinceCheckpoint.set(0);
+                write();
+            } catch (IOException e) {
+                // the previous checkpoint, if any, is still whole; carry on without a new one
+                System.err.println("Checkpoint of query " + queryId + " failed: " + e.getMessage());
+            } finally {
+                writing.set(false);
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Run a merge of rows this worker can't name blobs for, such as another worker's table pulled
+     * in by a shuffle. No checkpoint is written after it, so the last one never claims those rows;
+     * a restart then re-reads everything the shuffle brought in.
+     */
+    public void absorb(Merge merge) throws IOException {
+        lock.writeLock().lock();
+        try {
+            frozen = true;
+            merge.run();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Write the table and the blobs it covers now; merges wait until it's done. Does nothing once
+     * the checkpoint has been deleted.
+     */
+    public void write() throws IOException {
+        Path tmp = tmpFile();
+        int blobs;
+        lock.writeLock().lock();
+        try {
+            if (deleted) {
+                return;
+            }
+            Files.createDirectories(file.getParent());
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp))) {
+                DataOutputStream header = new DataOutputStream(out);
+                header.writeInt(MAGIC);
+                header.writeUTF(queryId);
+                header.writeUTF(spec.toParams());
+                List<String> covered = getBlobIds();
+                header.writeInt(covered.size());
+                for (String blobId : covered) {
+                    header.writeUTF(blobId);
+                }
+                blobs = covered.size();
+                ShuffleCodec.write(table, out, ShuffleCodec.COMPRESSION_NONE);
+            }
+            // still under the lock, so a delete can't slip in between and be undone by the move
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        System.out.println("Checkpointed query " + queryId + " after " + blobs + " blobs to " + file);
+    }
+
+    /** Blobs merged so far, including those of a restored checkpoint. */
+    public List<String> getBlobIds() {
+        synchronized (blobIds) {
+            return new ArrayList<>(blobIds);
+        }
+    }
+
+    /**
+     * Remove the query's checkpoint, and any half-written one; called when its state is released.
+     * Waits for a checkpoint being written, and none is written afterwards.
+     */
+    public void delete() {
+        lock.writeLock().lock();
+        try {
+            deleted = true;
+            for (Path path : new Path[] {file, tmpFile()}) {
+                try {
+                    Files.deleteIfExists(path);
+                } catch (IOException e) {
+                    System.err.println("Could not delete checkpoint " + path + ": " + e.getMessage());
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private Path tmpFile() {
+        return file.resolveSibling(file.getFileName() + ".tmp");
+    }
+
+    /** Read back every checkpoint under dir; unreadable ones are reported and skipped. */
+    public static List<Restored> restoreAll(Path dir) {
+        List<Restored> restored = new ArrayList<>();
+        if (!Files.isDirectory(dir)) {
+            return restored;
+        }
+        List<Path> files;
+        try (Stream<Path> paths = Files.list(dir)) {
+            files = paths.filter(p -> p.toString().endsWith(SUFFIX)).sorted().toList();
+        } catch (IOException e) {
+            System.err.println("Could not list checkpoints in " + dir + ": " + e.getMessage());
+            return restored;
+        }
+        for (Path path : files) {
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(path))) {
+                restored.add(read(in));
+            } catch (IOException | IllegalArgumentException e) {
+                System.err.println("Skipping unreadable checkpoint " + path + ": " + e.getMessage());
+            }
+        }
+        return restored;
+    }
+
+    static Restored read(InputStream in) throws IOException {
+        DataInputStream header = new DataInputStream(in);
+        if (header.readInt() != MAGIC) {
+            throw new IOException("not a checkpoint");
+        }
+        String queryId = header.readUTF();
+        String params = header.readUTF();
+        int count = header.readInt();
+        List<String> blobIds = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            blobIds.add(header.readUTF());
+        }
+        TransientVolatileTable table = TransientVolatileTable.budgeted();
+        ShuffleCodec.readInto(in, table);
+        return new Restored(queryId, QuerySpec.fromParams(paramLookup(params)), blobIds, table);
+    }
+
+    // "groupBy=year&agg=min,max" as written by QuerySpec.toParams, which never encodes its values
+    private static Function<String, String> paramLookup(String params) {
+        Map<String, String> values = new HashMap<>();
+        for (String pair : params.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) {
+                values.put(pair.substring(0, eq), pair.substring(eq + 1));
+            }
+        }
+        return values::get;
+    }
+
+    // query ids come from the orchestrator or the user; keep the file name portable
+    private static String fileName(String queryId) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : queryId.getBytes(StandardCharsets.UTF_8)) {
+            char c = (char) (b & 0xff);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-' || c == '_') {
+                sb.append(c);
+            } else {
+                sb.append('%').append(String.format("%02X", b & 0xff));
+            }
+        }
+        return sb + SUFFIX;
+    }
+}
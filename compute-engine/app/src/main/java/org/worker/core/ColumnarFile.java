@@ -0,0 +1,661 @@
+package org.worker.core;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.worker.model.HyperLogLog;
+import org.worker.model.QuerySpec;
+import org.worker.model.Row;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Columnar binary form of a student_scores CSV, so repeat scans skip text parsing and read only
+ * the columns a query needs. Converted files keep their name, so blob ids and the orchestrator's
+ * plan don't change; {@link DataParser} tells the two formats apart by the leading magic.
+ *
+ * Layout (big-endian): a header [magic, version, rows per block], then blocks of up to
+ * {@link #BLOCK_ROWS} rows, then a directory of (offset, length) per block and a trailer
+ * [directory offset, block count, magic]. A block holds:
+ * <ul>
+ *   <li>year: a dictionary of the block's distinct (trimmed) year strings, and one bit-packed
+ *       code per row</li>
+ *   <li>score: a base and the bit-packed (score - base) per row</li>
+ *   <li>id: row offsets into the concatenated (trimmed) UTF-8 ids</li>
+ *   <li>footer: row count, min/max of the int years and of the scores, and where the score and
+ *       id columns start</li>
+ * </ul>
+ * A scan reads the footers first and skips every block whose min/max can't satisfy the query's
+ * year or score range. Rows the CSV parser would skip (fewer than three columns, or a score that
+ * isn't an int) are dropped at conversion.
+ *
+ * Convert with {@code ./gradlew :app:convertColumnar [-PstorageDir=...] [-PinPlace]}, or run this
+ * class with the files or directories to convert. Without the in-place opt-in each CSV is left
+ * alone and its columnar form is written beside it as {@code <name>.columnar}, which nothing
+ * plans or reads; only {@code --in-place} replaces the CSVs the workers serve.
+ */
+public final class ColumnarFile {
+    public static final int MAGIC = 0x44514346; // "DQCF"
+    public static final int VERSION = 1;
+    public static final int BLOCK_ROWS = 8192;
+    private static final int HEADER_BYTES = 12;
+    private static final int TRAILER_BYTES = 16;
+    private static final int DIRECTORY_ENTRY_BYTES = 12;
+    // rows, yearMin, yearMax, scoreMin, scoreMax, scoreOffset, idOffset
+    private static final int FOOTER_BYTES = 28;
+    // main's opt-in to overwrite the CSVs
+    private static final String IN_PLACE = "--in-place";
+
+    private ColumnarFile() {
+    }
+
+    /** Whether buf starts with the columnar magic. */
+    public static boolean isColumnar(ByteBuffer buf) {
+        return buf.limit() >= HEADER_BYTES + TRAILER_BYTES && buf.getInt(0) == MAGIC;
+    }
+
+    public static boolean isColumnar(FileChannel channel) throws IOException {
+        if (channel.size() < HEADER_BYTES + TRAILER_BYTES) {
+            return false;
+        }
+        ByteBuffer magic = ByteBuffer.allocate(4);
+        readFully(channel, magic, 0);
+        return magic.getInt(0) == MAGIC;
+    }
+
+    public static boolean isColumnar(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return isColumnar(channel);
+        }
+    }
+
+    // ---- conversion ----
+
+    /**
+     * Convert each CSV under the given files or directories (default: the worker's storage
+     * directory), beside it or, given {@code --in-place}, over it. Files already in the columnar
+     * format are left alone.
+     */
+    public static void main(String[] args) throws IOException {
+        List<Path> roots = new ArrayList<>();
+        boolean inPlace = false;
+        for (String arg : args) {
+            if (IN_PLACE.equals(arg)) {
+                inPlace = true;
+            } else {
+                roots.add(Paths.get(arg));
+            }
+        }
+        if (roots.isEmpty()) {
+            roots.add(Paths.get(DataParser.STORAGE_DIR));
+        }
+        long before = 0;
+        long after = 0;
+        int converted = 0;
+        for (Path root : roots) {
+            List<Path> files;
+            try (Stream<Path> paths = Files.walk(root)) {
+                files = paths.filter(p -> p.toString().endsWith(".csv") && Files.isRegularFile(p)).sorted().toList();
+            }
+            for (Path file : files) {
+                if (isColumnar(file)) {
+                    continue;
+                }
+                long size = Files.size(file);
+                Path target = inPlace ? file : besideOf(file);
+                long rows = inPlace ? convertInPlace(file) : convertBeside(file);
+                before += size;
+                after += Files.size(target);
+                converted++;
+                System.out.println("Converted " + file + " -> " + target + ": " + rows + " rows, " + size + " -> "
+                        + Files.size(target) + " bytes");
+            }
+        }
+        System.out.println("Converted " + converted + " files, " + before + " -> " + after + " bytes"
+                + (inPlace ? "" : "; the CSVs are unchanged, pass " + IN_PLACE + " to replace them"));
+    }
+
+    /** Where {@link #convertBeside} writes: the CSV's name with {@code .columnar} for {@code .csv}. */
+    public static Path besideOf(Path csv) {
+        String name = csv.getFileName().toString();
+        String stem = name.endsWith(".csv") ? name.substring(0, name.length() - 4) : name;
+        return csv.resolveSibling(stem + ".columnar");
+    }
+
+    /** Write one CSV's columnar form to {@link #besideOf}, leaving the CSV as it is. */
+    public static long convertBeside(Path csv) throws IOException {
+        Path target = besideOf(csv);
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        try {
+            long rows = convert(csv, tmp);
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return rows;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /** Rewrite one CSV as a columnar file under the same name; the CSV text is gone afterwards. */
+    public static long convertInPlace(Path csv) throws IOException {
+        Path tmp = csv.resolveSibling(csv.getFileName() + ".columnar.tmp");
+        try {
+            long rows = convert(csv, tmp);
+            Files.move(tmp, csv, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return rows;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Write the columnar form of csv to out, reading the CSV with the same rules as
+     * {@link DataParser#parse()}.
+     *
+     * @return rows written
+     */
+    public static long convert(Path csv, Path out) throws IOException {
+        long rows = 0;
+        int skipped = 0;
+        List<long[]> directory = new ArrayList<>();
+        try (Reader reader = Files.newBufferedReader(csv);
+             OutputStream file = new BufferedOutputStream(Files.newOutputStream(out))) {
+            DataOutputStream header = new DataOutputStream(file);
+            header.writeInt(MAGIC);
+            header.writeInt(VERSION);
+            header.writeInt(BLOCK_ROWS);
+            long position = HEADER_BYTES;
+
+            BlockWriter block = new BlockWriter();
+            CSVParser parser = CSVParser.parse(reader, CSVFormat.Builder.create(CSVFormat.DEFAULT).setTrim(true).setIgnoreSurroundingSpaces(true).build());
+            for (CSVRecord rec : parser) {
+                if (rec.size() < 3) {
+                    skipped++;
+                    continue;
+                }
+                int score;
+                try {
+                    score = Integer.parseInt(rec.get(2));
+                } catch (NumberFormatException e) {
+                    skipped++;
+                    continue;
+                }
+                block.add(rec.get(0), rec.get(1), score);
+                rows++;
+                if (block.size == BLOCK_ROWS) {
+                    position += block.writeTo(file, position, directory);
+                }
+            }
+            if (block.size > 0) {
+                position += block.writeTo(file, position, directory);
+            }
+
+            DataOutputStream tail = new DataOutputStream(file);
+            for (long[] entry : directory) {
+                tail.writeLong(entry[0]);
+                tail.writeInt((int) entry[1]);
+            }
+            tail.writeLong(position);
+            tail.writeInt(directory.size());
+            tail.writeInt(MAGIC);
+            tail.flush();
+        }
+        if (skipped > 0) {
+            System.out.println("Skipped " + skipped + " malformed rows of " + csv);
+        }
+        return rows;
+    }
+
+    /** Buffers one block's rows and encodes them column by column. */
+    private static final class BlockWriter {
+        final String[] ids = new String[BLOCK_ROWS];
+        final String[] years = new String[BLOCK_ROWS];
+        final int[] scores = new int[BLOCK_ROWS];
+        int size;
+
+        void add(String id, String year, int score) {
+            ids[size] = id;
+            years[size] = year;
+            scores[size] = score;
+            size++;
+        }
+
+        /** Append the block and record it in the directory; returns the bytes written. */
+        int writeTo(OutputStream file, long position, List<long[]> directory) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(size * 24);
+            DataOutputStream out = new DataOutputStream(bytes);
+
+            Map<String, Integer> codes = new HashMap<>();
+            List<String> dictionary = new ArrayList<>();
+            int[] yearCodes = new int[size];
+            int yearMin = Integer.MAX_VALUE;
+            int yearMax = Integer.MIN_VALUE;
+            for (int i = 0; i < size; i++) {
+                Integer code = codes.get(years[i]);
+                if (code == null) {
+                    code = dictionary.size();
+                    codes.put(years[i], code);
+                    dictionary.add(years[i]);
+                    Integer year = parseYear(years[i]);
+                    if (year != null) {
+                        yearMin = Math.min(yearMin, year);
+                        yearMax = Math.max(yearMax, year);
+                    }
+                }
+                yearCodes[i] = code;
+            }
+            out.writeInt(dictionary.size());
+            for (String year : dictionary) {
+                byte[] utf8 = year.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(utf8.length);
+                out.write(utf8);
+            }
+            writePacked(out, yearCodes, 0, size);
+
+            int scoreOffset = out.size();
+            int scoreMin = Integer.MAX_VALUE;
+            int scoreMax = Integer.MIN_VALUE;
+            for (int i = 0; i < size; i++) {
+                scoreMin = Math.min(scoreMin, scores[i]);
+                scoreMax = Math.max(scoreMax, scores[i]);
+            }
+            out.writeInt(scoreMin);
+            writePacked(out, scores, scoreMin, size);
+
+            int idOffset = out.size();
+            byte[][] idBytes = new byte[size][];
+            int end = 0;
+            out.writeInt(0);
+            for (int i = 0; i < size; i++) {
+                idBytes[i] = ids[i].getBytes(StandardCharsets.UTF_8);
+                end += idBytes[i].length;
+                out.writeInt(end);
+            }
+            for (byte[] id : idBytes) {
+                out.write(id);
+            }
+
+            out.writeInt(size);
+            out.writeInt(yearMin);
+            out.writeInt(yearMax);
+            out.writeInt(scoreMin);
+            out.writeInt(scoreMax);
+            out.writeInt(scoreOffset);
+            out.writeInt(idOffset);
+            out.flush();
+
+            bytes.writeTo(file);
+            directory.add(new long[] {position, bytes.size()});
+            size = 0;
+            return bytes.size();
+        }
+    }
+
+    /** (values[i] - base) for i < n, at the fewest bits that hold the largest: bits byte, then longs, LSB first. */
+    private static void writePacked(DataOutputStream out, int[] values, int base, int n) throws IOException {
+        long range = 0;
+        for (int i = 0; i < n; i++) {
+            range = Math.max(range, (long) values[i] - base);
+        }
+        int bits = 64 - Long.numberOfLeadingZeros(range);
+        out.writeByte(bits);
+        long[] words = new long[packedWords(n, bits)];
+        for (int i = 0; i < n; i++) {
+            long value = (long) values[i] - base;
+            long bit = (long) i * bits;
+            int word = (int) (bit >>> 6);
+            int shift = (int) (bit & 63);
+            words[word] |= value << shift;
+            if (shift + bits > 64) {
+                words[word + 1] |= value >>> (64 - shift);
+            }
+        }
+        for (long word : words) {
+            out.writeLong(word);
+        }
+    }
+
+    private static int packedWords(int n, int bits) {
+        return (int) (((long) n * bits + 63) >>> 6);
+    }
+
+    /** Inverse of writePacked: base + each value into out[0, n), reading the packed column at pos. */
+    private static void readPacked(ByteBuffer buf, int pos, int base, int n, int[] out) {
+        int bits = buf.get(pos);
+        int words = pos + 1;
+        if (bits == 0) {
+            Arrays.fill(out, 0, n, base);
+            return;
+        }
+        long mask = bits == 64 ? -1L : (1L << bits) - 1;
+        for (int i = 0; i < n; i++) {
+            long bit = (long) i * bits;
+            int word = (int) (bit >>> 6);
+            int shift = (int) (bit & 63);
+            long value = buf.getLong(words + word * 8) >>> shift;
+            if (shift + bits > 64) {
+                value |= buf.getLong(words + (word + 1) * 8) << (64 - shift);
+            }
+            out[i] = (int) (base + (value & mask));
+        }
+    }
+
+    // same acceptance as Integer.parseInt, which the CSV scan's byte parser mirrors
+    private static Integer parseYear(String year) {
+        try {
+            return Integer.parseInt(year);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // ---- reading ----
+
+    /** Where a columnar file's bytes come from: an in-memory copy, or a channel mapped block by block. */
+    private interface Source {
+        long size();
+
+        /** Small metadata reads (trailer, directory, footers). */
+        ByteBuffer read(long offset, int length) throws IOException;
+
+        /** A whole block; only called for blocks the scan can't skip. */
+        ByteBuffer block(long offset, int length) throws IOException;
+    }
+
+    private static Source of(ByteBuffer contents) {
+        return new Source() {
+            public long size() {
+                return contents.limit();
+            }
+
+            public ByteBuffer read(long offset, int length) {
+                return contents.slice((int) offset, length);
+            }
+
+            public ByteBuffer block(long offset, int length) {
+                return contents.slice((int) offset, length);
+            }
+        };
+    }
+
+    private static Source of(FileChannel channel) throws IOException {
+        long size = channel.size();
+        return new Source() {
+            public long size() {
+                return size;
+            }
+
+            public ByteBuffer read(long offset, int length) throws IOException {
+                ByteBuffer buf = ByteBuffer.allocate(length);
+                readFully(channel, buf, offset);
+                return buf;
+            }
+
+            public ByteBuffer block(long offset, int length) throws IOException {
+                return channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+            }
+        };
+    }
+
+    /** Stream the rows of an in-memory columnar file into sink; see {@link DataParser#scan(QuerySpec, KeyDictionary, RowSink)}. */
+    public static long scan(ByteBuffer contents, QuerySpec spec, KeyDictionary ids, RowSink sink) throws IOException {
+        return scan(of(contents), spec, ids, sink);
+    }
+
+    public static long scan(FileChannel channel, QuerySpec spec, KeyDictionary ids, RowSink sink) throws IOException {
+        return scan(of(channel), spec, ids, sink);
+    }
+
+    private static long scan(Source source, QuerySpec spec, KeyDictionary ids, RowSink sink) throws IOException {
+        BlockScanner scanner = new BlockScanner(spec, ids, sink);
+        long[] directory = readDirectory(source);
+        for (int b = 0; b < directory.length; b += 2) {
+            long offset = directory[b];
+            int length = (int) directory[b + 1];
+            ByteBuffer footer = source.read(offset + length - FOOTER_BYTES, FOOTER_BYTES);
+            if (!scanner.canSkip(footer)) {
+                scanner.scanBlock(source.block(offset, length), footer);
+            }
+        }
+        return scanner.rows;
+    }
+
+    /** Whole-file statistics from the block footers alone, without touching any column. */
+    public static FileSummary summarize(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            Source source = of(channel);
+            long[] directory = readDirectory(source);
+            long rows = 0;
+            int yearMin = Integer.MAX_VALUE;
+            int yearMax = Integer.MIN_VALUE;
+            int scoreMin = Integer.MAX_VALUE;
+            int scoreMax = Integer.MIN_VALUE;
+            for (int b = 0; b < directory.length; b += 2) {
+                ByteBuffer footer = source.read(directory[b] + directory[b + 1] - FOOTER_BYTES, FOOTER_BYTES);
+                rows += footer.getInt(0);
+                yearMin = Math.min(yearMin, footer.getInt(4));
+                yearMax = Math.max(yearMax, footer.getInt(8));
+                scoreMin = Math.min(scoreMin, footer.getInt(12));
+                scoreMax = Math.max(scoreMax, footer.getInt(16));
+            }
+            return new FileSummary(channel.size(), Files.getLastModifiedTime(file).toMillis(), rows,
+                    yearMin, yearMax, scoreMin, scoreMax);
+        }
+    }
+
+    /** Every row of an in-memory or on-disk columnar file, as {@link DataParser#parse()} returns them. */
+    public static List<Row> readRows(ByteBuffer contents) throws IOException {
+        return readRows(of(contents));
+    }
+
+    public static List<Row> readRows(FileChannel channel) throws IOException {
+        return readRows(of(channel));
+    }
+
+    private static List<Row> readRows(Source source) throws IOException {
+        List<Row> rows = new ArrayList<>();
+        long[] directory = readDirectory(source);
+        int[] codes = new int[BLOCK_ROWS];
+        int[] scores = new int[BLOCK_ROWS];
+        for (int b = 0; b < directory.length; b += 2) {
+            ByteBuffer block = source.block(directory[b], (int) directory[b + 1]);
+            int footerAt = block.limit() - FOOTER_BYTES;
+            int n = block.getInt(footerAt);
+            int scoreOffset = block.getInt(footerAt + 20);
+            int idOffset = block.getInt(footerAt + 24);
+            String[] dictionary = new String[block.getInt(0)];
+            int pos = 4;
+            for (int i = 0; i < dictionary.length; i++) {
+                int length = block.getInt(pos);
+                dictionary[i] = utf8(block, pos + 4, pos + 4 + length);
+                pos += 4 + length;
+            }
+            readPacked(block, pos, 0, n, codes);
+            readPacked(block, scoreOffset + 4, block.getInt(scoreOffset), n, scores);
+            int idData = idOffset + 4 * (n + 1);
+            for (int i = 0; i < n; i++) {
+                String id = utf8(block, idData + block.getInt(idOffset + 4 * i), idData + block.getInt(idOffset + 4 * (i + 1)));
+                rows.add(new Row(id, dictionary[codes[i]], scores[i]));
+            }
+        }
+        return rows;
+    }
+
+    /** Block offsets and lengths, interleaved. */
+    private static long[] readDirectory(Source source) throws IOException {
+        long size = source.size();
+        ByteBuffer trailer = source.read(size - TRAILER_BYTES, TRAILER_BYTES);
+        long directoryOffset = trailer.getLong(0);
+        int blocks = trailer.getInt(8);
+        if (trailer.getInt(12) != MAGIC || blocks < 0
+                || directoryOffset + (long) blocks * DIRECTORY_ENTRY_BYTES != size - TRAILER_BYTES) {
+            throw new IOException("corrupt columnar file, bad trailer");
+        }
+        ByteBuffer header = source.read(0, HEADER_BYTES);
+        if (header.getInt(4) != VERSION) {
+            throw new IOException("unsupported columnar file version " + header.getInt(4));
+        }
+        ByteBuffer entries = source.read(directoryOffset, blocks * DIRECTORY_ENTRY_BYTES);
+        long[] directory = new long[blocks * 2];
+        for (int b = 0; b < blocks; b++) {
+            directory[2 * b] = entries.getLong(b * DIRECTORY_ENTRY_BYTES);
+            directory[2 * b + 1] = entries.getInt(b * DIRECTORY_ENTRY_BYTES + 8);
+        }
+        return directory;
+    }
+
+    /**
+     * Scans the blocks of one file. As in DataParser's line scanner, the spec is copied into fields,
+     * and columns are decoded only when the query needs them: year when grouping or filtering on
+     * it, id for a prefix filter, an id group-by or distinct counts.
+     */
+    private static final class BlockScanner {
+        private final RowSink sink;
+        private final KeyDictionary ids;
+        private final QuerySpec.Column groupBy;
+        private final boolean needsYear;
+        private final boolean needsIds;
+        private final int yearLo, yearHi, scoreLo, scoreHi;
+        private final byte[] idPrefix;
+        private final boolean hashIds;
+        private final int[] codes = new int[BLOCK_ROWS];
+        private final int[] scores = new int[BLOCK_ROWS];
+        // per dictionary code of the current block: its int year, and whether it passes the filter
+        private int[] yearOf = new int[32];
+        private boolean[] yearOk = new boolean[32];
+        long rows;
+
+        BlockScanner(QuerySpec spec, KeyDictionary ids, RowSink sink) {
+            this.sink = sink;
+            this.ids = ids;
+            this.groupBy = spec.getGroupBy();
+            this.needsYear = spec.needsYear();
+            this.yearLo = spec.getYearLo();
+            this.yearHi = spec.getYearHi();
+            this.scoreLo = spec.getScoreLo();
+            this.scoreHi = spec.getScoreHi();
+            this.idPrefix = spec.getIdPrefix();
+            this.hashIds = spec.needsDistinct();
+            this.needsIds = idPrefix != null || groupBy == QuerySpec.Column.ID || hashIds;
+        }
+
+        /** Whether the footer's min/max rule out every row of the block. */
+        boolean canSkip(ByteBuffer footer) {
+            if (needsYear && (footer.getInt(8) < yearLo || footer.getInt(4) > yearHi)) {
+                return true;
+            }
+            return footer.getInt(16) < scoreLo || footer.getInt(12) > scoreHi;
+        }
+
+        void scanBlock(ByteBuffer block, ByteBuffer footer) {
+            int n = footer.getInt(0);
+            int scoreOffset = footer.getInt(20);
+            int idOffset = footer.getInt(24);
+            // a block entirely inside the score range needs no per-row check
+            boolean checkScore = footer.getInt(12) < scoreLo || footer.getInt(16) > scoreHi;
+            if (needsYear) {
+                decodeYears(block, n);
+            }
+            readPacked(block, scoreOffset + 4, block.getInt(scoreOffset), n, scores);
+            int idData = idOffset + 4 * (n + 1);
+
+            for (int i = 0; i < n; i++) {
+                int year = 0;
+                if (needsYear) {
+                    int code = codes[i];
+                    if (!yearOk[code]) {
+                        continue;
+                    }
+                    year = yearOf[code];
+                }
+                int score = scores[i];
+                if (checkScore && (score < scoreLo || score > scoreHi)) {
+                    continue;
+                }
+                int idFrom = 0;
+                int idTo = 0;
+                if (needsIds) {
+                    idFrom = idData + block.getInt(idOffset + 4 * i);
+                    idTo = idData + block.getInt(idOffset + 4 * (i + 1));
+                    if (idPrefix != null && !startsWith(block, idFrom, idTo)) {
+                        continue;
+                    }
+                }
+                int key = switch (groupBy) {
+                    case YEAR -> year;
+                    case SCORE -> score;
+                    case ID -> ids.encode(block, idFrom, idTo);
+                };
+                if (hashIds) {
+                    sink.accept(key, score, HyperLogLog.hash(block, idFrom, idTo));
+                } else {
+                    sink.accept(key, score);
+                }
+                rows++;
+            }
+        }
+
+        // the year filter is evaluated once per dictionary entry rather than once per row
+        private void decodeYears(ByteBuffer block, int n) {
+            int entries = block.getInt(0);
+            if (yearOf.length < entries) {
+                yearOf = new int[entries];
+                yearOk = new boolean[entries];
+            }
+            int pos = 4;
+            for (int i = 0; i < entries; i++) {
+                int length = block.getInt(pos);
+                Integer year = parseYear(utf8(block, pos + 4, pos + 4 + length));
+                yearOk[i] = year != null && year >= yearLo && year <= yearHi;
+                yearOf[i] = year == null ? 0 : year;
+                pos += 4 + length;
+            }
+            readPacked(block, pos, 0, n, codes);
+        }
+
+        private boolean startsWith(ByteBuffer block, int from, int to) {
+            if (to - from < idPrefix.length) {
+                return false;
+            }
+            for (int i = 0; i < idPrefix.length; i++) {
+                if (block.get(from + i) != idPrefix[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static String utf8(ByteBuffer buf, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        buf.get(from, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, position + buf.position()) < 0) {
+                throw new IOException("unexpected end of columnar file");
+            }
+        }
+        buf.flip();
+    }
+}
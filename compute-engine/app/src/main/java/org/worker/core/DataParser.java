@@ -3,27 +3,90 @@ package org.worker.core;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVRecord;
+import org.worker.model.HyperLogLog;
+import org.worker.model.QuerySpec;
 import org.worker.model.Row;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 
 /**
  * Parser reads CSV files containing three columns: ID, year, score.
- * Each CSV row is mapped to a `Row` instance.
+ * Each CSV row is mapped to a `Row` instance by {@link #parse()}, or streamed
+ * straight into a {@link RowSink} by {@link #scan(QuerySpec, KeyDictionary, RowSink)}.
+ * Files converted by {@link ColumnarFile} are recognised by their magic and read column-wise instead.
  */
 public class DataParser {
-    private static final String STORAGE_DIR = "../../student_scores";
+    static final String STORAGE_DIR = "../../student_scores";
+    // Size of each memory-mapped window; a window always ends on a line boundary
+    private static final int MAP_WINDOW = 64 * 1024 * 1024;
+    // Vectorized line scanning by SimdScanner, -Dworker.scan.simd=true; needs the JVM to run with
+    // --add-modules jdk.incubator.vector, else the scalar scanner is kept (null)
+    private static final LineScanFactory SIMD_SCAN = simdScan();
     private final Path filePath;
+    // Blob id relative to the storage root, or null when built from a plain path
+    private final String blobId;
+    // Whole file read ahead of the scan by prefetch(), or null to read it from disk
+    private ByteBuffer contents;
 
     public DataParser(String dir) {
         // Build the path in a platform-independent way
         this.filePath = Paths.get(STORAGE_DIR).resolve(dir);
+        this.blobId = dir;
+    }
+
+    public DataParser(Path filePath) {
+        this.filePath = filePath;
+        this.blobId = null;
+    }
+
+    public Path getFilePath() {
+        return filePath;
+    }
+
+    public String getBlobId() {
+        return blobId;
+    }
+
+    /**
+     * Read the whole file into memory now, so a later {@link #parse()} or scan does no I/O. Lets
+     * the read pipeline overlap loading the next file with aggregating the current one. Files
+     * larger than maxBytes are left to be mapped by the scan as usual.
+     *
+     * @return bytes read, or 0 when the file was too large
+     */
+    public long prefetch(long maxBytes) throws IOException {
+        try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > maxBytes || size > Integer.MAX_VALUE - 8) {
+                return 0;
+            }
+            ByteBuffer buf = ByteBuffer.allocate((int) size);
+            while (buf.hasRemaining()) {
+                if (channel.read(buf) < 0) {
+                    break;
+                }
+            }
+            buf.flip();
+            contents = buf;
+            return buf.limit();
+        }
+    }
+
+    public boolean isPrefetched() {
+        return contents != null;
     }
 
     /**
@@ -31,8 +94,20 @@ public class DataParser {
      * The CSV is expected to have no header and exactly 3 columns per row: ID, year, score.
      */
     public List<Row> parse() throws IOException {
+        if (contents != null && ColumnarFile.isColumnar(contents)) {
+            return ColumnarFile.readRows(contents);
+        }
+        if (contents == null) {
+            try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+                if (ColumnarFile.isColumnar(channel)) {
+                    return ColumnarFile.readRows(channel);
+                }
+            }
+        }
         List<Row> result = new ArrayList<>();
-        try (Reader reader = Files.newBufferedReader(filePath)) {
+        try (Reader reader = contents != null
+                ? new InputStreamReader(new ByteArrayInputStream(contents.array(), 0, contents.limit()), StandardCharsets.UTF_8)
+                : Files.newBufferedReader(filePath)) {
             CSVParser parser = CSVParser.parse(reader, CSVFormat.DEFAULT.withTrim().withIgnoreSurroundingSpaces());
             for (CSVRecord rec : parser) {
                 if (rec.size() < 3) {
@@ -58,4 +133,384 @@ public class DataParser {
         }
         return result;
     }
+
+    /**
+     * Streaming alternative to {@link #parse()} for the default query: memory-maps the file and
+     * decodes year and score directly from bytes into the sink. See {@link #scan(QuerySpec, KeyDictionary, RowSink)}.
+     *
+     * @return number of rows handed to the sink
+     */
+    public long scan(RowSink sink) throws IOException {
+        return scan(QuerySpec.DEFAULT, null, sink);
+    }
+
+    /**
+     * Streaming scan with filter and projection pushdown: memory-maps the file, evaluates the
+     * spec's predicates on raw bytes and hands (group key, score) of matching rows to the sink.
+     * Columns the spec does not need are skipped without being decoded, and no object is
+     * allocated per row.
+     *
+     * Accepts the same rows as {@link #parse()} for the unquoted numeric layout of student_scores
+     * (surrounding whitespace and CRLF line endings are tolerated). Rows whose year is not an
+     * integer are skipped when the year column is needed, since groups are keyed by int.
+     *
+     * A columnar file is handed to {@link ColumnarFile} instead, which decodes only the columns
+     * the spec needs and skips blocks by their min/max footers.
+     *
+     * @param ids dictionary used to int-encode ids when grouping by id; may be null otherwise
+     * @return number of rows handed to the sink
+     */
+    public long scan(QuerySpec spec, KeyDictionary ids, RowSink sink) throws IOException {
+        if (spec.matchesNothing()) {
+            return 0;
+        }
+        if (spec.getGroupBy() == QuerySpec.Column.ID && ids == null) {
+            throw new IllegalArgumentException("grouping by id needs a KeyDictionary");
+        }
+        if (contents != null) {
+            if (ColumnarFile.isColumnar(contents)) {
+                return ColumnarFile.scan(contents, spec, ids, sink);
+            }
+            LineScan scanner = lineScan(contents, spec, ids, sink);
+            scanner.scanLines(0, contents.limit(), true);
+            return scanner.rows();
+        }
+        long rows = 0;
+        try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            if (ColumnarFile.isColumnar(channel)) {
+                return ColumnarFile.scan(channel, spec, ids, sink);
+            }
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                long remaining = size - position;
+                int limit = (int) Math.min(remaining, MAP_WINDOW);
+                boolean lastWindow = limit == remaining;
+                MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, position, limit);
+
+                LineScan scanner = lineScan(buf, spec, ids, sink);
+                int consumed = scanner.scanLines(0, limit, lastWindow);
+                if (consumed == 0) {
+                    throw new IOException("line longer than " + MAP_WINDOW + " bytes in " + filePath);
+                }
+                rows += scanner.rows();
+                position += consumed;
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * One line-aligned byte range of a file, for a split scan: several threads scan the ranges of
+     * one file at once, each into its own sink, over one shared buffer.
+     */
+    public static final class Split {
+        private final ByteBuffer buf;
+        private final int from;
+        private final int to;
+
+        private Split(ByteBuffer buf, int from, int to) {
+            this.buf = buf;
+            this.from = from;
+            this.to = to;
+        }
+
+        public int length() {
+            return to - from;
+        }
+
+        /** Scan the lines of this range; see {@link DataParser#scan(QuerySpec, KeyDictionary, RowSink)}. */
+        public long scan(QuerySpec spec, KeyDictionary ids, RowSink sink) {
+            if (spec.matchesNothing()) {
+                return 0;
+            }
+            // absolute reads only, so ranges can share the buffer
+            LineScan scanner = lineScan(buf, spec, ids, sink);
+            scanner.scanLines(from, to, true);
+            return scanner.rows();
+        }
+    }
+
+    /**
+     * Cut the file into at most maxSplits ranges of at least minSplitBytes each. The prefetched
+     * contents, or the file mapped once, are shared by all ranges; every cut is moved forward to
+     * just past a '\n', so no line (or \r\n pair) is split between two ranges.
+     *
+     * @return the ranges, or an empty list when the file should be scanned whole: it is columnar,
+     *         too small for two ranges, or too large to map as one buffer
+     */
+    public List<Split> split(int maxSplits, long minSplitBytes) throws IOException {
+        ByteBuffer buf = contents;
+        if (buf == null) {
+            try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+                long size = channel.size();
+                if (size > Integer.MAX_VALUE || size / Math.max(1, minSplitBytes) < 2 || maxSplits < 2) {
+                    return List.of();
+                }
+                if (ColumnarFile.isColumnar(channel)) {
+                    return List.of();
+                }
+                buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+        } else if (ColumnarFile.isColumnar(buf)) {
+            return List.of();
+        }
+        int size = buf.limit();
+        int splits = (int) Math.min(maxSplits, size / Math.max(1, minSplitBytes));
+        if (splits < 2) {
+            return List.of();
+        }
+        List<Split> ranges = new ArrayList<>(splits);
+        int start = 0;
+        for (int i = 1; i <= splits && start < size; i++) {
+            int end = i == splits ? size : lineStartAtOrAfter(buf, (int) ((long) size * i / splits), size);
+            if (end > start) {
+                ranges.add(new Split(buf, start, end));
+                start = end;
+            }
+        }
+        return ranges;
+    }
+
+    // SimdScanner is compiled apart from this source set (see build.gradle), so it is looked up by name
+    private static LineScanFactory simdScan() {
+        if (!Boolean.getBoolean("worker.scan.simd")) {
+            return null;
+        }
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            System.err.println("[scan] -Dworker.scan.simd needs --add-modules jdk.incubator.vector, scanning without it");
+            return null;
+        }
+        try {
+            LineScanFactory factory = (LineScanFactory) Class.forName("org.worker.core.SimdScanner$Factory")
+                    .getDeclaredConstructor().newInstance();
+            System.out.println("[scan] SIMD line scanning: " + factory.describe());
+            return factory;
+        } catch (ReflectiveOperationException | LinkageError e) {
+            System.err.println("[scan] SIMD scanner unavailable (" + e + "), scanning without it");
+            return null;
+        }
+    }
+
+    // offset just past the first '\n' at or after position, or limit if there is none
+    private static int lineStartAtOrAfter(ByteBuffer buf, int position, int limit) {
+        for (int i = Math.max(0, position - 1); i < limit; i++) {
+            if (buf.get(i) == '\n') {
+                return i + 1;
+            }
+        }
+        return limit;
+    }
+
+    /** Line-by-line scan of one buffer, by {@link LineScanner} or SimdScanner. */
+    interface LineScan {
+        /**
+         * Scan every complete line in buf[from, limit). Unless lastWindow is set, a trailing line
+         * without a terminator is left unconsumed.
+         *
+         * @return offset just past the last consumed line
+         */
+        int scanLines(int from, int limit, boolean lastWindow);
+
+        /** Rows handed to the sink so far. */
+        long rows();
+    }
+
+    /** Makes the scanners of an implementation this class only knows by name. */
+    interface LineScanFactory {
+        boolean supports(QuerySpec spec);
+
+        LineScan create(ByteBuffer buf, QuerySpec spec, RowSink sink);
+
+        String describe();
+    }
+
+    private static LineScan lineScan(ByteBuffer buf, QuerySpec spec, KeyDictionary ids, RowSink sink) {
+        if (SIMD_SCAN != null && SIMD_SCAN.supports(spec)) {
+            return SIMD_SCAN.create(buf, spec, sink);
+        }
+        return new LineScanner(buf, spec, ids, sink);
+    }
+
+    /**
+     * Scans lines of one mapped buffer. The spec is copied into fields so the per-line path
+     * reads only primitives.
+     */
+    private static final class LineScanner implements LineScan {
+        private final ByteBuffer buf;
+        private final RowSink sink;
+        private final KeyDictionary ids;
+        private final QuerySpec.Column groupBy;
+        private final boolean needsYear;
+        private final int yearLo, yearHi, scoreLo, scoreHi;
+        private final byte[] idPrefix;
+        private final boolean hashIds;
+        private long rows;
+
+        LineScanner(ByteBuffer buf, QuerySpec spec, KeyDictionary ids, RowSink sink) {
+            this.buf = buf;
+            this.sink = sink;
+            this.ids = ids;
+            this.groupBy = spec.getGroupBy();
+            this.needsYear = spec.needsYear();
+            this.yearLo = spec.getYearLo();
+            this.yearHi = spec.getYearHi();
+            this.scoreLo = spec.getScoreLo();
+            this.scoreHi = spec.getScoreHi();
+            this.idPrefix = spec.getIdPrefix();
+            this.hashIds = spec.needsDistinct();
+        }
+
+        @Override
+        public long rows() {
+            return rows;
+        }
+
+        @Override
+        public int scanLines(int from, int limit, boolean lastWindow) {
+            int lineStart = from;
+            while (lineStart < limit) {
+                int lineEnd = lineStart;
+                byte b;
+                while (lineEnd < limit && (b = buf.get(lineEnd)) != '\n' && b != '\r') {
+                    lineEnd++;
+                }
+                if (lineEnd == limit && !lastWindow) {
+                    // incomplete trailing line, re-read it at the start of the next window
+                    break;
+                }
+                if (scanLine(lineStart, lineEnd)) {
+                    rows++;
+                }
+                // step over the terminator, treating \r\n as a single line break
+                lineStart = lineEnd;
+                if (lineStart < limit && buf.get(lineStart) == '\r') lineStart++;
+                if (lineStart < limit && buf.get(lineStart) == '\n') lineStart++;
+            }
+            return lineStart;
+        }
+
+        private boolean scanLine(int start, int end) {
+            int idEnd = indexOf(buf, ',', start, end);
+            if (idEnd < 0) {
+                return false;
+            }
+            // the id is only looked at for a prefix filter or an id group-by
+            if (idPrefix != null && !idStartsWith(start, idEnd)) {
+                return false;
+            }
+            int yearEnd = indexOf(buf, ',', idEnd + 1, end);
+            if (yearEnd < 0) {
+                return false;
+            }
+            int scoreEnd = indexOf(buf, ',', yearEnd + 1, end);
+            if (scoreEnd < 0) {
+                scoreEnd = end;
+            }
+
+            long year = 0;
+            if (needsYear) {
+                year = parseInt(buf, idEnd + 1, yearEnd);
+                if (year == INVALID || year < yearLo || year > yearHi) {
+                    return false;
+                }
+            }
+            long score = parseInt(buf, yearEnd + 1, scoreEnd);
+            if (score == INVALID) {
+                // error path only, so allocating the message here is fine
+                byte[] raw = new byte[scoreEnd - yearEnd - 1];
+                buf.get(yearEnd + 1, raw);
+                System.out.println("ERROR :: while parsing score: " + new String(raw, StandardCharsets.UTF_8).trim());
+                return false;
+            }
+            if (score < scoreLo || score > scoreHi) {
+                return false;
+            }
+
+            int key = switch (groupBy) {
+                case YEAR -> (int) year;
+                case SCORE -> (int) score;
+                case ID -> encodeId(start, idEnd);
+            };
+            if (hashIds) {
+                sink.accept(key, (int) score, hashId(start, idEnd));
+            } else {
+                sink.accept(key, (int) score);
+            }
+            return true;
+        }
+
+        private boolean idStartsWith(int from, int to) {
+            while (from < to && buf.get(from) <= ' ') from++;
+            if (to - from < idPrefix.length) {
+                return false;
+            }
+            for (int i = 0; i < idPrefix.length; i++) {
+                if (buf.get(from + i) != idPrefix[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private long hashId(int from, int to) {
+            while (from < to && buf.get(from) <= ' ') from++;
+            while (to > from && buf.get(to - 1) <= ' ') to--;
+            return HyperLogLog.hash(buf, from, to);
+        }
+
+        private int encodeId(int from, int to) {
+            while (from < to && buf.get(from) <= ' ') from++;
+            while (to > from && buf.get(to - 1) <= ' ') to--;
+            return ids.encode(buf, from, to);
+        }
+    }
+
+    private static int indexOf(ByteBuffer buf, char c, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buf.get(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Outside the int range, so it can never collide with a parsed value
+    static final long INVALID = Long.MIN_VALUE;
+
+    /**
+     * Decode a trimmed decimal int from buf[from, to) with the same acceptance rules as
+     * {@link Integer#parseInt(String)}. Returns {@link #INVALID} when it would throw.
+     */
+    static long parseInt(ByteBuffer buf, int from, int to) {
+        while (from < to && buf.get(from) <= ' ') from++;
+        while (to > from && buf.get(to - 1) <= ' ') to--;
+        if (from == to) {
+            return INVALID;
+        }
+        boolean negative = false;
+        byte first = buf.get(from);
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            if (++from == to) {
+                return INVALID;
+            }
+        }
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            int digit = buf.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return INVALID;
+            }
+            value = value * 10 + digit;
+            if (value > (long) Integer.MAX_VALUE + 1) {
+                return INVALID;
+            }
+        }
+        value = negative ? -value : value;
+        if (value > Integer.MAX_VALUE) {
+            return INVALID;
+        }
+        return value;
+    }
 }
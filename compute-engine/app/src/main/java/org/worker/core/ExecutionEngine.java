@@ -2,26 +2,93 @@ package org.worker.core;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinTask;
 import java.util.concurrent.Future;
+import java.util.function.IntFunction;
 
+import org.worker.model.HyperLogLog;
+import org.worker.model.QuerySpec;
 import org.worker.model.Row;
-import org.worker.runtime.RuntimeData;
+import org.worker.model.TransientVolatileTable;
+import org.worker.runtime.WorkerRuntime;
 
+/**
+ * Aggregates one file into a query's table. Runs on the worker's shared CPU pool
+ * ({@link WorkerRuntime#cpu()}) rather than a pool of its own.
+ *
+ * In streaming mode a large CSV is scanned in parallel: it is cut into line-aligned byte ranges
+ * ({@link DataParser#split}) that pool threads parse and aggregate at once, each into its own
+ * partial. There are at most as many ranges as the pool has threads, and each is at least
+ * -Dworker.scan.splitMinMb (default 8), so files under twice that are scanned by one thread as
+ * before. -Dworker.scan.split=false turns splitting off.
+ */
 public class ExecutionEngine {
     
-    private ExecutorService executorService;
     private List<Row> rows;
+    private DataParser parser;
+    // Query-scoped table the results of this file are merged into
+    private final TransientVolatileTable table;
+    private final QuerySpec spec;
     
     private static final int CHUNK_SIZE = 10000;
+    private static final boolean SPLIT_SCAN = !"false".equals(System.getProperty("worker.scan.split"));
+    private static final long SPLIT_MIN_BYTES = Math.max(1, Long.getLong("worker.scan.splitMinMb", 8)) * 1024 * 1024;
 
-    public ExecutionEngine(List<Row> rows) {
-        this.executorService = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    private long splitMinBytes = SPLIT_SCAN ? SPLIT_MIN_BYTES : Long.MAX_VALUE;
+
+    // Filled in by invokeTask for the worker's task statistics
+    private long rowsProcessed;
+    private long aggregateNanos;
+    private long mergeNanos;
+
+    public ExecutionEngine(List<Row> rows, TransientVolatileTable table) {
+        this(rows, table, QuerySpec.DEFAULT);
+    }
+
+    public ExecutionEngine(List<Row> rows, TransientVolatileTable table, QuerySpec spec) {
         this.rows = rows;
+        this.table = table;
+        this.spec = spec;
     }
 
-    public void invokeTask() {
+    /**
+     * Streaming mode: the parser scans its file straight into a local aggregation state that is
+     * merged into the transient table once at the end, so no intermediate List<Row> is built.
+     */
+    public ExecutionEngine(DataParser parser, TransientVolatileTable table) {
+        this(parser, table, QuerySpec.DEFAULT);
+    }
+
+    /**
+     * Streaming mode for an arbitrary query spec; filters and projections are pushed into the scan.
+     */
+    public ExecutionEngine(DataParser parser, TransientVolatileTable table, QuerySpec spec) {
+        this.parser = parser;
+        this.table = table;
+        this.spec = spec;
+    }
+
+    /** Smallest range of a split scan; Long.MAX_VALUE never splits. */
+    ExecutionEngine splitMinBytes(long bytes) {
+        this.splitMinBytes = bytes;
+        return this;
+    }
+
+    /**
+     * Aggregate the file into the table.
+     *
+     * @return false if the task failed part way, so the table may hold only part of the file
+     */
+    public boolean invokeTask() {
+        if (parser != null) {
+            try {
+                // the scan is pure CPU work; keep it off the I/O threads that call us
+                return WorkerRuntime.INSTANCE.compute(this::invokeStreamingTask);
+            } catch (Exception e) {
+                e.printStackTrace();
+                return false;
+            }
+        }
         try {
             System.out.println("Starting task invocation...");
             List<List<Row>> chunks = new ArrayList<>();
@@ -30,30 +97,208 @@ public class ExecutionEngine {
                 chunks.add(rows.subList(i, Math.min(i + CHUNK_SIZE, rows.size())));
             }
 
-            List<Future<?>> futures = new ArrayList<>();
+            long started = System.nanoTime();
+            if (spec.hasSketches()) {
+                return invokeSketchTask(chunks, started);
+            }
+            List<Future<AggregationState>> futures = new ArrayList<>();
             for (List<Row> chunk : chunks) {
-                futures.add(executorService.submit(() -> computeChunk(chunk)));
+                futures.add(WorkerRuntime.INSTANCE.cpu().submit(() -> computeChunk(chunk)));
             }
             
-            // blocks until task is done, can use countDownLatch for better control maybe
-            for (Future<?> f : futures) {
-                f.get();       
+            // blocks until task is done, then merge the per-chunk partials once for the whole file
+            List<AggregationState> partials = new ArrayList<>();
+            for (Future<AggregationState> f : futures) {
+                partials.add(f.get());
             }
+            long aggregated = System.nanoTime();
+            AggregationState fileState = new AggregationState();
+            for (AggregationState partial : partials) {
+                fileState.mergeFrom(partial);
+            }
+            fileState.flushInto(table);
+            rowsProcessed = rows.size();
+            aggregateNanos = aggregated - started;
+            mergeNanos = System.nanoTime() - aggregated;
             System.out.println("All tasks completed.");
-            System.out.println(RuntimeData.INSTANCE.getTransientVolatileTable().getGroupIdVsRow().toString());
-            executorService.shutdown();
+            System.out.println(table.getGroupIdVsRow().toString());
+            return true;
         } catch (Exception e) {
             e.printStackTrace();
+            return false;
         }
     }
 
-    private void computeChunk(List<Row> chunk) {
+    /**
+     * Aggregate one chunk into a task-local partial, so pool threads never contend per row.
+     */
+    private AggregationState computeChunk(List<Row> chunk) {
+        AggregationState partial = new AggregationState();
         for (Row row : chunk) {
-            // Process each row
-            RuntimeData.INSTANCE.getTransientVolatileTable()
-                .fetchRowByGroupId(row.year())
-                .updateRow(row.score());
+            if (!spec.matches(row)) {
+                continue;
+            }
+            String groupId = spec.groupKey(row);
+            int key;
+            try {
+                key = Integer.parseInt(groupId);
+            } catch (NumberFormatException e) {
+                // non-numeric group keys can't be int-encoded, fall back to the shared table
+                table.updateGroup(groupId, row.score());
+                continue;
+            }
+            partial.update(key, row.score());
+        }
+        return partial;
+    }
+
+    /** List<Row> path for a query with sketches: each chunk flushes its own partial. */
+    private boolean invokeSketchTask(List<List<Row>> chunks, long started) throws Exception {
+        List<Future<SketchState>> futures = new ArrayList<>();
+        for (List<Row> chunk : chunks) {
+            futures.add(WorkerRuntime.INSTANCE.cpu().submit(() -> computeSketchChunk(chunk)));
+        }
+        List<SketchState> partials = new ArrayList<>();
+        for (Future<SketchState> f : futures) {
+            partials.add(f.get());
+        }
+        long aggregated = System.nanoTime();
+        for (SketchState partial : partials) {
+            partial.flushInto(table, Integer::toString);
+        }
+        rowsProcessed = rows.size();
+        aggregateNanos = aggregated - started;
+        mergeNanos = System.nanoTime() - aggregated;
+        System.out.println("All tasks completed.");
+        return true;
+    }
+
+    private SketchState computeSketchChunk(List<Row> chunk) {
+        SketchState partial = new SketchState(spec);
+        boolean hashIds = spec.needsDistinct();
+        for (Row row : chunk) {
+            if (!spec.matches(row)) {
+                continue;
+            }
+            String groupId = spec.groupKey(row);
+            long idHash = hashIds ? HyperLogLog.hash(row.id()) : 0;
+            int key;
+            try {
+                key = Integer.parseInt(groupId);
+            } catch (NumberFormatException e) {
+                table.updateGroup(groupId, row.score(), idHash, spec);
+                continue;
+            }
+            partial.accept(key, row.score(), idHash);
+        }
+        return partial;
+    }
+
+    private boolean invokeStreamingTask() {
+        try {
+            System.out.println("Starting streaming task invocation...");
+            KeyDictionary ids = spec.getGroupBy() == QuerySpec.Column.ID ? new KeyDictionary() : null;
+            IntFunction<String> keyName = ids != null ? ids::decode : Integer::toString;
+            long started = System.nanoTime();
+            long scanned;
+            long aggregated;
+            List<DataParser.Split> splits = splitMinBytes == Long.MAX_VALUE || spec.matchesNothing() ? List.of()
+                    : parser.split(WorkerRuntime.INSTANCE.cpu().getParallelism(), splitMinBytes);
+            if (splits.size() > 1) {
+                List<Range> ranges = scanSplits(splits);
+                aggregated = System.nanoTime();
+                scanned = flushRanges(ranges);
+                System.out.println("Scanned " + splits.size() + " ranges in parallel");
+            } else if (spec.hasSketches()) {
+                SketchState partial = new SketchState(spec);
+                scanned = parser.scan(spec, ids, partial);
+                aggregated = System.nanoTime();
+                partial.flushInto(table, keyName);
+            } else {
+                AggregationState partial = new AggregationState();
+                scanned = parser.scan(spec, ids, partial);
+                aggregated = System.nanoTime();
+                partial.flushInto(table, keyName);
+            }
+            rowsProcessed = scanned;
+            aggregateNanos = aggregated - started;
+            mergeNanos = System.nanoTime() - aggregated;
+            System.out.println("All tasks completed. scanned rows: " + scanned);
+            return true;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    // one range's scan: its rows, partial and, when grouping by id, its own dictionary
+    private record Range(long rows, RowSink partial, KeyDictionary ids) {}
+
+    private List<Range> scanSplits(List<DataParser.Split> splits) {
+        boolean byId = spec.getGroupBy() == QuerySpec.Column.ID;
+        List<ForkJoinTask<Range>> tasks = new ArrayList<>();
+        for (DataParser.Split split : splits) {
+            // forked from a pool thread, so the join below helps run them instead of blocking
+            tasks.add(WorkerRuntime.INSTANCE.cpu().submit(() -> {
+                KeyDictionary ids = byId ? new KeyDictionary() : null;
+                RowSink partial = spec.hasSketches() ? new SketchState(spec) : new AggregationState();
+                return new Range(split.scan(spec, ids, partial), partial, ids);
+            }));
+        }
+        List<Range> ranges = new ArrayList<>();
+        for (ForkJoinTask<Range> task : tasks) {
+            ranges.add(task.join());
         }
+        return ranges;
     }
 
+    /**
+     * Merge the ranges' partials into the table. Int-keyed plain partials are combined first, so the
+     * table is touched once per group; the others carry their own key codes or sketches and are
+     * flushed one by one.
+     */
+    private long flushRanges(List<Range> ranges) {
+        long rows = 0;
+        AggregationState combined = null;
+        for (Range range : ranges) {
+            rows += range.rows();
+            if (range.ids() != null) {
+                flush(range.partial(), range.ids()::decode);
+            } else if (range.partial() instanceof AggregationState partial) {
+                if (combined == null) {
+                    combined = partial;
+                } else {
+                    combined.mergeFrom(partial);
+                }
+            } else {
+                flush(range.partial(), Integer::toString);
+            }
+        }
+        if (combined != null) {
+            combined.flushInto(table, Integer::toString);
+        }
+        return rows;
+    }
+
+    private void flush(RowSink partial, IntFunction<String> keyName) {
+        if (partial instanceof SketchState sketches) {
+            sketches.flushInto(table, keyName);
+        } else {
+            ((AggregationState) partial).flushInto(table, keyName);
+        }
+    }
+
+    public long getRowsProcessed() {
+        return rowsProcessed;
+    }
+
+    /** Time spent aggregating; in streaming mode this includes parsing, which happens in the same pass. */
+    public long getAggregateNanos() {
+        return aggregateNanos;
+    }
+
+    /** Time spent merging the file's partial into the query's table. */
+    public long getMergeNanos() {
+        return mergeNanos;
+    }
 }
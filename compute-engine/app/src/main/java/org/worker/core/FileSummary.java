@@ -0,0 +1,57 @@
+package org.worker.core;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.worker.model.QuerySpec;
+import org.worker.model.TransientVolatileTable;
+import org.worker.model.VolatileRow;
+
+/**
+ * Whole-file statistics of one blob, sent to the orchestrator's dataset catalog with the read
+ * report: the file's size and mtime (so the catalog can tell when they go stale), its row count
+ * and the min/max of its int years and of its scores.
+ *
+ * Collected as a side effect of reads: columnar files carry them in their block footers, and for
+ * CSVs they fall out of the per-file partial of an unfiltered group-by-year read.
+ */
+public record FileSummary(long sizeBytes, long modifiedMillis, long rows,
+                          int yearMin, int yearMax, int scoreMin, int scoreMax) {
+
+    /**
+     * Summary of file from a partial aggregated over all of it, or null when the partial can't
+     * tell: grouped by something other than year, or filtered.
+     */
+    public static FileSummary of(Path file, QuerySpec spec, TransientVolatileTable partial) throws IOException {
+        if (spec.getGroupBy() != QuerySpec.Column.YEAR || spec.hasYearFilter() || spec.hasScoreFilter()
+                || spec.getIdPrefix() != null || partial.isSpilled() || partial.isOffHeap()) {
+            return null;
+        }
+        long rows = 0;
+        int yearMin = Integer.MAX_VALUE;
+        int yearMax = Integer.MIN_VALUE;
+        int scoreMin = Integer.MAX_VALUE;
+        int scoreMax = Integer.MIN_VALUE;
+        for (VolatileRow row : partial.getGroupIdVsRow().values()) {
+            rows += row.getCount();
+            try {
+                int year = Integer.parseInt(row.getGroupId());
+                yearMin = Math.min(yearMin, year);
+                yearMax = Math.max(yearMax, year);
+            } catch (NumberFormatException e) {
+                // the List<Row> path keeps non-numeric years as groups; they have no place in the range
+            }
+            scoreMin = Math.min(scoreMin, row.getMinVal());
+            scoreMax = Math.max(scoreMax, row.getMaxVal());
+        }
+        return new FileSummary(Files.size(file), Files.getLastModifiedTime(file).toMillis(), rows,
+                yearMin, yearMax, scoreMin, scoreMax);
+    }
+
+    /** "blobId:size:mtime:rows:yearMin:yearMax:scoreMin:scoreMax"; the blob id may itself hold colons. */
+    public String encode(String blobId) {
+        return blobId + ":" + sizeBytes + ":" + modifiedMillis + ":" + rows + ":" + yearMin + ":" + yearMax
+                + ":" + scoreMin + ":" + scoreMax;
+    }
+}
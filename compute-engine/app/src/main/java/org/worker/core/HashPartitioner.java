@@ -0,0 +1,16 @@
+package org.worker.core;
+
+/**
+ * Assigns group ids to shuffle partitions. String.hashCode is fixed by the language spec, so
+ * every worker routes a given group to the same owner without coordination.
+ */
+public final class HashPartitioner {
+    private HashPartitioner() {}
+
+    public static int partitionOf(String groupId, int partitions) {
+        int h = groupId.hashCode();
+        // spread the high bits, consecutive years otherwise differ only in the low digits
+        h ^= h >>> 16;
+        return Math.floorMod(h * 0x9E3779B1, partitions);
+    }
+}
@@ -0,0 +1,106 @@
+package org.worker.core;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Maps byte-string group keys (e.g. student ids) to dense int codes so they can be aggregated
+ * by {@link AggregationState}. Key bytes live in one growable arena, so encoding a key that has
+ * been seen before allocates nothing; a String is only built when a code is decoded at flush.
+ *
+ * Not thread-safe: each scan owns its own dictionary.
+ */
+public final class KeyDictionary {
+    private byte[] arena = new byte[4096];
+    private int arenaSize;
+    // per code: offset and length in the arena, plus the key hash
+    private int[] offsets = new int[256];
+    private int[] lengths = new int[256];
+    private int[] hashes = new int[256];
+    private int size;
+    // open-addressing index holding code + 1, 0 marks an empty slot
+    private int[] index = new int[512];
+
+    /** Return the code for buf[from, to), assigning the next free code on first sight. */
+    public int encode(ByteBuffer buf, int from, int to) {
+        int length = to - from;
+        int hash = hash(buf, from, to);
+        int mask = index.length - 1;
+        int slot = hash & mask;
+        int entry;
+        while ((entry = index[slot]) != 0) {
+            int code = entry - 1;
+            if (hashes[code] == hash && lengths[code] == length && equalsAt(code, buf, from)) {
+                return code;
+            }
+            slot = (slot + 1) & mask;
+        }
+        int code = add(buf, from, length, hash);
+        index[slot] = code + 1;
+        if (size * 2 > index.length) {
+            reindex(index.length * 2);
+        }
+        return code;
+    }
+
+    public String decode(int code) {
+        return new String(arena, offsets[code], lengths[code], StandardCharsets.UTF_8);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private int add(ByteBuffer buf, int from, int length, int hash) {
+        if (arenaSize + length > arena.length) {
+            arena = Arrays.copyOf(arena, Math.max(arena.length * 2, arenaSize + length));
+        }
+        buf.get(from, arena, arenaSize, length);
+        if (size == offsets.length) {
+            offsets = Arrays.copyOf(offsets, size * 2);
+            lengths = Arrays.copyOf(lengths, size * 2);
+            hashes = Arrays.copyOf(hashes, size * 2);
+        }
+        offsets[size] = arenaSize;
+        lengths[size] = length;
+        hashes[size] = hash;
+        arenaSize += length;
+        return size++;
+    }
+
+    private boolean equalsAt(int code, ByteBuffer buf, int from) {
+        int offset = offsets[code];
+        for (int i = 0; i < lengths[code]; i++) {
+            if (arena[offset + i] != buf.get(from + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void reindex(int capacity) {
+        index = new int[capacity];
+        int mask = capacity - 1;
+        for (int code = 0; code < size; code++) {
+            int slot = hashes[code] & mask;
+            while (index[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            index[slot] = code + 1;
+        }
+    }
+
+    // FNV-1a with a final avalanche so linear probing sees well spread low bits
+    private static int hash(ByteBuffer buf, int from, int to) {
+        int h = 0x811c9dc5;
+        for (int i = from; i < to; i++) {
+            h ^= buf.get(i);
+            h *= 0x01000193;
+        }
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return h;
+    }
+}
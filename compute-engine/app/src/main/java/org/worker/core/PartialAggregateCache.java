@@ -0,0 +1,248 @@
+package org.worker.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import org.worker.model.QuerySpec;
+import org.worker.model.TransientVolatileTable;
+
+/**
+ * Caches the partial aggregate of one file under one query shape, so a repeated query merges a
+ * few stored groups instead of scanning the file again.
+ *
+ * - Entries are keyed by absolute path, size, modification time and the spec's canonical params.
+ *   A file that is rewritten gets a new key, and the stale entry simply ages out.
+ * - Values are {@link ShuffleCodec} payloads. The same bytes are held in memory and on disk, so a
+ *   hit from either tier is a plain readInto.
+ * - The memory tier is an LRU bounded by payload bytes. The disk tier is one file per entry in the
+ *   cache directory, bounded by total bytes and evicted oldest-access first. It survives restarts.
+ *
+ * Sizes and mtimes are compared as the file system reports them, so rewriting a file in place
+ * with the same size within the mtime granularity is not detected.
+ */
+public final class PartialAggregateCache {
+
+    private static final String SUFFIX = ".part";
+
+    private final Path dir;
+    private final long memoryBudget;
+    private final long diskBudget;
+
+    // access-ordered: iteration starts at the least recently used entry
+    private final LinkedHashMap<String, byte[]> memory = new LinkedHashMap<>(64, 0.75f, true);
+    private long memoryBytes;
+    private long diskBytes;
+
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param dir          directory for the disk tier, or null for a memory-only cache
+     * @param memoryBudget bytes of payload kept in memory
+     * @param diskBudget   bytes of payload kept on disk
+     */
+    public PartialAggregateCache(Path dir, long memoryBudget, long diskBudget) {
+        this.dir = dir;
+        this.memoryBudget = memoryBudget;
+        this.diskBudget = diskBudget;
+        if (dir != null) {
+            try {
+                Files.createDirectories(dir);
+                try (Stream<Path> files = Files.list(dir)) {
+                    diskBytes = files.filter(p -> p.toString().endsWith(SUFFIX)).mapToLong(PartialAggregateCache::sizeOf).sum();
+                }
+            } catch (IOException e) {
+                System.err.println("Partial cache directory " + dir + " unusable: " + e.getMessage());
+            }
+        }
+    }
+
+    private static final class Shared {
+        static final PartialAggregateCache INSTANCE = new PartialAggregateCache(
+                Paths.get(System.getProperty("worker.cache.dir", "partial-cache")),
+                Long.getLong("worker.cache.memory.mb", 64) * 1024 * 1024,
+                Long.getLong("worker.cache.disk.mb", 1024) * 1024 * 1024);
+    }
+
+    /** Worker-wide cache, configured by -Dworker.cache.dir, -Dworker.cache.memory.mb and -Dworker.cache.disk.mb. */
+    public static PartialAggregateCache shared() {
+        return Shared.INSTANCE;
+    }
+
+    /**
+     * Cache key for a file under a spec, or null when the file can't be stat'ed (the scan will
+     * then report the problem itself).
+     */
+    public static String keyOf(Path file, QuerySpec spec) {
+        try {
+            Path absolute = file.toAbsolutePath().normalize();
+            return absolute + "|" + Files.size(absolute) + "|" + Files.getLastModifiedTime(absolute).toMillis() + "|" + spec.toParams();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Merge the cached partial for key into target.
+     *
+     * @return false on a miss, in which case target is untouched
+     */
+    public boolean mergeInto(String key, TransientVolatileTable target) throws IOException {
+        byte[] payload;
+        synchronized (this) {
+            payload = memory.get(key);
+        }
+        if (payload != null) {
+            memoryHits.incrementAndGet();
+        } else if ((payload = readDisk(key)) != null) {
+            diskHits.incrementAndGet();
+            putMemory(key, payload);
+        } else {
+            misses.incrementAndGet();
+            return false;
+        }
+        ShuffleCodec.readInto(new ByteArrayInputStream(payload), target);
+        return true;
+    }
+
+    /** Store the partial computed for key in both tiers. */
+    public void put(String key, TransientVolatileTable partial) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ShuffleCodec.write(partial, out, ShuffleCodec.COMPRESSION_NONE);
+        byte[] payload = out.toByteArray();
+        putMemory(key, payload);
+        writeDisk(key, payload);
+    }
+
+    public Map<String, Long> stats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("memoryHits", memoryHits.get());
+        stats.put("diskHits", diskHits.get());
+        stats.put("misses", misses.get());
+        stats.put("evictions", evictions.get());
+        synchronized (this) {
+            stats.put("memoryEntries", (long) memory.size());
+            stats.put("memoryBytes", memoryBytes);
+            stats.put("diskBytes", diskBytes);
+        }
+        return stats;
+    }
+
+    private synchronized void putMemory(String key, byte[] payload) {
+        if (payload.length > memoryBudget) {
+            return;
+        }
+        byte[] previous = memory.put(key, payload);
+        memoryBytes += payload.length - (previous == null ? 0 : previous.length);
+        Iterator<byte[]> lru = memory.values().iterator();
+        while (memoryBytes > memoryBudget && lru.hasNext()) {
+            memoryBytes -= lru.next().length;
+            lru.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    private byte[] readDisk(String key) {
+        if (dir == null) {
+            return null;
+        }
+        Path file = dir.resolve(fileName(key));
+        try {
+            byte[] payload = Files.readAllBytes(file);
+            // the file's mtime doubles as its last access time for eviction
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            return payload;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            System.err.println("Partial cache read failed for " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void writeDisk(String key, byte[] payload) {
+        if (dir == null || payload.length > diskBudget) {
+            return;
+        }
+        Path file = dir.resolve(fileName(key));
+        Path tmp = dir.resolve(fileName(key) + ".tmp");
+        try {
+            long previous = Files.exists(file) ? sizeOf(file) : 0;
+            // write then rename, so a crash never leaves a truncated entry behind
+            Files.write(tmp, payload);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            synchronized (this) {
+                diskBytes += payload.length - previous;
+            }
+            evictDisk();
+        } catch (IOException e) {
+            System.err.println("Partial cache write failed for " + file + ": " + e.getMessage());
+        }
+    }
+
+    private synchronized void evictDisk() throws IOException {
+        if (diskBytes <= diskBudget) {
+            return;
+        }
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> entries = Files.list(dir)) {
+            entries.filter(p -> p.toString().endsWith(SUFFIX)).forEach(files::add);
+        }
+        files.sort((a, b) -> Long.compare(lastModified(a), lastModified(b)));
+        for (Path file : files) {
+            if (diskBytes <= diskBudget) {
+                break;
+            }
+            long size = sizeOf(file);
+            if (Files.deleteIfExists(file)) {
+                diskBytes -= size;
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    private static String fileName(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest, 0, 16) + SUFFIX;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static long sizeOf(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static long lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+}
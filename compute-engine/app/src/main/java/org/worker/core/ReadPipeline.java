@@ -0,0 +1,290 @@
+package org.worker.core;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.worker.model.QuerySpec;
+import org.worker.model.Row;
+import org.worker.model.TransientVolatileTable;
+import org.worker.runtime.TaskStats;
+import org.worker.runtime.WorkerRuntime;
+
+/**
+ * The worker's read phase as two overlapping stages, so disk and CPUs stay busy while the
+ * orchestrator keeps a few reads queued per worker:
+ *
+ *   submitted blobs -> [load] -> bounded buffer -> [aggregate + merge] -> read task complete
+ *
+ * - load (-Dworker.pipeline.readers virtual threads, default 2): looks the file up in the partial
+ *   cache (a hit is merged right away) and otherwise reads it into memory (files up to
+ *   -Dworker.pipeline.prefetchMaxMb, default 64; larger ones are mapped by the scan instead).
+ * - aggregate (-Dworker.pipeline.aggregators, default one per CPU thread): parses and aggregates
+ *   the loaded file on the shared CPU pool into its own partial, caches it and merges it into the
+ *   query's table.
+ *
+ * The buffer between the stages holds at most -Dworker.pipeline.depth (default 4) loaded files;
+ * when aggregation falls behind, loading waits, which bounds the memory held by read-ahead. A read
+ * task (one /invokeRead or /invokeReadBatch) completes once every one of its blobs has been merged.
+ */
+public final class ReadPipeline {
+
+    // Streaming scan parses straight from bytes into the table; set to false to use the List<Row> path
+    private static final boolean STREAMING_SCAN = Boolean.parseBoolean(System.getProperty("worker.scan.streaming", "true"));
+    // Reuse per-file partial aggregates across queries of the same shape (see PartialAggregateCache)
+    private static final boolean PARTIAL_CACHE = Boolean.parseBoolean(System.getProperty("worker.cache.enabled", "true"));
+
+    /** Called once per read task with whether every blob was read completely. */
+    @FunctionalInterface
+    public interface Completion {
+        void done(boolean ok);
+    }
+
+    private final long prefetchMaxBytes;
+    private final BlockingQueue<Blob> submitted = new LinkedBlockingQueue<>();
+    private final BlockingQueue<Blob> loaded;
+
+    public ReadPipeline(int readers, int aggregators, int depth, long prefetchMaxBytes) {
+        this.prefetchMaxBytes = prefetchMaxBytes;
+        this.loaded = new ArrayBlockingQueue<>(Math.max(1, depth));
+        for (int i = 0; i < Math.max(1, readers); i++) {
+            WorkerRuntime.INSTANCE.io().execute(this::loadLoop);
+        }
+        for (int i = 0; i < Math.max(1, aggregators); i++) {
+            WorkerRuntime.INSTANCE.io().execute(this::aggregateLoop);
+        }
+    }
+
+    private static final class Shared {
+        static final ReadPipeline INSTANCE = new ReadPipeline(
+                Integer.getInteger("worker.pipeline.readers", 2),
+                Integer.getInteger("worker.pipeline.aggregators", WorkerRuntime.INSTANCE.cpu().getParallelism()),
+                Integer.getInteger("worker.pipeline.depth", 4),
+                Long.getLong("worker.pipeline.prefetchMaxMb", 64) * 1024 * 1024);
+    }
+
+    /** Worker-wide pipeline, configured by the -Dworker.pipeline.* properties above. */
+    public static ReadPipeline shared() {
+        return Shared.INSTANCE;
+    }
+
+    /**
+     * Queue a read task: aggregate every blob into table, then call onDone. Returns immediately.
+     */
+    public void submit(List<String> blobIds, QuerySpec spec, TransientVolatileTable table, TaskStats stats, Completion onDone) {
+        submit(blobIds, spec, table, null, stats, onDone);
+    }
+
+    /**
+     * Like {@link #submit(List, QuerySpec, TransientVolatileTable, TaskStats, Completion)}, with every
+     * blob's merge into table going through checkpointer (may be null).
+     */
+    public void submit(List<String> blobIds, QuerySpec spec, TransientVolatileTable table, Checkpointer checkpointer,
+                       TaskStats stats, Completion onDone) {
+        ReadTask task = new ReadTask(spec, table, checkpointer, stats, blobIds.size(), onDone);
+        for (String blobId : blobIds) {
+            submitted.add(new Blob(task, new DataParser(blobId)));
+        }
+    }
+
+    /** Blobs waiting to be loaded plus loaded ones waiting for a CPU, for diagnostics. */
+    public int backlog() {
+        return submitted.size() + loaded.size();
+    }
+
+    private void loadLoop() {
+        try {
+            while (true) {
+                Blob blob = submitted.take();
+                blob.task.started();
+                blob.startedNanos = System.nanoTime();
+                try {
+                    if (load(blob)) {
+                        loaded.put(blob);
+                    } else {
+                        blob.done(true);
+                    }
+                } catch (IOException e) {
+                    System.err.println("Failed to load " + blob.parser.getFilePath() + ": " + e.getMessage());
+                    blob.done(false);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** @return true when the blob still has to be aggregated, false when the cache already covered it */
+    private boolean load(Blob blob) throws IOException {
+        TaskStats stats = blob.task.stats;
+        blob.cacheKey = PARTIAL_CACHE ? PartialAggregateCache.keyOf(blob.parser.getFilePath(), blob.task.spec) : null;
+        if (mergeCached(blob.parser, blob.cacheKey, blob.task.table, blob.task.checkpointer, stats)) {
+            return false;
+        }
+        long started = System.nanoTime();
+        if (blob.parser.prefetch(prefetchMaxBytes) > 0) {
+            stats.addSince(TaskStats.READ, started);
+        }
+        return true;
+    }
+
+    private void aggregateLoop() {
+        try {
+            while (true) {
+                Blob blob = loaded.take();
+                // a scan that stops part way still counts as read, as it always has; only errors fail the task
+                boolean ok = true;
+                try {
+                    WorkerRuntime.INSTANCE.compute(() ->
+                            aggregate(blob.parser, blob.cacheKey, blob.task.spec, blob.task.table, blob.task.checkpointer, blob.task.stats));
+                } catch (Exception e) {
+                    System.err.println("Failed to aggregate " + blob.parser.getFilePath() + ": " + e.getMessage());
+                    ok = false;
+                }
+                blob.done(ok);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Aggregate one file into table right away, without the pipeline: a partial cache hit is merged,
+     * otherwise the file is scanned into its own partial, which is cached and then merged.
+     *
+     * @return false if the scan failed part way
+     */
+    public static boolean readBlob(DataParser parser, QuerySpec spec, TransientVolatileTable table, TaskStats stats) throws IOException {
+        String key = PARTIAL_CACHE ? PartialAggregateCache.keyOf(parser.getFilePath(), spec) : null;
+        if (mergeCached(parser, key, table, null, stats)) {
+            return true;
+        }
+        return aggregate(parser, key, spec, table, null, stats);
+    }
+
+    private static boolean mergeCached(DataParser parser, String key, TransientVolatileTable table,
+                                       Checkpointer checkpointer, TaskStats stats) throws IOException {
+        long started = System.nanoTime();
+        if (key != null && merge(checkpointer, parser, () -> PartialAggregateCache.shared().mergeInto(key, table))) {
+            stats.addSince(TaskStats.MERGE, started);
+            stats.add(TaskStats.CACHE_HITS, 1);
+            System.out.println("Partial cache hit for " + parser.getFilePath());
+            return true;
+        }
+        return false;
+    }
+
+    private static boolean aggregate(DataParser parser, String key, QuerySpec spec, TransientVolatileTable table,
+                                     Checkpointer checkpointer, TaskStats stats) throws IOException {
+        long started = System.nanoTime();
+        // a checkpoint must see a file's rows all at once, so they go through a partial of their own
+        TransientVolatileTable target = key == null && checkpointer == null ? table : new TransientVolatileTable();
+        ExecutionEngine engine;
+        if (STREAMING_SCAN) {
+            engine = new ExecutionEngine(parser, target, spec);
+        } else {
+            List<Row> rows = parser.parse();
+            stats.addSince(TaskStats.PARSE, started);
+            engine = new ExecutionEngine(rows, target, spec);
+        }
+        boolean complete = engine.invokeTask();
+        stats.add(TaskStats.AGGREGATE, engine.getAggregateNanos());
+        stats.add(TaskStats.MERGE, engine.getMergeNanos());
+        stats.add(TaskStats.ROWS, engine.getRowsProcessed());
+        stats.add(TaskStats.BYTES, Files.size(parser.getFilePath()));
+        if (complete && parser.getBlobId() != null) {
+            summarize(parser, spec, target == table ? null : target, stats);
+        }
+        if (target != table) {
+            long merging = System.nanoTime();
+            if (complete && key != null) {
+                PartialAggregateCache.shared().put(key, target);
+            }
+            merge(checkpointer, parser, () -> {
+                table.mergeTable(target);
+                return true;
+            });
+            stats.addSince(TaskStats.MERGE, merging);
+        }
+        return complete;
+    }
+
+    private static boolean merge(Checkpointer checkpointer, DataParser parser, Checkpointer.Merge merge) throws IOException {
+        return checkpointer == null ? merge.run() : checkpointer.merge(parser.getBlobId(), merge);
+    }
+
+    /**
+     * Attach the file's statistics for the orchestrator's catalog, when they come for free: from
+     * the footers of a columnar file, or from this file's own partial (null when the read went
+     * straight into the query's table).
+     */
+    private static void summarize(DataParser parser, QuerySpec spec, TransientVolatileTable partial, TaskStats stats) {
+        try {
+            FileSummary summary = ColumnarFile.isColumnar(parser.getFilePath())
+                    ? ColumnarFile.summarize(parser.getFilePath())
+                    : partial == null ? null : FileSummary.of(parser.getFilePath(), spec, partial);
+            if (summary != null) {
+                stats.fileSummary(parser.getBlobId(), summary);
+            }
+        } catch (IOException e) {
+            // the catalog just doesn't learn about this file yet
+            System.err.println("Failed to summarize " + parser.getFilePath() + ": " + e.getMessage());
+        }
+    }
+
+    /** One /invokeRead or /invokeReadBatch: its blobs may be in different stages at once. */
+    private static final class ReadTask {
+        final QuerySpec spec;
+        final TransientVolatileTable table;
+        final Checkpointer checkpointer;
+        final TaskStats stats;
+        final AtomicInteger pending;
+        final AtomicBoolean started = new AtomicBoolean();
+        final Completion onDone;
+        volatile boolean failed;
+
+        ReadTask(QuerySpec spec, TransientVolatileTable table, Checkpointer checkpointer, TaskStats stats, int blobs, Completion onDone) {
+            this.spec = spec;
+            this.table = table;
+            this.checkpointer = checkpointer;
+            this.stats = stats;
+            this.pending = new AtomicInteger(blobs);
+            this.onDone = onDone;
+        }
+
+        void started() {
+            if (started.compareAndSet(false, true)) {
+                stats.started();
+            }
+        }
+    }
+
+    private static final class Blob {
+        final ReadTask task;
+        final DataParser parser;
+        String cacheKey;
+        long startedNanos;
+
+        Blob(ReadTask task, DataParser parser) {
+            this.task = task;
+            this.parser = parser;
+        }
+
+        void done(boolean ok) {
+            task.stats.fileDone(System.nanoTime() - startedNanos);
+            if (!ok) {
+                task.failed = true;
+            }
+            if (task.pending.decrementAndGet() == 0) {
+                // completion reports block on the network; keep them off the stage threads
+                boolean succeeded = !task.failed;
+                WorkerRuntime.INSTANCE.io().execute(() -> task.onDone.done(succeeded));
+            }
+        }
+    }
+}
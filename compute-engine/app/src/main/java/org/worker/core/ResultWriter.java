@@ -0,0 +1,425 @@
+package org.worker.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+
+import org.worker.model.QuerySpec;
+import org.worker.model.TransientVolatileTable;
+import org.worker.model.VolatileRow;
+
+/**
+ * Writes a query result sorted by group, for outputs far larger than the 20 years of the original
+ * query (e.g. millions of student ids).
+ *
+ * - Sort keys are encoded once per row rather than parsed on every comparison: numeric groups sort
+ *   as (int key, row index) packed into a long[], ids as plain strings. Group ids that aren't
+ *   numbers in a numeric column (possible on the List<Row> path) sort after all numbers instead of
+ *   failing the write.
+ * - At most sortBufferRows rows are sorted in memory at a time. Beyond that, each sorted buffer is
+ *   spilled to a run file and the runs are k-way merged into the output.
+ * - Output goes through one reused buffer into a FileChannel, as CSV (the historical layout) or
+ *   NDJSON, optionally split into files of at most rowsPerFile rows each.
+ */
+public final class ResultWriter {
+
+    /** Layout of the output lines. */
+    public enum Format {
+        CSV(".txt"),
+        NDJSON(".ndjson");
+
+        private final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+
+        public String extension() {
+            return extension;
+        }
+
+        /** Parse a request parameter; null or blank means CSV. */
+        public static Format fromParam(String value) {
+            if (value == null || value.isBlank()) {
+                return CSV;
+            }
+            try {
+                return valueOf(value.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("unknown output format '" + value + "', expected csv or ndjson");
+            }
+        }
+    }
+
+    private static final int OUTPUT_BUFFER = 256 * 1024;
+    private static final int RUN_BUFFER = 64 * 1024;
+
+    private final QuerySpec spec;
+    private final Format format;
+    private final int sortBufferRows;
+    private final long rowsPerFile;
+    private final Path spillDir;
+
+    private int runsSpilled;
+
+    /**
+     * @param sortBufferRows rows sorted in memory before spilling a run
+     * @param rowsPerFile    start a new output file after this many rows; 0 writes a single file
+     * @param spillDir       where run files go; they are deleted once merged
+     */
+    public ResultWriter(QuerySpec spec, Format format, int sortBufferRows, long rowsPerFile, Path spillDir) {
+        this.spec = spec;
+        this.format = format;
+        this.sortBufferRows = Math.max(1, sortBufferRows);
+        this.rowsPerFile = Math.max(0, rowsPerFile);
+        this.spillDir = spillDir;
+    }
+
+    /**
+     * Writer configured by -Dworker.result.sortBufferRows (default 1000000) and
+     * -Dworker.result.spillDir (default: the system temp directory).
+     */
+    public static ResultWriter configured(QuerySpec spec, Format format, long rowsPerFile) {
+        return new ResultWriter(spec, format, Integer.getInteger("worker.result.sortBufferRows", 1_000_000), rowsPerFile,
+                Paths.get(System.getProperty("worker.result.spillDir", System.getProperty("java.io.tmpdir"))));
+    }
+
+    /** Number of runs spilled by the last write, for logs and tests. */
+    public int getRunsSpilled() {
+        return runsSpilled;
+    }
+
+    /**
+     * Write the table to out, or with rowsPerFile set, to out's name suffixed -0000, -0001, ...
+     *
+     * @return the files written, in order
+     */
+    public List<Path> write(TransientVolatileTable table, Path out) throws IOException {
+        runsSpilled = 0;
+        List<Path> runs = new ArrayList<>();
+        Record[] buffer = new Record[(int) Math.min(sortBufferRows, Math.max(1, table.getEstimatedGroupCount()))];
+        int[] buffered = {0};
+        try (Output output = new Output(out)) {
+            table.forEachGroup(row -> {
+                if (buffered[0] == buffer.length) {
+                    runs.add(spill(buffer, buffered[0]));
+                    buffered[0] = 0;
+                }
+                buffer[buffered[0]++] = Record.of(row, spec);
+            });
+            if (runs.isEmpty()) {
+                // everything fit in memory: no run files at all
+                for (Record record : sorted(buffer, buffered[0])) {
+                    output.write(record);
+                }
+            } else {
+                if (buffered[0] > 0) {
+                    runs.add(spill(buffer, buffered[0]));
+                }
+                merge(runs, output);
+            }
+            return output.files;
+        } finally {
+            for (Path run : runs) {
+                Files.deleteIfExists(run);
+            }
+        }
+    }
+
+    /** Sort the first n records: numeric keys through a primitive sort, the rest by string. */
+    static Record[] sorted(Record[] records, int n) {
+        long[] numeric = new long[n];
+        int numericCount = 0;
+        List<Record> others = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            Record r = records[i];
+            if (r.numeric) {
+                // key in the high half orders by key, the index in the low half keeps it stable
+                numeric[numericCount++] = ((long) r.key << 32) | i;
+            } else {
+                others.add(r);
+            }
+        }
+        Arrays.sort(numeric, 0, numericCount);
+        Record[] out = new Record[n];
+        for (int i = 0; i < numericCount; i++) {
+            out[i] = records[(int) numeric[i]];
+        }
+        others.sort(Comparator.comparing(r -> r.groupId));
+        for (int i = 0; i < others.size(); i++) {
+            out[numericCount + i] = others.get(i);
+        }
+        return out;
+    }
+
+    private Path spill(Record[] buffer, int n) throws IOException {
+        Files.createDirectories(spillDir);
+        Path run = Files.createTempFile(spillDir, "result-run-", ".bin");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), RUN_BUFFER))) {
+            for (Record record : sorted(buffer, n)) {
+                record.writeTo(out);
+            }
+        }
+        Arrays.fill(buffer, 0, n, null);
+        runsSpilled++;
+        return run;
+    }
+
+    private void merge(List<Path> runs, Output output) throws IOException {
+        PriorityQueue<RunCursor> heads = new PriorityQueue<>(runs.size(), (a, b) -> Record.compare(a.current, b.current));
+        List<RunCursor> cursors = new ArrayList<>();
+        try {
+            for (Path run : runs) {
+                RunCursor cursor = new RunCursor(run, spec);
+                cursors.add(cursor);
+                if (cursor.advance()) {
+                    heads.add(cursor);
+                }
+            }
+            while (!heads.isEmpty()) {
+                RunCursor head = heads.poll();
+                output.write(head.current);
+                if (head.advance()) {
+                    heads.add(head);
+                }
+            }
+        } finally {
+            for (RunCursor cursor : cursors) {
+                cursor.in.close();
+            }
+        }
+    }
+
+    /**
+     * One group with its sort key decoded once. Approximate aggregates are estimated from the
+     * sketches up front, so runs carry a few numbers instead of whole sketches.
+     */
+    static final class Record {
+        final boolean numeric;
+        final int key;
+        final String groupId;
+        final int min;
+        final int max;
+        final long sum;
+        final long count;
+        // see QuerySpec.estimates; null when the query has no approximate aggregates
+        final long[] estimates;
+
+        Record(String groupId, boolean numericColumn, int min, int max, long sum, long count, long[] estimates) {
+            this.groupId = groupId;
+            int parsed = 0;
+            boolean isNumber = false;
+            if (numericColumn) {
+                try {
+                    parsed = Integer.parseInt(groupId);
+                    isNumber = true;
+                } catch (NumberFormatException e) {
+                    // sorts after the numbers
+                }
+            }
+            this.numeric = isNumber;
+            this.key = parsed;
+            this.min = min;
+            this.max = max;
+            this.sum = sum;
+            this.count = count;
+            this.estimates = estimates;
+        }
+
+        static Record of(VolatileRow row, QuerySpec spec) {
+            return new Record(row.getGroupId(), spec.hasNumericGroups(), row.getMinVal(), row.getMaxVal(), row.getSum(),
+                    row.getCount(), spec.estimates(row.getSketches()));
+        }
+
+        static int compare(Record a, Record b) {
+            if (a.numeric != b.numeric) {
+                return a.numeric ? -1 : 1;
+            }
+            if (a.numeric && a.key != b.key) {
+                return Integer.compare(a.key, b.key);
+            }
+            return a.groupId.compareTo(b.groupId);
+        }
+
+        void writeTo(DataOutputStream out) throws IOException {
+            out.writeUTF(groupId);
+            out.writeInt(min);
+            out.writeInt(max);
+            out.writeLong(sum);
+            out.writeLong(count);
+            if (estimates != null) {
+                for (long estimate : estimates) {
+                    out.writeLong(estimate);
+                }
+            }
+        }
+    }
+
+    private static final class RunCursor {
+        final DataInputStream in;
+        final boolean numericColumn;
+        final int estimates;
+        Record current;
+
+        RunCursor(Path run, QuerySpec spec) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run), RUN_BUFFER));
+            this.numericColumn = spec.hasNumericGroups();
+            this.estimates = spec.hasSketches() ? spec.getAggregates().size() : -1;
+        }
+
+        boolean advance() throws IOException {
+            String groupId;
+            try {
+                groupId = in.readUTF();
+            } catch (EOFException e) {
+                current = null;
+                return false;
+            }
+            int min = in.readInt();
+            int max = in.readInt();
+            long sum = in.readLong();
+            long count = in.readLong();
+            long[] values = null;
+            if (estimates >= 0) {
+                values = new long[estimates];
+                for (int i = 0; i < estimates; i++) {
+                    values[i] = in.readLong();
+                }
+            }
+            current = new Record(groupId, numericColumn, min, max, sum, count, values);
+            return true;
+        }
+    }
+
+    /** Formats records into one reused byte buffer and drains it into the current file's channel. */
+    private final class Output implements AutoCloseable {
+        private final Path base;
+        private final ByteBuffer buffer = ByteBuffer.allocate(OUTPUT_BUFFER);
+        private final StringBuilder line = new StringBuilder(128);
+        private final List<Path> files = new ArrayList<>();
+        private FileChannel channel;
+        private long rowsInFile;
+
+        Output(Path base) throws IOException {
+            this.base = base;
+            open();
+        }
+
+        void write(Record record) throws IOException {
+            if (rowsPerFile > 0 && rowsInFile == rowsPerFile) {
+                drain();
+                channel.close();
+                open();
+            }
+            line.setLength(0);
+            if (format == Format.NDJSON) {
+                appendJson(record);
+            } else {
+                spec.appendCsv(line, record.groupId, record.min, record.max, record.sum, record.count, record.estimates);
+            }
+            line.append('\n');
+            byte[] bytes = line.toString().getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > buffer.remaining()) {
+                drain();
+            }
+            if (bytes.length > buffer.capacity()) {
+                channel.write(ByteBuffer.wrap(bytes));
+            } else {
+                buffer.put(bytes);
+            }
+            rowsInFile++;
+        }
+
+        private void appendJson(Record record) {
+            line.append("{\"").append(spec.getGroupBy().name().toLowerCase(Locale.ROOT)).append("\":");
+            if (record.numeric) {
+                line.append(record.key);
+            } else {
+                appendJsonString(line, record.groupId);
+            }
+            List<QuerySpec.Aggregate> aggregates = spec.getAggregates();
+            for (int i = 0; i < aggregates.size(); i++) {
+                QuerySpec.Aggregate aggregate = aggregates.get(i);
+                line.append(",\"").append(aggregate.name().toLowerCase(Locale.ROOT)).append("\":");
+                switch (aggregate) {
+                    case MIN -> line.append(record.min);
+                    case MAX -> line.append(record.max);
+                    case SUM -> line.append(record.sum);
+                    case COUNT -> line.append(record.count);
+                    case AVG -> line.append(record.sum / record.count);
+                    default -> line.append(record.estimates == null ? -1 : record.estimates[i]);
+                }
+            }
+            line.append('}');
+        }
+
+        private void open() throws IOException {
+            Path path = base;
+            if (rowsPerFile > 0) {
+                String name = base.getFileName().toString();
+                int dot = name.lastIndexOf('.');
+                String stem = dot < 0 ? name : name.substring(0, dot);
+                String extension = dot < 0 ? "" : name.substring(dot);
+                path = base.resolveSibling(String.format(Locale.ROOT, "%s-%04d%s", stem, files.size(), extension));
+            }
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+            files.add(path);
+            rowsInFile = 0;
+        }
+
+        private void drain() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                drain();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    private static void appendJsonString(StringBuilder sb, String value) {
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        sb.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+                }
+            }
+        }
+        sb.append('"');
+    }
+}
@@ -0,0 +1,24 @@
+package org.worker.core;
+
+/**
+ * Receives rows that passed the query's filters straight out of the streaming scanner in
+ * {@link DataParser#scan(org.worker.model.QuerySpec, KeyDictionary, RowSink)}. Values arrive
+ * already decoded as primitives so the hot loop never allocates per row.
+ */
+@FunctionalInterface
+public interface RowSink {
+    /**
+     * @param groupKey int-encoded group: the year or score itself, or a {@link KeyDictionary} code for ids
+     * @param score    the value being aggregated
+     */
+    void accept(int groupKey, int score);
+
+    /**
+     * Called instead of {@link #accept(int, int)} when the query counts distinct ids.
+     *
+     * @param idHash {@link org.worker.model.HyperLogLog#hash} of the row's id
+     */
+    default void accept(int groupKey, int score, long idHash) {
+        accept(groupKey, score);
+    }
+}
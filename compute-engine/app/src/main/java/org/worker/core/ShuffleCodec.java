@@ -0,0 +1,201 @@
+package org.worker.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.worker.model.GroupSketches;
+import org.worker.model.TransientVolatileTable;
+import org.worker.model.VolatileRow;
+
+/**
+ * Binary wire format used to ship transient tables between workers during shuffle.
+ *
+ * Layout (big endian):
+ *   header:  int magic "DQES", byte version, byte compression
+ *   records: int keyLength, byte[keyLength] key (UTF-8), int min, int max, long sum, long count,
+ *            int sketchLength, byte[sketchLength] sketches (see GroupSketches; length 0 for none)
+ *   end:     int -1
+ *
+ * Version 1 payloads, without the sketch fields, are still read.
+ *
+ * Everything after the header is deflate-compressed when compression is {@link #COMPRESSION_DEFLATE}.
+ * Records are written and read one at a time, so neither side has to hold the whole payload.
+ */
+public final class ShuffleCodec {
+
+    public static final String MEDIA_TYPE = "application/x-dqe-shuffle";
+    public static final String JSON_MEDIA_TYPE = "application/json";
+
+    public static final byte VERSION = 2;
+    private static final byte VERSION_WITHOUT_SKETCHES = 1;
+    public static final byte COMPRESSION_NONE = 0;
+    public static final byte COMPRESSION_DEFLATE = 1;
+
+    private static final int MAGIC = 0x44514553; // "DQES"
+    private static final int END_OF_RECORDS = -1;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private ShuffleCodec() {}
+
+    /**
+     * Stream every row of the table to out. The caller owns out and closes it.
+     *
+     * @return number of records written
+     */
+    public static long write(TransientVolatileTable table, OutputStream out, byte compression) throws IOException {
+        RecordWriter writer = new RecordWriter(out, compression);
+        table.forEachGroup(writer::write);
+        return writer.finish();
+    }
+
+    /**
+     * Incremental writer for one payload, for callers that route rows to several outputs
+     * (e.g. one per shuffle partition) in a single pass over a table.
+     */
+    public static final class RecordWriter {
+        private final OutputStream out;
+        private final DeflaterOutputStream deflater;
+        private final DataOutputStream records;
+        private long written;
+
+        public RecordWriter(OutputStream out, byte compression) throws IOException {
+            this.out = out;
+            DataOutputStream header = new DataOutputStream(out);
+            header.writeInt(MAGIC);
+            header.writeByte(VERSION);
+            header.writeByte(compression);
+            header.flush();
+
+            OutputStream body = out;
+            if (compression == COMPRESSION_DEFLATE) {
+                deflater = new DeflaterOutputStream(out, new Deflater(Deflater.BEST_SPEED), BUFFER_SIZE);
+                body = deflater;
+            } else {
+                deflater = null;
+            }
+            this.records = new DataOutputStream(new BufferedOutputStream(body, BUFFER_SIZE));
+        }
+
+        public void write(VolatileRow row) throws IOException {
+            byte[] key = row.getGroupId().getBytes(StandardCharsets.UTF_8);
+            records.writeInt(key.length);
+            records.write(key);
+            records.writeInt(row.getMinVal());
+            records.writeInt(row.getMaxVal());
+            records.writeLong(row.getSum());
+            records.writeLong(row.getCount());
+            if (row.getSketches() == null) {
+                records.writeInt(0);
+            } else {
+                byte[] sketches = row.getSketches().toBytes();
+                records.writeInt(sketches.length);
+                records.write(sketches);
+            }
+            written++;
+        }
+
+        /**
+         * Write the end marker and flush. Does not close the underlying stream.
+         *
+         * @return number of records written
+         */
+        public long finish() throws IOException {
+            records.writeInt(END_OF_RECORDS);
+            records.flush();
+            if (deflater != null) {
+                deflater.finish();
+            }
+            out.flush();
+            return written;
+        }
+    }
+
+    /**
+     * Read records from in and merge each one into target as soon as it is decoded.
+     *
+     * @return number of records merged
+     */
+    public static long readInto(InputStream in, TransientVolatileTable target) throws IOException {
+        DataInputStream header = new DataInputStream(in);
+        int magic = header.readInt();
+        if (magic != MAGIC) {
+            throw new IOException("not a shuffle payload, bad magic 0x" + Integer.toHexString(magic));
+        }
+        byte version = header.readByte();
+        if (version != VERSION && version != VERSION_WITHOUT_SKETCHES) {
+            throw new IOException("unsupported shuffle format version " + version);
+        }
+        byte compression = header.readByte();
+        InputStream body = switch (compression) {
+            case COMPRESSION_NONE -> in;
+            case COMPRESSION_DEFLATE -> new InflaterInputStream(in);
+            default -> throw new IOException("unsupported shuffle compression " + compression);
+        };
+
+        DataInputStream records = new DataInputStream(new BufferedInputStream(body, BUFFER_SIZE));
+        long merged = 0;
+        byte[] keyBuf = new byte[64];
+        int keyLength;
+        while ((keyLength = records.readInt()) != END_OF_RECORDS) {
+            if (keyLength < 0) {
+                throw new IOException("corrupt shuffle payload, key length " + keyLength);
+            }
+            if (keyLength > keyBuf.length) {
+                keyBuf = new byte[Math.max(keyLength, keyBuf.length * 2)];
+            }
+            records.readFully(keyBuf, 0, keyLength);
+            String key = new String(keyBuf, 0, keyLength, StandardCharsets.UTF_8);
+            int min = records.readInt();
+            int max = records.readInt();
+            long sum = records.readLong();
+            long count = records.readLong();
+            GroupSketches sketches = null;
+            if (version != VERSION_WITHOUT_SKETCHES) {
+                int sketchLength = records.readInt();
+                if (sketchLength < 0) {
+                    throw new IOException("corrupt shuffle payload, sketch length " + sketchLength);
+                }
+                if (sketchLength > 0) {
+                    byte[] sketchBytes = new byte[sketchLength];
+                    records.readFully(sketchBytes);
+                    sketches = GroupSketches.fromBytes(sketchBytes);
+                }
+            }
+            target.mergeGroup(key, min, max, sum, count, sketches);
+            merged++;
+        }
+        return merged;
+    }
+
+    /** Content type header value describing a binary payload. */
+    public static String contentType(byte compression) {
+        return MEDIA_TYPE + "; version=" + VERSION + (compression == COMPRESSION_DEFLATE ? "; compression=deflate" : "");
+    }
+
+    /** Whether the Accept header asks for the binary format. */
+    public static boolean accepts(String acceptHeader) {
+        return acceptHeader != null && acceptHeader.contains(MEDIA_TYPE);
+    }
+
+    /** Pick the compression requested in the Accept header's binary media range. */
+    public static byte requestedCompression(String acceptHeader) {
+        if (acceptHeader == null) {
+            return COMPRESSION_NONE;
+        }
+        for (String range : acceptHeader.split(",")) {
+            if (range.contains(MEDIA_TYPE) && range.replace(" ", "").contains("compression=deflate")) {
+                return COMPRESSION_DEFLATE;
+            }
+        }
+        return COMPRESSION_NONE;
+    }
+}
@@ -0,0 +1,99 @@
+package org.worker.core;
+
+import java.util.function.IntFunction;
+
+import org.worker.model.GroupSketches;
+import org.worker.model.QuerySpec;
+import org.worker.model.TransientVolatileTable;
+
+/**
+ * Scan-local state for a query with approximate aggregates: the exact min/max/sum/count in an
+ * {@link AggregationState}, plus one {@link GroupSketches} per int-encoded group, looked up
+ * through an open-addressing index so the per-row path doesn't box keys.
+ *
+ * Like AggregationState, one scanning thread owns it and flushes it into the shared table once.
+ */
+public final class SketchState implements RowSink {
+    private final QuerySpec spec;
+    private final AggregationState values = new AggregationState();
+    // open addressing over keys; a null sketch marks an empty slot
+    private int[] keys = new int[64];
+    private GroupSketches[] sketches = new GroupSketches[64];
+    private int size;
+
+    public SketchState(QuerySpec spec) {
+        this.spec = spec;
+    }
+
+    @Override
+    public void accept(int groupKey, int score) {
+        accept(groupKey, score, 0);
+    }
+
+    @Override
+    public void accept(int groupKey, int score, long idHash) {
+        values.update(groupKey, score);
+        sketchesFor(groupKey).add(score, idHash);
+    }
+
+    /** Merge every group and its sketches into the table, keys decoded to group ids by keyName. */
+    public void flushInto(TransientVolatileTable table, IntFunction<String> keyName) {
+        values.forEachGroup((key, min, max, sum, count) ->
+                table.mergeGroup(keyName.apply(key), min, max, sum, count, sketchesFor(key)));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private GroupSketches sketchesFor(int key) {
+        int mask = keys.length - 1;
+        int slot = mix(key) & mask;
+        GroupSketches found;
+        while ((found = sketches[slot]) != null) {
+            if (keys[slot] == key) {
+                return found;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if ((size + 1) * 2 > keys.length) {
+            rehash(keys.length * 2);
+            return sketchesFor(key);
+        }
+        GroupSketches created = GroupSketches.forSpec(spec);
+        keys[slot] = key;
+        sketches[slot] = created;
+        size++;
+        return created;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        GroupSketches[] oldSketches = sketches;
+        keys = new int[capacity];
+        sketches = new GroupSketches[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldSketches[i] == null) {
+                continue;
+            }
+            int slot = mix(oldKeys[i]) & mask;
+            while (sketches[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = oldKeys[i];
+            sketches[slot] = oldSketches[i];
+        }
+    }
+
+    // murmur3 finalizer, as AggregationState uses
+    private static int mix(int key) {
+        int h = key;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
@@ -0,0 +1,120 @@
+package org.worker.model;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * The approximate aggregates of one group, next to its exact min/max/sum/count: a HyperLogLog of
+ * the ids seen (DISTINCT) and a t-digest of the scores (MEDIAN, P90, P99). Only the sketches the
+ * query asks for are kept; both have fixed memory, set by the spec's error bounds.
+ *
+ * Binary form: byte flags (1 = distinct, 2 = quantiles), then each present sketch in that order.
+ */
+public final class GroupSketches {
+    private static final int HAS_DISTINCT = 1;
+    private static final int HAS_QUANTILES = 2;
+
+    private HyperLogLog distinct;
+    private TDigest quantiles;
+
+    private GroupSketches(HyperLogLog distinct, TDigest quantiles) {
+        this.distinct = distinct;
+        this.quantiles = quantiles;
+    }
+
+    /** Empty sketches for a spec, or null when the spec asks for no approximate aggregates. */
+    public static GroupSketches forSpec(QuerySpec spec) {
+        if (!spec.hasSketches()) {
+            return null;
+        }
+        return new GroupSketches(spec.needsDistinct() ? new HyperLogLog(spec.getDistinctPrecision()) : null,
+                spec.needsQuantiles() ? new TDigest(spec.getQuantileCompression()) : null);
+    }
+
+    /** Add one row: its score, and the hash of its id (see {@link HyperLogLog#hash}). */
+    public void add(int score, long idHash) {
+        if (distinct != null) {
+            distinct.add(idHash);
+        }
+        if (quantiles != null) {
+            quantiles.add(score);
+        }
+    }
+
+    public void merge(GroupSketches other) {
+        if (other == null) {
+            return;
+        }
+        if (other.distinct != null) {
+            if (distinct == null) {
+                distinct = other.distinct.copy();
+            } else {
+                distinct.merge(other.distinct);
+            }
+        }
+        if (other.quantiles != null) {
+            if (quantiles == null) {
+                quantiles = other.quantiles.copy();
+            } else {
+                quantiles.merge(other.quantiles);
+            }
+        }
+    }
+
+    /** Upper bound of the sketches' heap footprint once full, for memory budgets. */
+    public long maxBytes() {
+        return (distinct == null ? 0 : 1L << distinct.getPrecision())
+                + (quantiles == null ? 0 : TDigest.maxBytes(quantiles.getCompression()));
+    }
+
+    public GroupSketches copy() {
+        return new GroupSketches(distinct == null ? null : distinct.copy(), quantiles == null ? null : quantiles.copy());
+    }
+
+    /** Estimated distinct ids, or -1 without a distinct sketch. */
+    public long distinctCount() {
+        return distinct == null ? -1 : distinct.estimate();
+    }
+
+    /** Estimated score at quantile q, or NaN without a quantile sketch. */
+    public double quantile(double q) {
+        return quantiles == null ? Double.NaN : quantiles.quantile(q);
+    }
+
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeByte((distinct == null ? 0 : HAS_DISTINCT) | (quantiles == null ? 0 : HAS_QUANTILES));
+        if (distinct != null) {
+            distinct.writeTo(out);
+        }
+        if (quantiles != null) {
+            quantiles.writeTo(out);
+        }
+    }
+
+    public static GroupSketches readFrom(DataInput in) throws IOException {
+        int flags = in.readByte();
+        HyperLogLog distinct = (flags & HAS_DISTINCT) != 0 ? HyperLogLog.readFrom(in) : null;
+        TDigest quantiles = (flags & HAS_QUANTILES) != 0 ? TDigest.readFrom(in) : null;
+        return new GroupSketches(distinct, quantiles);
+    }
+
+    public byte[] toBytes() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            writeTo(new DataOutputStream(bytes));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    public static GroupSketches fromBytes(byte[] bytes) throws IOException {
+        return readFrom(new DataInputStream(new ByteArrayInputStream(bytes)));
+    }
+}
@@ -0,0 +1,268 @@
+package org.worker.model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.worker.utils.DirectBufferPool;
+
+/**
+ * min/max/sum/count groups kept in direct memory rather than as heap objects, for group counts
+ * where a map node, String, VolatileRow and lock per group would keep the GC busy.
+ *
+ * Each segment is an open-addressing hash table of fixed-width 32-byte slots
+ *
+ *   [key ref: long][min: int][max: int][sum: long][count: long]
+ *
+ * spread over pooled {@link DirectBufferPool} pages, with key bytes appended to a separate arena of
+ * pages ([hash: int][length: short][UTF-8 bytes]); a key ref of 0 marks an empty slot. Groups are
+ * hashed to one of {@link #SEGMENTS} segments, each with its own lock, so threads merging different
+ * files rarely contend. {@link #close()} hands every page back to the pool.
+ */
+public final class OffHeapGroupStore {
+    static final int SEGMENTS = 16;
+
+    private static final int SLOT_BYTES = 32;
+    private static final int SLOTS_PER_PAGE = DirectBufferPool.PAGE_BYTES / SLOT_BYTES;
+    private static final int MIN_OFFSET = 8;
+    private static final int MAX_OFFSET = 12;
+    private static final int SUM_OFFSET = 16;
+    private static final int COUNT_OFFSET = 24;
+    private static final int KEY_HEADER_BYTES = 6;
+
+    private final DirectBufferPool pool;
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private volatile boolean closed;
+
+    public OffHeapGroupStore() {
+        this(DirectBufferPool.shared());
+    }
+
+    public OffHeapGroupStore(DirectBufferPool pool) {
+        this.pool = pool;
+        for (int s = 0; s < SEGMENTS; s++) {
+            segments[s] = new Segment();
+        }
+    }
+
+    /** Fold one pre-aggregated group into the store. */
+    public void merge(String groupId, int min, int max, long sum, long count) {
+        byte[] key = groupId.getBytes(StandardCharsets.UTF_8);
+        int hash = hash(key);
+        Segment segment = segments[(hash >>> 28) & (SEGMENTS - 1)];
+        segment.lock.lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("off-heap group store already released");
+            }
+            int slot = segment.slotFor(key, hash);
+            ByteBuffer page = segment.slotPages[slot / SLOTS_PER_PAGE];
+            int at = (slot % SLOTS_PER_PAGE) * SLOT_BYTES;
+            if (min < page.getInt(at + MIN_OFFSET)) page.putInt(at + MIN_OFFSET, min);
+            if (max > page.getInt(at + MAX_OFFSET)) page.putInt(at + MAX_OFFSET, max);
+            page.putLong(at + SUM_OFFSET, page.getLong(at + SUM_OFFSET) + sum);
+            page.putLong(at + COUNT_OFFSET, page.getLong(at + COUNT_OFFSET) + count);
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    /** Visit every group as a detached VolatileRow, segment by segment. */
+    public void forEach(TransientVolatileTable.GroupVisitor visitor) throws IOException {
+        for (Segment segment : segments) {
+            segment.lock.lock();
+            try {
+                for (int slot = 0; slot < segment.capacity; slot++) {
+                    ByteBuffer page = segment.slotPages[slot / SLOTS_PER_PAGE];
+                    int at = (slot % SLOTS_PER_PAGE) * SLOT_BYTES;
+                    long ref = page.getLong(at);
+                    if (ref == 0) {
+                        continue;
+                    }
+                    VolatileRow row = new VolatileRow(segment.keyOf(ref - 1));
+                    row.setMinVal(page.getInt(at + MIN_OFFSET));
+                    row.setMaxVal(page.getInt(at + MAX_OFFSET));
+                    row.setSum(page.getLong(at + SUM_OFFSET));
+                    row.setCount(page.getLong(at + COUNT_OFFSET));
+                    visitor.accept(row);
+                }
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+    }
+
+    public long size() {
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.size;
+        }
+        return size;
+    }
+
+    /** Direct memory held by the store. */
+    public long offHeapBytes() {
+        long pages = 0;
+        for (Segment segment : segments) {
+            pages += segment.slotPages.length + segment.keyPages.size();
+        }
+        return pages * DirectBufferPool.PAGE_BYTES;
+    }
+
+    /** Return every page to the pool. The store can't be used afterwards. */
+    public void close() {
+        closed = true;
+        for (Segment segment : segments) {
+            segment.lock.lock();
+            try {
+                segment.releasePages();
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+    }
+
+    // FNV-1a with a final avalanche, as KeyDictionary uses for the same keys
+    private static int hash(byte[] key) {
+        int h = 0x811c9dc5;
+        for (byte b : key) {
+            h ^= b;
+            h *= 0x01000193;
+        }
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return h;
+    }
+
+    private final class Segment {
+        final ReentrantLock lock = new ReentrantLock();
+        ByteBuffer[] slotPages;
+        int capacity;
+        int size;
+        final List<ByteBuffer> keyPages = new ArrayList<>();
+        int keyPageUsed = DirectBufferPool.PAGE_BYTES;
+
+        Segment() {
+            allocateSlots(SLOTS_PER_PAGE);
+        }
+
+        int slotFor(byte[] key, int hash) {
+            int mask = capacity - 1;
+            int slot = hash & mask;
+            while (true) {
+                ByteBuffer page = slotPages[slot / SLOTS_PER_PAGE];
+                int at = (slot % SLOTS_PER_PAGE) * SLOT_BYTES;
+                long ref = page.getLong(at);
+                if (ref == 0) {
+                    break;
+                }
+                if (keyEquals(ref - 1, hash, key)) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            // keep the load factor at or below 1/2
+            if ((size + 1) * 2 > capacity) {
+                grow();
+                return slotFor(key, hash);
+            }
+            long ref = appendKey(key, hash);
+            ByteBuffer page = slotPages[slot / SLOTS_PER_PAGE];
+            int at = (slot % SLOTS_PER_PAGE) * SLOT_BYTES;
+            page.putLong(at, ref + 1);
+            page.putInt(at + MIN_OFFSET, Integer.MAX_VALUE);
+            page.putInt(at + MAX_OFFSET, Integer.MIN_VALUE);
+            size++;
+            return slot;
+        }
+
+        String keyOf(long ref) {
+            ByteBuffer page = keyPages.get((int) (ref >>> 32));
+            int at = (int) ref;
+            byte[] key = new byte[page.getShort(at + 4) & 0xFFFF];
+            page.get(at + KEY_HEADER_BYTES, key);
+            return new String(key, StandardCharsets.UTF_8);
+        }
+
+        private boolean keyEquals(long ref, int hash, byte[] key) {
+            ByteBuffer page = keyPages.get((int) (ref >>> 32));
+            int at = (int) ref;
+            if (page.getInt(at) != hash || (page.getShort(at + 4) & 0xFFFF) != key.length) {
+                return false;
+            }
+            for (int i = 0; i < key.length; i++) {
+                if (page.get(at + KEY_HEADER_BYTES + i) != key[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private long appendKey(byte[] key, int hash) {
+            int needed = KEY_HEADER_BYTES + key.length;
+            if (needed > DirectBufferPool.PAGE_BYTES) {
+                throw new IllegalArgumentException("group key of " + key.length + " bytes is too long for the off-heap store");
+            }
+            if (keyPageUsed + needed > DirectBufferPool.PAGE_BYTES) {
+                keyPages.add(pool.acquire());
+                keyPageUsed = 0;
+            }
+            ByteBuffer page = keyPages.get(keyPages.size() - 1);
+            int at = keyPageUsed;
+            page.putInt(at, hash);
+            page.putShort(at + 4, (short) key.length);
+            page.put(at + KEY_HEADER_BYTES, key);
+            keyPageUsed += needed;
+            return ((long) (keyPages.size() - 1) << 32) | at;
+        }
+
+        private void grow() {
+            ByteBuffer[] oldPages = slotPages;
+            int oldCapacity = capacity;
+            allocateSlots(capacity * 2);
+            int mask = capacity - 1;
+            for (int slot = 0; slot < oldCapacity; slot++) {
+                ByteBuffer from = oldPages[slot / SLOTS_PER_PAGE];
+                int at = (slot % SLOTS_PER_PAGE) * SLOT_BYTES;
+                long ref = from.getLong(at);
+                if (ref == 0) {
+                    continue;
+                }
+                ByteBuffer keyPage = keyPages.get((int) ((ref - 1) >>> 32));
+                int target = keyPage.getInt((int) (ref - 1)) & mask;
+                while (slotPages[target / SLOTS_PER_PAGE].getLong((target % SLOTS_PER_PAGE) * SLOT_BYTES) != 0) {
+                    target = (target + 1) & mask;
+                }
+                slotPages[target / SLOTS_PER_PAGE].put((target % SLOTS_PER_PAGE) * SLOT_BYTES, from, at, SLOT_BYTES);
+            }
+            for (ByteBuffer page : oldPages) {
+                pool.release(page);
+            }
+        }
+
+        private void allocateSlots(int slots) {
+            capacity = slots;
+            slotPages = new ByteBuffer[slots / SLOTS_PER_PAGE];
+            for (int p = 0; p < slotPages.length; p++) {
+                slotPages[p] = pool.acquire();
+            }
+        }
+
+        void releasePages() {
+            for (ByteBuffer page : slotPages) {
+                pool.release(page);
+            }
+            for (ByteBuffer page : keyPages) {
+                pool.release(page);
+            }
+            slotPages = new ByteBuffer[0];
+            keyPages.clear();
+            capacity = 0;
+            size = 0;
+        }
+    }
+}
@@ -0,0 +1,394 @@
+package org.worker.model;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Function;
+
+/**
+ * Declarative description of a query: a group-by column, the aggregates to report over score,
+ * and simple predicates. Received from the orchestrator as request parameters:
+ *
+ *   groupBy=year&agg=min,max,avg&where=year:between:2010:2015,score:gte:400,id:prefix:2014
+ *
+ * Int predicates are folded into one closed range per column, so the scanner only ever does two
+ * comparisons per column. Missing parameters fall back to the original hard-wired query
+ * (group by year, min/max/avg of score).
+ *
+ * DISTINCT (distinct ids), MEDIAN, P90 and P99 (of score) are approximate, computed from
+ * per-group sketches (see {@link GroupSketches}). Their error bounds travel with the query so every
+ * worker builds sketches that merge: distinctError (relative standard error, default 0.02) and
+ * quantileError (rank error near the median, default 0.01).
+ */
+public final class QuerySpec {
+
+    public enum Column { ID, YEAR, SCORE }
+
+    public enum Aggregate {
+        MIN, MAX, SUM, COUNT, AVG, DISTINCT, MEDIAN, P90, P99;
+
+        /** Whether the aggregate is estimated from a sketch rather than computed exactly. */
+        public boolean isApproximate() {
+            return ordinal() >= DISTINCT.ordinal();
+        }
+    }
+
+    public static final double DEFAULT_DISTINCT_ERROR = 0.02;
+    public static final double DEFAULT_QUANTILE_ERROR = 0.01;
+
+    public static final QuerySpec DEFAULT = new QuerySpec(Column.YEAR,
+            List.of(Aggregate.MIN, Aggregate.MAX, Aggregate.AVG), List.of());
+
+    private final Column groupBy;
+    private final List<Aggregate> aggregates;
+    // predicates as received, kept for toParams()
+    private final List<String> predicates;
+
+    private int yearLo = Integer.MIN_VALUE;
+    private int yearHi = Integer.MAX_VALUE;
+    private int scoreLo = Integer.MIN_VALUE;
+    private int scoreHi = Integer.MAX_VALUE;
+    private byte[] idPrefix;
+    private boolean matchesNothing;
+    private final double distinctError;
+    private final double quantileError;
+
+    private QuerySpec(Column groupBy, List<Aggregate> aggregates, List<String> predicates) {
+        this(groupBy, aggregates, predicates, DEFAULT_DISTINCT_ERROR, DEFAULT_QUANTILE_ERROR);
+    }
+
+    private QuerySpec(Column groupBy, List<Aggregate> aggregates, List<String> predicates,
+                      double distinctError, double quantileError) {
+        if (aggregates.isEmpty()) {
+            throw new IllegalArgumentException("at least one aggregate is required");
+        }
+        if (!(distinctError > 0 && distinctError < 1) || !(quantileError > 0 && quantileError < 1)) {
+            throw new IllegalArgumentException("error bounds must be between 0 and 1");
+        }
+        this.distinctError = distinctError;
+        this.quantileError = quantileError;
+        this.groupBy = groupBy;
+        this.aggregates = List.copyOf(aggregates);
+        this.predicates = List.copyOf(predicates);
+        for (String predicate : predicates) {
+            applyPredicate(predicate);
+        }
+    }
+
+    /**
+     * Build a spec from request parameters; absent parameters keep the default.
+     *
+     * @throws IllegalArgumentException for unknown columns, aggregates or operators
+     */
+    public static QuerySpec fromParams(Function<String, String> params) {
+        return fromParams(params, DEFAULT);
+    }
+
+    /**
+     * Build a spec from request parameters, or return fallback when none of them are present.
+     */
+    public static QuerySpec fromParams(Function<String, String> params, QuerySpec fallback) {
+        String groupBy = params.apply("groupBy");
+        String agg = params.apply("agg");
+        String where = params.apply("where");
+        if (isBlank(groupBy) && isBlank(agg) && isBlank(where)) {
+            return fallback;
+        }
+        double distinctError = errorParam(params.apply("distinctError"), DEFAULT_DISTINCT_ERROR);
+        double quantileError = errorParam(params.apply("quantileError"), DEFAULT_QUANTILE_ERROR);
+        Column column = isBlank(groupBy) ? DEFAULT.groupBy : column(groupBy);
+        List<Aggregate> aggregates = new ArrayList<>();
+        if (isBlank(agg)) {
+            aggregates.addAll(DEFAULT.aggregates);
+        } else {
+            for (String a : agg.split(",")) {
+                try {
+                    aggregates.add(Aggregate.valueOf(a.trim().toUpperCase(Locale.ROOT)));
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("unknown aggregate '" + a + "'");
+                }
+            }
+        }
+        List<String> predicates = new ArrayList<>();
+        if (!isBlank(where)) {
+            for (String p : where.split(",")) {
+                if (!p.isBlank()) predicates.add(p.trim());
+            }
+        }
+        return new QuerySpec(column, aggregates, predicates, distinctError, quantileError);
+    }
+
+    private static double errorParam(String value, double fallback) {
+        if (isBlank(value)) {
+            return fallback;
+        }
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("bad error bound '" + value + "'");
+        }
+    }
+
+    private void applyPredicate(String predicate) {
+        String[] parts = predicate.split(":");
+        if (parts.length < 3) {
+            throw new IllegalArgumentException("bad predicate '" + predicate + "', expected column:op:value");
+        }
+        Column column = column(parts[0]);
+        String op = parts[1].trim().toLowerCase(Locale.ROOT);
+        if (column == Column.ID) {
+            if (!op.equals("prefix")) {
+                throw new IllegalArgumentException("id only supports prefix, got '" + op + "'");
+            }
+            byte[] prefix = parts[2].trim().getBytes(StandardCharsets.UTF_8);
+            if (idPrefix != null && !startsWith(prefix, idPrefix) && !startsWith(idPrefix, prefix)) {
+                // contradictory prefixes, nothing can match
+                matchesNothing = true;
+            }
+            if (idPrefix == null || prefix.length > idPrefix.length) {
+                idPrefix = prefix;
+            }
+            return;
+        }
+        long lo;
+        long hi;
+        long value = Integer.parseInt(parts[2].trim());
+        switch (op) {
+            case "eq" -> { lo = value; hi = value; }
+            case "gt" -> { lo = value + 1; hi = Integer.MAX_VALUE; }
+            case "gte" -> { lo = value; hi = Integer.MAX_VALUE; }
+            case "lt" -> { lo = Integer.MIN_VALUE; hi = value - 1; }
+            case "lte" -> { lo = Integer.MIN_VALUE; hi = value; }
+            case "between" -> {
+                if (parts.length < 4) {
+                    throw new IllegalArgumentException("between needs two bounds: '" + predicate + "'");
+                }
+                lo = value;
+                hi = Integer.parseInt(parts[3].trim());
+            }
+            default -> throw new IllegalArgumentException("unknown operator '" + op + "'");
+        }
+        if (lo > hi) {
+            matchesNothing = true;
+            return;
+        }
+        int clampedLo = (int) Math.max(Integer.MIN_VALUE, lo);
+        int clampedHi = (int) Math.min(Integer.MAX_VALUE, hi);
+        if (column == Column.YEAR) {
+            yearLo = Math.max(yearLo, clampedLo);
+            yearHi = Math.min(yearHi, clampedHi);
+        } else {
+            scoreLo = Math.max(scoreLo, clampedLo);
+            scoreHi = Math.min(scoreHi, clampedHi);
+        }
+    }
+
+    public Column getGroupBy() {
+        return groupBy;
+    }
+
+    public List<Aggregate> getAggregates() {
+        return aggregates;
+    }
+
+    /** True when the predicates contradict each other, so a scan can be skipped outright. */
+    public boolean matchesNothing() {
+        return matchesNothing || yearLo > yearHi || scoreLo > scoreHi;
+    }
+
+    public boolean hasYearFilter() {
+        return yearLo != Integer.MIN_VALUE || yearHi != Integer.MAX_VALUE;
+    }
+
+    public boolean hasScoreFilter() {
+        return scoreLo != Integer.MIN_VALUE || scoreHi != Integer.MAX_VALUE;
+    }
+
+    public int getYearLo() {
+        return yearLo;
+    }
+
+    public int getYearHi() {
+        return yearHi;
+    }
+
+    public int getScoreLo() {
+        return scoreLo;
+    }
+
+    public int getScoreHi() {
+        return scoreHi;
+    }
+
+    /** Prefix every matching id must start with, or null. */
+    public byte[] getIdPrefix() {
+        return idPrefix;
+    }
+
+    /** Whether the scanner has to decode the year column at all. */
+    public boolean needsYear() {
+        return groupBy == Column.YEAR || hasYearFilter();
+    }
+
+    /** Whether any aggregate is estimated from per-group sketches. */
+    public boolean hasSketches() {
+        return needsDistinct() || needsQuantiles();
+    }
+
+    /** Whether the scan has to hash ids for a distinct count. */
+    public boolean needsDistinct() {
+        return aggregates.contains(Aggregate.DISTINCT);
+    }
+
+    public boolean needsQuantiles() {
+        return aggregates.contains(Aggregate.MEDIAN) || aggregates.contains(Aggregate.P90) || aggregates.contains(Aggregate.P99);
+    }
+
+    /** HyperLogLog precision meeting the distinct error bound. */
+    public int getDistinctPrecision() {
+        return HyperLogLog.precisionFor(distinctError);
+    }
+
+    /** t-digest compression meeting the quantile error bound. */
+    public double getQuantileCompression() {
+        return TDigest.compressionFor(quantileError);
+    }
+
+    /** Whether groups are keyed by numbers, and so sort numerically. */
+    public boolean hasNumericGroups() {
+        return groupBy != Column.ID;
+    }
+
+    /** Row-at-a-time filter for the List<Row> path; the streaming scanner evaluates the same ranges on bytes. */
+    public boolean matches(Row row) {
+        if (matchesNothing()) {
+            return false;
+        }
+        if (idPrefix != null && !row.id().startsWith(new String(idPrefix, StandardCharsets.UTF_8))) {
+            return false;
+        }
+        if (row.score() < scoreLo || row.score() > scoreHi) {
+            return false;
+        }
+        if (hasYearFilter()) {
+            int year;
+            try {
+                year = Integer.parseInt(row.year());
+            } catch (NumberFormatException e) {
+                return false;
+            }
+            return year >= yearLo && year <= yearHi;
+        }
+        return true;
+    }
+
+    public String groupKey(Row row) {
+        return switch (groupBy) {
+            case ID -> row.id();
+            case YEAR -> row.year();
+            case SCORE -> Integer.toString(row.score());
+        };
+    }
+
+    /** Render one result line: the group id followed by the requested aggregates. */
+    public String format(VolatileRow row) {
+        StringBuilder sb = new StringBuilder();
+        appendCsv(sb, row.getGroupId(), row.getMinVal(), row.getMaxVal(), row.getSum(), row.getCount(), estimates(row.getSketches()));
+        return sb.toString();
+    }
+
+    /** Append one result line, without a line break, for a group given as plain values. */
+    public void appendCsv(StringBuilder sb, String groupId, int min, int max, long sum, long count) {
+        appendCsv(sb, groupId, min, max, sum, count, null);
+    }
+
+    /**
+     * Same as above for a spec with approximate aggregates, whose values come from
+     * {@link #estimates(GroupSketches)}.
+     */
+    public void appendCsv(StringBuilder sb, String groupId, int min, int max, long sum, long count, long[] estimates) {
+        sb.append(groupId);
+        for (int i = 0; i < aggregates.size(); i++) {
+            sb.append(',');
+            switch (aggregates.get(i)) {
+                case MIN -> sb.append(min);
+                case MAX -> sb.append(max);
+                case SUM -> sb.append(sum);
+                case COUNT -> sb.append(count);
+                case AVG -> sb.append(sum / count);
+                default -> sb.append(estimates == null ? -1 : estimates[i]);
+            }
+        }
+    }
+
+    /**
+     * The approximate aggregates of a group, indexed like {@link #getAggregates()} (exact ones are
+     * left 0), with quantiles rounded to whole scores; null when the spec asks for none.
+     */
+    public long[] estimates(GroupSketches sketches) {
+        if (!hasSketches()) {
+            return null;
+        }
+        long[] estimates = new long[aggregates.size()];
+        if (sketches == null) {
+            return estimates;
+        }
+        for (int i = 0; i < estimates.length; i++) {
+            switch (aggregates.get(i)) {
+                case DISTINCT -> estimates[i] = sketches.distinctCount();
+                case MEDIAN -> estimates[i] = Math.round(sketches.quantile(0.5));
+                case P90 -> estimates[i] = Math.round(sketches.quantile(0.9));
+                case P99 -> estimates[i] = Math.round(sketches.quantile(0.99));
+                default -> { }
+            }
+        }
+        return estimates;
+    }
+
+    /** Canonical (unencoded) request-parameter form, also usable as a key for the query's shape. */
+    public String toParams() {
+        StringBuilder sb = new StringBuilder("groupBy=").append(groupBy.name().toLowerCase(Locale.ROOT));
+        sb.append("&agg=");
+        for (int i = 0; i < aggregates.size(); i++) {
+            if (i > 0) sb.append(',');
+            sb.append(aggregates.get(i).name().toLowerCase(Locale.ROOT));
+        }
+        if (!predicates.isEmpty()) {
+            sb.append("&where=").append(String.join(",", predicates));
+        }
+        // error bounds change the sketches, so they're part of the shape; left out when unused
+        if (needsDistinct()) {
+            sb.append("&distinctError=").append(distinctError);
+        }
+        if (needsQuantiles()) {
+            sb.append("&quantileError=").append(quantileError);
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return toParams();
+    }
+
+    private static Column column(String name) {
+        try {
+            return Column.valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("unknown column '" + name + "'");
+        }
+    }
+
+    private static boolean startsWith(byte[] value, byte[] prefix) {
+        if (prefix.length > value.length) return false;
+        for (int i = 0; i < prefix.length; i++) {
+            if (value[i] != prefix[i]) return false;
+        }
+        return true;
+    }
+
+    private static boolean isBlank(String s) {
+        return s == null || s.isBlank();
+    }
+}
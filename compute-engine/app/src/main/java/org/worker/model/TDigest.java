@@ -0,0 +1,263 @@
+package org.worker.model;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Merging t-digest for approximate quantiles in fixed memory.
+ *
+ * Values are buffered and periodically folded into at most about 2 * compression centroids, kept
+ * sorted by mean. Arrays start small and grow up to that bound, so a group with a handful of
+ * values doesn't pay for the full digest. The k1 scale function bounds each centroid's share of the weight, so clusters
+ * are tiny near the tails and larger around the median: the rank error at quantile q is roughly
+ * q(1 - q) * 4 / compression, and tighter still towards 0 and 1. Digests of any compression merge
+ * by re-folding one's centroids into the other.
+ */
+public final class TDigest {
+    public static final double MIN_COMPRESSION = 20;
+    public static final double MAX_COMPRESSION = 1000;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final double compression;
+    private double[] mean;
+    private double[] weight;
+    private int centroids;
+    // compress() merges into these and swaps them with mean and weight
+    private double[] spareMean;
+    private double[] spareWeight;
+    private double[] bufferMean;
+    private double[] bufferWeight;
+    private final int maxCentroids;
+    private int buffered;
+    private double totalWeight;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    public TDigest(double compression) {
+        if (!(compression >= MIN_COMPRESSION && compression <= MAX_COMPRESSION)) {
+            throw new IllegalArgumentException("t-digest compression must be between " + MIN_COMPRESSION
+                    + " and " + MAX_COMPRESSION + ", got " + compression);
+        }
+        this.compression = compression;
+        this.maxCentroids = 2 * (int) Math.ceil(compression) + 8;
+        this.mean = new double[INITIAL_CAPACITY];
+        this.weight = new double[INITIAL_CAPACITY];
+        this.spareMean = new double[INITIAL_CAPACITY];
+        this.spareWeight = new double[INITIAL_CAPACITY];
+        this.bufferMean = new double[INITIAL_CAPACITY];
+        this.bufferWeight = new double[INITIAL_CAPACITY];
+    }
+
+    /** Rough heap footprint of a digest that has seen enough values to reach its full size. */
+    public static long maxBytes(double compression) {
+        return 6L * (2 * (int) Math.ceil(compression) + 8) * Double.BYTES;
+    }
+
+    /** Compression giving a rank error of about relativeError around the median. */
+    public static double compressionFor(double relativeError) {
+        return Math.max(MIN_COMPRESSION, Math.min(MAX_COMPRESSION, Math.ceil(1 / relativeError)));
+    }
+
+    public double getCompression() {
+        return compression;
+    }
+
+    public void add(double value) {
+        add(value, 1);
+    }
+
+    public void add(double value, double w) {
+        if (buffered == bufferMean.length) {
+            if (bufferMean.length < maxCentroids) {
+                int grown = Math.min(maxCentroids, bufferMean.length * 2);
+                bufferMean = Arrays.copyOf(bufferMean, grown);
+                bufferWeight = Arrays.copyOf(bufferWeight, grown);
+            } else {
+                compress();
+            }
+        }
+        bufferMean[buffered] = value;
+        bufferWeight[buffered] = w;
+        buffered++;
+        totalWeight += w;
+        if (value < min) min = value;
+        if (value > max) max = value;
+    }
+
+    public void merge(TDigest other) {
+        other.compress();
+        for (int i = 0; i < other.centroids; i++) {
+            add(other.mean[i], other.weight[i]);
+        }
+        if (other.min < min) min = other.min;
+        if (other.max > max) max = other.max;
+    }
+
+    /** Value at quantile q in [0, 1], interpolated between centroids; NaN when empty. */
+    public double quantile(double q) {
+        compress();
+        if (centroids == 0) {
+            return Double.NaN;
+        }
+        if (centroids == 1) {
+            return mean[0];
+        }
+        double index = Math.max(0, Math.min(1, q)) * totalWeight;
+        if (index < weight[0] / 2) {
+            return min + (mean[0] - min) * index / (weight[0] / 2);
+        }
+        double center = weight[0] / 2;
+        for (int i = 0; i < centroids - 1; i++) {
+            double next = center + (weight[i] + weight[i + 1]) / 2;
+            if (index <= next) {
+                return mean[i] + (mean[i + 1] - mean[i]) * (index - center) / (next - center);
+            }
+            center = next;
+        }
+        double tail = weight[centroids - 1] / 2;
+        return mean[centroids - 1] + (max - mean[centroids - 1]) * Math.min(1, (index - center) / tail);
+    }
+
+    public long size() {
+        return Math.round(totalWeight);
+    }
+
+    public TDigest copy() {
+        compress();
+        TDigest copy = new TDigest(compression);
+        copy.ensureCentroids(centroids);
+        System.arraycopy(mean, 0, copy.mean, 0, centroids);
+        System.arraycopy(weight, 0, copy.weight, 0, centroids);
+        copy.centroids = centroids;
+        copy.totalWeight = totalWeight;
+        copy.min = min;
+        copy.max = max;
+        return copy;
+    }
+
+    public void writeTo(DataOutput out) throws IOException {
+        compress();
+        out.writeDouble(compression);
+        out.writeDouble(min);
+        out.writeDouble(max);
+        out.writeInt(centroids);
+        for (int i = 0; i < centroids; i++) {
+            out.writeDouble(mean[i]);
+            out.writeDouble(weight[i]);
+        }
+    }
+
+    public static TDigest readFrom(DataInput in) throws IOException {
+        TDigest digest = new TDigest(in.readDouble());
+        double min = in.readDouble();
+        double max = in.readDouble();
+        int centroids = in.readInt();
+        if (centroids < 0 || centroids > digest.maxCentroids) {
+            throw new IOException("corrupt t-digest, " + centroids + " centroids");
+        }
+        digest.ensureCentroids(centroids);
+        for (int i = 0; i < centroids; i++) {
+            digest.mean[i] = in.readDouble();
+            digest.weight[i] = in.readDouble();
+            digest.totalWeight += digest.weight[i];
+        }
+        digest.centroids = centroids;
+        digest.min = min;
+        digest.max = max;
+        return digest;
+    }
+
+    /** Fold the buffer into the centroids: one merge pass over both, both sorted by mean. */
+    private void compress() {
+        if (buffered == 0) {
+            return;
+        }
+        sortByMean(bufferMean, bufferWeight, 0, buffered - 1);
+        if (spareMean.length < Math.min(maxCentroids, centroids + buffered)) {
+            spareMean = new double[Math.min(maxCentroids, centroids + buffered)];
+            spareWeight = new double[spareMean.length];
+        }
+        double[] outMean = spareMean;
+        double[] outWeight = spareWeight;
+        int out = 0;
+        int c = 0;
+        int b = 0;
+        double soFar = 0;
+        double limit = 0;
+        while (c < centroids || b < buffered) {
+            double m;
+            double w;
+            if (b == buffered || (c < centroids && mean[c] <= bufferMean[b])) {
+                m = mean[c];
+                w = weight[c++];
+            } else {
+                m = bufferMean[b];
+                w = bufferWeight[b++];
+            }
+            // a full centroid array can't happen with the k1 bound, but never overrun it
+            if (out > 0 && ((soFar + outWeight[out - 1] + w) / totalWeight <= limit || out == outMean.length)) {
+                double merged = outWeight[out - 1] + w;
+                outMean[out - 1] += (m - outMean[out - 1]) * w / merged;
+                outWeight[out - 1] = merged;
+            } else {
+                if (out > 0) {
+                    soFar += outWeight[out - 1];
+                }
+                limit = upperQuantile(soFar / totalWeight);
+                outMean[out] = m;
+                outWeight[out] = w;
+                out++;
+            }
+        }
+        spareMean = mean;
+        spareWeight = weight;
+        mean = outMean;
+        weight = outWeight;
+        centroids = out;
+        buffered = 0;
+    }
+
+    private void ensureCentroids(int n) {
+        if (mean.length < n) {
+            mean = Arrays.copyOf(mean, n);
+            weight = Arrays.copyOf(weight, n);
+        }
+    }
+
+    // the quantile one unit of k1 = compression / (2 pi) * asin(2q - 1) above q
+    private double upperQuantile(double q) {
+        double k = compression / (2 * Math.PI) * Math.asin(2 * Math.max(0, Math.min(1, q)) - 1) + 1;
+        if (k >= compression / 4) {
+            return 1;
+        }
+        return (Math.sin(k * 2 * Math.PI / compression) + 1) / 2;
+    }
+
+    private static void sortByMean(double[] m, double[] w, int lo, int hi) {
+        while (lo < hi) {
+            double pivot = m[(lo + hi) >>> 1];
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (m[i] < pivot) i++;
+                while (m[j] > pivot) j--;
+                if (i <= j) {
+                    double t = m[i]; m[i] = m[j]; m[j] = t;
+                    t = w[i]; w[i] = w[j]; w[j] = t;
+                    i++;
+                    j--;
+                }
+            }
+            // recurse into the smaller half, loop on the larger
+            if (j - lo < hi - i) {
+                sortByMean(m, w, lo, j);
+                lo = i;
+            } else {
+                sortByMean(m, w, i, hi);
+                hi = j;
+            }
+        }
+    }
+}
@@ -1,23 +1,106 @@
 package org.worker.model;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
 
 // Used to store Transient query results in memory
+//
+// A table created by budgeted() also has a memory budget. Past it, the table hash-partitions its
+// groups (grace hash) and spills whole partitions to local disk in a compact binary form, largest
+// and already-spilled partitions first. Spilled partitions are re-aggregated one at a time by
+// forEachGroup, which shuffle and write read tables through, so a huge group-by degrades to disk
+// instead of running the worker out of heap. Tables without a budget never spill.
+//
+// With -Dworker.aggregation.offHeap=true, budgeted() tables keep their groups in an
+// OffHeapGroupStore instead of the map, outside the GC's reach; those tables don't spill.
 public class TransientVolatileTable {
     Map<String, VolatileRow> groupIdVsRow;
 
+    public static final int SPILL_PARTITIONS = 16;
+    // Rough heap cost of one group besides its key and sketches: map entry, row, lock
+    private static final long GROUP_OVERHEAD_BYTES = 160;
+
+    private final long memoryBudgetBytes;
+    private final Path spillRoot;
+    // Updates share the lock, spilling takes it exclusively; null when the table can't spill
+    private final ReentrantReadWriteLock spillLock;
+    private final AtomicLong estimatedBytes = new AtomicLong();
+    // Budgeted per group for its sketches, once the first group with sketches shows up
+    private volatile long sketchBytes;
+    // Segment files per partition, each one spill's worth of that partition's groups
+    private final List<List<Path>> segments = new ArrayList<>();
+    private volatile boolean spilled;
+    private Path spillDir;
+    private long spilledGroups;
+    private int spills;
+    // Holds every group instead of groupIdVsRow when set
+    private final OffHeapGroupStore offHeap;
+    // Sketches of off-heap groups, which have no room for them in their fixed-width slots
+    private final Map<String, GroupSketches> offHeapSketches = new ConcurrentHashMap<>();
+
     public TransientVolatileTable() {
+        this(0, null);
+    }
+
+    /** A table whose groups live in the given off-heap store. */
+    public TransientVolatileTable(OffHeapGroupStore offHeap) {
+        this.groupIdVsRow = new ConcurrentHashMap<String, VolatileRow>();
+        this.memoryBudgetBytes = 0;
+        this.spillRoot = null;
+        this.spillLock = null;
+        this.offHeap = offHeap;
+    }
+
+    /**
+     * @param memoryBudgetBytes estimated heap the groups may take before partitions are spilled; 0 for no limit
+     * @param spillRoot         directory the table's spill directory is created under
+     */
+    public TransientVolatileTable(long memoryBudgetBytes, Path spillRoot) {
         this.groupIdVsRow = new ConcurrentHashMap<String, VolatileRow>();
+        this.memoryBudgetBytes = memoryBudgetBytes;
+        this.spillRoot = spillRoot;
+        this.spillLock = memoryBudgetBytes > 0 ? new ReentrantReadWriteLock() : null;
+        this.offHeap = null;
+        for (int p = 0; p < SPILL_PARTITIONS; p++) {
+            segments.add(new ArrayList<>());
+        }
+    }
+
+    /**
+     * A table for a query's aggregation state, budgeted by -Dworker.aggregation.memoryMb (default
+     * 512, 0 for no limit) and spilling under -Dworker.aggregation.spillDir (default: system temp),
+     * or held off heap when -Dworker.aggregation.offHeap is true.
+     */
+    public static TransientVolatileTable budgeted() {
+        if (Boolean.getBoolean("worker.aggregation.offHeap")) {
+            return new TransientVolatileTable(new OffHeapGroupStore());
+        }
+        return new TransientVolatileTable(Long.getLong("worker.aggregation.memoryMb", 512) * 1024 * 1024,
+                Paths.get(System.getProperty("worker.aggregation.spillDir", System.getProperty("java.io.tmpdir"))));
     }
 
     /**
@@ -25,19 +108,24 @@ public class TransientVolatileTable {
      * The file is overwritten on each call.
      */
     public void printSortedTable() {
-        try {
-            List<String> lines = groupIdVsRow.values().stream()
-                .sorted(Comparator.comparingInt(r -> Integer.parseInt(r.getGroupId())))
-                .map(Object::toString)
-                .collect(Collectors.toList());
+        printSortedTable(Paths.get("output.txt"));
+    }
+
+    /**
+     * Write the sorted table (by numeric groupId) to the given file, overwriting it.
+     */
+    public void printSortedTable(Path out) {
+        printSortedTable(out, QuerySpec.DEFAULT);
+    }
 
-            Path out = Paths.get("output.txt");
+    /**
+     * Write the table to the given file, sorted and formatted as the query spec asks.
+     */
+    public void printSortedTable(Path out, QuerySpec spec) {
+        try {
             try (BufferedWriter w = Files.newBufferedWriter(out, StandardCharsets.UTF_8,
                     StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
-                for (String line : lines) {
-                    w.write(line);
-                    w.newLine();
-                }
+                writeSortedTable(w, spec);
             }
         } catch (Exception e) {
             // preserve original behavior of printing error to stderr
@@ -45,11 +133,136 @@ public class TransientVolatileTable {
         }
     }
 
+    /**
+     * Write the table sorted by numeric groupId, one row per line, to the given writer.
+     */
+    public void writeSortedTable(Writer w) throws IOException {
+        writeSortedTable(w, QuerySpec.DEFAULT);
+    }
+
+    /**
+     * Write the table one row per line with the spec's aggregates, sorted numerically for
+     * numeric group columns and lexicographically for ids.
+     */
+    public void writeSortedTable(Writer w, QuerySpec spec) throws IOException {
+        Comparator<VolatileRow> order = spec.hasNumericGroups()
+            ? Comparator.comparingInt(r -> Integer.parseInt(r.getGroupId()))
+            : Comparator.comparing(VolatileRow::getGroupId);
+        List<VolatileRow> rows = new ArrayList<>();
+        forEachGroup(rows::add);
+        List<String> lines = rows.stream()
+            .sorted(order)
+            .map(spec::format)
+            .collect(Collectors.toList());
+
+        BufferedWriter bw = w instanceof BufferedWriter ? (BufferedWriter) w : new BufferedWriter(w);
+        for (String line : lines) {
+            bw.write(line);
+            bw.newLine();
+        }
+        bw.flush();
+    }
+
+    /**
+     * Row for groupId, created if absent. The caller updates it outside any lock, so on a table
+     * that can spill use {@link #updateGroup} or {@link #mergeGroup} instead. Off-heap tables have
+     * no rows to hand out.
+     */
     public VolatileRow fetchRowByGroupId(String groupId) {
+        if (offHeap != null) {
+            throw new UnsupportedOperationException("off-heap tables are updated through updateGroup and mergeGroup");
+        }
         // Thread safe return
-        return groupIdVsRow.computeIfAbsent(groupId, key -> new VolatileRow(key));
+        return groupIdVsRow.computeIfAbsent(groupId, this::newRow);
     }
 
+    /** Fold one value into a group. */
+    public void updateGroup(String groupId, int value) {
+        if (offHeap != null) {
+            offHeap.merge(groupId, value, value, value, 1);
+            return;
+        }
+        if (spillLock == null) {
+            fetchRowByGroupId(groupId).updateRow(value);
+            return;
+        }
+        spillLock.readLock().lock();
+        try {
+            fetchRowByGroupId(groupId).updateRow(value);
+        } finally {
+            spillLock.readLock().unlock();
+        }
+        spillIfOverBudget();
+    }
+
+    /** Fold one row of a query with sketches into a group: its score and the hash of its id. */
+    public void updateGroup(String groupId, int value, long idHash, QuerySpec spec) {
+        if (offHeap != null) {
+            GroupSketches sketches = GroupSketches.forSpec(spec);
+            if (sketches != null) {
+                sketches.add(value, idHash);
+            }
+            mergeGroup(groupId, value, value, value, 1, sketches);
+            return;
+        }
+        if (spillLock == null) {
+            fetchRowByGroupId(groupId).updateRow(value, idHash, spec);
+            return;
+        }
+        if (sketchBytes == 0 && spec.hasSketches()) {
+            sketchBytes = GroupSketches.forSpec(spec).maxBytes();
+        }
+        spillLock.readLock().lock();
+        try {
+            fetchRowByGroupId(groupId).updateRow(value, idHash, spec);
+        } finally {
+            spillLock.readLock().unlock();
+        }
+        spillIfOverBudget();
+    }
+
+    /**
+     * Merge one pre-aggregated group into the table.
+     */
+    public void mergeGroup(String groupId, int min, int max, long sum, long count) {
+        mergeGroup(groupId, min, max, sum, count, null);
+    }
+
+    /**
+     * Merge one pre-aggregated group and its sketches (null for none) into the table. The
+     * sketches are copied, so the caller may keep using them.
+     */
+    public void mergeGroup(String groupId, int min, int max, long sum, long count, GroupSketches sketches) {
+        if (offHeap != null) {
+            offHeap.merge(groupId, min, max, sum, count);
+            if (sketches != null) {
+                offHeapSketches.compute(groupId, (id, existing) -> {
+                    if (existing == null) {
+                        return sketches.copy();
+                    }
+                    existing.merge(sketches);
+                    return existing;
+                });
+            }
+            return;
+        }
+        if (spillLock == null) {
+            fetchRowByGroupId(groupId).mergeValues(min, max, sum, count, sketches);
+            return;
+        }
+        if (sketchBytes == 0 && sketches != null) {
+            sketchBytes = sketches.maxBytes();
+        }
+        spillLock.readLock().lock();
+        try {
+            fetchRowByGroupId(groupId).mergeValues(min, max, sum, count, sketches);
+        } finally {
+            spillLock.readLock().unlock();
+        }
+        spillIfOverBudget();
+    }
+
+    /** Groups currently held in memory; on a table that has spilled, the rest are on disk (see forEachGroup). */
     public Map<String, VolatileRow> getGroupIdVsRow() {
         return groupIdVsRow;
     }
@@ -62,13 +275,270 @@ public class TransientVolatileTable {
         if (table == null || table.getGroupIdVsRow() == null) {
             return;
         }
-        table.getGroupIdVsRow().forEach((key, value) -> {
-            this.groupIdVsRow.merge(key, value, (oldVal, newVal) -> {
-                oldVal.merge(newVal);
-                return oldVal;
+        if (spillLock == null && offHeap == null && !table.spilled && table.offHeap == null) {
+            table.getGroupIdVsRow().forEach((key, value) -> {
+                this.groupIdVsRow.merge(key, value, (oldVal, newVal) -> {
+                    oldVal.merge(newVal);
+                    return oldVal;
+                });
+            });
+            return;
+        }
+        try {
+            table.forEachGroup(row -> mergeGroup(row.getGroupId(), row.getMinVal(), row.getMaxVal(), row.getSum(), row.getCount(), row.getSketches()));
+        } catch (IOException e) {
+            throw new UncheckedIOException("could not read spilled groups", e);
+        }
+    }
+
+    /** Receives the groups of a table one at a time. */
+    @FunctionalInterface
+    public interface GroupVisitor {
+        void accept(VolatileRow row) throws IOException;
+    }
+
+    /**
+     * Visit every group once, in no particular order. Groups in memory come first; each spilled
+     * partition is then read back and re-aggregated on its own, so at most one partition's worth of
+     * spilled groups is in memory at a time.
+     */
+    public void forEachGroup(GroupVisitor visitor) throws IOException {
+        if (offHeap != null) {
+            offHeap.forEach(row -> {
+                row.setSketches(offHeapSketches.get(row.getGroupId()));
+                visitor.accept(row);
             });
-        });
-        
+            return;
+        }
+        if (!spilled) {
+            for (VolatileRow row : groupIdVsRow.values()) {
+                visitor.accept(row);
+            }
+            return;
+        }
+        spillLock.writeLock().lock();
+        try {
+            // move what's left of the spilled partitions to disk, so each is whole in one place
+            List<Integer> partitions = new ArrayList<>();
+            for (int p = 0; p < SPILL_PARTITIONS; p++) {
+                if (!segments.get(p).isEmpty()) {
+                    partitions.add(p);
+                }
+            }
+            spillPartitions(partitions);
+            for (VolatileRow row : groupIdVsRow.values()) {
+                visitor.accept(row);
+            }
+            for (int p : partitions) {
+                Map<String, VolatileRow> partition = new java.util.HashMap<>();
+                for (Path segment : segments.get(p)) {
+                    readSegment(segment, partition);
+                }
+                for (VolatileRow row : partition.values()) {
+                    visitor.accept(row);
+                }
+            }
+        } finally {
+            spillLock.writeLock().unlock();
+        }
+    }
+
+    /** Whether any partition has been spilled to disk. */
+    @JsonIgnore
+    public boolean isSpilled() {
+        return spilled;
     }
 
+    /**
+     * One line on how much the table spilled and where, for the owner to log once per query
+     * rather than once per spill; null if it never spilled.
+     */
+    @JsonIgnore
+    public String describeSpill() {
+        if (spillLock == null) {
+            return null;
+        }
+        spillLock.readLock().lock();
+        try {
+            return spills == 0 ? null : "spilled " + spilledGroups + " groups in " + spills + " spills to " + spillDir;
+        } finally {
+            spillLock.readLock().unlock();
+        }
+    }
+
+    /** Whether the groups live off heap, so getGroupIdVsRow() is empty. */
+    @JsonIgnore
+    public boolean isOffHeap() {
+        return offHeap != null;
+    }
+
+    /** Groups in memory plus groups spilled (a group spilled twice counts twice). */
+    @JsonIgnore
+    public long getEstimatedGroupCount() {
+        return groupIdVsRow.size() + spilledGroups + (offHeap == null ? 0 : offHeap.size());
+    }
+
+    /** Free what the table holds outside the heap: spill files and off-heap pages. */
+    public void release() {
+        discardSpill();
+        if (offHeap != null) {
+            offHeap.close();
+            offHeapSketches.clear();
+        }
+    }
+
+    /** Delete the table's spill files. The table must not be used afterwards. */
+    public void discardSpill() {
+        if (spillLock == null) {
+            return;
+        }
+        spillLock.writeLock().lock();
+        try {
+            if (spillDir != null) {
+                try (Stream<Path> files = Files.walk(spillDir)) {
+                    files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+                } catch (IOException e) {
+                    System.err.println("Could not delete spill directory " + spillDir + ": " + e.getMessage());
+                }
+                spillDir = null;
+            }
+            segments.forEach(List::clear);
+            spills = 0;
+            spilled = false;
+        } finally {
+            spillLock.writeLock().unlock();
+        }
+    }
+
+    private VolatileRow newRow(String groupId) {
+        if (spillLock != null) {
+            estimatedBytes.addAndGet(groupBytes(groupId));
+        }
+        return new VolatileRow(groupId);
+    }
+
+    private long groupBytes(String groupId) {
+        return GROUP_OVERHEAD_BYTES + 2L * groupId.length() + sketchBytes;
+    }
+
+    private void spillIfOverBudget() {
+        if (estimatedBytes.get() <= memoryBudgetBytes || !spillLock.writeLock().tryLock()) {
+            // under budget, or another thread is spilling already
+            return;
+        }
+        try {
+            if (estimatedBytes.get() <= memoryBudgetBytes) {
+                return;
+            }
+            long[] bytes = new long[SPILL_PARTITIONS];
+            for (String groupId : groupIdVsRow.keySet()) {
+                bytes[partitionOf(groupId)] += groupBytes(groupId);
+            }
+            // partitions already on disk first, so as few partitions as possible end up spilled, then the largest
+            List<Integer> order = new ArrayList<>();
+            for (int p = 0; p < SPILL_PARTITIONS; p++) {
+                order.add(p);
+            }
+            order.sort(Comparator.<Integer, Boolean>comparing(p -> segments.get(p).isEmpty()).thenComparing(p -> -bytes[p]));
+            long target = memoryBudgetBytes / 2;
+            long remaining = estimatedBytes.get();
+            List<Integer> victims = new ArrayList<>();
+            for (int p : order) {
+                if (remaining <= target) {
+                    break;
+                }
+                if (bytes[p] > 0) {
+                    victims.add(p);
+                    remaining -= bytes[p];
+                }
+            }
+            spillPartitions(victims);
+        } catch (IOException e) {
+            // keep aggregating in memory; running out of heap later is the old behavior
+            System.err.println("Spilling aggregation state failed: " + e.getMessage());
+        } finally {
+            spillLock.writeLock().unlock();
+        }
+    }
+
+    // Caller holds the write lock
+    private void spillPartitions(List<Integer> partitions) throws IOException {
+        if (partitions.isEmpty()) {
+            return;
+        }
+        if (spillDir == null) {
+            Files.createDirectories(spillRoot);
+            spillDir = Files.createTempDirectory(spillRoot, "agg-spill-");
+        }
+        DataOutputStream[] outs = new DataOutputStream[SPILL_PARTITIONS];
+        try {
+            for (int p : partitions) {
+                Path segment = spillDir.resolve("p" + p + "-" + segments.get(p).size() + ".bin");
+                outs[p] = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(segment), 64 * 1024));
+                segments.get(p).add(segment);
+            }
+            long freed = 0;
+            long groups = 0;
+            Iterator<Map.Entry<String, VolatileRow>> it = groupIdVsRow.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, VolatileRow> entry = it.next();
+                DataOutputStream out = outs[partitionOf(entry.getKey())];
+                if (out == null) {
+                    continue;
+                }
+                VolatileRow row = entry.getValue();
+                out.writeUTF(row.getGroupId());
+                out.writeInt(row.getMinVal());
+                out.writeInt(row.getMaxVal());
+                out.writeLong(row.getSum());
+                out.writeLong(row.getCount());
+                if (row.getSketches() == null) {
+                    out.writeBoolean(false);
+                } else {
+                    out.writeBoolean(true);
+                    row.getSketches().writeTo(out);
+                }
+                it.remove();
+                freed += groupBytes(entry.getKey());
+                groups++;
+            }
+            estimatedBytes.addAndGet(-freed);
+            spilledGroups += groups;
+            spills++;
+            spilled = true;
+        } finally {
+            for (DataOutputStream out : outs) {
+                if (out != null) {
+                    out.close();
+                }
+            }
+        }
+    }
+
+    private static void readSegment(Path segment, Map<String, VolatileRow> into) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(segment), 64 * 1024))) {
+            while (true) {
+                String groupId;
+                try {
+                    groupId = in.readUTF();
+                } catch (EOFException e) {
+                    return;
+                }
+                VolatileRow row = into.computeIfAbsent(groupId, VolatileRow::new);
+                row.mergeValues(in.readInt(), in.readInt(), in.readLong(), in.readLong());
+                if (in.readBoolean()) {
+                    GroupSketches sketches = GroupSketches.readFrom(in);
+                    if (row.getSketches() == null) {
+                        row.setSketches(sketches);
+                    } else {
+                        row.getSketches().merge(sketches);
+                    }
+                }
+            }
+        }
+    }
+
+    private static int partitionOf(String groupId) {
+        return Math.floorMod(groupId.hashCode() * 0x9E3779B9, SPILL_PARTITIONS);
+    }
 }
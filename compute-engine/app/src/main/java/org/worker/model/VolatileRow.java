@@ -1,6 +1,11 @@
 package org.worker.model;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Base64;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -8,8 +13,10 @@ public class VolatileRow {
     private String groupId;
     private int minVal;
     private int maxVal;
-    private int sum;
-    private int count;
+    private long sum;
+    private long count;
+    // Approximate aggregates, only when the query asks for any
+    private GroupSketches sketches;
 
     // Using a fine grained lock when multiple threads try to update the same row
     @JsonIgnore
@@ -47,16 +54,64 @@ public class VolatileRow {
         }
     }
 
+    /** Add one row of a query with sketches: its score and the hash of its id. */
+    public void updateRow(int val, long idHash, QuerySpec spec) {
+        fineGrainLock.lock();
+        try {
+            minVal = Math.min(minVal, val);
+            maxVal = Math.max(maxVal, val);
+            sum += val;
+            count++;
+            if (sketches == null) {
+                sketches = GroupSketches.forSpec(spec);
+            }
+            if (sketches != null) {
+                sketches.add(val, idHash);
+            }
+        } finally {
+            fineGrainLock.unlock();
+        }
+    }
+
     public void merge(VolatileRow other) {
         if (other == null) {
             return;
         }
+        mergeValues(other.minVal, other.maxVal, other.sum, other.count, other.sketches);
+    }
+
+    /**
+     * Fold a pre-aggregated group (e.g. a thread-local partial) into this row under one lock acquisition.
+     */
+    public void mergeValues(int otherMin, int otherMax, long otherSum, long otherCount) {
         fineGrainLock.lock();
         try {
-            minVal = Math.min(minVal, other.minVal);
-            maxVal = Math.max(maxVal, other.maxVal);
-            sum += other.sum;
-            count += other.count;
+            minVal = Math.min(minVal, otherMin);
+            maxVal = Math.max(maxVal, otherMax);
+            sum += otherSum;
+            count += otherCount;
+        } finally {
+            fineGrainLock.unlock();
+        }
+    }
+
+    /** Same as above, also folding in the group's sketches, which are copied rather than kept. */
+    public void mergeValues(int otherMin, int otherMax, long otherSum, long otherCount, GroupSketches otherSketches) {
+        if (otherSketches == null) {
+            mergeValues(otherMin, otherMax, otherSum, otherCount);
+            return;
+        }
+        fineGrainLock.lock();
+        try {
+            minVal = Math.min(minVal, otherMin);
+            maxVal = Math.max(maxVal, otherMax);
+            sum += otherSum;
+            count += otherCount;
+            if (sketches == null) {
+                sketches = otherSketches.copy();
+            } else {
+                sketches.merge(otherSketches);
+            }
         } finally {
             fineGrainLock.unlock();
         }
@@ -85,16 +140,36 @@ public class VolatileRow {
     public void setMaxVal(int maxVal) {
         this.maxVal = maxVal;
     }
-    public int getSum() {
+    public long getSum() {
         return sum;
     }
-    public void setSum(int sum) {
+    public void setSum(long sum) {
         this.sum = sum;
     }
-    public int getCount() {
+    public long getCount() {
         return count;
     }
-    public void setCount(int count) {
+    public void setCount(long count) {
         this.count = count;
     }
+    @JsonIgnore
+    public GroupSketches getSketches() {
+        return sketches;
+    }
+    @JsonIgnore
+    public void setSketches(GroupSketches sketches) {
+        this.sketches = sketches;
+    }
+    // Sketches travel through the JSON shuffle as base64 of their binary form
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public String getEncodedSketches() {
+        return sketches == null ? null : Base64.getEncoder().encodeToString(sketches.toBytes());
+    }
+    public void setEncodedSketches(String encoded) {
+        try {
+            this.sketches = encoded == null ? null : GroupSketches.fromBytes(Base64.getDecoder().decode(encoded));
+        } catch (IOException e) {
+            throw new UncheckedIOException("bad sketches for group " + groupId, e);
+        }
+    }
 }
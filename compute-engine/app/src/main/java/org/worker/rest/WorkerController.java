@@ -1,36 +1,107 @@
 package org.worker.rest;
 
 import io.javalin.Javalin;
+import org.worker.core.Checkpointer;
+import org.worker.rpc.ControlServer;
+import org.worker.runtime.RuntimeData;
+import org.worker.runtime.WorkerRuntime;
 
 /**
  * WorkerController implemented using Javalin lightweight HTTP framework.
  *
- * Provides two endpoints (skeletons):
+ * Provides endpoints, each scoped to the query named by the optional ?queryId= parameter:
  * - GET /invokeRead/:param_blob_id
+ * - GET /invokeReadBatch?blobs=a,b,...
  * - GET /invokeShuffle/:worker_id
+ * - GET /getTransientData
+ * - GET /writeResult
+ * - GET /releaseQuery/:query_id
+ * - GET /invokePartitionShuffle?owners=W1,W2,...
+ * - POST /receivePartition
+ * - GET /cacheStats
+ * - GET /aggregateBlob/:blob_id  (one file's partial, binary; used by continuous queries)
+ * - GET /heartbeat  (liveness, start time and checkpoint coverage; polled by the orchestrator)
+ * - GET /hostMap?hosts=W1=host,...  (peer addresses, pushed by the orchestrator)
+ *
+ * On startup the worker registers with the orchestrator (-Dworker.orchestrator, default
+ * http://localhost:9000) under -Dworker.host (default http://localhost:<port>), and announces
+ * itself again every -Dworker.register.intervalSeconds (default 30; 0 registers once), so an
+ * orchestrator that restarted learns about it too. -Dworker.register=false leaves it to the
+ * orchestrator's command line.
+ *
+ * With -Dworker.control=true the same commands are also accepted over a persistent binary
+ * connection ({@link ControlServer}) on -Dworker.control.port (default: HTTP port + 1000).
+ *
+ * Work off the HTTP threads runs on the shared {@link WorkerRuntime}.
  *
  * Implement business logic inside `handleInvokeRead` and `handleInvokeShuffle`.
  */
 public class WorkerController {
 	
 	private Javalin app;
-	private static String ORCHESTRATOR_URL = "http://localhost:9000";
-	private java.util.concurrent.ExecutorService executor;
+	private static String ORCHESTRATOR_URL = System.getProperty("worker.orchestrator", "http://localhost:9000");
 	private WorkerHandlers handlers;
+	private java.util.concurrent.ScheduledFuture<?> expiry;
+	private java.util.concurrent.ScheduledFuture<?> registration;
+	private ControlServer controlServer;
+
+	// Binary control channel for orchestrator commands, off by default
+	private static final boolean CONTROL_CHANNEL = Boolean.getBoolean("worker.control");
 
 	/** Start the HTTP server on the given port. */
 	public void start(int port) {
 		// Use default Javalin configuration. Set response content type per-handler.
+		// pick up where a crashed run left its queries, before the orchestrator's next heartbeat sees us
+		if (Checkpointer.EVERY_FILES > 0) {
+			RuntimeData.INSTANCE.restoreCheckpoints(Checkpointer.DIR);
+		}
+
 		app = Javalin.create().start(port);
 
-		// create a dedicated executor for handling long-running work off the HTTP thread
-		this.executor = java.util.concurrent.Executors.newFixedThreadPool(10);
-		this.handlers = new WorkerHandlers(this.executor, ORCHESTRATOR_URL);
+		// long-running work leaves the HTTP thread for a virtual thread of the shared runtime
+		this.handlers = new WorkerHandlers(WorkerRuntime.INSTANCE.io(), ORCHESTRATOR_URL);
 
 		app.get("/invokeRead/{blob_id}", handlers::invokeRead);
+		app.get("/invokeReadBatch", handlers::invokeReadBatch);
 		app.get("/invokeShuffle/{worker_id}", handlers::invokeShuffle);
 		app.get("/getTransientData", handlers::getTransientData);
 		app.get("/writeResult", handlers::writeResult);
+		app.get("/releaseQuery/{query_id}", handlers::releaseQuery);
+		app.get("/invokePartitionShuffle", handlers::invokePartitionShuffle);
+		app.post("/receivePartition", handlers::receivePartition);
+		app.get("/cacheStats", handlers::cacheStats);
+		app.get("/aggregateBlob/{blob_id}", handlers::aggregateBlob);
+		app.get("/heartbeat", handlers::heartbeat);
+		app.get("/hostMap", handlers::hostMap);
+
+		if (CONTROL_CHANNEL) {
+			int controlPort = Integer.getInteger("worker.control.port", port + 1000);
+			try {
+				this.controlServer = new ControlServer(controlPort, handlers, WorkerRuntime.INSTANCE.io());
+				controlServer.start();
+				handlers.setCompletionChannel(controlServer);
+				System.out.println("Control channel listening on port " + controlServer.getPort());
+			} catch (java.io.IOException e) {
+				System.err.println("Control channel disabled, could not bind port " + controlPort + ": " + e.getMessage());
+			}
+		}
+
+		// reclaim state of queries that were never released, e.g. after an orchestrator restart
+		long sweepMillis = Math.max(1000, RuntimeData.INSTANCE.getQueryTtlMillis() / 4);
+		this.expiry = WorkerRuntime.INSTANCE.schedule(RuntimeData.INSTANCE::expireIdle, sweepMillis,
+				java.util.concurrent.TimeUnit.MILLISECONDS);
+		System.out.println("Worker runtime: " + WorkerRuntime.INSTANCE.describe());
+
+		// join the orchestrator's pool; it answers by pushing the host map to every worker
+		if (!"false".equals(System.getProperty("worker.register"))) {
+			String host = System.getProperty("worker.host", "http://localhost:" + port);
+			WorkerRuntime.INSTANCE.io().execute(() -> handlers.register(host));
+			long everySeconds = Long.getLong("worker.register.intervalSeconds", 30);
+			if (everySeconds > 0) {
+				this.registration = WorkerRuntime.INSTANCE.schedule(() -> handlers.register(host), everySeconds,
+						java.util.concurrent.TimeUnit.SECONDS);
+			}
+		}
 
 	}
 
@@ -39,9 +110,17 @@ public class WorkerController {
 		if (app != null) {
 			app.stop();
 			app = null;
-			if (executor != null) {
-				executor.shutdownNow();
-				executor = null;
+			if (expiry != null) {
+				expiry.cancel(false);
+				expiry = null;
+			}
+			if (registration != null) {
+				registration.cancel(false);
+				registration = null;
+			}
+			if (controlServer != null) {
+				controlServer.stop();
+				controlServer = null;
 			}
 		}
 	}
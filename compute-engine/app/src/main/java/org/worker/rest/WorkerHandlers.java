@@ -1,16 +1,34 @@
 package org.worker.rest;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+import java.util.regex.Pattern;
 
+import org.worker.core.Checkpointer;
 import org.worker.core.DataParser;
-import org.worker.core.ExecutionEngine;
-import org.worker.model.Row;
+import org.worker.core.HashPartitioner;
+import org.worker.core.PartialAggregateCache;
+import org.worker.core.ReadPipeline;
+import org.worker.core.ResultWriter;
+import org.worker.core.ShuffleCodec;
+import org.worker.model.QuerySpec;
 import org.worker.model.TransientVolatileTable;
 import org.worker.utils.HttpUtils;
 import org.worker.utils.PathUtils;
+import org.worker.utils.StreamPipe;
 
 import io.javalin.http.Context;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.net.URI;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
@@ -18,7 +36,11 @@ import java.time.Duration;
 import java.nio.charset.StandardCharsets;
 
 import org.worker.runtime.HostConfig;
+import org.worker.runtime.QueryContext;
 import org.worker.runtime.RuntimeData;
+import org.worker.runtime.TaskStats;
+import org.worker.runtime.WorkerRuntime;
+import org.worker.utils.CountingInputStream;
 
 /**
  * Small holder for worker-related HTTP handlers. These are offloaded from the
@@ -34,108 +56,682 @@ public class WorkerHandlers {
     }
 
     private final ObjectMapper objectMapper = new ObjectMapper();
+    private volatile CompletionChannel completionChannel;
+
+    // Shuffle wire format requested from peers (binary|json) and whether to ask for a deflated body (deflate|none)
+    private static final String SHUFFLE_FORMAT = System.getProperty("worker.shuffle.format", "binary");
+    private static final String SHUFFLE_COMPRESSION = System.getProperty("worker.shuffle.compression", "none");
+    // Partition pushes: chunks buffered per owner, and how long an owner may take to take its whole partition
+    private static final int PUSH_CHUNK_BYTES = 64 * 1024;
+    private static final int PUSH_CHUNKS = 4;
+    private static final Duration PUSH_TIMEOUT = Duration.ofSeconds(Long.getLong("worker.shuffle.pushTimeoutSeconds", 600));
+    // Query ids that may become part of an output file name
+    private static final Pattern SAFE_QUERY_ID = Pattern.compile("[A-Za-z0-9_-]+");
 
     public void invokeRead(Context ctx) {
         String blobId = PathUtils.decodePathParam(ctx.pathParam("blob_id"));
-        executor.submit(() -> {
-            try {
-                handleInvokeRead(blobId);
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-        });
-        ctx.contentType("text/plain");
-        ctx.result("accepted: invokeRead scheduled for blob_id=" + blobId);
+        respond(ctx, () -> read(queryId(ctx), List.of(blobId), ctx::queryParam));
+    }
+
+    /**
+     * Read several blobs as one assignment (?blobs=a,b,c with each name encoded on its own) and
+     * report completion once, after the last of them. Lets the orchestrator hand out small files
+     * in bundles instead of paying a round trip per file.
+     */
+    public void invokeReadBatch(Context ctx) {
+        respond(ctx, () -> read(queryId(ctx), blobList(ctx.queryParam("blobs")), ctx::queryParam));
     }
 
     public void invokeShuffle(Context ctx) {
         String workerId = PathUtils.decodePathParam(ctx.pathParam("worker_id"));
-        executor.submit(() -> {
-            try {
-                handleInvokeShuffle(workerId);
-            } catch (Exception e) {
-                e.printStackTrace();
+        respond(ctx, () -> shuffle(queryId(ctx), workerId, ctx::queryParam));
+    }
+
+    /**
+     * Liveness probe for the orchestrator, as "key=value" lines: when this worker process started
+     * (a new value means it restarted and lost what it held in memory) and, for each query restored
+     * from a checkpoint at startup, "restored=queryId:blob,blob" with every name encoded.
+     */
+    public void heartbeat(Context ctx) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("workerId=").append(org.worker.App.getWorkerId()).append('\n');
+        sb.append("startedAt=").append(RuntimeData.INSTANCE.getStartedMillis()).append('\n');
+        sb.append("activeQueries=").append(RuntimeData.INSTANCE.activeQueries()).append('\n');
+        for (Map.Entry<String, List<String>> query : RuntimeData.INSTANCE.restoredCoverage().entrySet()) {
+            List<String> blobs = new ArrayList<>();
+            for (String blobId : query.getValue()) {
+                blobs.add(PathUtils.encodeParam(blobId));
             }
-        });
+            sb.append("restored=").append(PathUtils.encodeParam(query.getKey())).append(':')
+                    .append(String.join(",", blobs)).append('\n');
+        }
         ctx.contentType("text/plain");
-        ctx.result("accepted: invokeShuffle scheduled for worker_id=" + workerId);
+        ctx.result(sb.toString());
+    }
+
+    /**
+     * The orchestrator's host map, pushed whenever a worker registers:
+     * ?hosts=W1=host,W2=host with every id and host encoded. Replaces the peers shuffles can reach.
+     */
+    public void hostMap(Context ctx) {
+        respond(ctx, () -> setHostMap(ctx::queryParam));
     }
 
     /**
-     * Return the current transient volatile table as JSON.
+     * Announce this worker to the orchestrator (GET /register) under host, with its id (blank to
+     * be assigned one) and the cores its compute pool runs on. The reply names the id the
+     * orchestrator knows it by, which this worker then reports under.
+     *
+     * @return false if the orchestrator couldn't be reached
+     */
+    public boolean register(String host) {
+        String url = orchestratorUrl + "/register?workerId=" + PathUtils.encodeParam(org.worker.App.getWorkerId())
+                + "&host=" + PathUtils.encodeParam(host) + "&cores=" + WorkerRuntime.INSTANCE.cpu().getParallelism();
+        HttpRequest req = HttpRequest.newBuilder().uri(URI.create(url)).timeout(Duration.ofSeconds(5)).GET().build();
+        try {
+            HttpResponse<String> resp = HttpUtils.getHttpClient().send(req, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+            if (resp.statusCode() != 200) {
+                System.err.println("Registration refused by " + orchestratorUrl + ": " + resp.body());
+                return false;
+            }
+            for (String line : resp.body().split("\n")) {
+                if (line.startsWith("workerId=")) {
+                    String id = line.substring("workerId=".length()).trim();
+                    if (!id.equals(org.worker.App.getWorkerId())) {
+                        System.out.println("Registered with " + orchestratorUrl + " as " + id);
+                        org.worker.App.setWorkerId(id);
+                    }
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            System.err.println("Could not register with " + orchestratorUrl + ": " + e.getMessage());
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Return the current transient volatile table. Callers that accept {@link ShuffleCodec#MEDIA_TYPE}
+     * get the streamed binary format (deflated if they ask for it), everyone else gets JSON.
      */
     public void getTransientData(Context ctx) {
+        String queryId = queryId(ctx);
+        QueryContext query = RuntimeData.INSTANCE.beginTaskIfPresent(queryId);
+        if (query == null) {
+            // an empty table would pass for this worker's rows and silently drop them from the result
+            ctx.status(404).result("error: no state held for query=" + queryId);
+            return;
+        }
         try {
-            Object table = RuntimeData.INSTANCE.getTransientVolatileTable();
+            TransientVolatileTable table = query.getTable();
+            String accept = ctx.header("Accept");
+            if (ShuffleCodec.accepts(accept)) {
+                byte compression = ShuffleCodec.requestedCompression(accept);
+                ctx.contentType(ShuffleCodec.contentType(compression));
+                ShuffleCodec.write(table, ctx.outputStream(), compression);
+                return;
+            }
+            if (table.isSpilled() || table.isOffHeap()) {
+                // the JSON form is the in-memory map; gather spilled or off-heap groups into one
+                TransientVolatileTable whole = new TransientVolatileTable();
+                whole.mergeTable(table);
+                table = whole;
+            }
             String json = objectMapper.writeValueAsString(table);
-            ctx.contentType("application/json");
+            ctx.contentType(ShuffleCodec.JSON_MEDIA_TYPE);
             ctx.result(json);
         } catch (Exception e) {
             e.printStackTrace();
             ctx.status(500).result("error: " + e.getMessage());
+        } finally {
+            query.endTask();
         }
     }
 
     /**
-     * Trigger printing of the sorted transient table to stdout and return a short status.
+     * Partitioned shuffle: split this worker's table by group hash across the given owners and
+     * push every share to its owner. Reports completion once every push has been accepted.
      */
-    public void writeResult(Context ctx) {
+    public void invokePartitionShuffle(Context ctx) {
+        respond(ctx, () -> partitionShuffle(queryId(ctx), ctx::queryParam));
+    }
+
+    /**
+     * Receive one worker's share of the partitions this worker owns, merging records as they arrive.
+     */
+    public void receivePartition(Context ctx) {
+        String queryId = queryId(ctx);
+        // a peer's push may arrive before this owner's own partitioned shuffle command
+        QueryContext query = RuntimeData.INSTANCE.beginTask(queryId);
         try {
-            RuntimeData.INSTANCE.getTransientVolatileTable().printSortedTable();
+            TransientVolatileTable target = query.getPartitionTable();
+            long merged;
+            try (InputStream body = ctx.bodyInputStream()) {
+                merged = ShuffleCodec.readInto(body, target);
+            }
             ctx.contentType("text/plain");
-            ctx.result("ok: printed transient table");
+            ctx.result("ok: merged " + merged + " records for query=" + queryId);
         } catch (Exception e) {
             e.printStackTrace();
             ctx.status(500).result("error: " + e.getMessage());
+        } finally {
+            query.endTask();
         }
     }
 
-    // Internal business logic extracted from the controller
-    private void handleInvokeRead(String blobId) {
-        DataParser parser = new DataParser(blobId);
+    /**
+     * Write the query's sorted transient table to its output file, then free the query's state.
+     * With ?shard=N (partitioned shuffle) the owned partition is written to its own shard file.
+     */
+    public void writeResult(Context ctx) {
+        respond(ctx, () -> write(queryId(ctx), ctx::queryParam));
+    }
+
+    /**
+     * Aggregate one blob on its own and stream the partial back in the binary table format,
+     * without touching any query's state. Used by the orchestrator's continuous queries to fold
+     * new files into a standing result; served from the partial cache when possible.
+     */
+    public void aggregateBlob(Context ctx) {
+        String blobId = PathUtils.decodePathParam(ctx.pathParam("blob_id"));
+        try {
+            QuerySpec spec = QuerySpec.fromParams(ctx::queryParam);
+            DataParser parser = new DataParser(blobId);
+            if (!Files.isRegularFile(parser.getFilePath())) {
+                ctx.status(404).result("error: no blob " + blobId);
+                return;
+            }
+            TransientVolatileTable partial = new TransientVolatileTable();
+            ReadPipeline.readBlob(parser, spec, partial, TaskStats.accepted("aggregate"));
+            ctx.contentType(ShuffleCodec.contentType(ShuffleCodec.COMPRESSION_NONE));
+            ShuffleCodec.write(partial, ctx.outputStream(), ShuffleCodec.COMPRESSION_NONE);
+        } catch (IllegalArgumentException e) {
+            ctx.status(400).result("error: " + e.getMessage());
+        } catch (Exception e) {
+            e.printStackTrace();
+            ctx.status(500).result("error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Hit/miss counters and sizes of the partial aggregate cache.
+     */
+    public void cacheStats(Context ctx) {
         try {
-            List<Row> rows = parser.parse();
-            ExecutionEngine engine = new ExecutionEngine(rows);
-            engine.invokeTask();
-            String workerId = org.worker.App.getWorkerId();
-            notifyOrchestrator(workerId);
+            ctx.contentType(ShuffleCodec.JSON_MEDIA_TYPE);
+            ctx.result(objectMapper.writeValueAsString(PartialAggregateCache.shared().stats()));
         } catch (Exception e) {
             e.printStackTrace();
+            ctx.status(500).result("error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Drop this worker's state for a query that has finished (or been abandoned).
+     */
+    public void releaseQuery(Context ctx) {
+        String queryId = PathUtils.decodePathParam(ctx.pathParam("query_id"));
+        respond(ctx, () -> release(queryId));
+    }
+
+    // Commands, independent of the transport that delivered them. The HTTP endpoints above and the
+    // binary control channel (org.worker.rpc.ControlServer) both end up here. Each returns the
+    // status message for the caller; bad input is reported as IllegalArgumentException.
+
+    /** Schedule a read of the given blobs into the query's table; completion is reported once all are read. */
+    public String read(String queryId, List<String> blobIds, Function<String, String> params) {
+        if (blobIds.isEmpty()) {
+            throw new IllegalArgumentException("blobs is required");
+        }
+        QuerySpec spec = QuerySpec.fromParams(params);
+        QueryContext query = RuntimeData.INSTANCE.beginTask(queryId);
+        if (!query.acceptTask(params.apply("task"))) {
+            query.endTask();
+            return "ok: task " + params.apply("task") + " already accepted for query=" + queryId;
         }
+        TaskStats stats = TaskStats.accepted("read");
+        stats.setTask(params.apply("task"));
+        submit(query, () -> handleInvokeRead(query, blobIds, spec, stats));
+        return "accepted: invokeRead scheduled for " + (blobIds.size() == 1 ? "blob_id=" + blobIds.get(0) : blobIds.size() + " blobs")
+                + " query=" + queryId;
     }
 
-    private void handleInvokeShuffle(String workerId) {
-        // placeholder: implement shuffle logic when ready
+    public String shuffle(String queryId, String workerId, Function<String, String> params) {
+        QueryContext query = RuntimeData.INSTANCE.beginTask(queryId);
+        if (!query.acceptTask(params.apply("task"))) {
+            query.endTask();
+            return "ok: task " + params.apply("task") + " already accepted for query=" + queryId;
+        }
+        TaskStats stats = TaskStats.accepted("shuffle");
+        stats.setTask(params.apply("task"));
+        submit(query, () -> {
+            try {
+                handleInvokeShuffle(query, workerId, stats);
+            } finally {
+                query.endTask();
+            }
+        });
+        return "accepted: invokeShuffle scheduled for worker_id=" + workerId + " query=" + queryId;
+    }
+
+    public String partitionShuffle(String queryId, Function<String, String> params) {
+        String ownersParam = params.apply("owners");
+        if (ownersParam == null || ownersParam.isBlank()) {
+            throw new IllegalArgumentException("owners is required");
+        }
+        List<String> owners = List.of(ownersParam.split(","));
+        // a query pushes its partitions once
+        QueryContext query = RuntimeData.INSTANCE.beginTask(queryId);
+        if (!query.acceptTask("partition")) {
+            query.endTask();
+            return "ok: partitioned shuffle already accepted for query=" + queryId;
+        }
+        TaskStats stats = TaskStats.accepted("partition");
+        stats.setTask(params.apply("task"));
+        submit(query, () -> {
+            try {
+                handlePartitionShuffle(query, owners, stats);
+            } catch (Exception e) {
+                e.printStackTrace();
+                // owners may hold part of this worker's rows, so the orchestrator can't just wait or push again
+                notifyFailure(org.worker.App.getWorkerId(), queryId, "partitioned shuffle failed: " + e.getMessage());
+            } finally {
+                query.endTask();
+            }
+        });
+        return "accepted: partitioned shuffle scheduled for owners=" + owners + " query=" + queryId;
+    }
+
+    public String write(String queryId, Function<String, String> params) throws IOException {
+        String prefix = outputPrefix(queryId, params.apply("output"));
+        QueryContext query = RuntimeData.INSTANCE.beginTaskIfPresent(queryId);
+        if (query == null) {
+            // released, expired or never read here: writing an empty result would look like success
+            throw new NoSuchElementException("no state held for query=" + queryId);
+        }
+        try {
+            return write(query, params, prefix);
+        } finally {
+            query.endTask();
+        }
+    }
+
+    private String write(QueryContext query, Function<String, String> params, String prefix) throws IOException {
+        String queryId = query.getQueryId();
+        TaskStats stats = TaskStats.accepted("write");
+        stats.started();
+        long started = System.nanoTime();
+        // the spec normally rides along; fall back to the one seen on this worker's reads
+        QuerySpec spec = QuerySpec.fromParams(params, query.getSpec());
+        ResultWriter.Format format = ResultWriter.Format.fromParam(params.apply("format"));
+        String rowsPerFile = params.apply("rowsPerFile");
+        ResultWriter writer = ResultWriter.configured(spec, format,
+                rowsPerFile == null || rowsPerFile.isBlank() ? 0 : Long.parseLong(rowsPerFile.trim()));
+        String shard = params.apply("shard");
+        List<Path> written;
+        if (shard != null && !shard.isBlank()) {
+            written = writer.write(query.getPartitionTable(), Paths.get(prefix + "-part-" + Integer.parseInt(shard) + format.extension()));
+        } else {
+            written = writer.write(query.getTable(), Paths.get(prefix + format.extension()));
+        }
+        RuntimeData.INSTANCE.release(queryId);
+        stats.addSince(TaskStats.WRITE, started);
+        for (Path out : written) {
+            stats.add(TaskStats.BYTES, Files.size(out));
+        }
+        stats.add(TaskStats.FILES, written.size());
+        reportStats(org.worker.App.getWorkerId(), queryId, stats);
+        if (writer.getRunsSpilled() > 0) {
+            System.out.println("Result of " + queryId + " was sorted in " + writer.getRunsSpilled() + " spilled runs");
+        }
+        return "ok: printed transient table to " + (written.size() == 1 ? written.get(0) : written);
+    }
+
+    /** Replace the peers with a pushed host map (see {@link #hostMap(Context)}). */
+    public String setHostMap(Function<String, String> params) {
+        String hosts = params.apply("hosts");
+        if (hosts == null || hosts.isBlank()) {
+            throw new IllegalArgumentException("hosts is required");
+        }
+        Map<String, String> map = new java.util.HashMap<>();
+        for (String entry : hosts.split(",")) {
+            int eq = entry.indexOf('=');
+            if (eq > 0) {
+                map.put(PathUtils.decodePathParam(entry.substring(0, eq)), PathUtils.decodePathParam(entry.substring(eq + 1)));
+            }
+        }
+        HostConfig.setHostMap(map);
+        System.out.println("Host map updated: " + new java.util.TreeMap<>(map));
+        return "status OK, " + map.size() + " hosts";
+    }
+
+    public String release(String queryId) {
+        boolean released = RuntimeData.INSTANCE.release(queryId);
+        return (released ? "ok: released query=" : "ok: nothing held for query=") + queryId;
+    }
+
+    /** Split a ?blobs= value whose names were encoded one by one before being joined. */
+    public static List<String> blobList(String blobsParam) {
+        List<String> blobIds = new ArrayList<>();
+        if (blobsParam != null) {
+            for (String blob : blobsParam.split(",")) {
+                if (!blob.isBlank()) blobIds.add(PathUtils.decodePathParam(blob));
+            }
+        }
+        return blobIds;
+    }
+
+    /** Route completion reports over the control channel when the orchestrator is connected to one. */
+    public void setCompletionChannel(CompletionChannel completionChannel) {
+        this.completionChannel = completionChannel;
+    }
+
+    /** Alternative path for completion, failure and stats reports; each returns false when it can't take the report. */
+    public interface CompletionChannel {
+        boolean complete(String workerId, String queryId, String stats);
+
+        boolean report(String workerId, String queryId, String stats);
+
+        boolean fail(String workerId, String queryId, String reason);
+    }
+
+    private interface Command {
+        String run() throws Exception;
+    }
+
+    private static void respond(Context ctx, Command command) {
+        try {
+            String result = command.run();
+            ctx.contentType("text/plain");
+            ctx.result(result);
+        } catch (NoSuchElementException e) {
+            ctx.status(404).result("error: " + e.getMessage());
+        } catch (IllegalArgumentException e) {
+            ctx.status(400).result("error: " + e.getMessage());
+        } catch (Exception e) {
+            e.printStackTrace();
+            ctx.status(500).result("error: " + e.getMessage());
+        }
+    }
+
+    // run a task entered on query on the executor; one that can't be scheduled leaves the query again
+    private void submit(QueryContext query, Runnable task) {
+        try {
+            executor.submit(() -> {
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            });
+        } catch (RuntimeException e) {
+            query.endTask();
+            throw e;
+        }
+    }
+
+    // Internal business logic extracted from the controller
+    private void handleInvokeRead(QueryContext query, List<String> blobIds, QuerySpec spec, TaskStats stats) {
+        String queryId = query.getQueryId();
+        query.setSpec(spec);
+        try {
+            ReadPipeline.shared().submit(blobIds, spec, query.getTable(), query.getCheckpointer(), stats, ok -> {
+                query.endTask();
+                if (!ok) {
+                    System.err.println("Read of " + blobIds + " for query " + queryId + " failed, not reporting completion");
+                    return;
+                }
+                notifyOrchestrator(org.worker.App.getWorkerId(), queryId, stats);
+            });
+        } catch (RuntimeException e) {
+            query.endTask();
+            throw e;
+        }
+    }
+
+    private void handleInvokeShuffle(QueryContext query, String workerId, TaskStats stats) {
+        String queryId = query.getQueryId();
+        stats.started();
         String destHost = HostConfig.getHostMap().get(workerId);
         System.out.println("handleInvokeShuffle called for " + workerId + " -> host=" + destHost);
         if (destHost == null || destHost.isBlank()) {
             System.err.println("No host mapping found for workerId=" + workerId);
+            notifyFailure(org.worker.App.getWorkerId(), queryId, "shuffle failed: no host for " + workerId);
             return;
         }
 
-        String url = HttpUtils.buildUrl(destHost, "/getTransientData");
+        String url = HttpUtils.buildUrl(destHost, "/getTransientData?queryId=" + PathUtils.encodeParam(queryId));
         try {
-            HttpResponse<String> resp = HttpUtils.GET(url);
+            long started = System.nanoTime();
+            HttpResponse<InputStream> resp = HttpUtils.getStream(url, shuffleAcceptHeader());
             if (resp != null && resp.statusCode() == 200) {
-                String body = resp.body();
-                // deserialize into TransientVolatileTable and set into runtime
-                TransientVolatileTable table = objectMapper.readValue(body, TransientVolatileTable.class);
-                RuntimeData.INSTANCE.getTransientVolatileTable().mergeTable(table);
-                System.out.println("Fetched and merged transient table from " + workerId);
+                TransientVolatileTable target = query.getTable();
+                String contentType = resp.headers().firstValue("Content-Type").orElse(ShuffleCodec.JSON_MEDIA_TYPE);
+                try (CountingInputStream body = new CountingInputStream(resp.body())) {
+                    absorb(query.getCheckpointer(), () -> {
+                        if (contentType.startsWith(ShuffleCodec.MEDIA_TYPE)) {
+                            // merge records as they come off the wire, so transfer and merge are one timing
+                            long merged = ShuffleCodec.readInto(body, target);
+                            stats.addSince(TaskStats.TRANSFER, started);
+                            stats.add(TaskStats.ROWS, merged);
+                            System.out.println("Fetched and merged " + merged + " binary shuffle records from " + workerId);
+                        } else {
+                            // JSON fallback for peers that don't speak the binary format
+                            TransientVolatileTable table = objectMapper.readValue(body, TransientVolatileTable.class);
+                            stats.addSince(TaskStats.TRANSFER, started);
+                            long merging = System.nanoTime();
+                            target.mergeTable(table);
+                            stats.addSince(TaskStats.MERGE, merging);
+                            stats.add(TaskStats.ROWS, table.getGroupIdVsRow().size());
+                            System.out.println("Fetched and merged transient table from " + workerId);
+                        }
+                        return true;
+                    });
+                    stats.add(TaskStats.PAYLOAD_BYTES, body.getCount());
+                }
                 String currentWorker = org.worker.App.getWorkerId();
-                notifyOrchestrator(currentWorker);
+                notifyOrchestrator(currentWorker, queryId, stats);
             } else {
-                System.err.println("Failed to fetch transient data from " + url + " status=" + resp.statusCode());
+                // e.g. 404: the peer no longer holds the query's state
+                String status = resp == null ? "none" : Integer.toString(resp.statusCode());
+                System.err.println("Failed to fetch transient data from " + url + " status=" + status);
+                notifyFailure(org.worker.App.getWorkerId(), queryId, "shuffle from " + workerId + " failed: status=" + status);
             }
         } catch (Exception e) {
             System.err.println("Error fetching transient data from " + url + " : " + e.getMessage());
             e.printStackTrace();
+            notifyFailure(org.worker.App.getWorkerId(), queryId, "shuffle from " + workerId + " failed: " + e.getMessage());
         }
     }
 
-    private void notifyOrchestrator(String workerId) {
+    /**
+     * Push every partition of the table straight to its owner. All pushes run at once, each body
+     * streamed through a small {@link StreamPipe} while one pass over the table routes every row
+     * to its partition, so memory stays at a few chunks per owner whatever the table's size.
+     */
+    private void handlePartitionShuffle(QueryContext query, List<String> owners, TaskStats stats) throws IOException {
+        String queryId = query.getQueryId();
+        stats.started();
+        long started = System.nanoTime();
+        String self = org.worker.App.getWorkerId();
+        int partitions = owners.size();
+        byte compression = "deflate".equalsIgnoreCase(SHUFFLE_COMPRESSION)
+                ? ShuffleCodec.COMPRESSION_DEFLATE : ShuffleCodec.COMPRESSION_NONE;
+
+        StreamPipe[] pipes = new StreamPipe[partitions];
+        List<CompletableFuture<HttpResponse<String>>> pushes = new ArrayList<>();
+        for (int p = 0; p < partitions; p++) {
+            String owner = owners.get(p);
+            if (owner.equals(self)) {
+                pushes.add(null);
+                continue;
+            }
+            String host = HostConfig.getHostMap().get(owner);
+            if (host == null || host.isBlank()) {
+                abortAll(pipes, "no host for " + owner);
+                throw new IOException("No host mapping found for partition owner " + owner);
+            }
+            String url = HttpUtils.buildUrl(host, "/receivePartition?queryId=" + PathUtils.encodeParam(queryId));
+            StreamPipe pipe = new StreamPipe(PUSH_CHUNK_BYTES, PUSH_CHUNKS);
+            pipes[p] = pipe;
+            CompletableFuture<HttpResponse<String>> push = HttpUtils.postStream(url, pipe.inputStream(),
+                    ShuffleCodec.contentType(compression), PUSH_TIMEOUT);
+            // a receiver that fails or goes away must not leave the table walk waiting on its pipe
+            push.whenComplete((resp, e) -> {
+                if (e != null || resp.statusCode() != 200) {
+                    pipe.abort("push to " + owner + " failed");
+                }
+            });
+            pushes.add(push);
+        }
+
+        long records = 0;
+        try {
+            // one pass over the table, routing every row to its owner's stream
+            ShuffleCodec.RecordWriter[] writers = new ShuffleCodec.RecordWriter[partitions];
+            for (int p = 0; p < partitions; p++) {
+                if (pipes[p] != null) {
+                    writers[p] = new ShuffleCodec.RecordWriter(pipes[p].outputStream(), compression);
+                }
+            }
+            TransientVolatileTable own = query.getPartitionTable();
+            query.getTable().forEachGroup(row -> {
+                int p = HashPartitioner.partitionOf(row.getGroupId(), partitions);
+                if (writers[p] == null) {
+                    own.mergeGroup(row.getGroupId(), row.getMinVal(), row.getMaxVal(), row.getSum(), row.getCount(), row.getSketches());
+                } else {
+                    writers[p].write(row);
+                }
+            });
+            for (int p = 0; p < partitions; p++) {
+                if (writers[p] != null) {
+                    records += writers[p].finish();
+                    pipes[p].outputStream().close();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            abortAll(pipes, "partitioned shuffle failed");
+            throw e;
+        }
+        stats.addSince(TaskStats.SERIALIZE, started);
+        stats.add(TaskStats.ROWS, records);
+
+        long transferring = System.nanoTime();
+        for (int p = 0; p < partitions; p++) {
+            if (pipes[p] == null) {
+                continue;
+            }
+            String owner = owners.get(p);
+            HttpResponse<String> resp;
+            try {
+                resp = pushes.get(p).join();
+            } catch (CompletionException e) {
+                abortAll(pipes, "partitioned shuffle failed");
+                throw new IOException("Failed to push partition " + p + " to " + owner, e.getCause());
+            }
+            if (resp.statusCode() != 200) {
+                abortAll(pipes, "partitioned shuffle failed");
+                throw new IOException("Failed to push partition " + p + " to " + owner + " status=" + resp.statusCode());
+            }
+            stats.add(TaskStats.PAYLOAD_BYTES, pipes[p].written());
+            System.out.println("Pushed partition " + p + " (" + pipes[p].written() + " bytes) to " + owner);
+        }
+        stats.addSince(TaskStats.TRANSFER, transferring);
+        notifyOrchestrator(self, queryId, stats);
+    }
+
+    private static void abortAll(StreamPipe[] pipes, String reason) {
+        for (StreamPipe pipe : pipes) {
+            if (pipe != null) {
+                pipe.abort(reason);
+            }
+        }
+    }
+
+    // another worker's rows can't be traced to blobs here, so they must never reach a checkpoint
+    private static void absorb(Checkpointer checkpointer, Checkpointer.Merge merge) throws IOException {
+        if (checkpointer == null) {
+            merge.run();
+        } else {
+            checkpointer.absorb(merge);
+        }
+    }
+
+    private static String shuffleAcceptHeader() {
+        if (!"binary".equalsIgnoreCase(SHUFFLE_FORMAT)) {
+            return ShuffleCodec.JSON_MEDIA_TYPE;
+        }
+        String binary = ShuffleCodec.MEDIA_TYPE + ("deflate".equalsIgnoreCase(SHUFFLE_COMPRESSION) ? "; compression=deflate" : "");
+        return binary + ", " + ShuffleCodec.JSON_MEDIA_TYPE + "; q=0.5";
+    }
+
+    /** Report a finished task, with its statistics piggybacked on the completion message. */
+    private void notifyOrchestrator(String workerId, String queryId, TaskStats stats) {
+        if (workerId == null || workerId.isBlank()) return;
+        CompletionChannel channel = completionChannel;
+        if (channel != null && channel.complete(workerId, queryId, stats.encode())) {
+            return;
+        }
+        completeOverHttp(workerId, queryId, stats.encode());
+    }
+
+    /** GET /completeTask on the orchestrator; also where the control channel turns when it can't deliver. */
+    public void completeOverHttp(String workerId, String queryId, String stats) {
+        HttpUtils.callGet(orchestratorUrl + "/completeTask/" + workerId + "?queryId=" + PathUtils.encodeParam(queryId)
+                + "&stats=" + PathUtils.encodeParam(stats));
+    }
+
+    /** Report a task the orchestrator waits on that will never complete, so it stops waiting. */
+    private void notifyFailure(String workerId, String queryId, String reason) {
+        if (workerId == null || workerId.isBlank()) return;
+        CompletionChannel channel = completionChannel;
+        if (channel != null && channel.fail(workerId, queryId, reason)) {
+            return;
+        }
+        failOverHttp(workerId, queryId, reason);
+    }
+
+    /** GET /failTask on the orchestrator. */
+    public void failOverHttp(String workerId, String queryId, String reason) {
+        HttpUtils.callGet(orchestratorUrl + "/failTask/" + workerId + "?queryId=" + PathUtils.encodeParam(queryId)
+                + "&reason=" + PathUtils.encodeParam(reason == null ? "" : reason));
+    }
+
+    /** Send statistics of a task the orchestrator doesn't wait on (the final write). */
+    private void reportStats(String workerId, String queryId, TaskStats stats) {
         if (workerId == null || workerId.isBlank()) return;
-        String url = orchestratorUrl + "/completeTask/" + workerId;
-        HttpUtils.callGet(url);
+        CompletionChannel channel = completionChannel;
+        if (channel != null && channel.report(workerId, queryId, stats.encode())) {
+            return;
+        }
+        reportOverHttp(workerId, queryId, stats.encode());
+    }
+
+    /** GET /reportStats on the orchestrator. */
+    public void reportOverHttp(String workerId, String queryId, String stats) {
+        HttpUtils.callGet(orchestratorUrl + "/reportStats/" + workerId + "?queryId=" + PathUtils.encodeParam(queryId)
+                + "&stats=" + PathUtils.encodeParam(stats));
+    }
+
+    private static String queryId(Context ctx) {
+        return RuntimeData.normalize(ctx.queryParam("queryId"));
+    }
+
+    /**
+     * Result file name without extension: output for the default query or when the orchestrator asks
+     * for it (output=default, a /startTask without a queryId), else output-<queryId>. The id becomes
+     * part of a path, so anything but [A-Za-z0-9_-] is rejected.
+     */
+    private static String outputPrefix(String queryId, String output) {
+        if (!SAFE_QUERY_ID.matcher(queryId).matches()) {
+            throw new IllegalArgumentException("queryId must match " + SAFE_QUERY_ID.pattern() + ", got '" + queryId + "'");
+        }
+        if (RuntimeData.DEFAULT_QUERY_ID.equals(queryId) || "default".equals(output)) {
+            return "output";
+        }
+        return "output-" + queryId;
     }
 }
@@ -0,0 +1,413 @@
+package org.worker.rpc;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.worker.rest.WorkerHandlers;
+import org.worker.runtime.RuntimeData;
+
+/**
+ * Binary control channel, an alternative to the worker's HTTP endpoints for orchestrator traffic
+ * (see {@link ControlProtocol} for the frame format). One selector thread serves all connections.
+ *
+ * - Commands are decoded as soon as they arrive and handed to the same {@link WorkerHandlers}
+ *   methods the HTTP endpoints use, so the orchestrator can pipeline many without waiting.
+ * - Acks and completion events are queued and written once per selector pass, so everything that
+ *   became ready in between shares one frame and one write.
+ * - A connection must open with HELLO, naming its orchestrator, before it may send commands. A
+ *   query's events go to the latest connection of the orchestrator that sent its commands, so
+ *   another peer connecting can't take them over.
+ * - Events are kept until the orchestrator acks them and are sent again when it reconnects. One
+ *   still unacked after -Dworker.control.eventTimeoutMillis (default 10000) goes over HTTP instead.
+ */
+public class ControlServer implements Runnable, WorkerHandlers.CompletionChannel {
+
+    private final WorkerHandlers handlers;
+    private final ExecutorService executor;
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private static final long EVENT_TIMEOUT_MILLIS = Long.getLong("worker.control.eventTimeoutMillis", 10_000);
+    // selector wake-up interval, so unacked events time out even when nothing arrives
+    private static final long POLL_MILLIS = 500;
+    private static final int MAX_QUERY_OWNERS = 4096;
+
+    // Events not yet acked, in the order they were queued; guarded by itself
+    private final Map<Long, Pending> pendingEvents = new LinkedHashMap<>();
+    private final AtomicLong nextEventId = new AtomicLong();
+    // orchestrator id -> its latest connection that completed the handshake; selector thread only
+    private final Map<String, Connection> orchestrators = new ConcurrentHashMap<>();
+    // query id -> the orchestrator whose commands for it arrived last, the most recent queries only
+    private final Map<String, String> queryOwners = Collections.synchronizedMap(new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MAX_QUERY_OWNERS;
+        }
+    });
+    private volatile boolean running = true;
+    private Thread thread;
+
+    public ControlServer(int port, WorkerHandlers handlers, ExecutorService executor) throws IOException {
+        this.handlers = handlers;
+        this.executor = executor;
+        this.selector = Selector.open();
+        this.server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(port));
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    public void start() {
+        thread = new Thread(this, "control-channel");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void stop() {
+        running = false;
+        selector.wakeup();
+        try {
+            if (thread != null) {
+                thread.join(1000);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    /**
+     * Queue a completion event, carrying the task's statistics, for the orchestrator that sent the
+     * query's commands over this channel. It is delivered over the channel or, failing that, HTTP.
+     *
+     * @return false when the query's commands didn't come over this channel, so the caller uses HTTP
+     */
+    @Override
+    public boolean complete(String workerId, String queryId, String stats) {
+        return queue(ControlProtocol.EVENT_COMPLETE, workerId, queryId, stats);
+    }
+
+    /** Queue statistics of a task the orchestrator doesn't wait on; same fallback contract as complete. */
+    @Override
+    public boolean report(String workerId, String queryId, String stats) {
+        return queue(ControlProtocol.EVENT_STATS, workerId, queryId, stats);
+    }
+
+    /** Queue the reason a task failed; same fallback contract as complete. */
+    @Override
+    public boolean fail(String workerId, String queryId, String reason) {
+        return queue(ControlProtocol.EVENT_FAILED, workerId, queryId, reason == null ? "" : reason);
+    }
+
+    private boolean queue(byte kind, String workerId, String queryId, String stats) {
+        String owner = queryOwners.get(queryId);
+        if (owner == null) {
+            return false;
+        }
+        ControlProtocol.Event event = new ControlProtocol.Event(nextEventId.incrementAndGet(), kind, workerId, queryId, stats);
+        synchronized (pendingEvents) {
+            pendingEvents.put(event.eventId(), new Pending(event, owner, System.currentTimeMillis()));
+        }
+        selector.wakeup();
+        return true;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                selector.select(POLL_MILLIS);
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    try {
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            accept();
+                        } else {
+                            Connection connection = (Connection) key.attachment();
+                            if (key.isReadable()) {
+                                connection.read();
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                connection.flush();
+                            }
+                        }
+                    } catch (IOException e) {
+                        System.err.println("Control connection dropped: " + e.getMessage());
+                        close(key);
+                    }
+                }
+                flushPending();
+            }
+        } catch (IOException e) {
+            System.err.println("Control channel stopped: " + e.getMessage());
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                close(key);
+            }
+            try {
+                selector.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = server.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+        key.attach(new Connection(channel, key));
+        System.out.println("Control connection from " + channel.getRemoteAddress());
+    }
+
+    // One frame of acks and one of events per connection and pass
+    private void flushPending() throws IOException {
+        long now = System.currentTimeMillis();
+        Map<Connection, List<ControlProtocol.Event>> batches = new LinkedHashMap<>();
+        List<Pending> expired = new ArrayList<>();
+        synchronized (pendingEvents) {
+            Iterator<Pending> it = pendingEvents.values().iterator();
+            while (it.hasNext()) {
+                Pending pending = it.next();
+                if (now - pending.queuedMillis >= EVENT_TIMEOUT_MILLIS) {
+                    it.remove();
+                    expired.add(pending);
+                } else if (pending.sentOn == null || !pending.sentOn.channel.isOpen()) {
+                    // not sent yet, or sent on a connection that dropped before the ack came back
+                    Connection target = orchestrators.get(pending.orchestratorId);
+                    if (target != null && target.channel.isOpen()) {
+                        batches.computeIfAbsent(target, c -> new ArrayList<>()).add(pending.event);
+                        pending.sentOn = target;
+                    }
+                }
+            }
+        }
+        for (Map.Entry<Connection, List<ControlProtocol.Event>> batch : batches.entrySet()) {
+            batch.getKey().outbound.add(ControlProtocol.encodeEvents(batch.getValue()));
+        }
+        for (Pending pending : expired) {
+            ControlProtocol.Event event = pending.event;
+            System.err.println("Event " + event.eventId() + " for query " + event.queryId() + " not acked within "
+                    + EVENT_TIMEOUT_MILLIS + "ms, sending it over HTTP");
+            executor.execute(() -> {
+                switch (event.kind()) {
+                    case ControlProtocol.EVENT_COMPLETE -> handlers.completeOverHttp(event.workerId(), event.queryId(), event.stats());
+                    case ControlProtocol.EVENT_FAILED -> handlers.failOverHttp(event.workerId(), event.queryId(), event.stats());
+                    default -> handlers.reportOverHttp(event.workerId(), event.queryId(), event.stats());
+                }
+            });
+        }
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof Connection connection && key.isValid()) {
+                try {
+                    connection.drainAcks();
+                    connection.flush();
+                } catch (IOException e) {
+                    System.err.println("Control connection dropped: " + e.getMessage());
+                    close(key);
+                }
+            }
+        }
+    }
+
+    private void close(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException ignored) {
+        }
+        // events sent on it and not acked go out again once its orchestrator reconnects
+        if (key.attachment() instanceof Connection connection && connection.orchestratorId != null) {
+            orchestrators.remove(connection.orchestratorId, connection);
+        }
+    }
+
+    /** An event waiting for the orchestrator's ack. */
+    private static final class Pending {
+        final ControlProtocol.Event event;
+        final String orchestratorId;
+        final long queuedMillis;
+        // the connection it was last sent on; null while unsent
+        Connection sentOn;
+
+        Pending(ControlProtocol.Event event, String orchestratorId, long queuedMillis) {
+            this.event = event;
+            this.orchestratorId = orchestratorId;
+            this.queuedMillis = queuedMillis;
+        }
+    }
+
+    private final class Connection {
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private ByteBuffer inbound = ByteBuffer.allocate(64 * 1024);
+        // acks can be produced by executor threads (WRITE runs off the selector thread)
+        private final Queue<ControlProtocol.Ack> acks = new ConcurrentLinkedQueue<>();
+        private final Queue<ByteBuffer> outbound = new ArrayDeque<>();
+        // set by the HELLO that opens the connection
+        private String orchestratorId;
+
+        Connection(SocketChannel channel, SelectionKey key) {
+            this.channel = channel;
+            this.key = key;
+        }
+
+        void read() throws IOException {
+            if (channel.read(inbound) < 0) {
+                throw new IOException("peer closed the connection");
+            }
+            inbound.flip();
+            while (inbound.remaining() >= Integer.BYTES) {
+                int length = inbound.getInt(inbound.position());
+                if (length < 2 || length > ControlProtocol.MAX_FRAME_LENGTH) {
+                    throw new IOException("bad control frame length " + length);
+                }
+                if (inbound.remaining() < Integer.BYTES + length) {
+                    break;
+                }
+                int start = inbound.position() + Integer.BYTES;
+                ByteBuffer frame = inbound.slice(start, length);
+                inbound.position(start + length);
+                try {
+                    handleFrame(frame);
+                } catch (BufferUnderflowException e) {
+                    throw new IOException("truncated control frame");
+                }
+            }
+            inbound.compact();
+            if (!inbound.hasRemaining()) {
+                // a frame larger than the buffer is still arriving
+                ByteBuffer larger = ByteBuffer.allocate(inbound.capacity() * 2);
+                inbound.flip();
+                larger.put(inbound);
+                inbound = larger;
+            }
+        }
+
+        private void handleFrame(ByteBuffer frame) throws IOException {
+            byte version = frame.get();
+            if (version != ControlProtocol.VERSION) {
+                throw new IOException("unsupported control protocol version " + version);
+            }
+            byte type = frame.get();
+            switch (type) {
+                case ControlProtocol.TYPE_HELLO -> {
+                    String id = ControlProtocol.decodeHello(frame);
+                    if (id.isBlank() || orchestratorId != null) {
+                        throw new IOException("bad control handshake");
+                    }
+                    orchestratorId = id;
+                    orchestrators.put(id, this);
+                    System.out.println("Control connection from " + channel.getRemoteAddress() + " is orchestrator " + id);
+                }
+                case ControlProtocol.TYPE_EVENT_ACKS -> {
+                    List<Long> eventIds = ControlProtocol.decodeEventAcks(frame);
+                    synchronized (pendingEvents) {
+                        eventIds.forEach(pendingEvents::remove);
+                    }
+                }
+                case ControlProtocol.TYPE_COMMAND -> {
+                    if (orchestratorId == null) {
+                        throw new IOException("command before the control handshake");
+                    }
+                    handleCommand(ControlProtocol.decodeCommand(frame));
+                }
+                default -> throw new IOException("unexpected control frame type " + type);
+            }
+        }
+
+        private void handleCommand(ControlProtocol.Command command) {
+            String queryId = RuntimeData.normalize(command.params().get("queryId"));
+            // the query's events answer to whoever sent its commands
+            queryOwners.put(queryId, orchestratorId);
+            if (command.op() == ControlProtocol.OP_WRITE) {
+                // writing output can take a while; keep the selector free for other commands
+                executor.submit(() -> {
+                    acks.add(execute(command));
+                    selector.wakeup();
+                });
+            } else {
+                acks.add(execute(command));
+            }
+        }
+
+        private ControlProtocol.Ack execute(ControlProtocol.Command command) {
+            String queryId = RuntimeData.normalize(command.params().get("queryId"));
+            try {
+                String message = switch (command.op()) {
+                    case ControlProtocol.OP_READ -> handlers.read(queryId, List.of(command.target()), command.params()::get);
+                    case ControlProtocol.OP_READ_BATCH -> handlers.read(queryId,
+                            WorkerHandlers.blobList(command.params().get("blobs")), command.params()::get);
+                    case ControlProtocol.OP_SHUFFLE -> handlers.shuffle(queryId, command.target(), command.params()::get);
+                    case ControlProtocol.OP_PARTITION_SHUFFLE -> handlers.partitionShuffle(queryId, command.params()::get);
+                    case ControlProtocol.OP_WRITE -> handlers.write(queryId, command.params()::get);
+                    case ControlProtocol.OP_RELEASE -> handlers.release(RuntimeData.normalize(command.target()));
+                    default -> throw new IllegalArgumentException("unknown op " + command.op());
+                };
+                return new ControlProtocol.Ack(command.correlationId(), ControlProtocol.STATUS_OK, message);
+            } catch (NoSuchElementException e) {
+                return new ControlProtocol.Ack(command.correlationId(), ControlProtocol.STATUS_NOT_FOUND, "error: " + e.getMessage());
+            } catch (IllegalArgumentException e) {
+                return new ControlProtocol.Ack(command.correlationId(), ControlProtocol.STATUS_BAD_REQUEST, "error: " + e.getMessage());
+            } catch (Exception e) {
+                e.printStackTrace();
+                return new ControlProtocol.Ack(command.correlationId(), ControlProtocol.STATUS_ERROR, "error: " + e.getMessage());
+            }
+        }
+
+        void drainAcks() throws IOException {
+            if (acks.isEmpty()) {
+                return;
+            }
+            List<ControlProtocol.Ack> batch = new ArrayList<>();
+            ControlProtocol.Ack ack;
+            while ((ack = acks.poll()) != null) {
+                batch.add(ack);
+            }
+            outbound.add(ControlProtocol.encodeAcks(batch));
+        }
+
+        void flush() throws IOException {
+            while (!outbound.isEmpty()) {
+                ByteBuffer next = outbound.peek();
+                channel.write(next);
+                if (next.hasRemaining()) {
+                    // socket buffer is full, continue when it drains
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    return;
+                }
+                outbound.poll();
+            }
+            key.interestOps(SelectionKey.OP_READ);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package org.worker.runtime;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.worker.core.Checkpointer;
+import org.worker.model.QuerySpec;
+import org.worker.model.TransientVolatileTable;
+
+/**
+ * Worker-side state for one query. Lives in {@link RuntimeData} from the first request that
+ * mentions the query until the query is released or sits idle past the TTL. Tasks working on it
+ * enter through {@link RuntimeData#beginTask} and leave with {@link #endTask}; state released
+ * while tasks run is freed when the last of them ends, and a query with tasks running never
+ * counts as idle.
+ */
+public class QueryContext {
+    private final String queryId;
+    private final TransientVolatileTable table;
+    // Groups this worker owns in a partitioned shuffle, merged from every worker's share
+    private final TransientVolatileTable partitionTable = TransientVolatileTable.budgeted();
+    private volatile long lastAccessMillis = System.currentTimeMillis();
+    private volatile QuerySpec spec = QuerySpec.DEFAULT;
+    // null unless -Dworker.checkpoint.everyFiles is set
+    private final Checkpointer checkpointer;
+    // blobs the table already held when it was restored from a checkpoint at startup
+    private final List<String> restoredBlobIds;
+    // task ids of the commands already accepted, so one delivered twice (sent again over HTTP after
+    // the control connection dropped before its ack) runs once
+    private final Set<String> acceptedTasks = ConcurrentHashMap.newKeySet();
+    // tasks running against this state, and whether it was released while they ran; guarded by this
+    private int tasksInFlight;
+    private boolean retired;
+    private volatile boolean closed;
+
+    public QueryContext(String queryId) {
+        this(queryId, TransientVolatileTable.budgeted(), List.of());
+    }
+
+    private QueryContext(String queryId, TransientVolatileTable table, List<String> restoredBlobIds) {
+        this.queryId = queryId;
+        this.table = table;
+        this.restoredBlobIds = List.copyOf(restoredBlobIds);
+        this.checkpointer = Checkpointer.configured(queryId, table);
+        if (checkpointer != null) {
+            checkpointer.restored(restoredBlobIds);
+        }
+    }
+
+    /** A query's state as a checkpoint left it. */
+    static QueryContext restore(Checkpointer.Restored restored) {
+        QueryContext query = new QueryContext(restored.queryId(), restored.table(), restored.blobIds());
+        query.setSpec(restored.spec());
+        return query;
+    }
+
+    public String getQueryId() {
+        return queryId;
+    }
+
+    public TransientVolatileTable getTable() {
+        return table;
+    }
+
+    public TransientVolatileTable getPartitionTable() {
+        return partitionTable;
+    }
+
+    public QuerySpec getSpec() {
+        return spec;
+    }
+
+    public void setSpec(QuerySpec spec) {
+        this.spec = spec;
+        if (checkpointer != null) {
+            checkpointer.setSpec(spec);
+        }
+    }
+
+    public Checkpointer getCheckpointer() {
+        return checkpointer;
+    }
+
+    public List<String> getRestoredBlobIds() {
+        return restoredBlobIds;
+    }
+
+    /** Whether the task is new to this query; false if a command with the same id was already accepted. */
+    public boolean acceptTask(String task) {
+        return task == null || task.isBlank() || acceptedTasks.add(task.trim());
+    }
+
+    public long getLastAccessMillis() {
+        return lastAccessMillis;
+    }
+
+    // a task started against this state (see RuntimeData#beginTask); it isn't freed until the task ends
+    synchronized void enter() {
+        tasksInFlight++;
+        touch();
+    }
+
+    /** The task that entered the query is done with its state; frees it if the query was released meanwhile. */
+    public void endTask() {
+        synchronized (this) {
+            touch();
+            if (--tasksInFlight > 0 || !retired) {
+                return;
+            }
+        }
+        close();
+    }
+
+    synchronized boolean isBusy() {
+        return tasksInFlight > 0;
+    }
+
+    // the query was released: free its state now, or once the last running task ends
+    void retire() {
+        synchronized (this) {
+            retired = true;
+            if (tasksInFlight > 0) {
+                System.out.println("Query " + queryId + " released with " + tasksInFlight + " task(s) running, freeing it after them");
+                return;
+            }
+        }
+        close();
+    }
+
+    /** Free the query's spill files, off-heap memory and checkpoint; called once the query's state is released. */
+    private void close() {
+        closed = true;
+        for (String spill : new String[] {table.describeSpill(), partitionTable.describeSpill()}) {
+            if (spill != null) {
+                System.out.println("Query " + queryId + " " + spill);
+            }
+        }
+        table.release();
+        partitionTable.release();
+        if (checkpointer != null) {
+            checkpointer.delete();
+        }
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    void touch() {
+        lastAccessMillis = System.currentTimeMillis();
+    }
+}
@@ -1,17 +1,141 @@
 package org.worker.runtime;
 
-import org.worker.model.TransientVolatileTable;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.worker.core.Checkpointer;
+
+/**
+ * Per-query registry of transient state, so a warm worker can serve many queries (including
+ * concurrent ones) without a restart. State is dropped when the orchestrator releases the query,
+ * or by {@link #expireIdle()} once it has been idle for longer than the TTL with no task running.
+ */
 public enum RuntimeData {
     INSTANCE;
 
-    private TransientVolatileTable transientVolatileTable = new TransientVolatileTable();
+    // Used when a request carries no queryId, e.g. an older orchestrator
+    public static final String DEFAULT_QUERY_ID = "default";
+
+    // Idle time after which a query's state is reclaimed even if nobody released it
+    private static final long QUERY_TTL_MILLIS = Long.getLong("worker.query.ttl.seconds", 600) * 1000;
+
+    private final Map<String, QueryContext> queries = new ConcurrentHashMap<>();
+
+    // Tells the orchestrator's heartbeats apart from those of an earlier run of this worker
+    private final long startedMillis = System.currentTimeMillis();
+
+    /** The query's state, created on first mention. */
+    public QueryContext getQuery(String queryId) {
+        String id = normalize(queryId);
+        QueryContext query = queries.computeIfAbsent(id, QueryContext::new);
+        query.touch();
+        return query;
+    }
+
+    /** The query's state, or null if this worker holds none (never seen, released or expired). */
+    public QueryContext findQuery(String queryId) {
+        QueryContext query = queries.get(normalize(queryId));
+        if (query != null) {
+            query.touch();
+        }
+        return query;
+    }
+
+    /**
+     * Start a task on the query's state, creating it on first mention. The state stays until the
+     * task calls {@link QueryContext#endTask}, even if the query is released meanwhile.
+     */
+    public QueryContext beginTask(String queryId) {
+        return queries.compute(normalize(queryId), (id, query) -> {
+            QueryContext entered = query == null ? new QueryContext(id) : query;
+            entered.enter();
+            return entered;
+        });
+    }
+
+    /** As {@link #beginTask}, but only on state this worker already holds; null otherwise. */
+    public QueryContext beginTaskIfPresent(String queryId) {
+        return queries.computeIfPresent(normalize(queryId), (id, query) -> {
+            query.enter();
+            return query;
+        });
+    }
+
+    /** Drop all state held for the query. Returns true if there was any. */
+    public boolean release(String queryId) {
+        QueryContext query = queries.remove(normalize(queryId));
+        if (query == null) {
+            return false;
+        }
+        query.retire();
+        return true;
+    }
+
+    /** Release every query idle for longer than the TTL. Returns how many were released. */
+    public int expireIdle() {
+        return expireIdle(System.currentTimeMillis());
+    }
+
+    int expireIdle(long nowMillis) {
+        long cutoff = nowMillis - QUERY_TTL_MILLIS;
+        int expired = 0;
+        for (QueryContext query : queries.values()) {
+            if (query.getLastAccessMillis() < cutoff && !query.isBusy() && queries.remove(query.getQueryId(), query)) {
+                query.retire();
+                System.out.println("Expired idle state for query " + query.getQueryId());
+                expired++;
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * Load the queries checkpointed before this worker last stopped (see {@link Checkpointer}).
+     * Returns how many were restored.
+     */
+    public int restoreCheckpoints(Path dir) {
+        int restored = 0;
+        for (Checkpointer.Restored checkpoint : Checkpointer.restoreAll(dir)) {
+            QueryContext query = QueryContext.restore(checkpoint);
+            QueryContext previous = queries.putIfAbsent(query.getQueryId(), query);
+            if (previous != null) {
+                query.retire();
+                continue;
+            }
+            System.out.println("Restored query " + query.getQueryId() + " from checkpoint covering "
+                    + checkpoint.blobIds().size() + " blobs");
+            restored++;
+        }
+        return restored;
+    }
+
+    /** Blobs each live query's table held when restored from a checkpoint, by query id. */
+    public Map<String, List<String>> restoredCoverage() {
+        Map<String, List<String>> coverage = new TreeMap<>();
+        for (QueryContext query : queries.values()) {
+            if (!query.getRestoredBlobIds().isEmpty()) {
+                coverage.put(query.getQueryId(), query.getRestoredBlobIds());
+            }
+        }
+        return coverage;
+    }
+
+    public long getStartedMillis() {
+        return startedMillis;
+    }
+
+    public long getQueryTtlMillis() {
+        return QUERY_TTL_MILLIS;
+    }
 
-    public TransientVolatileTable getTransientVolatileTable() {
-        return transientVolatileTable;
+    public int activeQueries() {
+        return queries.size();
     }
 
-    public void setTransientVolatileTable(TransientVolatileTable transientVolatileTable) {
-        this.transientVolatileTable = transientVolatileTable;
+    public static String normalize(String queryId) {
+        return queryId == null || queryId.isBlank() ? DEFAULT_QUERY_ID : queryId;
     }
-}
\ No newline at end of file
+}
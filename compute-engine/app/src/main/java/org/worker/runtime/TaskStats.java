@@ -0,0 +1,112 @@
+package org.worker.runtime;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.worker.core.FileSummary;
+
+/**
+ * Timings and volumes of one task (a read, shuffle, partition push or write) on this worker. They
+ * are sent to the orchestrator with the task's completion report, which builds the query profile
+ * behind /stats/{queryId}.
+ *
+ * Encoded as "phase=read;queueWaitNanos=120;aggregateNanos=...;fileMs=12,9,30": semicolon-separated
+ * counters, with the per-file latencies as a comma list. "task=" echoes the orchestrator's id for
+ * the task when the command carried one. Reads may add "catalog=" and the
+ * {@link FileSummary} of each file they could summarize, separated by '|'.
+ */
+public final class TaskStats {
+
+    public static final String QUEUE_WAIT = "queueWaitNanos";
+    // reading a file into memory ahead of its scan (see ReadPipeline)
+    public static final String READ = "readNanos";
+    public static final String PARSE = "parseNanos";
+    // streaming scans parse and aggregate in one pass; that time is counted here
+    public static final String AGGREGATE = "aggregateNanos";
+    public static final String SERIALIZE = "serializeNanos";
+    public static final String TRANSFER = "transferNanos";
+    public static final String MERGE = "mergeNanos";
+    public static final String WRITE = "writeNanos";
+    public static final String ROWS = "rows";
+    public static final String BYTES = "bytes";
+    public static final String FILES = "files";
+    public static final String CACHE_HITS = "cacheHits";
+    public static final String PAYLOAD_BYTES = "payloadBytes";
+
+    private final String phase;
+    // the orchestrator's id for the task, echoed back so it can match the report to what it sent
+    private volatile String task;
+    private final long acceptedNanos = System.nanoTime();
+    private final Map<String, Long> counters = new LinkedHashMap<>();
+    private final List<Long> fileMillis = new ArrayList<>();
+    private final List<String> fileSummaries = new ArrayList<>();
+
+    private TaskStats(String phase) {
+        this.phase = phase;
+    }
+
+    /** Start timing a task when its request is accepted, before it waits for a pool thread. */
+    public static TaskStats accepted(String phase) {
+        return new TaskStats(phase);
+    }
+
+    /** The task got a thread; everything since acceptance was queue wait. */
+    public synchronized void started() {
+        add(QUEUE_WAIT, System.nanoTime() - acceptedNanos);
+    }
+
+    public synchronized void add(String counter, long value) {
+        counters.merge(counter, value, Long::sum);
+    }
+
+    /** Add the time elapsed since startNanos to counter. */
+    public void addSince(String counter, long startNanos) {
+        add(counter, System.nanoTime() - startNanos);
+    }
+
+    public synchronized void fileDone(long nanos) {
+        fileMillis.add(nanos / 1_000_000);
+        add(FILES, 1);
+    }
+
+    public synchronized void fileSummary(String blobId, FileSummary summary) {
+        fileSummaries.add(summary.encode(blobId));
+    }
+
+    /** Remember the task id the command carried (?task=), if any. */
+    public void setTask(String task) {
+        this.task = task == null || task.isBlank() ? null : task.trim();
+    }
+
+    public String getPhase() {
+        return phase;
+    }
+
+    public synchronized String encode() {
+        StringBuilder sb = new StringBuilder("phase=").append(phase);
+        if (task != null) {
+            sb.append(";task=").append(task);
+        }
+        for (Map.Entry<String, Long> counter : counters.entrySet()) {
+            sb.append(';').append(counter.getKey()).append('=').append(counter.getValue());
+        }
+        if (!fileMillis.isEmpty()) {
+            sb.append(";fileMs=");
+            for (int i = 0; i < fileMillis.size(); i++) {
+                if (i > 0) sb.append(',');
+                sb.append(fileMillis.get(i));
+            }
+        }
+        if (!fileSummaries.isEmpty()) {
+            sb.append(";catalog=").append(String.join("|", fileSummaries));
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return encode();
+    }
+}
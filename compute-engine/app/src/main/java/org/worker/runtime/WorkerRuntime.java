@@ -0,0 +1,158 @@
+package org.worker.runtime;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The worker's one execution runtime, shared by every code path instead of each creating its own
+ * pools:
+ *
+ * - cpu(): a work-stealing ForkJoinPool for aggregation, sized by -Dworker.runtime.cpu.threads
+ *   (default: available processors).
+ * - io(): virtual threads for work that mostly waits (task handlers, shuffle fetches, partition
+ *   pushes, orchestrator callbacks), at most -Dworker.runtime.io.maxConcurrent (default 256)
+ *   running at once; the rest park cheaply until a slot frees up.
+ * - schedule(): periodic housekeeping, run on io().
+ *
+ * I/O-bound handlers hand their CPU-heavy part to cpu() through {@link #compute(Callable)}, so a
+ * scan never occupies one of the few carrier threads virtual threads run on.
+ */
+public enum WorkerRuntime {
+    INSTANCE;
+
+    // Instance fields: an enum constant's initializers can't read the enum's static fields
+    private final int cpuThreads = Math.max(1, Integer.getInteger("worker.runtime.cpu.threads",
+            Runtime.getRuntime().availableProcessors()));
+    private final int ioMaxConcurrent = Math.max(1, Integer.getInteger("worker.runtime.io.maxConcurrent", 256));
+
+    private final ForkJoinPool cpu = new ForkJoinPool(cpuThreads, pool -> {
+        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("worker-cpu-" + thread.getPoolIndex());
+        return thread;
+    }, null, false);
+
+    private final ExecutorService io = new BoundedExecutor(
+            Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("worker-io-", 0).factory()),
+            ioMaxConcurrent);
+
+    // Only fires timers; the work itself is handed to io()
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "worker-timer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /** Pool for CPU-bound work such as aggregating chunks of a file. */
+    public ForkJoinPool cpu() {
+        return cpu;
+    }
+
+    /** Executor for blocking, I/O-bound work; each task gets its own virtual thread. */
+    public ExecutorService io() {
+        return io;
+    }
+
+    /**
+     * Run task on the CPU pool and wait for it. Called from a pool thread it runs in place, so
+     * nested use can't deadlock the pool.
+     */
+    public <T> T compute(Callable<T> task) throws Exception {
+        if (Thread.currentThread() instanceof ForkJoinWorkerThread thread && thread.getPool() == cpu) {
+            return task.call();
+        }
+        try {
+            return cpu.submit(task).get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    /** Run task on io() every period, starting after one period. */
+    public ScheduledFuture<?> schedule(Runnable task, long period, TimeUnit unit) {
+        return timer.scheduleAtFixedRate(() -> io.execute(task), period, period, unit);
+    }
+
+    /** Stop every pool for good; only for process exit, as the runtime is shared by the whole JVM. */
+    public void shutdown() {
+        timer.shutdownNow();
+        io.shutdownNow();
+        cpu.shutdownNow();
+    }
+
+    /** Snapshot of the pools for logs and diagnostics. */
+    public String describe() {
+        BoundedExecutor bounded = (BoundedExecutor) io;
+        return "cpu[threads=" + cpu.getParallelism() + " active=" + cpu.getActiveThreadCount()
+                + " queued=" + cpu.getQueuedSubmissionCount() + "] io[max=" + ioMaxConcurrent
+                + " running=" + (ioMaxConcurrent - bounded.permits.availablePermits()) + "]";
+    }
+
+    /**
+     * Caps how many tasks of an unbounded executor run at once. Tasks over the limit start (on a
+     * virtual thread that's all but free) and park on the semaphore.
+     */
+    private static final class BoundedExecutor extends AbstractExecutorService {
+        private final ExecutorService delegate;
+        private final Semaphore permits;
+
+        BoundedExecutor(ExecutorService delegate, int maxConcurrent) {
+            this.delegate = delegate;
+            this.permits = new Semaphore(maxConcurrent);
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            delegate.execute(() -> {
+                try {
+                    permits.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                try {
+                    command.run();
+                } finally {
+                    permits.release();
+                }
+            });
+        }
+
+        @Override
+        public void shutdown() {
+            delegate.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return delegate.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return delegate.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return delegate.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return delegate.awaitTermination(timeout, unit);
+        }
+    }
+}
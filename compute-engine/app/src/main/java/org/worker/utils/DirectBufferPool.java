@@ -0,0 +1,77 @@
+package org.worker.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fixed-size direct ByteBuffer pages shared by the worker's off-heap structures.
+ *
+ * Direct memory can't be freed on demand; only the GC returns it, whenever it gets round to the
+ * buffer. Recycling pages through this pool makes releasing deterministic instead: a query's store
+ * hands its pages back when the query ends and the next query reuses them. At most
+ * -Dworker.offheap.poolMb (default 256) of free pages are kept; pages past that are left to the GC.
+ */
+public final class DirectBufferPool {
+    public static final int PAGE_BYTES = 64 * 1024;
+
+    private final long maxPooledPages;
+    private final ConcurrentLinkedDeque<ByteBuffer> free = new ConcurrentLinkedDeque<>();
+    private final AtomicLong pooled = new AtomicLong();
+    private final AtomicLong allocated = new AtomicLong();
+    private final AtomicLong inUse = new AtomicLong();
+
+    public DirectBufferPool(long maxPooledBytes) {
+        this.maxPooledPages = maxPooledBytes / PAGE_BYTES;
+    }
+
+    private static final class Shared {
+        static final DirectBufferPool INSTANCE =
+                new DirectBufferPool(Long.getLong("worker.offheap.poolMb", 256) * 1024 * 1024);
+    }
+
+    public static DirectBufferPool shared() {
+        return Shared.INSTANCE;
+    }
+
+    /** A zeroed page in native byte order. */
+    public ByteBuffer acquire() {
+        inUse.incrementAndGet();
+        ByteBuffer page = free.pollFirst();
+        if (page == null) {
+            allocated.incrementAndGet();
+            return ByteBuffer.allocateDirect(PAGE_BYTES).order(ByteOrder.nativeOrder());
+        }
+        pooled.decrementAndGet();
+        for (int i = 0; i < PAGE_BYTES; i += Long.BYTES) {
+            page.putLong(i, 0L);
+        }
+        return page;
+    }
+
+    /** Return a page from {@link #acquire()}; the caller must not touch it afterwards. */
+    public void release(ByteBuffer page) {
+        inUse.decrementAndGet();
+        if (pooled.incrementAndGet() <= maxPooledPages) {
+            free.addFirst(page);
+        } else {
+            pooled.decrementAndGet();
+        }
+    }
+
+    /** Pages handed out and not yet released. */
+    public long pagesInUse() {
+        return inUse.get();
+    }
+
+    /** Free pages waiting to be reused. */
+    public long pagesPooled() {
+        return pooled.get();
+    }
+
+    /** Pages ever allocated from the OS, for diagnostics. */
+    public long pagesAllocated() {
+        return allocated.get();
+    }
+}
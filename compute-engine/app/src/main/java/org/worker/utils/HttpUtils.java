@@ -1,12 +1,15 @@
 package org.worker.utils;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
 
 /**
  * Small HTTP helper utilities used across the orchestrator.
@@ -24,6 +27,9 @@ public final class HttpUtils {
             httpClient = HttpClient.newBuilder()
                     .version(HttpClient.Version.HTTP_1_1)
                     .connectTimeout(Duration.ofSeconds(3))
+                    // the client's own unbounded virtual threads: on the capped io() its completions could
+                    // wait behind the very io() tasks blocked in send() on them
+                    .executor(Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("worker-http-", 0).factory()))
                     .build();
         }
         return httpClient;
@@ -86,4 +92,58 @@ public final class HttpUtils {
         }
         return resp;
     }
-}
\ No newline at end of file
+
+    /**
+     * Blocking GET that hands back the body as a stream, so large payloads can be consumed
+     * while they arrive. The timeout only covers waiting for the response headers.
+     */
+    public static HttpResponse<InputStream> getStream(String urlStr, String accept) {
+        HttpRequest req = HttpRequest.newBuilder()
+                    .uri(URI.create(urlStr))
+                    .timeout(Duration.ofSeconds(5))
+                    .header("Accept", accept)
+                    .GET()
+                    .build();
+        HttpResponse<InputStream> resp = null;
+        try {
+            resp = HttpUtils.getHttpClient().send(req, HttpResponse.BodyHandlers.ofInputStream());
+        } catch (IOException | InterruptedException e) {
+            e.printStackTrace();
+        }
+        return resp;
+    }
+
+    /**
+     * Blocking POST of a byte payload. Returns null if the request could not be sent.
+     */
+    public static HttpResponse<String> POST(String urlStr, byte[] body, String contentType) {
+        HttpRequest req = HttpRequest.newBuilder()
+                    .uri(URI.create(urlStr))
+                    .timeout(Duration.ofSeconds(30))
+                    .header("Content-Type", contentType)
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+                    .build();
+        HttpResponse<String> resp = null;
+        try {
+            resp = HttpUtils.getHttpClient().send(req, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+        } catch (IOException | InterruptedException e) {
+            e.printStackTrace();
+        }
+        return resp;
+    }
+
+    /**
+     * POST a body read from a stream as it is produced (sent chunked). Completes when the receiver
+     * answers, or exceptionally if it can't be reached or doesn't answer within timeout.
+     */
+    public static CompletableFuture<HttpResponse<String>> postStream(String urlStr, InputStream body, String contentType,
+                                                                     Duration timeout) {
+        HttpRequest req = HttpRequest.newBuilder()
+                    .uri(URI.create(urlStr))
+                    .timeout(timeout)
+                    .header("Content-Type", contentType)
+                    .POST(HttpRequest.BodyPublishers.ofInputStream(() -> body))
+                    .build();
+        return HttpUtils.getHttpClient().sendAsync(req, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+    }
+}
@@ -1,6 +1,7 @@
 package org.worker.utils;
 
 import java.net.URLDecoder;
+import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 
 public final class PathUtils {
@@ -14,4 +15,9 @@ public final class PathUtils {
             return raw;
         }
     }
+
+    public static String encodeParam(String raw) {
+        if (raw == null) return "";
+        return URLEncoder.encode(raw, StandardCharsets.UTF_8);
+    }
 }
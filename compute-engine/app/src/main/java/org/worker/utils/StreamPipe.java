@@ -0,0 +1,174 @@
+package org.worker.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded in-memory pipe from one writer to one reader, for streaming a request body while it is
+ * produced: at most maxChunks chunks are buffered, then the writer waits for the reader.
+ *
+ * Unlike {@link java.io.PipedInputStream} it doesn't tie either end to a thread (an HttpClient
+ * reads a body from whichever of its threads it likes), and either side can {@link #abort} it so
+ * the other stops waiting instead of blocking forever.
+ */
+public final class StreamPipe {
+
+    private static final byte[] END = new byte[0];
+    private static final long POLL_MILLIS = 100;
+
+    private final BlockingQueue<byte[]> chunks;
+    private final int chunkSize;
+    private final OutputStream out;
+    private final InputStream in;
+    private volatile String failure;
+    private long written;
+
+    public StreamPipe(int chunkSize, int maxChunks) {
+        this.chunkSize = chunkSize;
+        this.chunks = new ArrayBlockingQueue<>(maxChunks);
+        // after chunkSize, which the sink sizes its buffer from
+        this.out = new Sink();
+        this.in = new Source();
+    }
+
+    /** The writing end; closing it ends the stream. */
+    public OutputStream outputStream() {
+        return out;
+    }
+
+    /** The reading end. */
+    public InputStream inputStream() {
+        return in;
+    }
+
+    /** Bytes written so far. */
+    public long written() {
+        return written;
+    }
+
+    /** Fail both ends from now on, e.g. because the receiver went away. */
+    public void abort(String reason) {
+        failure = reason;
+        chunks.clear();
+    }
+
+    private void check() throws IOException {
+        if (failure != null) {
+            throw new IOException("pipe aborted: " + failure);
+        }
+    }
+
+    private void put(byte[] chunk) throws IOException {
+        try {
+            while (!chunks.offer(chunk, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                check();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted writing to pipe");
+        }
+        check();
+    }
+
+    private final class Sink extends OutputStream {
+        private byte[] buffer = new byte[chunkSize];
+        private int filled;
+        private boolean closed;
+
+        @Override
+        public void write(int b) throws IOException {
+            if (filled == buffer.length) {
+                flush();
+            }
+            buffer[filled++] = (byte) b;
+            written++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (filled == buffer.length) {
+                    flush();
+                }
+                int n = Math.min(len, buffer.length - filled);
+                System.arraycopy(b, off, buffer, filled, n);
+                filled += n;
+                off += n;
+                len -= n;
+                written += n;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (filled > 0) {
+                byte[] chunk = filled == buffer.length ? buffer : Arrays.copyOf(buffer, filled);
+                put(chunk);
+                // the queued chunk is the reader's now
+                buffer = new byte[chunkSize];
+                filled = 0;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                flush();
+                closed = true;
+                put(END);
+            }
+        }
+    }
+
+    private final class Source extends InputStream {
+        private byte[] chunk;
+        private int position;
+
+        // false at the end of the stream
+        private boolean fill() throws IOException {
+            while (chunk == null || position == chunk.length) {
+                if (chunk == END) {
+                    return false;
+                }
+                try {
+                    byte[] next;
+                    while ((next = chunks.poll(POLL_MILLIS, TimeUnit.MILLISECONDS)) == null) {
+                        check();
+                    }
+                    chunk = next;
+                    position = 0;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("interrupted reading from pipe");
+                }
+                check();
+            }
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return fill() ? chunk[position++] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int n = Math.min(len, chunk.length - position);
+            System.arraycopy(chunk, position, b, off, n);
+            position += n;
+            return n;
+        }
+    }
+}
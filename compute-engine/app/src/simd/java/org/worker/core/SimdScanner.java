@@ -0,0 +1,374 @@
+package org.worker.core;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import org.worker.model.QuerySpec;
+
+/**
+ * Line scanner on the incubating Vector API, accepting exactly the rows the scalar scanner in
+ * {@link DataParser} accepts. Only loaded when -Dworker.scan.simd=true and the JVM runs with
+ * --add-modules jdk.incubator.vector; see {@link DataParser#scan(QuerySpec, KeyDictionary, RowSink)}.
+ *
+ * Rows are handled in batches:
+ * - tokenize: each vector of bytes is compared with ',', '\n' and '\r' at once and the delimiter
+ *   bits are walked, recording the year and score field offsets of every line
+ * - decode: 4-byte years are decoded a vector of rows at a time; scores of up to 4 characters take a
+ *   short scalar path; anything else (padding, signs, odd widths) goes through the scalar parser
+ * - aggregate: into an {@link AggregationState}, a batch covering only a few groups is reduced to
+ *   per-group min/max/sum/count with masked vector reductions and merged once per group
+ *
+ * Specs that look at the id (prefix filter, id group-by, distinct count) stay on the scalar scanner.
+ *
+ * Lives in its own source set, the only one compiled with the incubator module, and is reached by
+ * DataParser through {@link Factory}.
+ */
+final class SimdScanner implements DataParser.LineScan {
+
+    // toLong() of a mask holds at most 64 lanes
+    private static final VectorSpecies<Byte> BYTES =
+            ByteVector.SPECIES_PREFERRED.length() <= 64 ? ByteVector.SPECIES_PREFERRED : ByteVector.SPECIES_512;
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+    private static final int BATCH = 1024;
+    // Bytes copied out of a mapped buffer at a time
+    private static final int CHUNK = 256 * 1024;
+    // Marks a field the fast decoders leave to the scalar parser
+    private static final int MISS = Integer.MIN_VALUE;
+
+    private final ByteBuffer buf;
+    private final RowSink sink;
+    private final QuerySpec.Column groupBy;
+    private final boolean needsYear;
+    private final int yearLo, yearHi, scoreLo, scoreHi;
+    private long rows;
+
+    // field offsets of the pending rows, as indexes into the array being scanned
+    private final int[] yearFrom = new int[BATCH];
+    private final int[] yearTo = new int[BATCH];
+    private final int[] scoreFrom = new int[BATCH];
+    private final int[] scoreTo = new int[BATCH];
+    private int pending;
+    // decode scratch, then the keys and scores of the rows that passed the filters
+    private final int[] packed = new int[BATCH];
+    private final int[] years = new int[BATCH];
+    private final int[] keys = new int[BATCH];
+    private final int[] scores = new int[BATCH];
+    private final int[] laneSums = new int[INTS.length()];
+    private byte[] scratch;
+
+    SimdScanner(ByteBuffer buf, QuerySpec spec, RowSink sink) {
+        this.buf = buf;
+        this.sink = sink;
+        this.groupBy = spec.getGroupBy();
+        this.needsYear = spec.needsYear();
+        this.yearLo = spec.getYearLo();
+        this.yearHi = spec.getYearHi();
+        this.scoreLo = spec.getScoreLo();
+        this.scoreHi = spec.getScoreHi();
+    }
+
+    /** Whether the spec can be scanned without looking at the id column. */
+    static boolean supports(QuerySpec spec) {
+        return spec.getGroupBy() != QuerySpec.Column.ID && spec.getIdPrefix() == null && !spec.needsDistinct();
+    }
+
+    static String describe() {
+        return BYTES.length() + "-byte tokenizing, " + INTS.length() + "-lane decoding";
+    }
+
+    /** What DataParser, compiled without the Vector API, loads by name. */
+    static final class Factory implements DataParser.LineScanFactory {
+        @Override
+        public boolean supports(QuerySpec spec) {
+            return SimdScanner.supports(spec);
+        }
+
+        @Override
+        public DataParser.LineScan create(ByteBuffer buf, QuerySpec spec, RowSink sink) {
+            return new SimdScanner(buf, spec, sink);
+        }
+
+        @Override
+        public String describe() {
+            return SimdScanner.describe();
+        }
+    }
+
+    @Override
+    public long rows() {
+        return rows;
+    }
+
+    @Override
+    public int scanLines(int from, int limit, boolean lastWindow) {
+        if (buf.hasArray()) {
+            int shift = buf.arrayOffset();
+            return scanArray(buf.array(), shift, from + shift, limit + shift, lastWindow);
+        }
+        // mapped: copy a chunk at a time, growing the copy for a line longer than it
+        if (scratch == null) {
+            scratch = new byte[Math.min(CHUNK, Math.max(limit - from, 1))];
+        }
+        int position = from;
+        while (position < limit) {
+            int length = Math.min(scratch.length, limit - position);
+            boolean end = position + length == limit;
+            buf.get(position, scratch, 0, length);
+            int consumed = scanArray(scratch, -position, 0, length, end && lastWindow);
+            if (consumed == position) {
+                if (end) {
+                    break;
+                }
+                scratch = new byte[scratch.length * 2];
+                continue;
+            }
+            position = consumed;
+        }
+        return position;
+    }
+
+    /**
+     * Scan a[from, to); array index = buffer offset + shift.
+     *
+     * @return buffer offset just past the last consumed line
+     */
+    private int scanArray(byte[] a, int shift, int from, int to, boolean lastWindow) {
+        int lineStart = from;
+        int commas = 0;
+        int c1 = 0, c2 = 0, c3 = 0;
+        int i = from;
+        int vectorEnd = from + BYTES.loopBound(to - from);
+        long bits = 0;
+        int base = i;
+        while (true) {
+            if (bits == 0) {
+                if (i < vectorEnd) {
+                    ByteVector v = ByteVector.fromArray(BYTES, a, i);
+                    bits = v.eq((byte) ',').or(v.eq((byte) '\n')).or(v.eq((byte) '\r')).toLong();
+                    base = i;
+                    i += BYTES.length();
+                    continue;
+                }
+                break;
+            }
+            int at = base + Long.numberOfTrailingZeros(bits);
+            bits &= bits - 1;
+            if (a[at] == ',') {
+                if (commas == 0) c1 = at;
+                else if (commas == 1) c2 = at;
+                else if (commas == 2) c3 = at;
+                commas++;
+            } else {
+                if (commas >= 2) {
+                    addRow(a, c1, c2, commas > 2 ? c3 : at);
+                }
+                lineStart = at + 1;
+                commas = 0;
+            }
+        }
+        for (; i < to; i++) {
+            byte b = a[i];
+            if (b == ',') {
+                if (commas == 0) c1 = i;
+                else if (commas == 1) c2 = i;
+                else if (commas == 2) c3 = i;
+                commas++;
+            } else if (b == '\n' || b == '\r') {
+                if (commas >= 2) {
+                    addRow(a, c1, c2, commas > 2 ? c3 : i);
+                }
+                lineStart = i + 1;
+                commas = 0;
+            }
+        }
+        if (lastWindow && lineStart < to) {
+            if (commas >= 2) {
+                addRow(a, c1, c2, commas > 2 ? c3 : to);
+            }
+            lineStart = to;
+        }
+        flush(a);
+        return lineStart - shift;
+    }
+
+    // a line is "id,year,score[,...]"; with \r\n the '\n' closes an empty line, which has no row
+    private void addRow(byte[] a, int idEnd, int yearEnd, int scoreEnd) {
+        yearFrom[pending] = idEnd + 1;
+        yearTo[pending] = yearEnd;
+        scoreFrom[pending] = yearEnd + 1;
+        scoreTo[pending] = scoreEnd;
+        if (++pending == BATCH) {
+            flush(a);
+        }
+    }
+
+    private void flush(byte[] a) {
+        int n = pending;
+        pending = 0;
+        if (n == 0) {
+            return;
+        }
+        if (needsYear) {
+            decodeYears(a, n);
+        }
+        ByteBuffer view = null;
+        int kept = 0;
+        for (int r = 0; r < n; r++) {
+            int year = 0;
+            if (needsYear) {
+                year = years[r];
+                if (year == MISS) {
+                    if (view == null) view = ByteBuffer.wrap(a);
+                    long parsed = DataParser.parseInt(view, yearFrom[r], yearTo[r]);
+                    if (parsed == DataParser.INVALID) {
+                        continue;
+                    }
+                    year = (int) parsed;
+                }
+                if (year < yearLo || year > yearHi) {
+                    continue;
+                }
+            }
+            int score = decodeScore(a, scoreFrom[r], scoreTo[r]);
+            if (score == MISS) {
+                if (view == null) view = ByteBuffer.wrap(a);
+                long parsed = DataParser.parseInt(view, scoreFrom[r], scoreTo[r]);
+                if (parsed == DataParser.INVALID) {
+                    String raw = new String(a, scoreFrom[r], scoreTo[r] - scoreFrom[r], StandardCharsets.UTF_8);
+                    System.out.println("ERROR :: while parsing score: " + raw.trim());
+                    continue;
+                }
+                score = (int) parsed;
+            }
+            if (score < scoreLo || score > scoreHi) {
+                continue;
+            }
+            keys[kept] = groupBy == QuerySpec.Column.YEAR ? year : score;
+            scores[kept] = score;
+            kept++;
+        }
+        rows += kept;
+        aggregate(kept);
+    }
+
+    /**
+     * years[r] = the 4-digit year of row r, or MISS. The four bytes of each field are packed
+     * big-endian into an int, so one lane holds one row: a lane is all digits when every byte is
+     * 0x30-0x3F and still so after adding 6 (which pushes ':'..'?' out of range).
+     */
+    private void decodeYears(byte[] a, int n) {
+        for (int r = 0; r < n; r++) {
+            int f = yearFrom[r];
+            packed[r] = yearTo[r] - f != 4 ? 0
+                    : (a[f] & 0xFF) << 24 | (a[f + 1] & 0xFF) << 16 | (a[f + 2] & 0xFF) << 8 | (a[f + 3] & 0xFF);
+        }
+        int r = 0;
+        for (int bound = INTS.loopBound(n); r < bound; r += INTS.length()) {
+            IntVector x = IntVector.fromArray(INTS, packed, r);
+            VectorMask<Integer> digits = x.and(0xF0F0F0F0).eq(0x30303030)
+                    .and(x.add(0x06060606).and(0xF0F0F0F0).eq(0x30303030));
+            IntVector d = x.and(0x0F0F0F0F);
+            d.lanewise(VectorOperators.LSHR, 24).mul(1000)
+                    .add(d.lanewise(VectorOperators.LSHR, 16).and(0xF).mul(100))
+                    .add(d.lanewise(VectorOperators.LSHR, 8).and(0xF).mul(10))
+                    .add(d.and(0xF))
+                    .blend(MISS, digits.not())
+                    .intoArray(years, r);
+        }
+        for (; r < n; r++) {
+            int x = packed[r];
+            boolean digits = (x & 0xF0F0F0F0) == 0x30303030 && ((x + 0x06060606) & 0xF0F0F0F0) == 0x30303030;
+            years[r] = !digits ? MISS
+                    : (x >>> 24 & 0xF) * 1000 + (x >>> 16 & 0xF) * 100 + (x >>> 8 & 0xF) * 10 + (x & 0xF);
+        }
+    }
+
+    // plain "[-]d..." of at most 4 characters, else MISS
+    private static int decodeScore(byte[] a, int from, int to) {
+        if (to - from < 1 || to - from > 4) {
+            return MISS;
+        }
+        boolean negative = a[from] == '-';
+        if (negative && ++from == to) {
+            return MISS;
+        }
+        int value = 0;
+        for (int i = from; i < to; i++) {
+            int digit = a[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return MISS;
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Hand keys/scores[0, n) to the sink. Masked reductions cost one pass over the batch per group,
+     * so they are only used when the batch spans no more groups than a vector has lanes, and when the
+     * int lane sums cannot overflow; otherwise rows go to the sink one by one.
+     */
+    private void aggregate(int n) {
+        int lanes = INTS.length();
+        int bound = INTS.loopBound(n);
+        if (!(sink instanceof AggregationState state) || bound == 0) {
+            for (int r = 0; r < n; r++) {
+                sink.accept(keys[r], scores[r]);
+            }
+            return;
+        }
+        IntVector keyLo = IntVector.broadcast(INTS, Integer.MAX_VALUE), keyHi = IntVector.broadcast(INTS, Integer.MIN_VALUE);
+        IntVector lowest = keyLo, highest = keyHi;
+        for (int r = 0; r < bound; r += lanes) {
+            IntVector k = IntVector.fromArray(INTS, keys, r);
+            IntVector s = IntVector.fromArray(INTS, scores, r);
+            keyLo = keyLo.min(k);
+            keyHi = keyHi.max(k);
+            lowest = lowest.min(s);
+            highest = highest.max(s);
+        }
+        long firstKey = keyLo.reduceLanes(VectorOperators.MIN);
+        long lastKey = keyHi.reduceLanes(VectorOperators.MAX);
+        long maxAbs = Math.max(Math.abs((long) lowest.reduceLanes(VectorOperators.MIN)),
+                Math.abs((long) highest.reduceLanes(VectorOperators.MAX)));
+        if (lastKey - firstKey >= lanes || maxAbs * (bound / lanes) > Integer.MAX_VALUE) {
+            for (int r = 0; r < n; r++) {
+                state.update(keys[r], scores[r]);
+            }
+            return;
+        }
+        for (int key = (int) firstKey; key <= lastKey; key++) {
+            IntVector lo = IntVector.broadcast(INTS, Integer.MAX_VALUE);
+            IntVector hi = IntVector.broadcast(INTS, Integer.MIN_VALUE);
+            IntVector total = IntVector.zero(INTS);
+            long count = 0;
+            for (int r = 0; r < bound; r += lanes) {
+                VectorMask<Integer> in = IntVector.fromArray(INTS, keys, r).eq(key);
+                if (!in.anyTrue()) {
+                    continue;
+                }
+                IntVector s = IntVector.fromArray(INTS, scores, r);
+                lo = lo.lanewise(VectorOperators.MIN, s, in);
+                hi = hi.lanewise(VectorOperators.MAX, s, in);
+                total = total.add(s, in);
+                count += in.trueCount();
+            }
+            // lanes are summed as longs: the whole batch may overflow an int even if no lane does
+            total.intoArray(laneSums, 0);
+            long sum = 0;
+            for (int lane : laneSums) {
+                sum += lane;
+            }
+            state.merge(key, lo.reduceLanes(VectorOperators.MIN), hi.reduceLanes(VectorOperators.MAX), sum, count);
+        }
+        for (int r = bound; r < n; r++) {
+            state.update(keys[r], scores[r]);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package org.worker.core;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class AggregationStateTest {
+
+    @Test public void smallKeyRangeStaysDense() {
+        AggregationState state = new AggregationState();
+        for (int year = 2024; year >= 2004; year--) {
+            state.update(year, year % 7);
+        }
+        assertTrue(state.isDense());
+        assertEquals(21, state.size());
+    }
+
+    @Test public void wideKeyRangeSwitchesToHashAndKeepsGroups() {
+        Random random = new Random(7);
+        AggregationState state = new AggregationState();
+        Map<Integer, long[]> expected = new HashMap<>();
+        for (int i = 0; i < 200_000; i++) {
+            int key = i < 1000 ? 2000 + random.nextInt(30) : random.nextInt();
+            int value = random.nextInt(1000) - 500;
+            state.update(key, value);
+            long[] agg = expected.computeIfAbsent(key, k -> new long[] {Long.MAX_VALUE, Long.MIN_VALUE, 0, 0});
+            agg[0] = Math.min(agg[0], value);
+            agg[1] = Math.max(agg[1], value);
+            agg[2] += value;
+            agg[3]++;
+        }
+        assertFalse(state.isDense());
+        assertEquals(expected.size(), state.size());
+        state.forEachGroup((key, min, max, sum, count) -> {
+            long[] agg = expected.get(key);
+            assertNotNull(agg);
+            assertEquals(agg[0], min);
+            assertEquals(agg[1], max);
+            assertEquals(agg[2], sum);
+            assertEquals(agg[3], count);
+        });
+    }
+
+    @Test public void mergeFromCombinesPartials() {
+        AggregationState left = new AggregationState();
+        AggregationState right = new AggregationState();
+        left.update(2010, 5);
+        left.update(2011, 1);
+        right.update(2010, 9);
+        right.update(Integer.MIN_VALUE, 3);
+        left.mergeFrom(right);
+
+        Map<Integer, String> groups = new HashMap<>();
+        left.forEachGroup((key, min, max, sum, count) -> groups.put(key, min + "," + max + "," + sum + "," + count));
+        assertEquals("5,9,14,2", groups.get(2010));
+        assertEquals("1,1,1,1", groups.get(2011));
+        assertEquals("3,3,3,1", groups.get(Integer.MIN_VALUE));
+    }
+}
@@ -0,0 +1,135 @@
+package org.worker.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.worker.model.QuerySpec;
+import org.worker.model.TransientVolatileTable;
+
+public class CheckpointerTest {
+    private Path dir;
+
+    @Before public void setUp() throws IOException {
+        dir = Files.createTempDirectory("checkpoints");
+    }
+
+    @After public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : files.toList()) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    @Test public void restoresExactlyTheBlobsTheLastCheckpointCovers() throws IOException {
+        TransientVolatileTable table = new TransientVolatileTable();
+        Checkpointer checkpointer = new Checkpointer("q-1/a b", table, dir, 2);
+        QuerySpec spec = QuerySpec.fromParams(Map.of("agg", "min,max,count")::get);
+        checkpointer.setSpec(spec);
+
+        assertTrue(checkpointer.merge("b1", () -> mergeBlob(table, 1)));
+        assertTrue(Checkpointer.restoreAll(dir).isEmpty());
+        assertTrue(checkpointer.merge("b2", () -> mergeBlob(table, 2)));
+        assertFalse(checkpointer.merge("b3", () -> false));
+        assertTrue(checkpointer.merge("b4", () -> mergeBlob(table, 4)));
+        assertEquals(List.of("b1", "b2", "b4"), checkpointer.getBlobIds());
+
+        List<Checkpointer.Restored> restored = Checkpointer.restoreAll(dir);
+        assertEquals(1, restored.size());
+        Checkpointer.Restored checkpoint = restored.get(0);
+        assertEquals("q-1/a b", checkpoint.queryId());
+        assertEquals(spec.toParams(), checkpoint.spec().toParams());
+        assertEquals(List.of("b1", "b2"), checkpoint.blobIds());
+        TransientVolatileTable expected = new TransientVolatileTable();
+        mergeBlob(expected, 1);
+        mergeBlob(expected, 2);
+        assertEquals(expected.getGroupIdVsRow().toString(), checkpoint.table().getGroupIdVsRow().toString());
+
+        checkpointer.delete();
+        assertTrue(Checkpointer.restoreAll(dir).isEmpty());
+    }
+
+    @Test public void rowsFromAShuffleNeverReachACheckpoint() throws IOException {
+        TransientVolatileTable table = new TransientVolatileTable();
+        Checkpointer checkpointer = new Checkpointer("q-2", table, dir, 1);
+        checkpointer.restored(List.of("b0"));
+        assertTrue(checkpointer.merge("b1", () -> mergeBlob(table, 1)));
+        assertEquals(List.of("b0", "b1"), Checkpointer.restoreAll(dir).get(0).blobIds());
+
+        checkpointer.absorb(() -> mergeBlob(table, 9));
+        assertTrue(checkpointer.merge("b2", () -> mergeBlob(table, 2)));
+        Checkpointer.Restored checkpoint = Checkpointer.restoreAll(dir).get(0);
+        assertEquals(List.of("b0", "b1"), checkpoint.blobIds());
+        assertNull(checkpoint.table().getGroupIdVsRow().get("2009"));
+    }
+
+    @Test public void noCheckpointLandsAfterDelete() throws IOException {
+        TransientVolatileTable table = new TransientVolatileTable();
+        Checkpointer checkpointer = new Checkpointer("q-deleted", table, dir, 1);
+        assertTrue(checkpointer.merge("b1", () -> mergeBlob(table, 1)));
+        assertEquals(1, Checkpointer.restoreAll(dir).size());
+        // what a write cut short by a crash leaves behind
+        Files.write(dir.resolve("q-deleted.ckpt.tmp"), new byte[] {1, 2, 3});
+
+        checkpointer.delete();
+        assertEquals(List.of(), names(dir));
+
+        // a merge finishing after the release must not bring the checkpoint back
+        assertTrue(checkpointer.merge("b2", () -> mergeBlob(table, 2)));
+        checkpointer.write();
+        assertEquals(List.of(), names(dir));
+    }
+
+    @Test public void deleteWaitsForACheckpointBeingWritten() throws Exception {
+        TransientVolatileTable table = new TransientVolatileTable();
+        Checkpointer checkpointer = new Checkpointer("q-racing", table, dir, 1000);
+        checkpointer.merge("b1", () -> mergeBlob(table, 1));
+        Thread writer = new Thread(() -> {
+            for (int i = 0; i < 200; i++) {
+                try {
+                    checkpointer.write();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        writer.start();
+        Thread.sleep(5);
+        checkpointer.delete();
+        writer.join(10_000);
+        assertFalse(writer.isAlive());
+        assertEquals(List.of(), names(dir));
+    }
+
+    private static List<String> names(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.map(file -> file.getFileName().toString()).sorted().toList();
+        }
+    }
+
+    @Test public void skipsUnreadableCheckpoints() throws IOException {
+        Files.writeString(dir.resolve("broken.ckpt"), "not a checkpoint");
+        assertTrue(Checkpointer.restoreAll(dir).isEmpty());
+        assertTrue(Checkpointer.restoreAll(dir.resolve("missing")).isEmpty());
+    }
+
+    private static boolean mergeBlob(TransientVolatileTable table, int blob) {
+        TransientVolatileTable partial = new TransientVolatileTable();
+        for (int i = 0; i < 100; i++) {
+            partial.fetchRowByGroupId(Integer.toString(2000 + blob)).updateRow(i * blob);
+            partial.fetchRowByGroupId("2000").updateRow(-i);
+        }
+        table.mergeTable(partial);
+        return true;
+    }
+}
@@ -0,0 +1,135 @@
+package org.worker.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.worker.model.QuerySpec;
+import org.worker.model.Row;
+import org.worker.model.TransientVolatileTable;
+
+public class ColumnarFileTest {
+    private Path csv;
+    private Path columnar;
+
+    @Before public void setUp() throws IOException {
+        csv = Files.createTempFile("scores", ".csv");
+        columnar = Files.createTempFile("scores", ".csv");
+    }
+
+    @After public void tearDown() throws IOException {
+        Files.deleteIfExists(csv);
+        Files.deleteIfExists(columnar);
+    }
+
+    @Test public void columnarScansMatchTheCsvForEveryQueryShape() throws IOException {
+        Random random = new Random(11);
+        StringBuilder sb = new StringBuilder();
+        // 3.5 blocks, with years in runs so some blocks can be skipped
+        for (int i = 0; i < ColumnarFile.BLOCK_ROWS * 7 / 2; i++) {
+            int year = 2004 + i / 4000;
+            int score = random.nextInt(1000) - (i % 500 == 0 ? 2000 : 0);
+            String id = year + (i % 3 == 0 ? "A1PS" : "B4TS") + random.nextInt(3000) + "G";
+            if (i % 11 == 0) {
+                sb.append(' ').append(id).append(" , ").append(year).append(" ,").append(score).append("\r\n");
+            } else {
+                sb.append(id).append(',').append(year).append(',').append(score).append('\n');
+            }
+        }
+        sb.append("2010A1PS0001G,2010\n");
+        sb.append("2010A1PS0002G,2010,abc\n");
+        sb.append("2010A1PS0003G,twenty-ten,5\n");
+        Files.writeString(csv, sb.toString(), StandardCharsets.UTF_8);
+        long rows = ColumnarFile.convert(csv, columnar);
+
+        assertTrue(ColumnarFile.isColumnar(columnar));
+        assertFalse(ColumnarFile.isColumnar(csv));
+        assertTrue(Files.size(columnar) < Files.size(csv));
+
+        List<Row> fromCsv = new DataParser(csv).parse();
+        assertEquals(fromCsv.size(), rows);
+        assertEquals(fromCsv, new DataParser(columnar).parse());
+
+        for (String[] query : new String[][] {
+                {"groupBy", "year", "agg", "min,max,sum,count"},
+                {"groupBy", "year", "agg", "count", "where", "year:between:2006:2007"},
+                {"groupBy", "score", "agg", "count", "where", "score:lt:0"},
+                {"groupBy", "id", "agg", "count,avg", "where", "id:prefix:2009B4"},
+                {"groupBy", "year", "agg", "count,distinct", "where", "score:gte:900"},
+                {"groupBy", "year", "agg", "count", "where", "year:gt:2030"},
+        }) {
+            QuerySpec spec = QuerySpec.fromParams(Map.of(query[0], query[1], query[2], query[3],
+                    query.length > 4 ? query[4] : "unused", query.length > 4 ? query[5] : "")::get);
+            String expected = aggregate(new DataParser(csv), spec);
+            assertEquals(spec.toString(), expected, aggregate(new DataParser(columnar), spec));
+            DataParser prefetched = new DataParser(columnar);
+            assertTrue(prefetched.prefetch(Long.MAX_VALUE) > 0);
+            assertEquals(spec.toString(), expected, aggregate(prefetched, spec));
+        }
+    }
+
+    @Test public void footersSummarizeTheFileLikeAnUnfilteredRead() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 20_000; i++) {
+            sb.append("2010A1PS").append(i).append("G,").append(2001 + i % 9).append(',').append(i % 700 - 50).append('\n');
+        }
+        Files.writeString(csv, sb.toString(), StandardCharsets.UTF_8);
+        ColumnarFile.convert(csv, columnar);
+
+        TransientVolatileTable partial = new TransientVolatileTable();
+        assertTrue(new ExecutionEngine(new DataParser(csv), partial, QuerySpec.DEFAULT).invokeTask());
+        FileSummary fromRead = FileSummary.of(csv, QuerySpec.DEFAULT, partial);
+        FileSummary fromFooters = ColumnarFile.summarize(columnar);
+        assertEquals(new FileSummary(Files.size(csv), Files.getLastModifiedTime(csv).toMillis(), 20_000, 2001, 2009, -50, 649), fromRead);
+        assertEquals(fromRead.rows(), fromFooters.rows());
+        assertEquals(2001, fromFooters.yearMin());
+        assertEquals(2009, fromFooters.yearMax());
+        assertEquals(-50, fromFooters.scoreMin());
+        assertEquals(649, fromFooters.scoreMax());
+        assertEquals("dir:a/file1.csv:1:2:3:4:5:6:7", new FileSummary(1, 2, 3, 4, 5, 6, 7).encode("dir:a/file1.csv"));
+
+        QuerySpec filtered = QuerySpec.fromParams(Map.of("where", "score:gt:0")::get);
+        assertNull(FileSummary.of(csv, filtered, partial));
+    }
+
+    @Test public void convertsInPlaceAndKeepsEmptyFilesReadable() throws IOException {
+        Files.writeString(csv, "", StandardCharsets.UTF_8);
+        assertEquals(0, ColumnarFile.convertInPlace(csv));
+        assertTrue(ColumnarFile.isColumnar(csv));
+        assertEquals(0, new DataParser(csv).scan(new AggregationState()));
+        assertTrue(new DataParser(csv).parse().isEmpty());
+    }
+
+    @Test public void convertsBesideTheCsvWithoutTouchingIt() throws IOException {
+        Files.writeString(csv, "2010A1PS0001G,2010,5\n2011A1PS0002G,2011,7\n", StandardCharsets.UTF_8);
+        byte[] original = Files.readAllBytes(csv);
+        Path beside = ColumnarFile.besideOf(csv);
+        try {
+            assertEquals(2, ColumnarFile.convertBeside(csv));
+            assertArrayEquals(original, Files.readAllBytes(csv));
+            assertTrue(beside.getFileName().toString().endsWith(".columnar"));
+            assertTrue(ColumnarFile.isColumnar(beside));
+            assertEquals(2, new DataParser(beside).scan(new AggregationState()));
+        } finally {
+            Files.deleteIfExists(beside);
+        }
+    }
+
+    private static String aggregate(DataParser parser, QuerySpec spec) throws IOException {
+        TransientVolatileTable table = new TransientVolatileTable();
+        assertTrue(new ExecutionEngine(parser, table, spec).invokeTask());
+        StringWriter out = new StringWriter();
+        table.writeSortedTable(out, spec);
+        return out.toString();
+    }
+}
@@ -0,0 +1,169 @@
+package org.worker.core;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.Random;
+
+import org.worker.model.QuerySpec;
+import org.worker.model.TransientVolatileTable;
+
+public class DataParserTest {
+    private Path csv;
+
+    @Before public void setUp() throws IOException {
+        csv = Files.createTempFile("scores", ".csv");
+    }
+
+    @After public void tearDown() throws IOException {
+        Files.deleteIfExists(csv);
+    }
+
+    @Test public void streamingScanMatchesParserOnGeneratedRows() throws IOException {
+        Random random = new Random(42);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 50_000; i++) {
+            int year = 2004 + random.nextInt(21);
+            int score = random.nextInt(1000);
+            String sep = i % 3 == 0 ? "\r\n" : "\n";
+            if (i % 7 == 0) {
+                sb.append(" ").append(year).append("A1PS").append(i).append("G , ").append(year).append(" , ").append(score).append(" ").append(sep);
+            } else {
+                sb.append(year).append("A1PS").append(i).append("G,").append(year).append(',').append(score).append(sep);
+            }
+        }
+        // malformed rows both paths must skip
+        sb.append("2010A1PS0001G,2010\n");
+        sb.append("2010A1PS0002G,2010,abc\n");
+        sb.append("\n");
+        // trailing line without a terminator
+        sb.append("2011A1PS0003G,2011,-5");
+        Files.writeString(csv, sb.toString(), StandardCharsets.UTF_8);
+
+        TransientVolatileTable parsed = new TransientVolatileTable();
+        new ExecutionEngine(new DataParser(csv).parse(), parsed).invokeTask();
+        TransientVolatileTable scanned = new TransientVolatileTable();
+        new ExecutionEngine(new DataParser(csv), scanned).invokeTask();
+
+        assertArrayEquals(render(parsed), render(scanned));
+    }
+
+    @Test public void streamingScanMatchesParserOnStudentScores() throws IOException {
+        Path sample = Paths.get("../../student_scores/file1.csv");
+        Assume.assumeTrue(Files.exists(sample));
+
+        TransientVolatileTable parsed = new TransientVolatileTable();
+        new ExecutionEngine(new DataParser(sample).parse(), parsed).invokeTask();
+        TransientVolatileTable scanned = new TransientVolatileTable();
+        new ExecutionEngine(new DataParser(sample), scanned).invokeTask();
+
+        assertArrayEquals(render(parsed), render(scanned));
+    }
+
+    @Test public void scanReportsRowCount() throws IOException {
+        Files.writeString(csv, "a,2001,10\nb,2001,20\nc,2002\n", StandardCharsets.UTF_8);
+        long[] sum = new long[1];
+        long rows = new DataParser(csv).scan((year, score) -> sum[0] += score);
+        assertEquals(2, rows);
+        assertEquals(30, sum[0]);
+    }
+
+    @Test public void pushedDownFiltersMatchRowFilters() throws IOException {
+        Path sample = Paths.get("../../student_scores/file1.csv");
+        Assume.assumeTrue(Files.exists(sample));
+
+        String[][] specs = {
+            {"year", "min,max,sum,count,avg", "year:between:2010:2015,score:gte:400"},
+            {"score", "count", "id:prefix:2014"},
+            {"id", "count,max", "id:prefix:2021A7,score:lt:500"},
+            {"year", "count", "year:gt:2030"},
+        };
+        for (String[] params : specs) {
+            QuerySpec spec = QuerySpec.fromParams(Map.of("groupBy", params[0], "agg", params[1], "where", params[2])::get);
+            TransientVolatileTable parsed = new TransientVolatileTable();
+            new ExecutionEngine(new DataParser(sample).parse(), parsed, spec).invokeTask();
+            TransientVolatileTable scanned = new TransientVolatileTable();
+            new ExecutionEngine(new DataParser(sample), scanned, spec).invokeTask();
+
+            assertArrayEquals(spec.toString(), render(parsed, spec), render(scanned, spec));
+        }
+    }
+
+    @Test public void splitScanMatchesWholeScan() throws IOException {
+        Random random = new Random(7);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 20_000; i++) {
+            int year = 2004 + random.nextInt(21);
+            String sep = i % 5 == 0 ? "\r\n" : "\n";
+            sb.append(year).append(i % 2 == 0 ? "A1PS" : "B4TS").append(random.nextInt(500)).append("G,")
+                    .append(year).append(',').append(random.nextInt(1000) - 100).append(sep);
+        }
+        sb.append("2010A1PS0002G,2010,abc\n");
+        sb.append("2011A1PS0003G,2011,-5");
+        Files.writeString(csv, sb.toString(), StandardCharsets.UTF_8);
+
+        // the ranges cover the file exactly, each ending on a line break
+        java.util.List<DataParser.Split> splits = new DataParser(csv).split(7, 1000);
+        assertEquals(7, splits.size());
+        assertEquals(Files.size(csv), splits.stream().mapToLong(DataParser.Split::length).sum());
+        assertTrue(new DataParser(csv).split(8, Files.size(csv)).isEmpty());
+        long[] sum = new long[1];
+        long rows = 0;
+        for (DataParser.Split split : splits) {
+            rows += split.scan(QuerySpec.DEFAULT, null, (year, score) -> sum[0] += score);
+        }
+        long[] wholeSum = new long[1];
+        assertEquals(new DataParser(csv).scan((year, score) -> wholeSum[0] += score), rows);
+        assertEquals(wholeSum[0], sum[0]);
+
+        for (String[] params : new String[][] {
+                {"year", "min,max,sum,count,avg"},
+                {"id", "count,max"},
+                {"year", "count,distinct"},
+        }) {
+            QuerySpec spec = QuerySpec.fromParams(Map.of("groupBy", params[0], "agg", params[1])::get);
+            TransientVolatileTable whole = new TransientVolatileTable();
+            assertTrue(new ExecutionEngine(new DataParser(csv), whole, spec).splitMinBytes(Long.MAX_VALUE).invokeTask());
+            TransientVolatileTable split = new TransientVolatileTable();
+            assertTrue(new ExecutionEngine(new DataParser(csv), split, spec).splitMinBytes(4096).invokeTask());
+            DataParser prefetched = new DataParser(csv);
+            prefetched.prefetch(Long.MAX_VALUE);
+            TransientVolatileTable splitPrefetched = new TransientVolatileTable();
+            assertTrue(new ExecutionEngine(prefetched, splitPrefetched, spec).splitMinBytes(4096).invokeTask());
+
+            assertArrayEquals(spec.toString(), render(whole, spec), render(split, spec));
+            assertArrayEquals(spec.toString(), render(whole, spec), render(splitPrefetched, spec));
+        }
+    }
+
+    @Test public void specFoldsPredicatesIntoRanges() {
+        QuerySpec spec = QuerySpec.fromParams(Map.of("where", "year:gte:2010,year:lt:2015,score:eq:7")::get);
+        assertEquals(2010, spec.getYearLo());
+        assertEquals(2014, spec.getYearHi());
+        assertEquals(7, spec.getScoreLo());
+        assertEquals(7, spec.getScoreHi());
+        assertFalse(spec.matchesNothing());
+        assertTrue(QuerySpec.fromParams(Map.of("where", "year:gt:2010,year:lt:2011")::get).matchesNothing());
+        assertSame(QuerySpec.DEFAULT, QuerySpec.fromParams(Map.<String, String>of()::get));
+    }
+
+    private static byte[] render(TransientVolatileTable table) throws IOException {
+        return render(table, QuerySpec.DEFAULT);
+    }
+
+    private static byte[] render(TransientVolatileTable table, QuerySpec spec) throws IOException {
+        StringWriter out = new StringWriter();
+        table.writeSortedTable(out, spec);
+        return out.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
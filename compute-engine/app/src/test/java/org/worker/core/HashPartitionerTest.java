@@ -0,0 +1,31 @@
+package org.worker.core;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class HashPartitionerTest {
+
+    @Test public void everyGroupHasOneOwnerInRange() {
+        for (int partitions = 1; partitions <= 7; partitions++) {
+            for (int year = 1900; year < 2100; year++) {
+                int p = HashPartitioner.partitionOf(Integer.toString(year), partitions);
+                assertTrue(p >= 0 && p < partitions);
+                // every worker must route the group the same way
+                assertEquals(p, HashPartitioner.partitionOf(new String(Integer.toString(year).toCharArray()), partitions));
+            }
+        }
+        assertEquals(0, HashPartitioner.partitionOf("", 1));
+    }
+
+    @Test public void consecutiveYearsSpreadOverAllOwners() {
+        int partitions = 4;
+        int[] owned = new int[partitions];
+        for (int year = 1950; year < 2050; year++) {
+            owned[HashPartitioner.partitionOf(Integer.toString(year), partitions)]++;
+        }
+        for (int count : owned) {
+            // 25 each if perfectly even; no owner should be left idle or take most of it
+            assertTrue(java.util.Arrays.toString(owned), count >= 10 && count <= 40);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package org.worker.core;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.worker.model.OffHeapGroupStore;
+import org.worker.model.TransientVolatileTable;
+import org.worker.utils.DirectBufferPool;
+
+public class OffHeapGroupStoreTest {
+
+    @Test public void aggregatesLikeTheHeapTable() throws IOException {
+        DirectBufferPool pool = new DirectBufferPool(1 << 20);
+        TransientVolatileTable offHeap = new TransientVolatileTable(new OffHeapGroupStore(pool));
+        TransientVolatileTable onHeap = new TransientVolatileTable();
+        // enough groups to grow every segment a few times, with ids and numeric keys mixed
+        for (int i = 0; i < 300_000; i++) {
+            String key = i % 2 == 0 ? Integer.toString(i % 50_000) : "2010A1PS" + (i % 70_000) + "G";
+            offHeap.updateGroup(key, i % 997 - 400);
+            onHeap.updateGroup(key, i % 997 - 400);
+        }
+        offHeap.mergeGroup("extra", -5, 5, 0, 2);
+        onHeap.mergeGroup("extra", -5, 5, 0, 2);
+
+        assertTrue(offHeap.getGroupIdVsRow().isEmpty());
+        assertEquals(onHeap.getGroupIdVsRow().size(), offHeap.getEstimatedGroupCount());
+        Map<String, String> seen = new HashMap<>();
+        offHeap.forEachGroup(row -> assertNull(seen.put(row.getGroupId(), row.toString())));
+        onHeap.getGroupIdVsRow().forEach((groupId, row) -> assertEquals(row.toString(), seen.get(groupId)));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ShuffleCodec.write(offHeap, bytes, ShuffleCodec.COMPRESSION_NONE);
+        TransientVolatileTable received = new TransientVolatileTable();
+        ShuffleCodec.readInto(new ByteArrayInputStream(bytes.toByteArray()), received);
+        assertEquals(onHeap.getGroupIdVsRow().size(), received.getGroupIdVsRow().size());
+
+        offHeap.release();
+        assertEquals(0, pool.pagesInUse());
+    }
+
+    @Test public void releasedPagesAreReusedZeroed() throws IOException {
+        DirectBufferPool pool = new DirectBufferPool(64 << 20);
+        OffHeapGroupStore first = new OffHeapGroupStore(pool);
+        for (int i = 0; i < 10_000; i++) {
+            first.merge("k" + i, i, i, i, 1);
+        }
+        first.close();
+        long allocated = pool.pagesAllocated();
+
+        OffHeapGroupStore second = new OffHeapGroupStore(pool);
+        second.merge("k1", 7, 7, 7, 1);
+        assertEquals(allocated, pool.pagesAllocated());
+        assertEquals(1, second.size());
+        second.forEach(row -> assertEquals("k1,7,7,7", row.toString()));
+        second.close();
+        try {
+            second.merge("k2", 1, 1, 1, 1);
+            fail("merged into a released store");
+        } catch (IllegalStateException expected) {
+        }
+    }
+}
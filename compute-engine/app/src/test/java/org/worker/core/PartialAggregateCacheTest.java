@@ -0,0 +1,87 @@
+package org.worker.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.worker.model.QuerySpec;
+import org.worker.model.TransientVolatileTable;
+
+public class PartialAggregateCacheTest {
+    private Path dir;
+    private Path csv;
+
+    @Before public void setUp() throws IOException {
+        dir = Files.createTempDirectory("partial-cache");
+        csv = Files.createTempFile("scores", ".csv");
+        Files.writeString(csv, "2010A1PS0001G,2010,10\n2011A1PS0002G,2011,20\n2010A1PS0003G,2010,30\n");
+    }
+
+    @After public void tearDown() throws IOException {
+        Files.deleteIfExists(csv);
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Test public void hitsFromMemoryThenFromDiskAfterRestart() throws IOException {
+        String key = PartialAggregateCache.keyOf(csv, QuerySpec.DEFAULT);
+        PartialAggregateCache cache = new PartialAggregateCache(dir, 1 << 20, 1 << 20);
+        assertFalse(cache.mergeInto(key, new TransientVolatileTable()));
+
+        TransientVolatileTable partial = new TransientVolatileTable();
+        new ExecutionEngine(new DataParser(csv), partial).invokeTask();
+        cache.put(key, partial);
+
+        TransientVolatileTable fromMemory = new TransientVolatileTable();
+        assertTrue(cache.mergeInto(key, fromMemory));
+        assertEquals("2010,10,30,20", fromMemory.getGroupIdVsRow().get("2010").toString());
+
+        PartialAggregateCache restarted = new PartialAggregateCache(dir, 1 << 20, 1 << 20);
+        TransientVolatileTable fromDisk = new TransientVolatileTable();
+        assertTrue(restarted.mergeInto(key, fromDisk));
+        assertEquals(fromMemory.getGroupIdVsRow().toString(), fromDisk.getGroupIdVsRow().toString());
+
+        assertEquals(Long.valueOf(1), cache.stats().get("memoryHits"));
+        assertEquals(Long.valueOf(1), cache.stats().get("misses"));
+        assertEquals(Long.valueOf(1), restarted.stats().get("diskHits"));
+    }
+
+    @Test public void keyChangesWithFileAndQueryShape() throws IOException {
+        String key = PartialAggregateCache.keyOf(csv, QuerySpec.DEFAULT);
+        QuerySpec byScore = QuerySpec.fromParams(p -> p.equals("groupBy") ? "score" : null);
+        assertNotEquals(key, PartialAggregateCache.keyOf(csv, byScore));
+
+        Files.writeString(csv, "2010A1PS0001G,2010,99\n");
+        Files.setLastModifiedTime(csv, FileTime.fromMillis(System.currentTimeMillis() + 5000));
+        assertNotEquals(key, PartialAggregateCache.keyOf(csv, QuerySpec.DEFAULT));
+        assertNull(PartialAggregateCache.keyOf(dir.resolve("missing.csv"), QuerySpec.DEFAULT));
+    }
+
+    @Test public void evictsLeastRecentlyUsedBeyondBudgets() throws IOException {
+        TransientVolatileTable partial = new TransientVolatileTable();
+        for (int i = 0; i < 100; i++) {
+            partial.fetchRowByGroupId("g" + i).updateRow(i);
+        }
+        // each payload is a little over 3 KB, so two fit in memory and on disk
+        PartialAggregateCache cache = new PartialAggregateCache(dir, 7000, 7000);
+        cache.put("a", partial);
+        cache.put("b", partial);
+        assertTrue(cache.mergeInto("a", new TransientVolatileTable()));
+        cache.put("c", partial);
+
+        assertEquals(Long.valueOf(2), cache.stats().get("memoryEntries"));
+        assertTrue(cache.stats().get("diskBytes") <= 7000);
+        assertTrue(cache.mergeInto("a", new TransientVolatileTable()));
+        assertTrue(cache.mergeInto("c", new TransientVolatileTable()));
+        assertEquals(Long.valueOf(3), cache.stats().get("memoryHits"));
+    }
+}
@@ -0,0 +1,96 @@
+package org.worker.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import org.worker.model.QuerySpec;
+import org.worker.model.TransientVolatileTable;
+
+public class ResultWriterTest {
+    private Path dir;
+
+    @Before public void setUp() throws IOException {
+        dir = Files.createTempDirectory("result-writer");
+    }
+
+    @After public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted((a, b) -> b.compareTo(a)).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Test public void spilledRunsMergeIntoTheInMemoryOrder() throws IOException {
+        for (String groupBy : List.of("year", "score", "id")) {
+            QuerySpec spec = QuerySpec.fromParams(Map.of("groupBy", groupBy, "agg", "min,max,sum,count,avg")::get);
+            TransientVolatileTable table = randomTable(spec, 500);
+
+            ResultWriter writer = new ResultWriter(spec, ResultWriter.Format.CSV, 37, 0, dir);
+            List<Path> written = writer.write(table, dir.resolve("out-" + groupBy + ".txt"));
+
+            assertEquals(1, written.size());
+            assertTrue(writer.getRunsSpilled() > 1);
+            assertEquals(reference(table, spec), Files.readString(written.get(0)));
+        }
+        try (Stream<Path> runs = Files.list(dir)) {
+            assertEquals("run files are removed", 0, runs.filter(p -> p.getFileName().toString().startsWith("result-run-")).count());
+        }
+    }
+
+    @Test public void nonNumericGroupsInNumericColumnSortLast() throws IOException {
+        TransientVolatileTable table = new TransientVolatileTable();
+        table.mergeGroup("2012", 1, 1, 1, 1);
+        table.mergeGroup("abc", 2, 2, 2, 1);
+        table.mergeGroup("-3", 3, 3, 3, 1);
+        table.mergeGroup("2009", 4, 4, 4, 1);
+        for (int buffer : new int[] {1, 100}) {
+            Path out = dir.resolve("mixed-" + buffer + ".txt");
+            new ResultWriter(QuerySpec.DEFAULT, ResultWriter.Format.CSV, buffer, 0, dir).write(table, out);
+            assertEquals("-3,3,3,3\n2009,4,4,4\n2012,1,1,1\nabc,2,2,2\n", Files.readString(out));
+        }
+    }
+
+    @Test public void ndjsonAndRowsPerFile() throws IOException {
+        QuerySpec spec = QuerySpec.fromParams(Map.of("groupBy", "id", "agg", "count,avg")::get);
+        TransientVolatileTable table = new TransientVolatileTable();
+        table.mergeGroup("b\"2", 5, 7, 12, 2);
+        table.mergeGroup("a1", 1, 1, 1, 1);
+        table.mergeGroup("c3", 3, 3, 3, 1);
+
+        List<Path> written = new ResultWriter(spec, ResultWriter.Format.NDJSON, 2, 2, dir).write(table, dir.resolve("out.ndjson"));
+
+        assertEquals(List.of(dir.resolve("out-0000.ndjson"), dir.resolve("out-0001.ndjson")), written);
+        assertEquals("{\"id\":\"a1\",\"count\":1,\"avg\":1}\n{\"id\":\"b\\\"2\",\"count\":2,\"avg\":6}\n",
+                Files.readString(written.get(0), StandardCharsets.UTF_8));
+        assertEquals("{\"id\":\"c3\",\"count\":1,\"avg\":3}\n", Files.readString(written.get(1), StandardCharsets.UTF_8));
+    }
+
+    private static TransientVolatileTable randomTable(QuerySpec spec, int groups) {
+        Random random = new Random(11);
+        TransientVolatileTable table = new TransientVolatileTable();
+        for (int i = 0; i < groups; i++) {
+            String key = spec.hasNumericGroups() ? Integer.toString(random.nextInt(100_000) - 50_000) : "20" + random.nextInt(100_000) + "A1PS";
+            int value = random.nextInt(1000);
+            table.mergeGroup(key, value, value + random.nextInt(10), value * 3L, 3);
+        }
+        return table;
+    }
+
+    private static String reference(TransientVolatileTable table, QuerySpec spec) throws IOException {
+        StringWriter out = new StringWriter();
+        table.writeSortedTable(out, spec);
+        // writeSortedTable ends lines with the platform separator
+        return out.toString().replace(System.lineSeparator(), "\n");
+    }
+}
@@ -0,0 +1,48 @@
+package org.worker.core;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.worker.model.TransientVolatileTable;
+import org.worker.model.VolatileRow;
+
+public class ShuffleCodecTest {
+
+    @Test public void roundTripMergesIntoExistingTable() throws IOException {
+        for (byte compression : new byte[] {ShuffleCodec.COMPRESSION_NONE, ShuffleCodec.COMPRESSION_DEFLATE}) {
+            TransientVolatileTable source = new TransientVolatileTable();
+            for (int i = 0; i < 5000; i++) {
+                source.fetchRowByGroupId("k" + (i % 1000)).updateRow(i);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            assertEquals(1000, ShuffleCodec.write(source, out, compression));
+
+            TransientVolatileTable target = new TransientVolatileTable();
+            target.fetchRowByGroupId("k1").updateRow(-1);
+            assertEquals(1000, ShuffleCodec.readInto(new ByteArrayInputStream(out.toByteArray()), target));
+
+            assertEquals(1000, target.getGroupIdVsRow().size());
+            VolatileRow k1 = target.getGroupIdVsRow().get("k1");
+            assertEquals(-1, k1.getMinVal());
+            assertEquals(4001, k1.getMaxVal());
+            assertEquals(6, k1.getCount());
+            assertEquals(source.getGroupIdVsRow().get("k999").toString(), target.getGroupIdVsRow().get("k999").toString());
+        }
+    }
+
+    @Test public void negotiatesFormatFromAcceptHeader() {
+        assertTrue(ShuffleCodec.accepts("application/x-dqe-shuffle; compression=deflate, application/json; q=0.5"));
+        assertFalse(ShuffleCodec.accepts("application/json"));
+        assertEquals(ShuffleCodec.COMPRESSION_DEFLATE,
+                ShuffleCodec.requestedCompression("application/x-dqe-shuffle; compression=deflate, application/json; q=0.5"));
+        assertEquals(ShuffleCodec.COMPRESSION_NONE, ShuffleCodec.requestedCompression("application/x-dqe-shuffle"));
+    }
+
+    @Test(expected = IOException.class) public void rejectsUnknownPayload() throws IOException {
+        ShuffleCodec.readInto(new ByteArrayInputStream("{\"groupIdVsRow\":{}}".getBytes()), new TransientVolatileTable());
+    }
+}
@@ -0,0 +1,120 @@
+package org.worker.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.worker.model.QuerySpec;
+
+public class SimdScannerTest {
+    private Path csv;
+    private byte[] bytes;
+
+    @Before public void setUp() throws IOException {
+        Random random = new Random(11);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 30_000; i++) {
+            int year = 2004 + random.nextInt(21);
+            int score = random.nextInt(1000);
+            String sep = i % 4 == 0 ? "\r\n" : "\n";
+            String id = year + "A1PS" + i + "G";
+            switch (i % 50) {
+                case 1 -> sb.append(' ').append(id).append(" , ").append(year).append(" , ").append(score).append(' ');
+                case 2 -> sb.append(id).append(',').append(year).append(',').append(-score);
+                case 3 -> sb.append(id).append(',').append(year).append(",+").append(score);
+                // large scores only early on, so later batches stay within the masked-reduction bounds
+                case 4 -> sb.append(id).append(',').append(year).append(',').append(i < 3000 ? score * 1_000_003 : score);
+                case 5 -> sb.append(id).append(',').append(year).append(',').append(score).append(",extra,columns");
+                case 6 -> sb.append(id).append(",0").append(year).append(',').append(score);
+                case 7 -> sb.append(id).append(",20x").append(year % 10).append(',').append(score);
+                case 8 -> sb.append(id).append(',').append(year % 1000).append(',').append(score);
+                case 9 -> sb.append(id).append(',').append(year).append(",abc");
+                case 10 -> sb.append(id).append(',').append(year);
+                case 11 -> sb.append(id).append(',').append(year).append(",99999999999");
+                case 12 -> sb.append(id).append(',').append(year).append(",-");
+                default -> sb.append(id).append(',').append(year).append(',').append(score);
+            }
+            sb.append(sep);
+            if (i % 997 == 0) {
+                sb.append("\n\r\n");
+            }
+        }
+        // trailing line without a terminator
+        sb.append("2011A1PS0003G,2011,-5");
+        bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+        csv = Files.createTempFile("scores", ".csv");
+        Files.write(csv, bytes);
+    }
+
+    @After public void tearDown() throws IOException {
+        Files.deleteIfExists(csv);
+    }
+
+    @Test public void matchesTheScalarScanner() throws IOException {
+        for (Map<String, String> params : List.of(
+                Map.of("groupBy", "year"),
+                Map.of("groupBy", "score"),
+                Map.of("groupBy", "score", "where", "score:lt:100"),
+                Map.of("groupBy", "year", "where", "year:gte:2010,year:lt:2013"),
+                Map.of("groupBy", "year", "where", "year:eq:2020,score:gte:500"))) {
+            QuerySpec spec = QuerySpec.fromParams(params::get);
+            assertTrue(SimdScanner.supports(spec));
+
+            AggregationState scalar = new AggregationState();
+            List<String> scalarRows = new ArrayList<>();
+            long rows = new DataParser(csv).scan(spec, null, scalar);
+            new DataParser(csv).scan(spec, null, (key, score) -> scalarRows.add(key + ":" + score));
+
+            // whole heap buffer, a heap buffer at an array offset, and a direct buffer in small windows
+            ByteBuffer padded = ByteBuffer.allocate(bytes.length + 3);
+            padded.position(3);
+            padded.put(bytes);
+            for (ByteBuffer buf : List.of(ByteBuffer.wrap(bytes), padded.slice(3, bytes.length),
+                    ByteBuffer.allocateDirect(bytes.length).put(0, bytes))) {
+                AggregationState simd = new AggregationState();
+                List<String> simdRows = new ArrayList<>();
+                assertEquals(params + " " + buf, rows, scanWindows(buf, spec, simd, buf.isDirect() ? 5000 : bytes.length));
+                scanWindows(buf, spec, (key, score) -> simdRows.add(key + ":" + score), 777);
+                assertEquals(params + " " + buf, groups(scalar), groups(simd));
+                assertEquals(params + " " + buf, scalarRows, simdRows);
+            }
+        }
+    }
+
+    @Test public void leavesIdQueriesToTheScalarScanner() {
+        assertFalse(SimdScanner.supports(QuerySpec.fromParams(Map.of("groupBy", "id")::get)));
+        assertFalse(SimdScanner.supports(QuerySpec.fromParams(Map.of("agg", "count,distinct")::get)));
+        assertFalse(SimdScanner.supports(QuerySpec.fromParams(Map.of("where", "id:prefix:2010")::get)));
+    }
+
+    // the mapped-window loop of DataParser.scan, with windows of the given size
+    private long scanWindows(ByteBuffer buf, QuerySpec spec, RowSink sink, int window) {
+        SimdScanner scanner = new SimdScanner(buf, spec, sink);
+        int position = 0;
+        while (position < buf.limit()) {
+            int limit = Math.min(buf.limit(), position + window);
+            int consumed = scanner.scanLines(position, limit, limit == buf.limit());
+            assertTrue(consumed > position);
+            position = consumed;
+        }
+        return scanner.rows();
+    }
+
+    private static String groups(AggregationState state) {
+        TreeMap<Integer, String> groups = new TreeMap<>();
+        state.forEachGroup((key, min, max, sum, count) -> groups.put(key, min + "/" + max + "/" + sum + "/" + count));
+        return groups.toString();
+    }
+}
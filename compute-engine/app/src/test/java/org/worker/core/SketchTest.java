@@ -0,0 +1,123 @@
+package org.worker.core;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.worker.model.HyperLogLog;
+import org.worker.model.QuerySpec;
+import org.worker.model.TDigest;
+import org.worker.model.TransientVolatileTable;
+import org.worker.model.VolatileRow;
+
+public class SketchTest {
+
+    @Test public void hyperLogLogStaysWithinItsErrorAndMergesLikeOnePass() {
+        HyperLogLog whole = new HyperLogLog(12);
+        HyperLogLog left = new HyperLogLog(12);
+        HyperLogLog right = new HyperLogLog(12);
+        for (int i = 0; i < 200_000; i++) {
+            long hash = HyperLogLog.hash("2010A1PS" + i + "G");
+            whole.add(hash);
+            (i % 2 == 0 ? left : right).add(hash);
+            // repeats don't count
+            right.add(hash);
+        }
+        left.merge(right);
+        assertEquals(whole, left);
+        // 1.6% standard error at precision 12; allow four of them
+        assertEquals(200_000, whole.estimate(), 200_000 * 0.065);
+
+        HyperLogLog small = new HyperLogLog(12);
+        for (int i = 0; i < 100; i++) {
+            small.add(HyperLogLog.hash("id" + i));
+        }
+        assertEquals(100, small.estimate(), 3);
+    }
+
+    @Test public void tDigestQuantilesAreCloseAfterMerging() {
+        Random random = new Random(7);
+        double[] values = new double[100_000];
+        TDigest[] parts = new TDigest[8];
+        for (int p = 0; p < parts.length; p++) {
+            parts[p] = new TDigest(100);
+        }
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextInt(1000);
+            parts[i % parts.length].add(values[i]);
+        }
+        TDigest merged = new TDigest(100);
+        for (TDigest part : parts) {
+            merged.merge(part);
+        }
+        Arrays.sort(values);
+        for (double q : new double[] {0.01, 0.5, 0.9, 0.99}) {
+            double exact = values[(int) (q * (values.length - 1))];
+            // rank error of about 1% is about 10 score points on a uniform 0-999
+            assertEquals("q=" + q, exact, merged.quantile(q), 15);
+        }
+        assertEquals(values.length, merged.size());
+        assertEquals(0, merged.quantile(0), 0);
+        assertEquals(999, merged.quantile(1), 0);
+    }
+
+    @Test public void scanAndParsePathsAgreeAndSketchesSurviveTheShuffle() throws IOException {
+        Path csv = Files.createTempFile("scores", ".csv");
+        try {
+            Random random = new Random(3);
+            StringBuilder sb = new StringBuilder();
+            Map<String, Set<Integer>> students = new HashMap<>();
+            for (int i = 0; i < 40_000; i++) {
+                int year = 2010 + random.nextInt(4);
+                // 5000 students, many seen more than once a year
+                int student = random.nextInt(5000);
+                students.computeIfAbsent(Integer.toString(year), y -> new HashSet<>()).add(student);
+                sb.append(year).append("A1PS").append(student).append("G,").append(year).append(',')
+                        .append(random.nextInt(500)).append('\n');
+            }
+            Files.writeString(csv, sb.toString(), StandardCharsets.UTF_8);
+            QuerySpec spec = QuerySpec.fromParams(Map.of("groupBy", "year", "agg", "count,distinct,median,p90")::get);
+            assertTrue(spec.toParams().contains("distinctError=0.02"));
+
+            TransientVolatileTable scanned = new TransientVolatileTable();
+            assertTrue(new ExecutionEngine(new DataParser(csv), scanned, spec).invokeTask());
+            TransientVolatileTable parsed = new TransientVolatileTable();
+            assertTrue(new ExecutionEngine(new DataParser(csv).parse(), parsed, spec).invokeTask());
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ShuffleCodec.write(scanned, bytes, ShuffleCodec.COMPRESSION_DEFLATE);
+            TransientVolatileTable received = new TransientVolatileTable();
+            ShuffleCodec.readInto(new ByteArrayInputStream(bytes.toByteArray()), received);
+
+            for (VolatileRow row : scanned.getGroupIdVsRow().values()) {
+                String line = spec.format(row);
+                assertEquals(spec.format(parsed.getGroupIdVsRow().get(row.getGroupId())), line);
+                assertEquals(spec.format(received.getGroupIdVsRow().get(row.getGroupId())), line);
+                String[] fields = line.split(",");
+                long exact = students.get(row.getGroupId()).size();
+                assertEquals(exact, Long.parseLong(fields[2]), exact * 0.065);
+                assertEquals(250, Long.parseLong(fields[3]), 15);
+                assertEquals(450, Long.parseLong(fields[4]), 15);
+            }
+        } finally {
+            Files.deleteIfExists(csv);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsErrorBoundsOutsideZeroToOne() {
+        QuerySpec.fromParams(Map.of("agg", "distinct", "distinctError", "2")::get);
+    }
+}
@@ -0,0 +1,93 @@
+package org.worker.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.worker.model.TransientVolatileTable;
+
+public class SpillingTableTest {
+    private Path dir;
+
+    @Before public void setUp() throws IOException {
+        dir = Files.createTempDirectory("agg-spill-test");
+    }
+
+    @After public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Test public void spillsPastBudgetAndReaggregatesEveryGroupOnce() throws IOException {
+        // room for a few hundred groups; 5000 groups each seen 4 times forces repeated spills
+        TransientVolatileTable table = new TransientVolatileTable(64 * 1024, dir);
+        TransientVolatileTable expected = new TransientVolatileTable();
+        for (int round = 0; round < 4; round++) {
+            for (int g = 0; g < 5000; g++) {
+                table.updateGroup("g" + g, g + round);
+                expected.updateGroup("g" + g, g + round);
+            }
+        }
+        assertTrue(table.isSpilled());
+        assertTrue(table.getGroupIdVsRow().size() < 5000);
+        // repeated spills add up to one summary for the query's log line
+        assertTrue(table.describeSpill(), table.describeSpill().matches("spilled \\d+ groups in ([2-9]|\\d{2,}) spills to .*"));
+
+        Map<String, String> seen = new HashMap<>();
+        table.forEachGroup(row -> assertNull("visited twice: " + row.getGroupId(),
+                seen.put(row.getGroupId(), row.toString())));
+        assertEquals(5000, seen.size());
+        expected.getGroupIdVsRow().forEach((groupId, row) -> assertEquals(row.toString(), seen.get(groupId)));
+
+        table.discardSpill();
+        try (Stream<Path> files = Files.list(dir)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test public void spilledTableShufflesLikeAnInMemoryOne() throws IOException {
+        TransientVolatileTable spilling = new TransientVolatileTable(16 * 1024, dir);
+        TransientVolatileTable inMemory = new TransientVolatileTable();
+        for (int i = 0; i < 20_000; i++) {
+            spilling.mergeGroup("k" + (i % 3000), i, i, i, 1);
+            inMemory.mergeGroup("k" + (i % 3000), i, i, i, 1);
+        }
+        assertTrue(spilling.isSpilled());
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        assertEquals(3000, ShuffleCodec.write(spilling, bytes, ShuffleCodec.COMPRESSION_NONE));
+        TransientVolatileTable received = new TransientVolatileTable();
+        ShuffleCodec.readInto(new ByteArrayInputStream(bytes.toByteArray()), received);
+        assertEquals(inMemory.getGroupIdVsRow().size(), received.getGroupIdVsRow().size());
+        inMemory.getGroupIdVsRow().forEach((groupId, row) ->
+                assertEquals(row.toString(), received.getGroupIdVsRow().get(groupId).toString()));
+
+        TransientVolatileTable merged = new TransientVolatileTable();
+        merged.mergeTable(spilling);
+        inMemory.getGroupIdVsRow().forEach((groupId, row) ->
+                assertEquals(row.toString(), merged.getGroupIdVsRow().get(groupId).toString()));
+        spilling.discardSpill();
+    }
+
+    @Test public void unboundedTableNeverSpills() throws IOException {
+        TransientVolatileTable table = new TransientVolatileTable();
+        for (int g = 0; g < 10_000; g++) {
+            table.updateGroup("g" + g, g);
+        }
+        assertFalse(table.isSpilled());
+        assertNull(table.describeSpill());
+        assertEquals(10_000, table.getGroupIdVsRow().size());
+    }
+}
@@ -0,0 +1,41 @@
+package org.worker.rest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.Map;
+import java.util.concurrent.Executors;
+
+import org.worker.runtime.HostConfig;
+
+public class HostMapTest {
+    private Map<String, String> hosts;
+    private final WorkerHandlers handlers = new WorkerHandlers(Executors.newSingleThreadExecutor(), "http://localhost:1");
+
+    @Before public void saveHostMap() {
+        hosts = HostConfig.getHostMap();
+    }
+
+    @After public void restoreHostMap() {
+        HostConfig.setHostMap(hosts);
+    }
+
+    @Test public void pushedMapReplacesThePeers() {
+        // ?hosts= as the orchestrator sends it, after the one decode of the query string
+        String reply = handlers.setHostMap(Map.of("hosts", "W1=http%3A%2F%2Flocalhost%3A9001,W%2C2=http%3A%2F%2Fhost%3A9002")::get);
+
+        assertEquals("status OK, 2 hosts", reply);
+        assertEquals(Map.of("W1", "http://localhost:9001", "W,2", "http://host:9002"), HostConfig.getHostMap());
+    }
+
+    @Test public void missingHostsIsABadRequest() {
+        try {
+            handlers.setHostMap(Map.<String, String>of()::get);
+            fail("took a host map without hosts");
+        } catch (IllegalArgumentException expected) {
+        }
+        assertEquals(hosts, HostConfig.getHostMap());
+    }
+}
@@ -0,0 +1,109 @@
+package org.worker.rest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.worker.App;
+import org.worker.model.TransientVolatileTable;
+import org.worker.runtime.HostConfig;
+import org.worker.runtime.RuntimeData;
+
+public class PartitionShuffleTest {
+
+    // one server plays both the failing owner and the orchestrator
+    private HttpServer server;
+    private String url;
+    private final BlockingQueue<String> reports = new LinkedBlockingQueue<>();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private Map<String, String> hosts;
+    private String workerId;
+
+    @Before public void startServer() throws IOException {
+        hosts = HostConfig.getHostMap();
+        workerId = App.getWorkerId();
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/receivePartition", exchange -> {
+            try (InputStream body = exchange.getRequestBody()) {
+                body.readNBytes(16);
+            }
+            reply(exchange, 500, "error: disk full");
+        });
+        server.createContext("/failTask", exchange -> {
+            reports.add("fail " + exchange.getRequestURI().getPath() + "?"
+                    + URLDecoder.decode(exchange.getRequestURI().getRawQuery(), StandardCharsets.UTF_8));
+            reply(exchange, 200, "ok");
+        });
+        server.createContext("/completeTask", exchange -> {
+            reports.add("complete " + exchange.getRequestURI().getPath());
+            reply(exchange, 200, "ok");
+        });
+        server.start();
+        url = "http://localhost:" + server.getAddress().getPort();
+        App.setWorkerId("W1");
+    }
+
+    @After public void stopServer() {
+        server.stop(0);
+        executor.shutdownNow();
+        HostConfig.setHostMap(hosts);
+        App.setWorkerId(workerId);
+    }
+
+    @Test public void failedPushIsReportedToTheOrchestrator() throws Exception {
+        HostConfig.setHostMap(Map.of("W1", "http://localhost:1", "W2", url));
+        String queryId = fillTable("partition-push-fails");
+
+        WorkerHandlers handlers = new WorkerHandlers(executor, url);
+        assertTrue(handlers.partitionShuffle(queryId, Map.of("owners", "W1,W2", "task", "9")::get).startsWith("accepted"));
+
+        String report = reports.poll(20, TimeUnit.SECONDS);
+        assertNotNull("the orchestrator was never told", report);
+        assertTrue(report, report.startsWith("fail /failTask/W1?queryId=" + queryId + "&reason=partitioned shuffle failed"));
+        assertNull(reports.poll(300, TimeUnit.MILLISECONDS));
+    }
+
+    @Test public void ownerWithoutAHostIsReportedToTheOrchestrator() throws Exception {
+        HostConfig.setHostMap(Map.of("W1", "http://localhost:1"));
+        String queryId = fillTable("partition-owner-unknown");
+
+        new WorkerHandlers(executor, url).partitionShuffle(queryId, Map.of("owners", "W1,W2")::get);
+
+        String report = reports.poll(20, TimeUnit.SECONDS);
+        assertNotNull("the orchestrator was never told", report);
+        assertTrue(report, report.startsWith("fail /failTask/W1?queryId=" + queryId));
+        assertTrue(report, report.contains("W2"));
+    }
+
+    private static String fillTable(String queryId) {
+        RuntimeData.INSTANCE.release(queryId);
+        TransientVolatileTable table = RuntimeData.INSTANCE.getQuery(queryId).getTable();
+        for (int i = 0; i < 10_000; i++) {
+            table.fetchRowByGroupId("k" + i).updateRow(i);
+        }
+        return queryId;
+    }
+
+    private static void reply(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+        exchange.close();
+    }
+}
@@ -0,0 +1,26 @@
+package org.worker.rest;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Executors;
+
+import org.worker.runtime.RuntimeData;
+
+public class UnknownQueryTest {
+
+    @Test public void writeOfAQueryThisWorkerDoesNotHoldFails() throws Exception {
+        WorkerHandlers handlers = new WorkerHandlers(Executors.newSingleThreadExecutor(), "http://localhost:1");
+        int before = RuntimeData.INSTANCE.activeQueries();
+        try {
+            handlers.write("never-read-here", Map.of("groupBy", "year")::get);
+            fail("wrote a result for a query with no state");
+        } catch (NoSuchElementException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains("never-read-here"));
+        }
+        assertNull(RuntimeData.INSTANCE.findQuery("never-read-here"));
+        assertEquals(before, RuntimeData.INSTANCE.activeQueries());
+    }
+}
@@ -0,0 +1,84 @@
+package org.worker.rpc;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class ControlProtocolTest {
+    // an EVENTS frame as both copies of the protocol must encode it; the orchestrator's test decodes the same bytes
+    static final String EVENT_FRAME = "00000029" + "03" + "03" + "00000001" + "000000000000002a" + "01"
+            + "00025731" + "000171" + "001170686173653d726561643b7461736b3d37";
+
+    @Test public void helloRoundTrips() throws IOException {
+        assertEquals("3f2a-orchestrator", ControlProtocol.decodeHello(body(ControlProtocol.encodeHello("3f2a-orchestrator"),
+                ControlProtocol.TYPE_HELLO)));
+    }
+
+    @Test public void commandRoundTrips() throws IOException {
+        Map<String, String> params = new LinkedHashMap<>();
+        params.put("queryId", "q1");
+        params.put("blobs", "a%2Cb,c");
+        params.put("note", "ünïcode");
+        ControlProtocol.Command command = new ControlProtocol.Command(Long.MAX_VALUE, ControlProtocol.OP_READ_BATCH, "", params);
+        ControlProtocol.Command decoded = ControlProtocol.decodeCommand(body(ControlProtocol.encodeCommand(command),
+                ControlProtocol.TYPE_COMMAND));
+        assertEquals(command, decoded);
+        assertEquals(List.of("queryId", "blobs", "note"), List.copyOf(decoded.params().keySet()));
+    }
+
+    @Test public void acksRoundTrip() throws IOException {
+        List<ControlProtocol.Ack> acks = List.of(new ControlProtocol.Ack(1, ControlProtocol.STATUS_OK, "accepted"),
+                new ControlProtocol.Ack(2, ControlProtocol.STATUS_ERROR, ""));
+        assertEquals(acks, ControlProtocol.decodeAcks(body(ControlProtocol.encodeAcks(acks), ControlProtocol.TYPE_ACKS)));
+        assertEquals(List.of(), ControlProtocol.decodeAcks(body(ControlProtocol.encodeAcks(List.of()), ControlProtocol.TYPE_ACKS)));
+    }
+
+    @Test public void eventsRoundTrip() throws IOException {
+        List<ControlProtocol.Event> events = List.of(
+                new ControlProtocol.Event(42, ControlProtocol.EVENT_COMPLETE, "W1", "q", "phase=read;task=7"),
+                new ControlProtocol.Event(43, ControlProtocol.EVENT_STATS, "W1", "q", ""));
+        assertEquals(events, ControlProtocol.decodeEvents(body(ControlProtocol.encodeEvents(events), ControlProtocol.TYPE_EVENTS)));
+    }
+
+    @Test public void eventAcksRoundTrip() throws IOException {
+        List<Long> ids = List.of(1L, 42L, Long.MAX_VALUE);
+        assertEquals(ids, ControlProtocol.decodeEventAcks(body(ControlProtocol.encodeEventAcks(ids), ControlProtocol.TYPE_EVENT_ACKS)));
+    }
+
+    @Test public void eventFrameMatchesTheOrchestratorsCopy() throws IOException {
+        ByteBuffer frame = ControlProtocol.encodeEvents(List.of(
+                new ControlProtocol.Event(42, ControlProtocol.EVENT_COMPLETE, "W1", "q", "phase=read;task=7")));
+        assertEquals(EVENT_FRAME, HexFormat.of().formatHex(frame.array(), 0, frame.limit()));
+    }
+
+    @Test public void truncatedFrameIsRejected() throws IOException {
+        ByteBuffer frame = ControlProtocol.encodeEvents(List.of(
+                new ControlProtocol.Event(42, ControlProtocol.EVENT_COMPLETE, "W1", "q", "phase=read;task=7")));
+        ByteBuffer whole = body(frame, ControlProtocol.TYPE_EVENTS);
+        // cut inside the stats string, and inside the event id; the bytes past the cut stay in the array
+        for (int cut : new int[] {whole.remaining() - 3, 6}) {
+            ByteBuffer truncated = whole.slice(whole.position(), cut);
+            try {
+                ControlProtocol.decodeEvents(truncated);
+                fail("decoded a frame cut to " + cut + " bytes");
+            } catch (BufferUnderflowException expected) {
+            }
+        }
+    }
+
+    // check the frame header and return the body, positioned after the type byte
+    private static ByteBuffer body(ByteBuffer frame, byte type) {
+        assertEquals(frame.limit() - Integer.BYTES, frame.getInt(0));
+        ByteBuffer body = frame.slice(Integer.BYTES, frame.limit() - Integer.BYTES);
+        assertEquals(ControlProtocol.VERSION, body.get());
+        assertEquals(type, body.get());
+        return body;
+    }
+}
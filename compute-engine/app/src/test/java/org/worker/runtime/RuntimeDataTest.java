@@ -0,0 +1,57 @@
+package org.worker.runtime;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class RuntimeDataTest {
+
+    private final RuntimeData data = RuntimeData.INSTANCE;
+
+    @Test public void releaseWaitsForRunningTasks() {
+        QueryContext read = data.beginTask("rt-release");
+        QueryContext shuffle = data.beginTask("rt-release");
+        assertSame(read, shuffle);
+
+        assertTrue(data.release("rt-release"));
+        assertNull(data.findQuery("rt-release"));
+        assertFalse(read.isClosed());
+
+        read.endTask();
+        assertFalse(read.isClosed());
+        shuffle.endTask();
+        assertTrue(read.isClosed());
+    }
+
+    @Test public void idleQueryWithATaskRunningIsNotExpired() {
+        QueryContext query = data.beginTask("rt-expire");
+        long later = System.currentTimeMillis() + data.getQueryTtlMillis() + 1;
+
+        data.expireIdle(later);
+        assertSame(query, data.findQuery("rt-expire"));
+
+        // ending the task counts as access, so idle time runs from then
+        query.endTask();
+        data.expireIdle(System.currentTimeMillis() + data.getQueryTtlMillis() + 1);
+        assertNull(data.findQuery("rt-expire"));
+        assertTrue(query.isClosed());
+    }
+
+    @Test public void lookupsOfUnknownQueriesCreateNothing() {
+        int before = data.activeQueries();
+        assertNull(data.findQuery("rt-never-seen"));
+        assertNull(data.beginTaskIfPresent("rt-never-seen"));
+        assertEquals(before, data.activeQueries());
+        assertFalse(data.release("rt-never-seen"));
+    }
+
+    @Test public void releaseWithNothingRunningClosesAtOnce() {
+        QueryContext query = data.getQuery("rt-idle");
+        assertTrue(data.release("rt-idle"));
+        assertTrue(query.isClosed());
+        // a later command for the same id starts afresh
+        QueryContext again = data.beginTask("rt-idle");
+        assertFalse(query == again);
+        again.endTask();
+        data.release("rt-idle");
+    }
+}
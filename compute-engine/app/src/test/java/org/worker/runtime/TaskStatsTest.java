@@ -0,0 +1,36 @@
+package org.worker.runtime;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class TaskStatsTest {
+    // the orchestrator's ExecutionStatisticsTest parses these exact reports
+    static final String READ_REPORT = "phase=read;task=7;parseNanos=2000000;rows=120;files=2;fileMs=3,15";
+    static final String PARTITION_REPORT = "phase=partition;task=12;serializeNanos=1000000;rows=40;payloadBytes=4096";
+
+    @Test public void encodesEveryCounterAndTheTaskId() {
+        TaskStats read = TaskStats.accepted("read");
+        read.setTask(" 7 ");
+        read.add(TaskStats.PARSE, 1_500_000);
+        read.add(TaskStats.ROWS, 100);
+        read.add(TaskStats.PARSE, 500_000);
+        read.fileDone(3_400_000);
+        read.add(TaskStats.ROWS, 20);
+        read.fileDone(15_000_000);
+        assertEquals(READ_REPORT, read.encode());
+
+        TaskStats partition = TaskStats.accepted("partition");
+        partition.setTask("12");
+        partition.add(TaskStats.SERIALIZE, 1_000_000);
+        partition.add(TaskStats.ROWS, 40);
+        partition.add(TaskStats.PAYLOAD_BYTES, 4096);
+        assertEquals(PARTITION_REPORT, partition.encode());
+    }
+
+    @Test public void blankTaskIdIsLeftOut() {
+        TaskStats write = TaskStats.accepted("write");
+        write.setTask("  ");
+        write.add(TaskStats.FILES, 1);
+        assertEquals("phase=write;files=1", write.encode());
+    }
+}
@@ -0,0 +1,93 @@
+package org.worker.utils;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class StreamPipeTest {
+
+    @Test public void streamsEverythingWrittenToTheReader() throws Exception {
+        StreamPipe pipe = new StreamPipe(16, 2);
+        byte[] data = new byte[10_000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 31);
+        }
+        CompletableFuture<byte[]> read = CompletableFuture.supplyAsync(() -> {
+            try {
+                return pipe.inputStream().readAllBytes();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        try (OutputStream out = pipe.outputStream()) {
+            out.write(data, 0, 5_000);
+            for (int i = 5_000; i < data.length; i++) {
+                out.write(data[i]);
+            }
+        }
+        assertArrayEquals(data, read.get(10, TimeUnit.SECONDS));
+        assertEquals(data.length, pipe.written());
+    }
+
+    @Test public void writerWaitsForASlowReader() throws Exception {
+        StreamPipe pipe = new StreamPipe(8, 2);
+        CompletableFuture<Void> write = CompletableFuture.runAsync(() -> {
+            try (OutputStream out = pipe.outputStream()) {
+                out.write(new byte[8 * 10]);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        Thread.sleep(300);
+        // two chunks queued and one waiting to go in; nothing more until the reader takes some
+        assertFalse(write.isDone());
+        assertTrue(pipe.written() <= 8 * 3);
+
+        InputStream in = pipe.inputStream();
+        assertEquals(8 * 10, in.readAllBytes().length);
+        write.get(10, TimeUnit.SECONDS);
+    }
+
+    @Test public void abortWakesABlockedWriter() throws Exception {
+        StreamPipe pipe = new StreamPipe(8, 1);
+        CompletableFuture<Void> write = CompletableFuture.runAsync(() -> {
+            try {
+                pipe.outputStream().write(new byte[8 * 100]);
+                fail("write went through an aborted pipe");
+            } catch (IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("receiver gone"));
+            }
+        });
+        Thread.sleep(200);
+        assertFalse(write.isDone());
+        pipe.abort("receiver gone");
+        write.get(10, TimeUnit.SECONDS);
+    }
+
+    @Test public void abortFailsTheReader() throws Exception {
+        StreamPipe pipe = new StreamPipe(8, 4);
+        pipe.outputStream().write(new byte[8]);
+        pipe.outputStream().flush();
+        CompletableFuture<byte[]> read = CompletableFuture.supplyAsync(() -> {
+            try {
+                return pipe.inputStream().readAllBytes();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        Thread.sleep(200);
+        pipe.abort("sender failed");
+        try {
+            read.get(10, TimeUnit.SECONDS);
+            fail("reader saw the end of an aborted stream");
+        } catch (ExecutionException e) {
+            assertTrue(String.valueOf(e.getCause()), e.getCause().getCause() instanceof IOException);
+        }
+    }
+}
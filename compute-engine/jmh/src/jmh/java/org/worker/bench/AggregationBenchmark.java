@@ -0,0 +1,113 @@
+package org.worker.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.worker.core.AggregationState;
+import org.worker.model.TransientVolatileTable;
+
+/**
+ * Aggregation throughput in rows per second at 1..N threads, for low and high key cardinality.
+ *
+ * - partials: every thread aggregates its slice into its own AggregationState, merged once at the
+ *   end (what ExecutionEngine does per chunk).
+ * - sharedTable: every thread updates one TransientVolatileTable, the original per-row locking
+ *   design, kept as the baseline.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class AggregationBenchmark {
+
+    private static final int ROWS = 1_000_000;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    @Param({"21", "1000000"})
+    public int cardinality;
+
+    @Param({"0.0", "1.2"})
+    public double skew;
+
+    private int[] keys;
+    private int[] scores;
+    private String[] keyNames;
+    private ExecutorService pool;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        DataGenerator generator = new DataGenerator(7, cardinality, skew);
+        keys = generator.keys(ROWS);
+        scores = generator.scores(ROWS);
+        keyNames = new String[cardinality];
+        for (int k = 0; k < cardinality; k++) {
+            keyNames[k] = Integer.toString(k);
+        }
+        pool = Executors.newFixedThreadPool(threads);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public int partials() throws Exception {
+        List<Future<AggregationState>> futures = new ArrayList<>();
+        int slice = (ROWS + threads - 1) / threads;
+        for (int t = 0; t < threads; t++) {
+            int from = t * slice;
+            int to = Math.min(ROWS, from + slice);
+            futures.add(pool.submit(() -> {
+                AggregationState partial = new AggregationState();
+                for (int i = from; i < to; i++) {
+                    partial.update(keys[i], scores[i]);
+                }
+                return partial;
+            }));
+        }
+        AggregationState merged = new AggregationState();
+        for (Future<AggregationState> f : futures) {
+            merged.mergeFrom(f.get());
+        }
+        return merged.size();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public int sharedTable() throws Exception {
+        TransientVolatileTable table = new TransientVolatileTable();
+        List<Future<?>> futures = new ArrayList<>();
+        int slice = (ROWS + threads - 1) / threads;
+        for (int t = 0; t < threads; t++) {
+            int from = t * slice;
+            int to = Math.min(ROWS, from + slice);
+            futures.add(pool.submit(() -> {
+                for (int i = from; i < to; i++) {
+                    table.fetchRowByGroupId(keyNames[keys[i]]).updateRow(scores[i]);
+                }
+            }));
+        }
+        for (Future<?> f : futures) {
+            f.get();
+        }
+        return table.getGroupIdVsRow().size();
+    }
+}
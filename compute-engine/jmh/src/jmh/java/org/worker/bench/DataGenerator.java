@@ -0,0 +1,87 @@
+package org.worker.bench;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Synthetic student_scores data with a controllable key distribution.
+ *
+ * Keys are drawn from [0, cardinality) following a Zipf distribution with exponent skew:
+ * 0 is uniform, around 1 is typical real-world skew, above 1.5 a handful of keys dominate.
+ * Generation is seeded, so every fork of a benchmark sees the same data.
+ */
+public final class DataGenerator {
+    private final Random random;
+    private final int cardinality;
+    // cumulative distribution over key ranks, binary searched per draw
+    private final double[] cdf;
+
+    public DataGenerator(long seed, int cardinality, double skew) {
+        this.random = new Random(seed);
+        this.cardinality = cardinality;
+        this.cdf = new double[cardinality];
+        double total = 0;
+        for (int rank = 0; rank < cardinality; rank++) {
+            total += 1.0 / Math.pow(rank + 1, skew);
+            cdf[rank] = total;
+        }
+        for (int rank = 0; rank < cardinality; rank++) {
+            cdf[rank] /= total;
+        }
+    }
+
+    /** Next key in [0, cardinality). */
+    public int nextKey() {
+        double u = random.nextDouble();
+        int lo = 0;
+        int hi = cardinality - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (cdf[mid] < u) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Score in the 0..999 range the real data uses. */
+    public int nextScore() {
+        return random.nextInt(1000);
+    }
+
+    public int[] keys(int n) {
+        int[] keys = new int[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = nextKey();
+        }
+        return keys;
+    }
+
+    public int[] scores(int n) {
+        int[] scores = new int[n];
+        for (int i = 0; i < n; i++) {
+            scores[i] = nextScore();
+        }
+        return scores;
+    }
+
+    /**
+     * Write rows in the student_scores layout (id,year,score with CRLF endings). The key picks the
+     * student id; the year follows from it the way real ids embed their year.
+     */
+    public void writeCsv(Path file, int rows) throws IOException {
+        try (Writer w = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < rows; i++) {
+                int key = nextKey();
+                int year = 2004 + key % 21;
+                w.write(year + "A" + (key % 10) + "PS" + String.format("%06d", key) + "G," + year + "," + nextScore() + "\r\n");
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package org.worker.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.worker.core.ExecutionEngine;
+import org.worker.model.QuerySpec;
+import org.worker.model.Row;
+import org.worker.model.TransientVolatileTable;
+
+/**
+ * The List<Row> execution path end to end (chunking, computeChunk on the worker's shared CPU pool, merge),
+ * in rows per second. Grouping by year stays on int-keyed partials; grouping by id falls back to
+ * the shared table.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ExecutionEngineBenchmark {
+
+    private static final int ROWS = 500_000;
+
+    @Param({"year", "id"})
+    public String groupBy;
+
+    @Param({"0.0", "1.2"})
+    public double skew;
+
+    private List<Row> rows;
+    private QuerySpec spec;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        DataGenerator generator = new DataGenerator(11, 100_000, skew);
+        rows = new ArrayList<>(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            int key = generator.nextKey();
+            String year = Integer.toString(2004 + key % 21);
+            rows.add(new Row(year + "A" + (key % 10) + "PS" + key + "G", year, generator.nextScore()));
+        }
+        spec = QuerySpec.fromParams(p -> p.equals("groupBy") ? groupBy : null);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public int invokeTask() {
+        TransientVolatileTable table = new TransientVolatileTable();
+        new ExecutionEngine(rows, table, spec).invokeTask();
+        return table.getGroupIdVsRow().size();
+    }
+}
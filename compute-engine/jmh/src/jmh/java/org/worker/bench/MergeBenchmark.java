@@ -0,0 +1,71 @@
+package org.worker.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.worker.core.AggregationState;
+import org.worker.model.TransientVolatileTable;
+
+/**
+ * Cost of merging one partial into another as table size grows. Half of the source's groups
+ * already exist in the target, the other half are new.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MergeBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int tableSize;
+
+    private TransientVolatileTable sourceTable;
+    private AggregationState sourceState;
+
+    // rebuilt before every call, merges mutate it
+    private TransientVolatileTable targetTable;
+    private AggregationState targetState;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        sourceTable = new TransientVolatileTable();
+        sourceState = new AggregationState();
+        DataGenerator generator = new DataGenerator(3, 1000, 0);
+        for (int k = tableSize / 2; k < tableSize + tableSize / 2; k++) {
+            int score = generator.nextScore();
+            sourceTable.fetchRowByGroupId(Integer.toString(k)).updateRow(score);
+            sourceState.update(k, score);
+        }
+    }
+
+    // Invocation-level setup is only accurate for calls well above a microsecond, which holds
+    // for all but the smallest size
+    @Setup(Level.Invocation)
+    public void resetTargets() {
+        targetTable = new TransientVolatileTable();
+        targetState = new AggregationState();
+        for (int k = 0; k < tableSize; k++) {
+            targetTable.fetchRowByGroupId(Integer.toString(k)).updateRow(k % 1000);
+            targetState.update(k, k % 1000);
+        }
+    }
+
+    @Benchmark
+    public int mergeTable() {
+        targetTable.mergeTable(sourceTable);
+        return targetTable.getGroupIdVsRow().size();
+    }
+
+    @Benchmark
+    public int mergeAggregationState() {
+        targetState.mergeFrom(sourceState);
+        return targetState.size();
+    }
+}
@@ -0,0 +1,98 @@
+package org.worker.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.worker.core.AggregationState;
+import org.worker.core.DataParser;
+import org.worker.core.KeyDictionary;
+import org.worker.model.QuerySpec;
+import org.worker.model.Row;
+
+/**
+ * CSV parse throughput of one file: the commons-csv List<Row> path against the streaming
+ * byte scanner, scalar and SIMD. The "bytes" secondary metric is input bytes per second (divide by 2^20 for MB/s).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ParseBenchmark {
+
+    @Param({"1000000"})
+    public int rows;
+
+    @Param({"0.0", "1.2"})
+    public double skew;
+
+    private Path csv;
+    private long fileBytes;
+    private QuerySpec byId;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Throughput {
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        csv = Files.createTempFile("bench-scores", ".csv");
+        new DataGenerator(42, 100_000, skew).writeCsv(csv, rows);
+        fileBytes = Files.size(csv);
+        byId = QuerySpec.fromParams(p -> p.equals("groupBy") ? "id" : null);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(csv);
+    }
+
+    @Benchmark
+    public int parseRows(Throughput counters) throws IOException {
+        List<Row> parsed = new DataParser(csv).parse();
+        counters.bytes += fileBytes;
+        return parsed.size();
+    }
+
+    @Benchmark
+    public long scanByYear(Throughput counters) throws IOException {
+        AggregationState state = new AggregationState();
+        long scanned = new DataParser(csv).scan(QuerySpec.DEFAULT, null, state);
+        counters.bytes += fileBytes;
+        return scanned + state.size();
+    }
+
+    @Benchmark
+    @Fork(jvmArgsAppend = "-Dworker.scan.simd=true")
+    public long scanByYearSimd(Throughput counters) throws IOException {
+        return scanByYear(counters);
+    }
+
+    @Benchmark
+    public long scanById(Throughput counters) throws IOException {
+        AggregationState state = new AggregationState();
+        long scanned = new DataParser(csv).scan(byId, new KeyDictionary(), state);
+        counters.bytes += fileBytes;
+        return scanned + state.size();
+    }
+}
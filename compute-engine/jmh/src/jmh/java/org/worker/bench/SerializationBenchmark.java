@@ -0,0 +1,90 @@
+package org.worker.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.worker.core.ShuffleCodec;
+import org.worker.model.TransientVolatileTable;
+
+/**
+ * Shuffle payload cost: the JSON format /getTransientData served originally against the binary
+ * ShuffleCodec format, with and without deflate. Decoding includes merging into a fresh table,
+ * as the receiving worker does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SerializationBenchmark {
+
+    @Param({"21", "100000"})
+    public int groups;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private TransientVolatileTable table;
+    private byte[] json;
+    private byte[] binary;
+    private byte[] deflated;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        table = new TransientVolatileTable();
+        DataGenerator generator = new DataGenerator(5, groups, 1.0);
+        for (int i = 0; i < groups * 4; i++) {
+            table.fetchRowByGroupId("2010A1PS" + generator.nextKey() + "G").updateRow(generator.nextScore());
+        }
+        json = objectMapper.writeValueAsBytes(table);
+        binary = encode(ShuffleCodec.COMPRESSION_NONE);
+        deflated = encode(ShuffleCodec.COMPRESSION_DEFLATE);
+    }
+
+    @Benchmark
+    public byte[] jsonSerialize() throws IOException {
+        return objectMapper.writeValueAsBytes(table);
+    }
+
+    @Benchmark
+    public int jsonDeserialize() throws IOException {
+        TransientVolatileTable target = new TransientVolatileTable();
+        target.mergeTable(objectMapper.readValue(json, TransientVolatileTable.class));
+        return target.getGroupIdVsRow().size();
+    }
+
+    @Benchmark
+    public byte[] binarySerialize() throws IOException {
+        return encode(ShuffleCodec.COMPRESSION_NONE);
+    }
+
+    @Benchmark
+    public long binaryDeserialize() throws IOException {
+        return ShuffleCodec.readInto(new ByteArrayInputStream(binary), new TransientVolatileTable());
+    }
+
+    @Benchmark
+    public byte[] deflateSerialize() throws IOException {
+        return encode(ShuffleCodec.COMPRESSION_DEFLATE);
+    }
+
+    @Benchmark
+    public long deflateDeserialize() throws IOException {
+        return ShuffleCodec.readInto(new ByteArrayInputStream(deflated), new TransientVolatileTable());
+    }
+
+    private byte[] encode(byte compression) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ShuffleCodec.write(table, out, compression);
+        return out.toByteArray();
+    }
+}
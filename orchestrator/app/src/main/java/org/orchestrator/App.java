@@ -24,11 +24,13 @@ public class App {
         try {
             EngineController controller = new EngineController();
             controller.start(9000);
+            org.orchestrator.core.TaskExecutor.INSTANCE.monitorWorkers();
             System.out.println("Press Ctrl+C to stop the server");
 
             Runtime.getRuntime().addShutdownHook(new Thread(() -> {
                 System.out.println("Shutting down WorkerController...");
                 controller.stop();
+                org.orchestrator.core.TaskExecutor.INSTANCE.shutdown();
             }));
 
         } catch (Exception e) {
@@ -2,19 +2,90 @@ package org.orchestrator.config;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * The worker pool: workers given on the command line at startup, plus those that announce
+ * themselves later through GET /register. A worker's host is its identity; announcing a host
+ * already in the pool keeps the id it has. An id is only handed to a new host when its current
+ * holder has been lost, so a live worker's id (and its share of running queries) is never taken.
+ */
 public class WorkerConfig {
-    
-    private static Map<String, String> workerPool = new HashMap<>();
+
+    private static final Map<String, String> workerPool = new ConcurrentHashMap<>();
+    private static final Map<String, Integer> cores = new ConcurrentHashMap<>();
     private static int count = 0;
 
     public static void addWorker(String port) {
-        count++;
-        String workerId = "W" + count;
-        workerPool.put(workerId, "http://localhost:" + port);
+        register(null, "http://localhost:" + port, 0, Set.of());
+    }
+
+    /**
+     * Add a worker, or move a lost one to a new host.
+     *
+     * @param workerId the id the worker asks for; blank to get the next free "W<n>"
+     * @param workerCores its core count, 0 if unknown
+     * @param lost workers currently considered lost, whose ids a new host may take over
+     * @return the id the worker is known by
+     */
+    public static synchronized String register(String workerId, String host, int workerCores, Set<String> lost) {
+        // "localhost:9004/" and "http://localhost:9004" are the same worker
+        if (!host.startsWith("http://") && !host.startsWith("https://")) {
+            host = "http://" + host;
+        }
+        if (host.endsWith("/")) {
+            host = host.substring(0, host.length() - 1);
+        }
+        String id = null;
+        for (Map.Entry<String, String> worker : workerPool.entrySet()) {
+            if (worker.getValue().equals(host)) {
+                id = worker.getKey();
+            }
+        }
+        if (id == null && workerId != null && !workerId.isBlank()) {
+            // a new host gets the id it asks for if it is free, or if its holder was lost (it moved);
+            // a live holder keeps it and the newcomer is assigned a fresh one
+            String requested = workerId.trim();
+            if (!workerPool.containsKey(requested) || lost.contains(requested)) {
+                id = requested;
+            }
+        }
+        if (id == null) {
+            do {
+                count++;
+                id = "W" + count;
+            } while (workerPool.containsKey(id));
+        }
+        workerPool.put(id, host);
+        if (workerCores > 0) {
+            cores.put(id, workerCores);
+        }
+        return id;
     }
 
     public static Map<String, String> getWorkerPool() {
         return workerPool;
     }
+
+    /** Cores the worker announced, or 0 if it never registered. */
+    public static int getCores(String workerId) {
+        return cores.getOrDefault(workerId, 0);
+    }
+
+    /**
+     * Storage directory each worker is local to, from -Dorchestrator.affinity=W1=dirA,W2=dirB.
+     * Directories are relative to the storage root; workers without an entry have no preference.
+     */
+    public static Map<String, String> getAffinity() {
+        Map<String, String> affinity = new HashMap<>();
+        String spec = System.getProperty("orchestrator.affinity", "");
+        for (String entry : spec.split(",")) {
+            int eq = entry.indexOf('=');
+            if (eq > 0) {
+                affinity.put(entry.substring(0, eq).trim(), entry.substring(eq + 1).trim());
+            }
+        }
+        return affinity;
+    }
 }
@@ -0,0 +1,27 @@
+package org.orchestrator.core;
+
+import java.util.List;
+
+/**
+ * Decides which blobs a worker reads next. One instance serves one query and is only called
+ * under that query's lock, so implementations need not be thread-safe.
+ */
+public interface BlobScheduler {
+
+    /**
+     * Next assignment for the worker: one or more blobs to read in a single /invokeRead round trip.
+     * Empty once nothing is left.
+     */
+    List<DataFile> next(String workerId);
+
+    /** Hand blobs out again, e.g. those whose rows were lost with a worker. */
+    void requeue(List<DataFile> files);
+
+    /** A worker joined the query after it started; by default nothing changes. */
+    default void addWorker(String workerId) {
+    }
+
+    boolean hasRemaining();
+
+    int remaining();
+}
@@ -0,0 +1,309 @@
+package org.orchestrator.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpResponse;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+import org.orchestrator.utils.HttpUtils;
+
+/**
+ * A standing query over the storage directory whose result is kept current as files land.
+ *
+ * - The directory is watched (WatchService) and also re-listed every few seconds, which covers
+ *   file systems without change notification and overflowed event queues.
+ * - Each refresh compares size and mtime of every CSV with the version already folded in. Only new
+ *   or changed files are sent to workers (GET /aggregateBlob), spread by the cost-based scheduler.
+ *   So the work of a refresh is proportional to the new data.
+ * - Each file's partial is kept, so a changed or deleted file can be taken back out. New files are
+ *   merged straight into the total. A change or delete marks the total stale, and it is rebuilt
+ *   from the partials on the next read.
+ *
+ * A file whose pull fails is not marked as ingested and is retried on the next refresh.
+ */
+public class ContinuousQuery {
+
+    // Re-list interval of the polling fallback
+    private static final long POLL_MILLIS = Long.getLong("orchestrator.continuous.pollMillis", 5000);
+    // Events are coalesced for this long, so a burst of writes costs one refresh
+    private static final long DEBOUNCE_MILLIS = 200;
+    // Covers a worker scanning one file before it answers
+    private static final Duration PULL_TIMEOUT = Duration.ofSeconds(60);
+
+    private final String name;
+    private final QuerySpec spec;
+    private final Map<String, String> workers;
+    private final Map<String, String> affinity;
+    private final Path storageDir;
+
+    // blob -> "size:mtime" of the version folded into the result
+    private final Map<String, String> ingested = new HashMap<>();
+    // blob -> that version's partial aggregate
+    private final Map<String, Map<String, GroupAggregate>> partials = new HashMap<>();
+    private Map<String, GroupAggregate> total = new HashMap<>();
+    private boolean stale;
+
+    private final ScheduledExecutorService timer;
+    private final ExecutorService pullers;
+    private final AtomicBoolean refreshQueued = new AtomicBoolean();
+    private volatile boolean running;
+    private Thread watcher;
+
+    private long refreshes;
+    private long lastRefreshFiles;
+    private long lastRefreshMillis;
+
+    public ContinuousQuery(String name, QuerySpec spec, Map<String, String> workers, Map<String, String> affinity, Path storageDir) {
+        if (workers == null || workers.isEmpty()) {
+            throw new IllegalArgumentException("worker pool cannot be empty");
+        }
+        if (spec.hasApproximateAggregates()) {
+            // partials are merged here, from the exact fields only
+            throw new IllegalArgumentException("continuous queries support exact aggregates only");
+        }
+        this.name = name;
+        this.spec = spec;
+        this.workers = workers;
+        this.affinity = affinity;
+        this.storageDir = storageDir;
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> daemon(r, "continuous-" + name));
+        this.pullers = Executors.newFixedThreadPool(workers.size(), r -> daemon(r, "continuous-" + name + "-pull"));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public QuerySpec getSpec() {
+        return spec;
+    }
+
+    public void start() {
+        running = true;
+        System.out.println("[" + name + "] continuous query " + spec + " over " + storageDir);
+        // single-threaded timer, so refreshes never overlap
+        timer.scheduleWithFixedDelay(this::refresh, 0, POLL_MILLIS, TimeUnit.MILLISECONDS);
+        watcher = daemon(this::watch, "continuous-" + name + "-watch");
+        watcher.start();
+    }
+
+    public void stop() {
+        running = false;
+        timer.shutdownNow();
+        pullers.shutdownNow();
+        if (watcher != null) {
+            watcher.interrupt();
+        }
+    }
+
+    /** Current result, formatted and ordered like a worker's output file. */
+    public synchronized List<String> resultLines() {
+        if (stale) {
+            rebuildTotal();
+        }
+        Comparator<Map.Entry<String, GroupAggregate>> order = spec.hasNumericGroups()
+                ? Comparator.comparingInt(e -> Integer.parseInt(e.getKey()))
+                : Map.Entry.comparingByKey();
+        return total.entrySet().stream()
+                .sorted(order)
+                .map(e -> spec.format(e.getKey(), e.getValue()))
+                .toList();
+    }
+
+    public synchronized Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("name", name);
+        stats.put("spec", spec.toString());
+        stats.put("files", ingested.size());
+        stats.put("groups", total.size());
+        stats.put("refreshes", refreshes);
+        stats.put("lastRefreshFiles", lastRefreshFiles);
+        stats.put("lastRefreshMillis", lastRefreshMillis);
+        return stats;
+    }
+
+    private void watch() {
+        try (WatchService watchService = storageDir.getFileSystem().newWatchService()) {
+            registerTree(watchService, storageDir);
+            while (running) {
+                WatchKey key = watchService.take();
+                Path dir = (Path) key.watchable();
+                for (var event : key.pollEvents()) {
+                    if (event.context() instanceof Path child && Files.isDirectory(dir.resolve(child))) {
+                        registerTree(watchService, dir.resolve(child));
+                    }
+                }
+                key.reset();
+                queueRefresh();
+            }
+        } catch (IOException | UnsupportedOperationException e) {
+            System.err.println("[" + name + "] directory watch unavailable, polling only: " + e.getMessage());
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // stopped
+        }
+    }
+
+    private static void registerTree(WatchService watchService, Path root) throws IOException {
+        try (Stream<Path> dirs = Files.walk(root)) {
+            for (Path dir : dirs.filter(Files::isDirectory).toList()) {
+                dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+            }
+        }
+    }
+
+    private void queueRefresh() {
+        if (running && refreshQueued.compareAndSet(false, true)) {
+            timer.schedule(this::refresh, DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void refresh() {
+        refreshQueued.set(false);
+        long started = System.currentTimeMillis();
+        try {
+            Map<String, String> versions = new HashMap<>();
+            List<DataFile> changed = new ArrayList<>();
+            List<DataFile> current = TaskPlan.listDataFiles(storageDir);
+            synchronized (this) {
+                for (DataFile file : current) {
+                    String version = file.sizeBytes() + ":" + lastModified(file);
+                    versions.put(file.name(), version);
+                    if (!version.equals(ingested.get(file.name()))) {
+                        changed.add(file);
+                    }
+                }
+                Set<String> removed = new HashSet<>(ingested.keySet());
+                removed.removeAll(versions.keySet());
+                for (String blob : removed) {
+                    ingested.remove(blob);
+                    partials.remove(blob);
+                    stale = true;
+                }
+            }
+            if (!changed.isEmpty()) {
+                pullAll(changed, versions);
+            }
+            synchronized (this) {
+                refreshes++;
+                lastRefreshFiles = changed.size();
+                lastRefreshMillis = System.currentTimeMillis() - started;
+            }
+            if (!changed.isEmpty()) {
+                System.out.println("[" + name + "] folded in " + changed.size() + " new or changed files in "
+                        + (System.currentTimeMillis() - started) + " ms");
+            }
+        } catch (Exception e) {
+            System.err.println("[" + name + "] refresh failed: " + e.getMessage());
+        }
+    }
+
+    // One puller per worker, each taking its next files from a shared scheduler
+    private void pullAll(List<DataFile> changed, Map<String, String> versions) throws InterruptedException {
+        BlobScheduler scheduler = SchedulerPolicy.COST.create(changed, workers, affinity);
+        List<Future<?>> pulls = new ArrayList<>();
+        for (String worker : workers.keySet()) {
+            pulls.add(pullers.submit(() -> {
+                while (running) {
+                    List<DataFile> batch;
+                    synchronized (scheduler) {
+                        batch = scheduler.next(worker);
+                    }
+                    if (batch.isEmpty()) {
+                        return;
+                    }
+                    for (DataFile file : batch) {
+                        pull(worker, file, versions.get(file.name()));
+                    }
+                }
+            }));
+        }
+        for (Future<?> pull : pulls) {
+            try {
+                pull.get();
+            } catch (ExecutionException e) {
+                System.err.println("[" + name + "] pull failed: " + e.getCause());
+            }
+        }
+    }
+
+    private void pull(String worker, DataFile file, String version) {
+        String url = HttpUtils.buildUrl(workers.get(worker),
+                "/aggregateBlob/" + HttpUtils.encode(file.name()) + "?" + spec.toQueryString());
+        Map<String, GroupAggregate> partial = new HashMap<>();
+        try {
+            HttpResponse<InputStream> resp = HttpUtils.getStream(url, ResultCodec.MEDIA_TYPE, PULL_TIMEOUT);
+            try (InputStream body = resp.body()) {
+                if (resp.statusCode() != 200) {
+                    System.err.println("[" + name + "] " + url + " -> " + resp.statusCode());
+                    return;
+                }
+                ResultCodec.readInto(body, partial);
+            }
+        } catch (IOException e) {
+            System.err.println("[" + name + "] pull of " + file.name() + " from " + worker + " failed: " + e.getMessage());
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        synchronized (this) {
+            Map<String, GroupAggregate> previous = partials.put(file.name(), partial);
+            ingested.put(file.name(), version);
+            if (previous != null) {
+                stale = true;
+            } else if (!stale) {
+                mergeInto(total, partial);
+            }
+        }
+    }
+
+    private void rebuildTotal() {
+        Map<String, GroupAggregate> rebuilt = new HashMap<>();
+        for (Map<String, GroupAggregate> partial : partials.values()) {
+            mergeInto(rebuilt, partial);
+        }
+        total = rebuilt;
+        stale = false;
+    }
+
+    private static void mergeInto(Map<String, GroupAggregate> target, Map<String, GroupAggregate> partial) {
+        partial.forEach((group, aggregate) -> target.computeIfAbsent(group, g -> new GroupAggregate()).merge(aggregate));
+    }
+
+    private long lastModified(DataFile file) {
+        try {
+            return Files.getLastModifiedTime(storageDir.resolve(file.name())).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static Thread daemon(Runnable r, String name) {
+        Thread t = new Thread(r, name);
+        t.setDaemon(true);
+        return t;
+    }
+}
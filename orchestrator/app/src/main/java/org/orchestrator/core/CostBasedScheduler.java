@@ -0,0 +1,121 @@
+package org.orchestrator.core;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+
+/**
+ * Size- and locality-aware policy.
+ *
+ * - Largest files go first (longest-processing-time order), so a big file picked up late can't
+ *   stretch the tail of the read phase.
+ * - Each assignment aims for a target number of bytes: a large file goes out alone, small files
+ *   are bundled so one round trip covers several of them. The target shrinks as the remaining work
+ *   runs out, so the last assignments stay small and even.
+ * - With an affinity map (worker -> storage directory), a worker is served from its own directory
+ *   first and only steals other files once its local ones are gone.
+ */
+public class CostBasedScheduler implements BlobScheduler {
+    // Cap on files per assignment, keeps request URLs and per-batch latency bounded
+    private static final int MAX_BATCH_FILES = 64;
+
+    private final LinkedList<DataFile> remaining;
+    private final Map<String, String> affinity;
+    private final long targetBytes;
+    private int workerCount;
+    private long remainingBytes;
+
+    /**
+     * @param affinity    workerId -> storage directory the worker holds locally; may be empty
+     * @param targetBytes desired bytes of input per assignment
+     */
+    public CostBasedScheduler(List<DataFile> files, int workerCount, Map<String, String> affinity, long targetBytes) {
+        List<DataFile> sorted = new ArrayList<>(files);
+        sorted.sort(Comparator.comparingLong(DataFile::sizeBytes).reversed());
+        this.remaining = new LinkedList<>(sorted);
+        this.affinity = affinity == null ? Map.of() : affinity;
+        this.targetBytes = Math.max(1, targetBytes);
+        this.workerCount = Math.max(1, workerCount);
+        for (DataFile file : files) {
+            remainingBytes += file.sizeBytes();
+        }
+    }
+
+    @Override
+    public List<DataFile> next(String workerId) {
+        if (remaining.isEmpty()) {
+            return List.of();
+        }
+        String home = affinity.get(workerId);
+        boolean local = home != null && remaining.stream().anyMatch(f -> f.directory().equals(home));
+
+        // leave roughly two assignments per worker for the tail of the phase
+        long target = Math.max(1, Math.min(targetBytes, remainingBytes / (2L * workerCount)));
+
+        List<DataFile> batch = new ArrayList<>();
+        long batchBytes = 0;
+        // largest eligible file first
+        Iterator<DataFile> largest = remaining.iterator();
+        while (largest.hasNext()) {
+            DataFile file = largest.next();
+            if (!local || file.directory().equals(home)) {
+                largest.remove();
+                batch.add(file);
+                batchBytes += file.sizeBytes();
+                break;
+            }
+        }
+        // then fill up with the smallest eligible files until the target is met
+        Iterator<DataFile> smallest = remaining.descendingIterator();
+        while (batchBytes < target && batch.size() < MAX_BATCH_FILES && smallest.hasNext()) {
+            DataFile file = smallest.next();
+            if (local && !file.directory().equals(home)) {
+                continue;
+            }
+            if (batchBytes + file.sizeBytes() > target) {
+                break;
+            }
+            smallest.remove();
+            batch.add(file);
+            batchBytes += file.sizeBytes();
+        }
+        remainingBytes -= batchBytes;
+        return batch;
+    }
+
+    @Override
+    public void requeue(List<DataFile> files) {
+        // back into largest-first order; with a lost worker's work it's mostly the tail anyway
+        for (DataFile file : files) {
+            ListIterator<DataFile> it = remaining.listIterator();
+            while (it.hasNext()) {
+                if (it.next().sizeBytes() < file.sizeBytes()) {
+                    it.previous();
+                    break;
+                }
+            }
+            it.add(file);
+            remainingBytes += file.sizeBytes();
+        }
+    }
+
+    @Override
+    public void addWorker(String workerId) {
+        // more workers share the tail, so assignments shrink sooner
+        workerCount++;
+    }
+
+    @Override
+    public boolean hasRemaining() {
+        return !remaining.isEmpty();
+    }
+
+    @Override
+    public int remaining() {
+        return remaining.size();
+    }
+}
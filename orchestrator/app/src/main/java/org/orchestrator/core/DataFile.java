@@ -0,0 +1,18 @@
+package org.orchestrator.core;
+
+/**
+ * A blob the plan has to read: its name relative to the storage root (what workers are sent),
+ * its size, the storage directory it lives in ("" for the root itself), and its row count when
+ * the {@link DatasetCatalog} knows it (-1 otherwise).
+ */
+public record DataFile(String name, long sizeBytes, String directory, long rows) {
+
+    public static DataFile of(String name, long sizeBytes) {
+        int slash = name.lastIndexOf('/');
+        return new DataFile(name, sizeBytes, slash < 0 ? "" : name.substring(0, slash), -1);
+    }
+
+    public DataFile withRows(long rows) {
+        return new DataFile(name, sizeBytes, directory, rows);
+    }
+}
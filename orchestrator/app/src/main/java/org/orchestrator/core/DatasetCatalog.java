@@ -0,0 +1,207 @@
+package org.orchestrator.core;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * File-level statistics of the storage directory, so the planner knows more about a blob than
+ * its name: size, mtime, row count and the min/max of year and score.
+ *
+ * Workers collect the numbers as a side effect of reads and send them with their read reports
+ * (see {@link #recordStats}). An entry only counts while the file's size and mtime still match, so
+ * a rewritten file is planned like an unknown one until a read refreshes it. Entries are persisted
+ * to -Dorchestrator.catalog.file (default ./dataset-catalog.txt), one per line, and survive
+ * restarts.
+ *
+ * The planner drops files whose ranges can't satisfy a query's year/score predicate
+ * ({@link #prune}), so selective queries only read the files that matter.
+ */
+public final class DatasetCatalog {
+
+    /** What the catalog knows about one blob. */
+    public record FileStats(String name, long sizeBytes, long modifiedMillis, long rows,
+                            int yearMin, int yearMax, int scoreMin, int scoreMax) {
+
+        /** Whether no row of the file can pass the spec's year and score ranges. */
+        public boolean excludes(QuerySpec spec) {
+            return yearMax < spec.getYearLo() || yearMin > spec.getYearHi()
+                    || scoreMax < spec.getScoreLo() || scoreMin > spec.getScoreHi();
+        }
+
+        public String encode() {
+            return name + ":" + sizeBytes + ":" + modifiedMillis + ":" + rows + ":" + yearMin + ":" + yearMax
+                    + ":" + scoreMin + ":" + scoreMax;
+        }
+
+        /** Inverse of {@link #encode()}; the name is everything before the last seven fields. */
+        public static FileStats parse(String encoded) {
+            String[] fields = new String[8];
+            int end = encoded.length();
+            for (int i = 7; i > 0; i--) {
+                int colon = encoded.lastIndexOf(':', end - 1);
+                if (colon <= 0) {
+                    throw new IllegalArgumentException("bad file stats '" + encoded + "'");
+                }
+                fields[i] = encoded.substring(colon + 1, end);
+                end = colon;
+            }
+            fields[0] = encoded.substring(0, end);
+            try {
+                return new FileStats(fields[0], Long.parseLong(fields[1]), Long.parseLong(fields[2]),
+                        Long.parseLong(fields[3]), Integer.parseInt(fields[4]), Integer.parseInt(fields[5]),
+                        Integer.parseInt(fields[6]), Integer.parseInt(fields[7]));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("bad file stats '" + encoded + "'", e);
+            }
+        }
+    }
+
+    private final Path file;
+    // by blob name
+    private final Map<String, FileStats> entries = new TreeMap<>();
+
+    public DatasetCatalog(Path file) {
+        this.file = file;
+        load();
+    }
+
+    private static final class Shared {
+        static final DatasetCatalog INSTANCE = new DatasetCatalog(
+                Path.of(System.getProperty("orchestrator.catalog.file", "dataset-catalog.txt")));
+    }
+
+    /** The orchestrator-wide catalog, at -Dorchestrator.catalog.file. */
+    public static DatasetCatalog shared() {
+        return Shared.INSTANCE;
+    }
+
+    /**
+     * Take the file statistics out of a worker's encoded task stats ("...;catalog=a|b"), if any.
+     */
+    public void recordStats(String stats) {
+        if (stats == null) {
+            return;
+        }
+        for (String field : stats.split(";")) {
+            if (field.startsWith("catalog=")) {
+                List<FileStats> reported = new ArrayList<>();
+                for (String entry : field.substring("catalog=".length()).split("\\|")) {
+                    try {
+                        reported.add(FileStats.parse(entry));
+                    } catch (IllegalArgumentException e) {
+                        System.err.println("[catalog] ignoring " + e.getMessage());
+                    }
+                }
+                record(reported);
+            }
+        }
+    }
+
+    public synchronized void record(List<FileStats> reported) {
+        boolean changed = false;
+        for (FileStats stats : reported) {
+            changed |= !stats.equals(entries.put(stats.name(), stats));
+        }
+        if (changed) {
+            save();
+        }
+    }
+
+    /** Stats of name if they describe the file as it is now (same size and mtime), else null. */
+    public synchronized FileStats lookup(String name, long sizeBytes, long modifiedMillis) {
+        FileStats stats = entries.get(name);
+        return stats != null && stats.sizeBytes() == sizeBytes && stats.modifiedMillis() == modifiedMillis ? stats : null;
+    }
+
+    public synchronized List<FileStats> entries() {
+        return new ArrayList<>(entries.values());
+    }
+
+    /**
+     * The files of storageDir a query has to read: those the catalog can't rule out, annotated with
+     * their row counts where known. A spec that matches nothing rules out every file. If every file
+     * is ruled out the smallest one is kept, so the query still runs through its phases and writes
+     * its (empty) result.
+     */
+    public List<DataFile> prune(Path storageDir, List<DataFile> files, QuerySpec spec) {
+        List<DataFile> kept = new ArrayList<>();
+        long prunedBytes = 0;
+        for (DataFile dataFile : files) {
+            if (spec.matchesNothing()) {
+                prunedBytes += dataFile.sizeBytes();
+                continue;
+            }
+            FileStats stats = lookup(dataFile.name(), dataFile.sizeBytes(), modifiedMillis(storageDir.resolve(dataFile.name())));
+            if (stats == null) {
+                kept.add(dataFile);
+            } else if (!stats.excludes(spec)) {
+                kept.add(dataFile.withRows(stats.rows()));
+            } else {
+                prunedBytes += dataFile.sizeBytes();
+            }
+        }
+        if (kept.isEmpty() && !files.isEmpty()) {
+            kept.add(files.stream().min(Comparator.comparingLong(DataFile::sizeBytes)).get());
+        }
+        if (kept.size() < files.size()) {
+            System.out.println("[catalog] " + spec + ": skipping " + (files.size() - kept.size()) + " of "
+                    + files.size() + " files (" + prunedBytes + " bytes) by their year/score ranges");
+        }
+        return kept;
+    }
+
+    private static long modifiedMillis(Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private void load() {
+        if (!Files.isRegularFile(file)) {
+            return;
+        }
+        try {
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                try {
+                    FileStats stats = FileStats.parse(line);
+                    entries.put(stats.name(), stats);
+                } catch (IllegalArgumentException e) {
+                    System.err.println("[catalog] ignoring " + e.getMessage());
+                }
+            }
+            System.out.println("[catalog] loaded " + entries.size() + " files from " + file);
+        } catch (IOException e) {
+            System.err.println("[catalog] can't read " + file + ": " + e.getMessage());
+        }
+    }
+
+    // written to a sibling and moved over the old file, so a crash never leaves half a catalog
+    private void save() {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                for (FileStats stats : entries.values()) {
+                    out.write(stats.encode());
+                    out.newLine();
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("[catalog] can't write " + file + ": " + e.getMessage());
+        }
+    }
+}
@@ -1,5 +1,230 @@
 package org.orchestrator.core;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Execution profile of one query, served by /stats/{queryId} in an EXPLAIN ANALYZE style.
+ *
+ * Workers time every task (queue wait, parse, aggregate, serialize, transfer, merge, write) and
+ * count rows, bytes and shuffle payload sizes; the encoded numbers ride along with the completion
+ * report ("phase=read;queueWaitNanos=120;rows=...;fileMs=12,9"). This class sums them per phase
+ * and per worker, keeps the latency of every file read, and adds the wall-clock window of each
+ * phase as the orchestrator saw it: from the first command sent to the last report received.
+ */
 public class ExecutionStatistics {
-    
+
+    // Phases in the order a query goes through them
+    private static final List<String> PHASE_ORDER = List.of("read", "shuffle", "partition", "write");
+
+    private final String queryId;
+    private final String description;
+    private final long startNanos = System.nanoTime();
+    private long finishedNanos = -1;
+    // why the query stopped early; null unless it failed
+    private String failure;
+
+    private final Map<String, PhaseProfile> phases = new LinkedHashMap<>();
+    private final List<Long> fileMillis = new ArrayList<>();
+
+    public ExecutionStatistics(String queryId, String description) {
+        this.queryId = queryId;
+        this.description = description;
+    }
+
+    public String getQueryId() {
+        return queryId;
+    }
+
+    /** A command of this phase went out; the first one opens the phase's wall-clock window. */
+    public synchronized void commandSent(String phase) {
+        PhaseProfile profile = phase(phase);
+        if (profile.firstSentNanos < 0) {
+            profile.firstSentNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * Add one task's encoded statistics from workerId. Null or blank stats (a worker that doesn't
+     * send any) are ignored.
+     */
+    public synchronized void record(String workerId, String stats) {
+        if (stats == null || stats.isBlank()) {
+            return;
+        }
+        String phase = "unknown";
+        Map<String, Long> counters = new LinkedHashMap<>();
+        for (String field : stats.split(";")) {
+            int eq = field.indexOf('=');
+            if (eq <= 0) {
+                continue;
+            }
+            String key = field.substring(0, eq);
+            String value = field.substring(eq + 1);
+            try {
+                switch (key) {
+                    case "phase" -> phase = value;
+                    // file statistics for the DatasetCatalog and the task id for QueryExecution, not counters
+                    case "catalog", "task" -> { }
+                    case "fileMs" -> {
+                        for (String ms : value.split(",")) {
+                            if (!ms.isEmpty()) fileMillis.add(Long.parseLong(ms));
+                        }
+                    }
+                    default -> counters.put(key, Long.parseLong(value));
+                }
+            } catch (NumberFormatException e) {
+                System.err.println("[" + queryId + "] ignoring bad stats field '" + field + "' from " + workerId);
+            }
+        }
+        PhaseProfile profile = phase(phase);
+        profile.lastReportNanos = System.nanoTime();
+        profile.tasks++;
+        WorkerProfile worker = profile.workers.computeIfAbsent(workerId == null ? "?" : workerId, w -> new WorkerProfile());
+        worker.tasks++;
+        counters.forEach((key, value) -> {
+            worker.counters.merge(key, value, Long::sum);
+            profile.totals.merge(key, value, Long::sum);
+        });
+    }
+
+    /** The last task the query waits on has been handed out; the write may still report later. */
+    public synchronized void finished() {
+        if (finishedNanos < 0) {
+            finishedNanos = System.nanoTime();
+        }
+    }
+
+    /** The query stopped without writing its result. */
+    public synchronized void failed(String reason) {
+        finished();
+        if (failure == null) {
+            failure = reason;
+        }
+    }
+
+    /** Text breakdown of where the query spent its time. */
+    public synchronized String explain() {
+        StringBuilder sb = new StringBuilder();
+        long end = latestNanos();
+        sb.append("Query ").append(queryId).append(": ").append(description).append('\n');
+        sb.append("  ").append(finishedNanos < 0 ? "running" : failure != null ? "failed (" + failure + ")" : "finished")
+                .append(", elapsed ").append(millis(end - startNanos)).append('\n');
+
+        List<String> order = new ArrayList<>(PHASE_ORDER);
+        for (String phase : phases.keySet()) {
+            if (!order.contains(phase)) order.add(phase);
+        }
+        for (String name : order) {
+            PhaseProfile phase = phases.get(name);
+            if (phase == null) {
+                continue;
+            }
+            sb.append("-> ").append(name)
+                    .append("  wall=").append(phase.wallNanos() < 0 ? "-" : millis(phase.wallNanos()))
+                    .append(" tasks=").append(phase.tasks);
+            appendCounters(sb, phase.totals);
+            sb.append('\n');
+            for (Map.Entry<String, WorkerProfile> worker : phase.workers.entrySet()) {
+                sb.append("     ").append(worker.getKey()).append(": tasks=").append(worker.getValue().tasks);
+                appendCounters(sb, worker.getValue().counters);
+                sb.append('\n');
+            }
+        }
+        appendFileLatencies(sb);
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return explain();
+    }
+
+    private PhaseProfile phase(String name) {
+        return phases.computeIfAbsent(name, n -> new PhaseProfile());
+    }
+
+    private long latestNanos() {
+        long latest = finishedNanos < 0 ? System.nanoTime() : finishedNanos;
+        for (PhaseProfile phase : phases.values()) {
+            latest = Math.max(latest, phase.lastReportNanos);
+        }
+        return latest;
+    }
+
+    // Times are summed over tasks, so they read as work done rather than elapsed time
+    private static void appendCounters(StringBuilder sb, Map<String, Long> counters) {
+        for (Map.Entry<String, Long> counter : counters.entrySet()) {
+            String key = counter.getKey();
+            sb.append(' ');
+            if (key.endsWith("Nanos")) {
+                sb.append(key, 0, key.length() - "Nanos".length()).append('=').append(millis(counter.getValue()));
+            } else {
+                sb.append(key).append('=').append(counter.getValue());
+            }
+        }
+    }
+
+    private void appendFileLatencies(StringBuilder sb) {
+        if (fileMillis.isEmpty()) {
+            return;
+        }
+        List<Long> sorted = new ArrayList<>(fileMillis);
+        Collections.sort(sorted);
+        sb.append("File latency: n=").append(sorted.size())
+                .append(" p50=").append(percentile(sorted, 50)).append(" ms")
+                .append(" p90=").append(percentile(sorted, 90)).append(" ms")
+                .append(" p99=").append(percentile(sorted, 99)).append(" ms")
+                .append(" max=").append(sorted.get(sorted.size() - 1)).append(" ms\n");
+
+        // power-of-two buckets: [0,1), [1,2), [2,4), [4,8) ...
+        Map<Integer, Integer> buckets = new TreeMap<>();
+        for (long ms : sorted) {
+            int bucket = ms <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(ms);
+            buckets.merge(bucket, 1, Integer::sum);
+        }
+        int widest = Collections.max(buckets.values());
+        for (Map.Entry<Integer, Integer> bucket : buckets.entrySet()) {
+            int b = bucket.getKey();
+            long lo = b == 0 ? 0 : 1L << (b - 1);
+            long hi = 1L << b;
+            int bar = Math.max(1, bucket.getValue() * 40 / widest);
+            sb.append(String.format(Locale.ROOT, "  [%6d, %6d) ms %6d %s%n", lo, hi, bucket.getValue(), "#".repeat(bar)));
+        }
+    }
+
+    // Nearest-rank percentile of an ascending list
+    static long percentile(List<Long> sorted, int p) {
+        int rank = (int) Math.ceil(p / 100.0 * sorted.size());
+        return sorted.get(Math.max(0, Math.min(sorted.size() - 1, rank - 1)));
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.1fms", nanos / 1_000_000.0);
+    }
+
+    private static final class PhaseProfile {
+        long firstSentNanos = -1;
+        long lastReportNanos = -1;
+        int tasks;
+        final Map<String, Long> totals = new LinkedHashMap<>();
+        final Map<String, WorkerProfile> workers = new TreeMap<>();
+
+        long wallNanos() {
+            if (firstSentNanos < 0 || lastReportNanos < 0) {
+                return -1;
+            }
+            return lastReportNanos - firstSentNanos;
+        }
+    }
+
+    private static final class WorkerProfile {
+        int tasks;
+        final Map<String, Long> counters = new LinkedHashMap<>();
+    }
 }
@@ -0,0 +1,39 @@
+package org.orchestrator.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The original policy: hand out one blob at a time in plan order, ignoring size and locality.
+ */
+public class FifoScheduler implements BlobScheduler {
+    private final List<DataFile> queue;
+
+    public FifoScheduler(List<DataFile> files) {
+        this.queue = new ArrayList<>(files);
+    }
+
+    @Override
+    public List<DataFile> next(String workerId) {
+        if (queue.isEmpty()) {
+            return List.of();
+        }
+        return List.of(queue.remove(queue.size() - 1));
+    }
+
+    @Override
+    public void requeue(List<DataFile> files) {
+        // handed out from the end of the list
+        queue.addAll(files);
+    }
+
+    @Override
+    public boolean hasRemaining() {
+        return !queue.isEmpty();
+    }
+
+    @Override
+    public int remaining() {
+        return queue.size();
+    }
+}
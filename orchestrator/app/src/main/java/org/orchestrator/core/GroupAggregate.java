@@ -0,0 +1,39 @@
+package org.orchestrator.core;
+
+/**
+ * Aggregate of one group held at the orchestrator: the same min/max/sum/count a worker keeps in
+ * its VolatileRow, without the locking (callers synchronize on the owning view).
+ */
+public final class GroupAggregate {
+    private int min = Integer.MAX_VALUE;
+    private int max = Integer.MIN_VALUE;
+    private long sum;
+    private long count;
+
+    public void merge(int min, int max, long sum, long count) {
+        this.min = Math.min(this.min, min);
+        this.max = Math.max(this.max, max);
+        this.sum += sum;
+        this.count += count;
+    }
+
+    public void merge(GroupAggregate other) {
+        merge(other.min, other.max, other.sum, other.count);
+    }
+
+    public int getMin() {
+        return min;
+    }
+
+    public int getMax() {
+        return max;
+    }
+
+    public long getSum() {
+        return sum;
+    }
+
+    public long getCount() {
+        return count;
+    }
+}
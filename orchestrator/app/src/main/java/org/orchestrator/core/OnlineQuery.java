@@ -0,0 +1,402 @@
+package org.orchestrator.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.orchestrator.utils.HttpUtils;
+
+/**
+ * Online aggregation: a query whose answer is estimated while it runs, so a user can stop as soon
+ * as it is precise enough instead of waiting for the slowest file.
+ *
+ * - The files are read in random order, each one's partial pulled from a worker (GET /aggregateBlob,
+ *   -Dorchestrator.online.pullsPerWorker at a time, default 2). The files done so far are then a
+ *   random sample of all of them. A pull may take -Dorchestrator.online.pullTimeoutSeconds (default
+ *   60) plus a second per 8 MB of the file; a failed one is retried -Dorchestrator.online.pullRetries
+ *   times (default 3) with doubling backoff before the file is left to the other workers.
+ * - sum and count are estimated with the file sizes as auxiliary variable (rows per byte scale up to
+ *   the bytes not read yet), avg as the ratio of the two. Each estimate carries a normal-theory
+ *   confidence interval from the spread across files, with the finite population correction, so it
+ *   narrows to nothing once every file is in.
+ * - min and max have no such interval: the value seen so far is a bound (the true min is at most
+ *   the one seen) until the last file is read, so while a query has them its error stays unknown.
+ *
+ * Files the catalog rules out for the query's ranges are known to hold no rows, so they are neither
+ * read nor part of the population. Groups that no file read so far holds are missing.
+ */
+public class OnlineQuery {
+
+    private static final int PULLS_PER_WORKER = Math.max(1, Integer.getInteger("orchestrator.online.pullsPerWorker", 2));
+    // Covers a worker scanning one file before it answers, on top of a slow scan of its bytes
+    private static final long PULL_TIMEOUT_SECONDS = Long.getLong("orchestrator.online.pullTimeoutSeconds", 60);
+    private static final long SLOW_SCAN_BYTES_PER_SECOND = 8L << 20;
+    private static final int PULL_RETRIES = Math.max(0, Integer.getInteger("orchestrator.online.pullRetries", 3));
+    private static final long RETRY_BACKOFF_MILLIS = 500;
+
+    /** Where a query stands: how much was read and the estimates that gives. */
+    public record Snapshot(int filesRead, int files, long bytesRead, long bytes, double confidence,
+                           Status status, double maxRelativeError, List<String> lines) {
+
+        /** Whether every interval is at most maxRelativeError of its estimate, or nothing more will be read. */
+        public boolean within(double maxRelativeError) {
+            return status != Status.RUNNING || this.maxRelativeError <= maxRelativeError;
+        }
+
+        public String render() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("read=").append(filesRead).append('/').append(files).append(" files")
+                    .append(String.format(Locale.ROOT, " bytes=%.1f%%", bytes == 0 ? 100.0 : 100.0 * bytesRead / bytes))
+                    .append(" confidence=").append(confidence)
+                    .append(Double.isInfinite(maxRelativeError) ? " maxError=?"
+                            : String.format(Locale.ROOT, " maxError=%.2f%%", 100 * maxRelativeError))
+                    .append(" status=").append(status.name().toLowerCase()).append('\n');
+            for (String line : lines) {
+                sb.append(line).append('\n');
+            }
+            return sb.toString();
+        }
+    }
+
+    public enum Status {
+        RUNNING,
+        COMPLETE,
+        // stopped before every file was read
+        STOPPED,
+        // every worker failed a pull with files left
+        FAILED
+    }
+
+    private final String name;
+    private final QuerySpec spec;
+    private final Map<String, String> workers;
+    private final double confidence;
+    private final double z;
+
+    // still to read, in random order
+    private final LinkedList<DataFile> queue;
+    private final int fileCount;
+    private final long totalBytes;
+    // per file read: its size and partial aggregate
+    private final List<DataFile> read = new ArrayList<>();
+    private final List<Map<String, GroupAggregate>> partials = new ArrayList<>();
+    private long bytesRead;
+    private int pulling;
+
+    private final ExecutorService pullers;
+    private volatile boolean running;
+    private volatile boolean stopped;
+
+    /**
+     * @param files      the population; read in an order shuffled with seed
+     * @param confidence coverage of the intervals, e.g. 0.95
+     */
+    public OnlineQuery(String name, QuerySpec spec, Map<String, String> workers, List<DataFile> files,
+                       double confidence, long seed) {
+        if (workers == null || workers.isEmpty()) {
+            throw new IllegalArgumentException("worker pool cannot be empty");
+        }
+        if (spec.hasApproximateAggregates()) {
+            // partials are merged here, from the exact fields only
+            throw new IllegalArgumentException("online queries support exact aggregates only");
+        }
+        if (!(confidence > 0 && confidence < 1)) {
+            throw new IllegalArgumentException("confidence must be between 0 and 1, got " + confidence);
+        }
+        this.name = name;
+        this.spec = spec;
+        this.workers = new TreeMap<>(workers);
+        this.confidence = confidence;
+        this.z = zScore(confidence);
+        List<DataFile> shuffled = new ArrayList<>(files);
+        Collections.shuffle(shuffled, new Random(seed));
+        this.queue = new LinkedList<>(shuffled);
+        this.fileCount = shuffled.size();
+        long bytes = 0;
+        for (DataFile file : shuffled) {
+            bytes += file.sizeBytes();
+        }
+        this.totalBytes = bytes;
+        this.pullers = Executors.newFixedThreadPool(this.workers.size() * PULLS_PER_WORKER, r -> {
+            Thread t = new Thread(r, "online-" + name + "-pull");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /** Online query over the storage directory, minus the files the catalog rules out. */
+    public static OnlineQuery overStorage(String name, QuerySpec spec, Map<String, String> workers, Path storageDir,
+                                          double confidence, long seed) {
+        List<DataFile> files = DatasetCatalog.shared().prune(storageDir, TaskPlan.listDataFiles(storageDir), spec);
+        return new OnlineQuery(name, spec, workers, files, confidence, seed);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void start() {
+        running = true;
+        System.out.println("[" + name + "] online query " + spec + " over " + fileCount + " files, confidence " + confidence);
+        synchronized (this) {
+            pulling = workers.size() * PULLS_PER_WORKER;
+        }
+        for (String worker : workers.keySet()) {
+            for (int i = 0; i < PULLS_PER_WORKER; i++) {
+                pullers.submit(() -> pullAll(worker));
+            }
+        }
+    }
+
+    /** Stop reading; the estimates stay where they are. */
+    public void stop() {
+        stopped = true;
+        running = false;
+        pullers.shutdownNow();
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    // take files off the shared queue until it's empty; a pull that keeps failing goes back on it for the others
+    private void pullAll(String worker) {
+        try {
+            while (running) {
+                DataFile file;
+                synchronized (this) {
+                    file = queue.poll();
+                }
+                if (file == null) {
+                    return;
+                }
+                Map<String, GroupAggregate> partial = pull(worker, file);
+                try {
+                    for (int attempt = 1; partial == null && attempt <= PULL_RETRIES && running; attempt++) {
+                        Thread.sleep(RETRY_BACKOFF_MILLIS << (attempt - 1));
+                        partial = pull(worker, file);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                if (partial == null) {
+                    synchronized (this) {
+                        queue.addLast(file);
+                    }
+                    // the worker may be down; leave its files to the other pullers
+                    return;
+                }
+                add(file, partial);
+            }
+        } finally {
+            synchronized (this) {
+                if (--pulling == 0) {
+                    running = false;
+                    pullers.shutdown();
+                    System.out.println("[" + name + "] online query done, " + read.size() + " of " + fileCount + " files read");
+                }
+            }
+        }
+    }
+
+    /** Account for one file read: its partial joins the sample. */
+    synchronized void add(DataFile file, Map<String, GroupAggregate> partial) {
+        read.add(file);
+        partials.add(partial);
+        bytesRead += file.sizeBytes();
+    }
+
+    private Map<String, GroupAggregate> pull(String worker, DataFile file) {
+        String url = HttpUtils.buildUrl(workers.get(worker),
+                "/aggregateBlob/" + HttpUtils.encode(file.name()) + "?" + spec.toQueryString());
+        Map<String, GroupAggregate> partial = new HashMap<>();
+        try {
+            Duration timeout = Duration.ofSeconds(PULL_TIMEOUT_SECONDS + file.sizeBytes() / SLOW_SCAN_BYTES_PER_SECOND);
+            HttpResponse<InputStream> resp = HttpUtils.getStream(url, ResultCodec.MEDIA_TYPE, timeout);
+            try (InputStream body = resp.body()) {
+                if (resp.statusCode() != 200) {
+                    System.err.println("[" + name + "] " + url + " -> " + resp.statusCode());
+                    return null;
+                }
+                ResultCodec.readInto(body, partial);
+            }
+            return partial;
+        } catch (IOException e) {
+            System.err.println("[" + name + "] pull of " + file.name() + " from " + worker + " failed: " + e.getMessage());
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /** Estimates from the files read so far, one line per group, ordered like a worker's output. */
+    public synchronized Snapshot snapshot() {
+        int n = read.size();
+        boolean complete = n == fileCount;
+        // finite population correction: no sampling error left once every file is read
+        double fpc = fileCount == 0 ? 0 : 1 - (double) n / fileCount;
+        double[] sizes = new double[n];
+        for (int i = 0; i < n; i++) {
+            sizes[i] = read.get(i).sizeBytes();
+        }
+
+        Map<String, GroupAggregate> seen = new HashMap<>();
+        for (Map<String, GroupAggregate> partial : partials) {
+            partial.forEach((group, aggregate) -> seen.computeIfAbsent(group, g -> new GroupAggregate()).merge(aggregate));
+        }
+        Comparator<String> order = spec.hasNumericGroups() ? Comparator.comparingInt(Integer::parseInt) : Comparator.naturalOrder();
+        List<String> groups = new ArrayList<>(seen.keySet());
+        groups.sort(order);
+
+        // nothing to go by until two files are in, and groups may still turn up while none has
+        double maxRelativeError = complete ? 0 : n < 2 || groups.isEmpty() ? Double.POSITIVE_INFINITY : 0;
+        List<String> lines = new ArrayList<>();
+        double[] sums = new double[n];
+        double[] counts = new double[n];
+        for (String group : groups) {
+            for (int i = 0; i < n; i++) {
+                GroupAggregate aggregate = partials.get(i).get(group);
+                sums[i] = aggregate == null ? 0 : aggregate.getSum();
+                counts[i] = aggregate == null ? 0 : aggregate.getCount();
+            }
+            GroupAggregate total = seen.get(group);
+            StringBuilder sb = new StringBuilder(group);
+            for (String aggregate : spec.getAggregates()) {
+                sb.append(',').append(aggregate);
+                Estimate estimate = switch (aggregate) {
+                    case "min" -> {
+                        sb.append(complete ? "=" : "<=").append(total.getMin());
+                        yield Estimate.BOUND;
+                    }
+                    case "max" -> {
+                        sb.append(complete ? "=" : ">=").append(total.getMax());
+                        yield Estimate.BOUND;
+                    }
+                    case "sum" -> ratio(sums, sizes, fpc).scale(totalBytes);
+                    case "count" -> ratio(counts, sizes, fpc).scale(totalBytes);
+                    case "avg" -> ratio(sums, counts, fpc);
+                    default -> throw new IllegalStateException("unknown aggregate '" + aggregate + "'");
+                };
+                if (estimate == Estimate.BOUND) {
+                    // a bound says nothing about how far off it is
+                    if (!complete) {
+                        maxRelativeError = Double.POSITIVE_INFINITY;
+                    }
+                } else {
+                    double halfWidth = z * estimate.standardError();
+                    sb.append(String.format(Locale.ROOT, "=%.2f", estimate.value()));
+                    if (!complete) {
+                        sb.append(Double.isNaN(halfWidth) ? "+-?" : String.format(Locale.ROOT, "+-%.2f", halfWidth));
+                    }
+                    maxRelativeError = Math.max(maxRelativeError, relative(halfWidth, estimate.value(), complete));
+                }
+            }
+            lines.add(sb.toString());
+        }
+        Status status = complete ? Status.COMPLETE : running ? Status.RUNNING : stopped ? Status.STOPPED : Status.FAILED;
+        return new Snapshot(n, fileCount, bytesRead, totalBytes, confidence, status, maxRelativeError, lines);
+    }
+
+    public synchronized Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("name", name);
+        stats.put("spec", spec.toString());
+        stats.put("files", fileCount);
+        stats.put("filesRead", read.size());
+        stats.put("bytes", totalBytes);
+        stats.put("bytesRead", bytesRead);
+        stats.put("running", running);
+        return stats;
+    }
+
+    private record Estimate(double value, double standardError) {
+        // stands for min and max, which have no interval
+        static final Estimate BOUND = new Estimate(Double.NaN, Double.NaN);
+
+        Estimate scale(double factor) {
+            return new Estimate(value * factor, standardError * factor);
+        }
+    }
+
+    /**
+     * Ratio estimator sum(y) / sum(x) over the files read, with its standard error
+     * sqrt(fpc / (n * mean(x)^2) * sum((y - r x)^2) / (n - 1)); NaN with fewer than two files.
+     */
+    private static Estimate ratio(double[] y, double[] x, double fpc) {
+        int n = y.length;
+        double sumY = 0;
+        double sumX = 0;
+        for (int i = 0; i < n; i++) {
+            sumY += y[i];
+            sumX += x[i];
+        }
+        if (sumX == 0) {
+            return new Estimate(0, Double.NaN);
+        }
+        double r = sumY / sumX;
+        if (fpc == 0) {
+            return new Estimate(r, 0);
+        }
+        if (n < 2) {
+            return new Estimate(r, Double.NaN);
+        }
+        double residuals = 0;
+        for (int i = 0; i < n; i++) {
+            double d = y[i] - r * x[i];
+            residuals += d * d;
+        }
+        double meanX = sumX / n;
+        return new Estimate(r, Math.sqrt(fpc / (n * meanX * meanX) * residuals / (n - 1)));
+    }
+
+    private static double relative(double halfWidth, double value, boolean complete) {
+        if (complete || halfWidth == 0) {
+            return 0;
+        }
+        if (Double.isNaN(halfWidth) || value == 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return halfWidth / Math.abs(value);
+    }
+
+    /** Two-sided normal quantile: the z with P(|Z| <= z) = confidence. */
+    static double zScore(double confidence) {
+        double target = 0.5 + confidence / 2;
+        double lo = 0;
+        double hi = 10;
+        for (int i = 0; i < 60; i++) {
+            double mid = (lo + hi) / 2;
+            if (normalCdf(mid) < target) {
+                lo = mid;
+            } else {
+                hi = mid;
+            }
+        }
+        return (lo + hi) / 2;
+    }
+
+    // Abramowitz & Stegun 7.1.26 for erf, good to about 1e-7; z >= 0 here
+    private static double normalCdf(double z) {
+        double x = z / Math.sqrt(2);
+        double t = 1 / (1 + 0.3275911 * x);
+        double erf = 1 - ((((1.061405429 * t - 1.453152027) * t + 1.421413741) * t - 0.284496736) * t + 0.254829592)
+                * t * Math.exp(-x * x);
+        return 0.5 * (1 + erf);
+    }
+}
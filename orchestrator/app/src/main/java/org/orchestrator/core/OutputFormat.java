@@ -0,0 +1,28 @@
+package org.orchestrator.core;
+
+import java.util.Locale;
+
+/**
+ * Layout of the result files workers write, forwarded to them as format= on the final write.
+ */
+public enum OutputFormat {
+    /** One line per group: the group id, then the aggregates, comma separated. */
+    CSV,
+    /** One JSON object per line, keyed by column and aggregate names. */
+    NDJSON;
+
+    public static OutputFormat fromParam(String value) {
+        if (value == null || value.isBlank()) {
+            return CSV;
+        }
+        try {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("unknown output format '" + value + "'");
+        }
+    }
+
+    public String param() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,706 @@
+package org.orchestrator.core;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import org.orchestrator.config.WorkerConfig;
+import org.orchestrator.rpc.WorkerCommand;
+import org.orchestrator.rpc.WorkerTransport;
+import org.orchestrator.utils.HttpUtils;
+
+/**
+ * Coordinates reads, shuffles and the final write of a single query by sending commands to workers
+ * through a {@link WorkerTransport}. Every command carries the query id, so several executions can
+ * share the same warm workers.
+ *
+ * Reads are prefetched: every worker is kept -Dorchestrator.read.prefetch (default 2) assignments
+ * ahead, so its read pipeline can load the next file while it aggregates the current one and never
+ * waits a round trip for work; a worker that registered with more cores than
+ * -Dorchestrator.read.coresPerRead (default 4) per assignment is kept further ahead. A worker joins
+ * the shuffle only once all of its reads are done.
+ *
+ * Scale-out: a worker that registers while the query runs ({@link #addWorker}) starts reading right
+ * away and joins the shuffles like the others.
+ *
+ * Recovery: every read and shuffle carries a task id (?task=), echoed in the worker's report, and
+ * the execution keeps each worker's lineage: the blobs it read itself plus the peers whose tables
+ * it pulled in by shuffles. When a worker is lost ({@link #onWorkerLost}) the blobs it read and was
+ * reading are read again by the others, and the peers it had pulled in still hold their tables and
+ * simply rejoin. A worker that was pulling a shuffle from the lost one may hold part of its table,
+ * so it is dropped as well. A worker that restarted ({@link #onWorkerRestarted}) keeps what its
+ * checkpoint restored and only the rest is recovered. Losing a worker once the partitioned shuffle
+ * has begun stops the query, as does a worker reporting a task it could not finish.
+ *
+ * Assumptions:
+ * - `workers` is a map from workerId (e.g. "W1") to worker host (e.g. "http://localhost:9001").
+ */
+public class QueryExecution {
+
+    private static final int READ_PREFETCH = Math.max(1, Integer.getInteger("orchestrator.read.prefetch", 2));
+    private static final int CORES_PER_READ = Math.max(1, Integer.getInteger("orchestrator.read.coresPerRead", 4));
+
+    private final String queryId;
+
+    // Hands out the BLOB files still to be read
+    private final BlobScheduler scheduler;
+
+    // Map of workerId to worker host; grows as workers register
+    private final Map<String, String> workers;
+
+    // What to compute; forwarded to workers on every read and on the final write
+    private final QuerySpec spec;
+    private final ShuffleMode shuffleMode;
+    private final OutputFormat outputFormat;
+    private final long rowsPerFile;
+    private final boolean defaultOutput;
+
+    // Partitioned shuffle: partition owners in partition order, and owners yet to finish pushing
+    private final List<String> partitionOwners = new ArrayList<>();
+    private final Set<String> pendingPartitionPush = new HashSet<>();
+    private boolean partitionShuffleStarted;
+
+    // Active worker Pool; a worker appears once per outstanding task
+    private final List<String> activeWorkers = new ArrayList<>();
+
+    // Completed worker Pool
+    private final List<String> workerCompletePool = new ArrayList<>();
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    // Reads and shuffles sent and not yet reported, by task id
+    private final Map<Long, Task> inFlight = new LinkedHashMap<>();
+    private long nextTaskId;
+    // Lineage: blobs each worker read into its table, and peers whose tables it pulled in
+    private final Map<String, List<Held>> lineage = new HashMap<>();
+    private final Map<String, List<Absorbed>> absorbed = new HashMap<>();
+    // peer -> the worker that pulled its table in; the peer's rows are counted there
+    private final Map<String, String> consumedBy = new HashMap<>();
+    // Workers the query no longer uses: lost, or holding part of a lost worker's table
+    private final Set<String> excluded = new HashSet<>();
+
+    /** A read of files, or (peer set) a shuffle pulling peer's table into worker. */
+    private record Task(long id, String worker, List<DataFile> files, String peer, long sentMillis) {}
+
+    /** A blob in a worker's table, and when the command that put it there was sent. */
+    private record Held(DataFile file, long sentMillis) {}
+
+    /** A peer's table pulled into a worker's, and when the shuffle was sent. */
+    private record Absorbed(String peer, long sentMillis) {}
+
+    private final Lock lock = new ReentrantLock();
+    private final WorkerTransport transport;
+
+    // Per-phase and per-worker profile, fed by the stats workers attach to their reports
+    private final ExecutionStatistics statistics;
+
+    public QueryExecution(String queryId, TaskPlan plan, WorkerTransport transport) {
+        this.queryId = queryId;
+        this.transport = transport;
+        if (plan.getworkerPool() == null) {
+            throw new IllegalArgumentException("worker pool cannot be null");
+        }
+        this.workers = new ConcurrentHashMap<>(plan.getworkerPool());
+        this.spec = plan.getQuerySpec() == null ? QuerySpec.DEFAULT : plan.getQuerySpec();
+        this.shuffleMode = plan.getShuffleMode() == null ? ShuffleMode.TREE : plan.getShuffleMode();
+        this.outputFormat = plan.getOutputFormat() == null ? OutputFormat.CSV : plan.getOutputFormat();
+        this.rowsPerFile = plan.getRowsPerFile();
+        this.defaultOutput = plan.isDefaultOutput();
+        this.scheduler = plan.createScheduler();
+        this.statistics = new ExecutionStatistics(queryId, spec + " shuffle=" + shuffleMode.name().toLowerCase()
+                + " scheduler=" + plan.getSchedulerPolicy().name().toLowerCase() + " workers=" + workers.size());
+    }
+
+    public String getQueryId() {
+        return queryId;
+    }
+
+    public Map<String, String> getWorkers() {
+        return workers;
+    }
+
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    public ExecutionStatistics getStatistics() {
+        return statistics;
+    }
+
+    public void start() {
+        start(Set.of());
+    }
+
+    /** Start without the workers already known to be down. */
+    public void start(Set<String> unavailable) {
+        this.running.set(true);
+        System.out.println("[" + queryId + "] starting query " + spec + " over " + scheduler.remaining() + " blobs");
+        lock.lock();
+        try {
+            for (String worker : unavailable) {
+                if (workers.containsKey(worker) && excluded.add(worker)) {
+                    System.out.println("[" + queryId + "] leaving out " + worker + ", it is not answering heartbeats");
+                }
+            }
+            if (liveWorkers().isEmpty()) {
+                System.err.println("[" + queryId + "] no live workers, not starting");
+                running.set(false);
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        // START initial reads across workers, round by round so the first files spread evenly
+        Set<String> live;
+        lock.lock();
+        try {
+            live = liveWorkers();
+        } finally {
+            lock.unlock();
+        }
+        readAhead(live);
+    }
+
+    /**
+     * Take on a worker that registered while the query runs: it reads if blobs are left and then
+     * joins the shuffles. Once the partitioned shuffle has fixed its owners it is left out.
+     */
+    public void addWorker(String worker, String host) {
+        lock.lock();
+        try {
+            if (!running.get() || partitionShuffleStarted) {
+                return;
+            }
+            if (workers.put(worker, host) != null) {
+                // a lost worker that came back on a new host; it stays excluded
+                return;
+            }
+            scheduler.addWorker(worker);
+            System.out.println("[" + queryId + "] " + worker + " joined at " + host + ", " + scheduler.remaining() + " blobs left to read");
+            readAhead(Set.of(worker));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // fill each worker's queue up to its prefetch depth, one round at a time
+    private void readAhead(Set<String> readers) {
+        int deepest = 0;
+        for (String worker : readers) {
+            deepest = Math.max(deepest, prefetch(worker));
+        }
+        for (int depth = 0; depth < deepest; depth++) {
+            for (String worker : readers) {
+                if (depth < prefetch(worker)) {
+                    invokeRead(worker);
+                }
+            }
+        }
+    }
+
+    private static int prefetch(String worker) {
+        return Math.max(READ_PREFETCH, WorkerConfig.getCores(worker) / CORES_PER_READ);
+    }
+
+    /**
+     * Tell a worker to read its next assignment: one blob via /invokeRead, or several small ones
+     * in a single round trip via /invokeReadBatch.
+     *
+     * @return false if nothing was left to read
+     */
+    private boolean invokeRead(String workerId) {
+        lock.lock();
+        try {
+            List<DataFile> batch = scheduler.next(workerId);
+            if (batch.isEmpty()) {
+                return false;
+            }
+            activeWorkers.add(workerId);
+            System.out.println("[" + queryId + "] Added active worker: " + workerId + " and activeWorker list is " + activeWorkers.toString());
+
+            WorkerCommand command;
+            if (batch.size() == 1) {
+                command = WorkerCommand.of(WorkerCommand.Op.READ, batch.get(0).name(), queryId);
+            } else {
+                // names are encoded one by one so a comma inside a name can't split the list
+                List<String> names = new ArrayList<>();
+                for (DataFile file : batch) {
+                    names.add(HttpUtils.encode(file.name()));
+                }
+                command = WorkerCommand.of(WorkerCommand.Op.READ_BATCH, null, queryId).with("blobs", String.join(",", names));
+            }
+            command.with(spec.toParams()).with("task", Long.toString(track(workerId, batch, null)));
+            System.out.println("invokeRead -> " + command + " for " + batch.size() + " blob(s) worker=" + workerId);
+            statistics.commandSent("read");
+            send(workerId, command);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Decide whether to invoke shuffle between completed workers or to trigger a write.
+     */
+    private void invokeShuffleOrComplete() {
+        // If at least two workers have completed, ask one to shuffle with the other
+        if (workerCompletePool.size() >= 2) {
+            String w1 = workerCompletePool.remove(workerCompletePool.size() - 1);
+            String w2 = workerCompletePool.remove(workerCompletePool.size() - 1);
+
+            WorkerCommand command = WorkerCommand.of(WorkerCommand.Op.SHUFFLE, w2, queryId)
+                    .with("task", Long.toString(track(w1, List.of(), w2)));
+            System.out.println("invokeShuffle -> " + command + " (w1=" + w1 + ", w2=" + w2 + ")");
+            statistics.commandSent("shuffle");
+            send(w1, command);
+
+            // mark w1 as active again (it will be working on the shuffle). it will get the data from w2 and merge it
+            activeWorkers.add(w1);
+
+        } else if (!scheduler.hasRemaining() && (activeWorkers == null || activeWorkers.size() == 0)
+                && workerCompletePool.size() > 0) {
+            // No more data and nobody active: pick the completed worker to write results
+            String worker = workerCompletePool.get(0);
+            WorkerCommand command = writeCommand();
+            this.running.set(false);
+
+            System.out.println("invokeWrite -> " + command + " (worker=" + worker + ")");
+            statistics.commandSent("write");
+            send(worker, command);
+            releaseWorkers(worker);
+        }
+    }
+
+    /**
+     * Free the query's transient state on every worker except the writer (null for none), which
+     * releases its own state once the output is written.
+     */
+    private void releaseWorkers(String writer) {
+        // lost workers included: one that came back may hold a checkpoint of the query
+        for (String worker : workers.keySet()) {
+            if (!worker.equals(writer)) {
+                send(worker, WorkerCommand.of(WorkerCommand.Op.RELEASE, queryId, queryId));
+            }
+        }
+    }
+
+    /**
+     * Called when a worker reports task completion for this query.
+     *
+     * @param stats the task's encoded statistics, or null
+     */
+    public void onTaskComplete(String worker, String stats) {
+        statistics.record(worker, stats);
+        lock.lock();
+        try {
+            if (!running.get() || excluded.contains(worker) || !commit(worker, taskId(stats))) {
+                // a stopped query waits on nothing; a late push report must not set off its writes
+                System.out.println("[" + queryId + "] Ignoring report of a cancelled task from " + worker);
+                return;
+            }
+            if (activeWorkers != null) {
+                // remove by object if present
+                activeWorkers.remove(worker);
+                System.out.println("[" + queryId + "] Process complete for: " + worker + " and activeWorker list is " + activeWorkers.toString());
+            }
+
+            if (scheduler.hasRemaining()) {
+                // top the worker's queue back up to the prefetch depth
+                invokeRead(worker);
+            } else if (activeWorkers.contains(worker)) {
+                // more prefetched reads still to finish on this worker
+                return;
+            } else if (shuffleMode == ShuffleMode.PARTITIONED) {
+                onPartitionedComplete(worker);
+            } else {
+                workerCompletePool.add(worker);
+                // attempt to schedule shuffle or final write
+                invokeShuffleOrComplete();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * A worker reports it could not finish a task, such as pushing its partitions: the query can't
+     * complete, so it stops and every worker drops its state for it.
+     */
+    public void onTaskFailed(String worker, String reason) {
+        lock.lock();
+        try {
+            if (!running.get() || excluded.contains(worker)) {
+                System.out.println("[" + queryId + "] Ignoring failure report from " + worker + ": " + reason);
+                return;
+            }
+            System.err.println("[" + queryId + "] " + worker + " failed a task (" + reason + "), stopping the query");
+            running.set(false);
+            statistics.failed(worker + ": " + reason);
+            releaseWorkers(null);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Partitioned mode bookkeeping. Once the last read finishes every worker is told to push its
+     * partitions to their owners; once every push has landed, all owners write their shards at once.
+     * The orchestrator only tracks the two barriers.
+     */
+    private void onPartitionedComplete(String worker) {
+        if (!partitionShuffleStarted) {
+            if (activeWorkers.isEmpty()) {
+                invokePartitionShuffle();
+            }
+            return;
+        }
+        pendingPartitionPush.remove(worker);
+        if (pendingPartitionPush.isEmpty()) {
+            invokeParallelWrite();
+        }
+    }
+
+    private void invokePartitionShuffle() {
+        partitionShuffleStarted = true;
+        partitionOwners.addAll(new TreeSet<>(liveWorkers()));
+        pendingPartitionPush.addAll(partitionOwners);
+        String owners = String.join(",", partitionOwners);
+        for (String worker : partitionOwners) {
+            WorkerCommand command = WorkerCommand.of(WorkerCommand.Op.PARTITION_SHUFFLE, null, queryId).with("owners", owners)
+                    .with("task", Long.toString(track(worker, List.of(), null)));
+            System.out.println("invokePartitionShuffle -> " + command + " (worker=" + worker + ")");
+            statistics.commandSent("partition");
+            send(worker, command);
+        }
+    }
+
+    private void invokeParallelWrite() {
+        this.running.set(false);
+        for (int shard = 0; shard < partitionOwners.size(); shard++) {
+            String worker = partitionOwners.get(shard);
+            WorkerCommand command = writeCommand().with("shard", Integer.toString(shard));
+            System.out.println("invokeWrite -> " + command + " (worker=" + worker + ", shard=" + shard + ")");
+            statistics.commandSent("write");
+            send(worker, command);
+        }
+    }
+
+    /** A worker stopped answering heartbeats: read what it held and was reading on the others. */
+    public void onWorkerLost(String worker) {
+        lock.lock();
+        try {
+            if (!canRecover(worker, "lost")) {
+                return;
+            }
+            List<DataFile> rerun = new ArrayList<>();
+            exclude(worker, rerun);
+            resume(rerun);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * A worker came back as a new process, started at startedMillis, whose table holds only the
+     * blobs named in covered (restored from its checkpoint; empty without one). Everything else it
+     * held or was reading when it went down is recovered. Commands sent after the restart reached
+     * the new process and stand; this assumes the two hosts' clocks roughly agree.
+     */
+    public void onWorkerRestarted(String worker, long startedMillis, Set<String> covered) {
+        lock.lock();
+        try {
+            if (!canRecover(worker, "restarted")) {
+                return;
+            }
+            List<DataFile> rerun = new ArrayList<>();
+            String fetcher = consumedBy.remove(worker);
+            if (fetcher != null) {
+                // its rows live on in the fetcher's table, which takes over its lineage
+                adopt(fetcher, worker);
+            }
+            Set<String> accounted = new HashSet<>();
+            List<Held> kept = new ArrayList<>();
+            for (Held held : lineage.getOrDefault(worker, List.of())) {
+                accounted.add(held.file().name());
+                if (held.sentMillis() >= startedMillis || covered.contains(held.file().name())) {
+                    kept.add(held);
+                } else {
+                    rerun.add(held.file());
+                }
+            }
+            lineage.put(worker, kept);
+            List<Absorbed> stillAbsorbed = new ArrayList<>();
+            for (Absorbed peer : absorbed.getOrDefault(worker, List.of())) {
+                if (peer.sentMillis() >= startedMillis) {
+                    stillAbsorbed.add(peer);
+                } else {
+                    // checkpoints never hold a peer's rows (see the worker's Checkpointer)
+                    giveBack(peer.peer(), rerun);
+                }
+            }
+            absorbed.put(worker, stillAbsorbed);
+            for (Task task : List.copyOf(inFlight.values())) {
+                if (task.sentMillis() >= startedMillis || !(task.worker().equals(worker) || worker.equals(task.peer()))) {
+                    continue;
+                }
+                if (task.peer() == null) {
+                    // reads the checkpoint got to before the crash count as done
+                    inFlight.remove(task.id());
+                    activeWorkers.remove(worker);
+                    for (DataFile file : task.files()) {
+                        accounted.add(file.name());
+                        if (covered.contains(file.name())) {
+                            kept.add(new Held(file, task.sentMillis()));
+                        } else {
+                            rerun.add(file);
+                        }
+                    }
+                } else if (task.worker().equals(worker)) {
+                    // the new process never got the shuffle; the peer still has its table
+                    inFlight.remove(task.id());
+                    activeWorkers.remove(worker);
+                } else {
+                    cancel(task, rerun);
+                }
+            }
+            if (!accounted.containsAll(covered)) {
+                // the checkpoint holds rows that are counted elsewhere
+                System.out.println("[" + queryId + "] " + worker + " restored rows it no longer owns, dropping it");
+                exclude(worker, rerun);
+                send(worker, WorkerCommand.of(WorkerCommand.Op.RELEASE, queryId, queryId));
+            } else {
+                System.out.println("[" + queryId + "] " + worker + " restarted, its checkpoint covers " + kept.size() + " blobs");
+            }
+            resume(rerun);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean canRecover(String worker, String what) {
+        if (!running.get() || !workers.containsKey(worker) || excluded.contains(worker)) {
+            return false;
+        }
+        if (partitionShuffleStarted) {
+            System.err.println("[" + queryId + "] " + worker + " " + what + " during the partitioned shuffle, stopping the query");
+            running.set(false);
+            return false;
+        }
+        return true;
+    }
+
+    private long track(String worker, List<DataFile> files, String peer) {
+        long id = ++nextTaskId;
+        inFlight.put(id, new Task(id, worker, files, peer, System.currentTimeMillis()));
+        return id;
+    }
+
+    /**
+     * Move a finished task into the worker's lineage. Reports from workers that don't echo task ids
+     * are matched to the worker's oldest task. Returns false for tasks that were cancelled.
+     */
+    private boolean commit(String worker, Long taskId) {
+        Task task = null;
+        if (taskId != null) {
+            task = inFlight.get(taskId);
+            if (task == null || !task.worker().equals(worker)) {
+                return false;
+            }
+        } else {
+            for (Task candidate : inFlight.values()) {
+                if (candidate.worker().equals(worker)) {
+                    task = candidate;
+                    break;
+                }
+            }
+            if (task == null) {
+                // nothing tracked for the worker; let the report through as before task ids
+                return true;
+            }
+        }
+        inFlight.remove(task.id());
+        if (task.peer() == null) {
+            List<Held> held = lineage.computeIfAbsent(worker, w -> new ArrayList<>());
+            for (DataFile file : task.files()) {
+                held.add(new Held(file, task.sentMillis()));
+            }
+        } else {
+            absorbed.computeIfAbsent(worker, w -> new ArrayList<>()).add(new Absorbed(task.peer(), task.sentMillis()));
+            consumedBy.put(task.peer(), worker);
+        }
+        return true;
+    }
+
+    /** Drop worker from the query; what it read and was reading goes to rerun. */
+    private void exclude(String worker, List<DataFile> rerun) {
+        if (!excluded.add(worker)) {
+            return;
+        }
+        activeWorkers.removeIf(worker::equals);
+        workerCompletePool.remove(worker);
+        for (Task task : List.copyOf(inFlight.values())) {
+            if (task.worker().equals(worker) || worker.equals(task.peer())) {
+                cancel(task, rerun);
+            }
+        }
+        // a pulled-in worker's rows live on in the fetcher's table; its lineage stays for the fetcher
+        if (!consumedBy.containsKey(worker)) {
+            dropTable(worker, rerun);
+        }
+    }
+
+    /** The worker's table is gone: read its blobs again, and its pulled-in peers count on their own again. */
+    private void dropTable(String worker, List<DataFile> rerun) {
+        for (Held held : lineage.getOrDefault(worker, List.of())) {
+            rerun.add(held.file());
+        }
+        lineage.remove(worker);
+        for (Absorbed peer : absorbed.getOrDefault(worker, List.of())) {
+            giveBack(peer.peer(), rerun);
+        }
+        absorbed.remove(worker);
+    }
+
+    // a peer whose rows were only counted through a table that's gone: whole again unless it's gone too
+    private void giveBack(String peer, List<DataFile> rerun) {
+        consumedBy.remove(peer);
+        if (excluded.contains(peer)) {
+            dropTable(peer, rerun);
+        }
+    }
+
+    // fetcher's table holds peer's rows as of the shuffle: it takes over the lineage behind them
+    private void adopt(String fetcher, String peer) {
+        List<Absorbed> fetched = absorbed.getOrDefault(fetcher, new ArrayList<>());
+        long sentMillis = 0;
+        for (Absorbed entry : fetched) {
+            if (entry.peer().equals(peer)) {
+                sentMillis = entry.sentMillis();
+            }
+        }
+        fetched.removeIf(entry -> entry.peer().equals(peer));
+        List<Held> held = lineage.computeIfAbsent(fetcher, w -> new ArrayList<>());
+        for (Held entry : lineage.getOrDefault(peer, List.of())) {
+            held.add(new Held(entry.file(), sentMillis));
+        }
+        lineage.remove(peer);
+        for (Absorbed entry : absorbed.getOrDefault(peer, List.of())) {
+            fetched.add(new Absorbed(entry.peer(), sentMillis));
+            consumedBy.put(entry.peer(), fetcher);
+        }
+        absorbed.remove(peer);
+        absorbed.put(fetcher, fetched);
+    }
+
+    private void cancel(Task task, List<DataFile> rerun) {
+        if (inFlight.remove(task.id()) == null) {
+            return;
+        }
+        activeWorkers.remove(task.worker());
+        if (task.peer() == null) {
+            rerun.addAll(task.files());
+        } else if (!excluded.contains(task.worker())) {
+            // the fetcher may have merged part of the peer's table; a lost fetcher leaves the peer whole
+            exclude(task.worker(), rerun);
+        }
+    }
+
+    /** Hand rerun back to the scheduler and put every worker with nothing to do back to work. */
+    private void resume(List<DataFile> rerun) {
+        if (!rerun.isEmpty()) {
+            System.out.println("[" + queryId + "] reading " + rerun.size() + " blob(s) again");
+            scheduler.requeue(rerun);
+        }
+        if (liveWorkers().isEmpty()) {
+            System.err.println("[" + queryId + "] no workers left, stopping the query");
+            running.set(false);
+            return;
+        }
+        // idle: nothing in flight, not waiting for a shuffle partner, table not pulled by a shuffle
+        Set<String> idle = liveWorkers();
+        idle.removeAll(activeWorkers);
+        idle.removeAll(workerCompletePool);
+        idle.removeAll(consumedBy.keySet());
+        for (Task task : inFlight.values()) {
+            if (task.peer() != null) {
+                idle.remove(task.peer());
+            }
+        }
+        if (scheduler.hasRemaining()) {
+            // workers waiting for a shuffle partner read first
+            idle.addAll(workerCompletePool);
+            workerCompletePool.clear();
+            readAhead(idle);
+        }
+        if (shuffleMode == ShuffleMode.PARTITIONED) {
+            if (!scheduler.hasRemaining() && activeWorkers.isEmpty()) {
+                invokePartitionShuffle();
+            }
+            return;
+        }
+        for (String worker : idle) {
+            if (!activeWorkers.contains(worker) && holdsRows(worker)) {
+                workerCompletePool.add(worker);
+            }
+        }
+        if (!scheduler.hasRemaining()) {
+            do {
+                invokeShuffleOrComplete();
+            } while (running.get() && workerCompletePool.size() >= 2);
+        }
+    }
+
+    private boolean holdsRows(String worker) {
+        return !lineage.getOrDefault(worker, List.of()).isEmpty() || !absorbed.getOrDefault(worker, List.of()).isEmpty();
+    }
+
+    private Set<String> liveWorkers() {
+        Set<String> live = new TreeSet<>(workers.keySet());
+        live.removeAll(excluded);
+        return live;
+    }
+
+    // "phase=read;task=12;..." -> 12
+    private static Long taskId(String stats) {
+        if (stats == null) {
+            return null;
+        }
+        for (String field : stats.split(";")) {
+            if (field.startsWith("task=")) {
+                try {
+                    return Long.parseLong(field.substring("task=".length()));
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
+    /** The final write, with the spec and any output options that differ from the defaults. */
+    private WorkerCommand writeCommand() {
+        WorkerCommand command = WorkerCommand.of(WorkerCommand.Op.WRITE, null, queryId).with(spec.toParams());
+        if (outputFormat != OutputFormat.CSV) {
+            command.with("format", outputFormat.param());
+        }
+        if (rowsPerFile > 0) {
+            command.with("rowsPerFile", Long.toString(rowsPerFile));
+        }
+        if (defaultOutput) {
+            command.with("output", "default");
+        }
+        return command;
+    }
+
+    private void send(String workerId, WorkerCommand command) {
+        transport.send(workerId, workers.get(workerId), command);
+    }
+}
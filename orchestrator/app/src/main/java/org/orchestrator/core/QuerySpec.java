@@ -0,0 +1,254 @@
+package org.orchestrator.core;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import org.orchestrator.utils.HttpUtils;
+
+/**
+ * Declarative description of a query, taken from /startTask parameters and forwarded to workers
+ * with every read and write:
+ *
+ *   groupBy=year&agg=min,max,avg&where=year:between:2010:2015,score:gte:400,id:prefix:2014
+ *
+ * Aggregates are computed over score. Predicates on year and score are folded into one closed
+ * range per column, which the planner can also use to reason about whole files. Missing
+ * parameters fall back to the original query (group by year, min/max/avg of score).
+ *
+ * distinct, median, p90 and p99 are estimated by the workers from mergeable sketches; their error
+ * bounds (distinctError, quantileError) are forwarded so every worker builds sketches that merge.
+ */
+public final class QuerySpec {
+
+    private static final Set<String> COLUMNS = Set.of("id", "year", "score");
+    private static final Set<String> AGGREGATES = Set.of("min", "max", "sum", "count", "avg",
+            "distinct", "median", "p90", "p99");
+    private static final Set<String> APPROXIMATE = Set.of("distinct", "median", "p90", "p99");
+
+    public static final QuerySpec DEFAULT = new QuerySpec("year", List.of("min", "max", "avg"), List.of());
+
+    private final String groupBy;
+    private final List<String> aggregates;
+    private final List<String> predicates;
+    // error bounds of the approximate aggregates, as given; null keeps the workers' defaults
+    private final String distinctError;
+    private final String quantileError;
+
+    private int yearLo = Integer.MIN_VALUE;
+    private int yearHi = Integer.MAX_VALUE;
+    private int scoreLo = Integer.MIN_VALUE;
+    private int scoreHi = Integer.MAX_VALUE;
+    private boolean matchesNothing;
+
+    private QuerySpec(String groupBy, List<String> aggregates, List<String> predicates) {
+        this(groupBy, aggregates, predicates, null, null);
+    }
+
+    private QuerySpec(String groupBy, List<String> aggregates, List<String> predicates,
+                      String distinctError, String quantileError) {
+        if (!COLUMNS.contains(groupBy)) {
+            throw new IllegalArgumentException("unknown column '" + groupBy + "'");
+        }
+        if (aggregates.isEmpty()) {
+            throw new IllegalArgumentException("at least one aggregate is required");
+        }
+        for (String aggregate : aggregates) {
+            if (!AGGREGATES.contains(aggregate)) {
+                throw new IllegalArgumentException("unknown aggregate '" + aggregate + "'");
+            }
+        }
+        this.groupBy = groupBy;
+        this.aggregates = List.copyOf(aggregates);
+        this.predicates = List.copyOf(predicates);
+        this.distinctError = checkError(distinctError);
+        this.quantileError = checkError(quantileError);
+        for (String predicate : predicates) {
+            applyPredicate(predicate);
+        }
+    }
+
+    private static String checkError(String bound) {
+        if (isBlank(bound)) {
+            return null;
+        }
+        try {
+            double value = Double.parseDouble(bound.trim());
+            if (value > 0 && value < 1) {
+                return bound.trim();
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException("bad error bound '" + bound + "', expected a fraction between 0 and 1");
+    }
+
+    /**
+     * Build a spec from request parameters; absent parameters keep the default.
+     *
+     * @throws IllegalArgumentException for unknown columns, aggregates or operators
+     */
+    public static QuerySpec fromParams(Function<String, String> params) {
+        String groupBy = params.apply("groupBy");
+        String agg = params.apply("agg");
+        String where = params.apply("where");
+        if (isBlank(groupBy) && isBlank(agg) && isBlank(where)) {
+            return DEFAULT;
+        }
+        List<String> aggregates = new ArrayList<>();
+        for (String a : (isBlank(agg) ? "min,max,avg" : agg).split(",")) {
+            aggregates.add(a.trim().toLowerCase(Locale.ROOT));
+        }
+        List<String> predicates = new ArrayList<>();
+        if (!isBlank(where)) {
+            for (String p : where.split(",")) {
+                if (!p.isBlank()) predicates.add(p.trim());
+            }
+        }
+        return new QuerySpec(isBlank(groupBy) ? "year" : groupBy.trim().toLowerCase(Locale.ROOT), aggregates, predicates,
+                params.apply("distinctError"), params.apply("quantileError"));
+    }
+
+    private void applyPredicate(String predicate) {
+        String[] parts = predicate.split(":");
+        if (parts.length < 3) {
+            throw new IllegalArgumentException("bad predicate '" + predicate + "', expected column:op:value");
+        }
+        String column = parts[0].trim().toLowerCase(Locale.ROOT);
+        String op = parts[1].trim().toLowerCase(Locale.ROOT);
+        if (!COLUMNS.contains(column)) {
+            throw new IllegalArgumentException("unknown column '" + column + "'");
+        }
+        if (column.equals("id")) {
+            if (!op.equals("prefix")) {
+                throw new IllegalArgumentException("id only supports prefix, got '" + op + "'");
+            }
+            return;
+        }
+        long lo;
+        long hi;
+        long value = Integer.parseInt(parts[2].trim());
+        switch (op) {
+            case "eq" -> { lo = value; hi = value; }
+            case "gt" -> { lo = value + 1; hi = Integer.MAX_VALUE; }
+            case "gte" -> { lo = value; hi = Integer.MAX_VALUE; }
+            case "lt" -> { lo = Integer.MIN_VALUE; hi = value - 1; }
+            case "lte" -> { lo = Integer.MIN_VALUE; hi = value; }
+            case "between" -> {
+                if (parts.length < 4) {
+                    throw new IllegalArgumentException("between needs two bounds: '" + predicate + "'");
+                }
+                lo = value;
+                hi = Integer.parseInt(parts[3].trim());
+            }
+            default -> throw new IllegalArgumentException("unknown operator '" + op + "'");
+        }
+        if (lo > hi) {
+            matchesNothing = true;
+            return;
+        }
+        if (column.equals("year")) {
+            yearLo = (int) Math.max(yearLo, lo);
+            yearHi = (int) Math.min(yearHi, hi);
+        } else {
+            scoreLo = (int) Math.max(scoreLo, lo);
+            scoreHi = (int) Math.min(scoreHi, hi);
+        }
+    }
+
+    public String getGroupBy() {
+        return groupBy;
+    }
+
+    public List<String> getAggregates() {
+        return aggregates;
+    }
+
+    public boolean matchesNothing() {
+        return matchesNothing || yearLo > yearHi || scoreLo > scoreHi;
+    }
+
+    public int getYearLo() {
+        return yearLo;
+    }
+
+    public int getYearHi() {
+        return yearHi;
+    }
+
+    public int getScoreLo() {
+        return scoreLo;
+    }
+
+    public int getScoreHi() {
+        return scoreHi;
+    }
+
+    /** Whether any aggregate is estimated by the workers from sketches. */
+    public boolean hasApproximateAggregates() {
+        return aggregates.stream().anyMatch(APPROXIMATE::contains);
+    }
+
+    /** Whether groups are keyed by numbers, and so sort numerically. */
+    public boolean hasNumericGroups() {
+        return !groupBy.equals("id");
+    }
+
+    /** Render one result line the way workers write output files: the group id, then the aggregates. */
+    public String format(String groupId, GroupAggregate row) {
+        StringBuilder sb = new StringBuilder(groupId);
+        for (String aggregate : aggregates) {
+            sb.append(',');
+            switch (aggregate) {
+                case "min" -> sb.append(row.getMin());
+                case "max" -> sb.append(row.getMax());
+                case "sum" -> sb.append(row.getSum());
+                case "count" -> sb.append(row.getCount());
+                case "avg" -> sb.append(row.getSum() / row.getCount());
+                default -> throw new IllegalStateException("unknown aggregate '" + aggregate + "'");
+            }
+        }
+        return sb.toString();
+    }
+
+    /** Unencoded request parameters forwarded to workers, in a stable order. */
+    public Map<String, String> toParams() {
+        Map<String, String> params = new LinkedHashMap<>();
+        params.put("groupBy", groupBy);
+        params.put("agg", String.join(",", aggregates));
+        if (!predicates.isEmpty()) {
+            params.put("where", String.join(",", predicates));
+        }
+        if (distinctError != null) {
+            params.put("distinctError", distinctError);
+        }
+        if (quantileError != null) {
+            params.put("quantileError", quantileError);
+        }
+        return params;
+    }
+
+    /** URL query-string form (without a leading '?' or '&') forwarded to workers. */
+    public String toQueryString() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, String> param : toParams().entrySet()) {
+            if (sb.length() > 0) sb.append('&');
+            sb.append(param.getKey()).append('=').append(HttpUtils.encode(param.getValue()));
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "groupBy=" + groupBy + " agg=" + String.join(",", aggregates)
+                + (predicates.isEmpty() ? "" : " where=" + String.join(",", predicates));
+    }
+
+    private static boolean isBlank(String s) {
+        return s == null || s.isBlank();
+    }
+}
@@ -0,0 +1,79 @@
+package org.orchestrator.core;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Reader for the workers' binary table format (org.worker.core.ShuffleCodec), for results the
+ * orchestrator pulls itself. Only the read side lives here; keep the layout in sync with the worker.
+ *
+ *   header:  int magic "DQES", byte version, byte compression
+ *   records: int keyLength, byte[keyLength] key (UTF-8), int min, int max, long sum, long count,
+ *            int sketchLength, byte[sketchLength] sketches (version 2 only)
+ *   end:     int -1
+ *
+ * Sketches of approximate aggregates are skipped: only the exact fields are merged here.
+ */
+public final class ResultCodec {
+
+    public static final String MEDIA_TYPE = "application/x-dqe-shuffle";
+
+    private static final int MAGIC = 0x44514553; // "DQES"
+    private static final byte VERSION = 2;
+    private static final byte VERSION_WITHOUT_SKETCHES = 1;
+    private static final byte COMPRESSION_NONE = 0;
+    private static final byte COMPRESSION_DEFLATE = 1;
+    private static final int END_OF_RECORDS = -1;
+
+    private ResultCodec() {}
+
+    /**
+     * Merge every record of the payload into target, keyed by group id.
+     *
+     * @return number of records read
+     */
+    public static long readInto(InputStream in, Map<String, GroupAggregate> target) throws IOException {
+        DataInputStream header = new DataInputStream(in);
+        int magic = header.readInt();
+        if (magic != MAGIC) {
+            throw new IOException("not a result payload, bad magic 0x" + Integer.toHexString(magic));
+        }
+        byte version = header.readByte();
+        if (version != VERSION && version != VERSION_WITHOUT_SKETCHES) {
+            throw new IOException("unsupported result format version " + version);
+        }
+        byte compression = header.readByte();
+        InputStream body = switch (compression) {
+            case COMPRESSION_NONE -> in;
+            case COMPRESSION_DEFLATE -> new InflaterInputStream(in);
+            default -> throw new IOException("unsupported result compression " + compression);
+        };
+
+        DataInputStream records = new DataInputStream(new BufferedInputStream(body, 64 * 1024));
+        long read = 0;
+        int keyLength;
+        while ((keyLength = records.readInt()) != END_OF_RECORDS) {
+            if (keyLength < 0) {
+                throw new IOException("corrupt result payload, key length " + keyLength);
+            }
+            byte[] key = new byte[keyLength];
+            records.readFully(key);
+            target.computeIfAbsent(new String(key, StandardCharsets.UTF_8), k -> new GroupAggregate())
+                    .merge(records.readInt(), records.readInt(), records.readLong(), records.readLong());
+            if (version != VERSION_WITHOUT_SKETCHES) {
+                int sketchLength = records.readInt();
+                if (sketchLength < 0) {
+                    throw new IOException("corrupt result payload, sketch length " + sketchLength);
+                }
+                records.skipNBytes(sketchLength);
+            }
+            read++;
+        }
+        return read;
+    }
+}
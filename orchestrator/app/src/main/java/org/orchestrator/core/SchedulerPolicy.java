@@ -0,0 +1,39 @@
+package org.orchestrator.core;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Selectable blob scheduling policies, so they can be compared on the same workload
+ * (/startTask?scheduler=fifo|cost).
+ */
+public enum SchedulerPolicy {
+    FIFO {
+        @Override
+        public BlobScheduler create(List<DataFile> files, Map<String, String> workers, Map<String, String> affinity) {
+            return new FifoScheduler(files);
+        }
+    },
+    COST {
+        @Override
+        public BlobScheduler create(List<DataFile> files, Map<String, String> workers, Map<String, String> affinity) {
+            return new CostBasedScheduler(files, workers.size(), affinity, TARGET_BYTES);
+        }
+    };
+
+    // Bytes of input the cost-based policy aims to hand out per /invokeRead
+    private static final long TARGET_BYTES = Long.getLong("orchestrator.scheduler.targetBytes", 8L * 1024 * 1024);
+
+    public abstract BlobScheduler create(List<DataFile> files, Map<String, String> workers, Map<String, String> affinity);
+
+    /** Policy from a request parameter, falling back to -Dorchestrator.scheduler (default cost). */
+    public static SchedulerPolicy fromParam(String value) {
+        String name = value == null || value.isBlank() ? System.getProperty("orchestrator.scheduler", "cost") : value;
+        try {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("unknown scheduler '" + name + "'");
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package org.orchestrator.core;
+
+import java.util.Locale;
+
+/**
+ * How the partial tables left by the read phase are combined.
+ */
+public enum ShuffleMode {
+    /** Merge completed workers two at a time; the last one standing writes output. */
+    TREE,
+    /** Every worker owns a hash partition of the groups, receives its share from all peers and writes its own shard. */
+    PARTITIONED;
+
+    public static ShuffleMode fromParam(String value) {
+        if (value == null || value.isBlank()) {
+            return TREE;
+        }
+        try {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("unknown shuffle mode '" + value + "'");
+        }
+    }
+}
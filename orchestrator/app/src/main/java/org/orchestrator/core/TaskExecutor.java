@@ -1,132 +1,307 @@
 package org.orchestrator.core;
 
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.orchestrator.config.WorkerConfig;
+import org.orchestrator.rpc.WorkerEvents;
+import org.orchestrator.rpc.WorkerTransport;
 import org.orchestrator.utils.HttpUtils;
 
 /**
- * TaskExecutor coordinates reads, shuffles and writes by calling worker endpoints.
+ * TaskExecutor is the entry point for query execution. It keeps one {@link QueryExecution}
+ * per running query, so several queries can run concurrently on the same warm workers.
  *
  * Assumptions:
- * - `workers` is a map from workerId (e.g. "W1") to worker host (e.g. "http://localhost:9001").
- * - This is class is the "brain of your query execution. This executor is a singleton, only one query can run at a time.
- * - Change it for scalability.
+ * - A query id is unique among running queries; starting a duplicate is rejected.
+ * - Finished queries are dropped as soon as their final write has been issued; their execution
+ *   profile is kept for the last -Dorchestrator.stats.retained (default 100) queries.
+ * - Workers are watched by a {@link WorkerMonitor} once {@link #monitorWorkers()} is called; a lost
+ *   or restarted worker is reported to every running query so it can recover.
+ * - Workers may join at any time through {@link #registerWorker}; running queries put them to work
+ *   at once, so starting more worker processes absorbs a load spike.
+ * - A host map push a worker doesn't take is retried, first after
+ *   -Dorchestrator.hostMap.retryMs (default 1000) and then ever less often, for as long as the worker
+ *   stays at that host and isn't lost.
  */
-public enum TaskExecutor {
+public enum TaskExecutor implements WorkerEvents, WorkerMonitor.Listener {
     INSTANCE;
 
-    // Queue of BLOB files
-    private List<String> dataQueue;
+    private static final int RETAINED_STATISTICS = Integer.getInteger("orchestrator.stats.retained", 100);
+    private static final long HOST_MAP_RETRY_MILLIS = Long.getLong("orchestrator.hostMap.retryMs", 1000);
+    private static final long HOST_MAP_RETRY_MAX_MILLIS = 30_000;
+    private static final Duration HOST_MAP_TIMEOUT = Duration.ofSeconds(5);
+
+    // Running queries by query id
+    private final Map<String, QueryExecution> queries = new ConcurrentHashMap<>();
+
+    // Standing queries by name
+    private final Map<String, ContinuousQuery> continuousQueries = new ConcurrentHashMap<>();
+
+    // Online (estimated) queries by name, kept until stopped so their last estimate can be read
+    private final Map<String, OnlineQuery> onlineQueries = new ConcurrentHashMap<>();
 
-    // Map of workerId to worker host
-    private Map<String, String> workers;
+    // Execution profiles of running and recent queries, oldest evicted first
+    private final Map<String, ExecutionStatistics> statistics = Collections.synchronizedMap(
+            new LinkedHashMap<>() {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, ExecutionStatistics> eldest) {
+                    return size() > RETAINED_STATISTICS;
+                }
+            });
 
-    // Active worker Pool
-    private List<String> activeWorkers = new ArrayList<>();
+    // How commands reach workers, shared by all queries (see WorkerTransport.fromConfig)
+    private final WorkerTransport transport = WorkerTransport.fromConfig(this);
 
-    // Completed worker Pool
-    private List<String> workerCompletePool = new ArrayList<>();
-    private AtomicBoolean running = new AtomicBoolean(false); // Use this to ensure query deduplication
+    // Heartbeats of the configured worker pool
+    private final WorkerMonitor monitor = WorkerMonitor.configured(WorkerConfig::getWorkerPool, this);
 
-    private static Lock lock = new ReentrantLock();
+    // Re-sends host maps workers failed to take
+    private final ScheduledExecutorService hostMapRetries = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "orchestrator-hostmap-retry");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * Start a query with a generated id.
+     *
+     * @return the query id workers will see
+     */
+    public String startTask(TaskPlan plan) {
+        return startTask(newQueryId(), plan);
+    }
 
-    public void startTask(TaskPlan plan) {
-        if (running.get()) {
-            throw new IllegalStateException("Query is already running");
+    public String startTask(String queryId, TaskPlan plan) {
+        QueryExecution execution = new QueryExecution(queryId, plan, transport);
+        if (queries.putIfAbsent(queryId, execution) != null) {
+            throw new IllegalStateException("Query " + queryId + " is already running");
         }
-        this.dataQueue = new ArrayList<>(plan.getDataNodes() == null ? List.of() : plan.getDataNodes());
-        this.workers = plan.getworkerPool();
-        if (this.workers == null) {
-            throw new IllegalArgumentException("worker pool cannot be null");
+        statistics.put(queryId, execution.getStatistics());
+        execution.start(monitor.downWorkers());
+        retireIfDone(execution);
+        return queryId;
+    }
+
+    /**
+     * Called by external code (e.g. controller) when a worker reports task completion for a query.
+     */
+    @Override
+    public void onTaskComplete(String queryId, String worker, String stats) {
+        // reads carry the statistics of the files they scanned, whatever became of the query
+        DatasetCatalog.shared().recordStats(stats);
+        QueryExecution execution = queries.get(queryId);
+        if (execution == null) {
+            System.err.println("Ignoring completion from " + worker + " for unknown query " + queryId);
+            return;
         }
-        if (this.activeWorkers == null) this.activeWorkers = new ArrayList<>();
-        this.workerCompletePool.clear();
-        this.running.set(true);
+        execution.onTaskComplete(worker, stats);
+        retireIfDone(execution);
+    }
 
-        // START initial reads across workers
-        for (Map.Entry<String, String> entry : workers.entrySet()) {
-            String workerId = entry.getKey();
-            invokeRead(workerId);
+    /** A worker could not finish a task the query waits on; the query stops. */
+    @Override
+    public void onTaskFailed(String queryId, String worker, String reason) {
+        QueryExecution execution = queries.get(queryId);
+        if (execution == null) {
+            System.err.println("Ignoring failure from " + worker + " for unknown query " + queryId + ": " + reason);
+            return;
+        }
+        execution.onTaskFailed(worker, reason);
+        retireIfDone(execution);
+    }
+
+    @Override
+    public void onWorkerLost(String workerId) {
+        for (QueryExecution execution : queries.values()) {
+            execution.onWorkerLost(workerId);
+            retireIfDone(execution);
+        }
+    }
+
+    @Override
+    public void onWorkerRestarted(String workerId, long startedMillis, Map<String, Set<String>> restored) {
+        for (QueryExecution execution : queries.values()) {
+            execution.onWorkerRestarted(workerId, startedMillis, restored.getOrDefault(execution.getQueryId(), Set.of()));
+            retireIfDone(execution);
         }
     }
 
     /**
-     * Tell a worker to read a data node by calling its /invokeRead endpoint.
+     * A worker announced itself (GET /register). It joins the pool, every worker is sent the new
+     * host map so shuffles can reach it, and running queries hand it reads. A worker announcing
+     * itself again unchanged only gets the host map, in case it restarted without one. A new host
+     * asking for the id of a worker that still answers heartbeats is given a fresh id instead.
+     *
+     * @param workerId the id it asks for, blank to be assigned one
+     * @return the id it is known by
      */
-    private void invokeRead(String workerId) {
-        lock.lock();
-        try {
-            if (dataQueue != null && dataQueue.size() > 0) {
-                // pop one data node and mark worker active
-                String blobName = dataQueue.remove(dataQueue.size() - 1);
-                activeWorkers.add(workerId);
-                System.out.println("Added active worker: " + workerId + " and activeWorker list is " + activeWorkers.toString());
-
-                String host = workers.get(workerId);
-                String url = HttpUtils.buildUrl(host, "/invokeRead/" + blobName);
-                System.out.println("invokeRead -> " + url + " for data=" + blobName + " worker=" + workerId);
-                HttpUtils.callGet(url);
+    public synchronized String registerWorker(String workerId, String host, int cores) {
+        Map<String, String> before = Map.copyOf(WorkerConfig.getWorkerPool());
+        String id = WorkerConfig.register(workerId, host, cores, monitor.downWorkers());
+        Map<String, String> pool = Map.copyOf(WorkerConfig.getWorkerPool());
+        boolean changed = !pool.equals(before);
+        String address = pool.get(id);
+        System.out.println("[register] " + id + " at " + address + " with " + cores + " cores"
+                + (changed ? ", pool is now " + new TreeMap<>(pool) : ", already known"));
+        for (String worker : changed ? pool.keySet() : Set.of(id)) {
+            pushHostMap(worker, pool, HOST_MAP_RETRY_MILLIS);
+        }
+        if (changed) {
+            for (QueryExecution execution : queries.values()) {
+                execution.addWorker(id, address);
+                retireIfDone(execution);
             }
-        } finally {
-            lock.unlock();
+        }
+        return id;
+    }
+
+    // GET /hostMap?hosts=W1=host,W2=host with every id and host encoded; retried in retryMillis if it fails
+    private void pushHostMap(String workerId, Map<String, String> pool, long retryMillis) {
+        String host = pool.get(workerId);
+        List<String> entries = new ArrayList<>();
+        for (Map.Entry<String, String> worker : new TreeMap<>(pool).entrySet()) {
+            entries.add(HttpUtils.encode(worker.getKey()) + "=" + HttpUtils.encode(worker.getValue()));
+        }
+        String url = HttpUtils.buildUrl(host, "/hostMap") + "?hosts=" + HttpUtils.encode(String.join(",", entries));
+        HttpUtils.getText(url, HOST_MAP_TIMEOUT).whenComplete((resp, ex) -> {
+            if (ex == null && resp.statusCode() == 200) {
+                return;
+            }
+            System.err.println("[register] host map push to " + workerId + " at " + host + " failed ("
+                    + (ex != null ? ex.getMessage() : "HTTP " + resp.statusCode()) + "), retrying in " + retryMillis + " ms");
+            hostMapRetries.schedule(() -> retryHostMap(workerId, host, retryMillis), retryMillis, TimeUnit.MILLISECONDS);
+        });
+    }
+
+    // with the pool as it is by then; a worker that moved was sent the map at its new host, and a
+    // lost one is sent it when it registers again
+    private void retryHostMap(String workerId, String host, long retryMillis) {
+        Map<String, String> pool = Map.copyOf(WorkerConfig.getWorkerPool());
+        if (host.equals(pool.get(workerId)) && !monitor.downWorkers().contains(workerId)) {
+            pushHostMap(workerId, pool, Math.min(retryMillis * 2, HOST_MAP_RETRY_MAX_MILLIS));
         }
     }
 
+    /** Start heartbeats to the workers, every -Dorchestrator.heartbeat.intervalMs (default 2000, 0 disables). */
+    public void monitorWorkers() {
+        monitor.start(Long.getLong("orchestrator.heartbeat.intervalMs", 2000));
+    }
+
+    // a query is dropped once its final write is out, or once it can't go on
+    private void retireIfDone(QueryExecution execution) {
+        if (!execution.isRunning() && queries.remove(execution.getQueryId(), execution)) {
+            System.out.println("Query " + execution.getQueryId() + " finished");
+        }
+    }
+
+    /** Statistics of a task nothing waits on; the final write's report also marks the profile finished. */
+    @Override
+    public void onStatsReport(String queryId, String worker, String stats) {
+        ExecutionStatistics profile = statistics.get(queryId);
+        if (profile == null) {
+            return;
+        }
+        profile.record(worker, stats);
+        if (!queries.containsKey(queryId)) {
+            profile.finished();
+        }
+    }
+
+    /** Execution profile of a running or recently finished query, or null. */
+    public ExecutionStatistics getStatistics(String queryId) {
+        return statistics.get(queryId);
+    }
+
     /**
-     * Decide whether to invoke shuffle between completed workers or to trigger a write.
+     * Start a standing query over the storage directory, kept current as files land.
+     *
+     * @return the name it can be read back under
      */
-    private void invokeShuffleOrComplete() {
-        // If at least two workers have completed, ask one to shuffle with the other
-        if (workerCompletePool.size() >= 2) {
-            String w1 = workerCompletePool.remove(workerCompletePool.size() - 1);
-            String w2 = workerCompletePool.remove(workerCompletePool.size() - 1);
-
-            String w1Host = workers.get(w1);
-            String url = HttpUtils.buildUrl(w1Host, "/invokeShuffle/" + w2);
-            System.out.println("invokeShuffle -> " + url + " (w1=" + w1 + ", w2=" + w2 + ")");
-            HttpUtils.callGet(url);
+    public String startContinuous(String name, QuerySpec spec) {
+        String queryName = name == null || name.isBlank() ? "c-" + newQueryId().substring(2) : name;
+        ContinuousQuery query = new ContinuousQuery(queryName, spec,
+                WorkerConfig.getWorkerPool(), WorkerConfig.getAffinity(), TaskPlan.STORAGE_DIR);
+        if (continuousQueries.putIfAbsent(queryName, query) != null) {
+            throw new IllegalStateException("Continuous query " + queryName + " is already running");
+        }
+        query.start();
+        return queryName;
+    }
 
-            // mark w1 as active again (it will be working on the shuffle). it will get the data from w2 and merge it
-            activeWorkers.add(w1);
+    /** The standing query with this name, or null. */
+    public ContinuousQuery getContinuous(String name) {
+        return continuousQueries.get(name);
+    }
 
-        } else if ((dataQueue == null || dataQueue.size() == 0) && (activeWorkers == null || activeWorkers.size() == 0)
-                && workerCompletePool.size() > 0) {
-            // No more data and nobody active: pick the completed worker to write results
-            String worker = workerCompletePool.get(0);
-            String url = HttpUtils.buildUrl(workers.get(worker), "/writeResult");
-            this.running.set(false);
-            
-            System.out.println("invokeWrite -> " + url + " (worker=" + worker + ")");
-            HttpUtils.callGet(url);
+    public boolean stopContinuous(String name) {
+        ContinuousQuery query = continuousQueries.remove(name);
+        if (query == null) {
+            return false;
         }
+        query.stop();
+        return true;
     }
 
     /**
-     * Called by external code (e.g. controller) when a worker reports task completion.
+     * Start an online query over the storage directory: files in random order, estimates with
+     * confidence intervals as they are read (see {@link OnlineQuery}).
+     *
+     * @param seed file order; null for a random one
+     * @return the name it can be read back under
      */
-    public void onTaskComplete(String worker) {
-        lock.lock();
-        try {
-            if (activeWorkers != null) {
-                // remove by object if present
-                activeWorkers.remove(worker);
-                System.out.println("Process complete for: " + worker + " and activeWorker list is " + activeWorkers.toString());
-            }
+    public String startOnline(String name, QuerySpec spec, double confidence, Long seed) {
+        String queryName = name == null || name.isBlank() ? "o-" + newQueryId().substring(2) : name;
+        OnlineQuery query = OnlineQuery.overStorage(queryName, spec, WorkerConfig.getWorkerPool(), TaskPlan.STORAGE_DIR,
+                confidence, seed == null ? System.nanoTime() : seed);
+        if (onlineQueries.putIfAbsent(queryName, query) != null) {
+            throw new IllegalStateException("Online query " + queryName + " is already running");
+        }
+        query.start();
+        return queryName;
+    }
 
-            if (dataQueue != null && dataQueue.size() > 0) {
-                invokeRead(worker);
-            } else {
-                workerCompletePool.add(worker);
-                // attempt to schedule shuffle or final write
-                invokeShuffleOrComplete();
-            }
-        } finally {
-            lock.unlock();
+    /** The online query with this name, or null. */
+    public OnlineQuery getOnline(String name) {
+        return onlineQueries.get(name);
+    }
+
+    /** Stop an online query early, or drop a finished one. */
+    public boolean stopOnline(String name) {
+        OnlineQuery query = onlineQueries.remove(name);
+        if (query == null) {
+            return false;
         }
+        query.stop();
+        return true;
+    }
+
+    /** Stop heartbeats, close persistent worker connections, if the transport holds any, and stop standing and online queries. */
+    public void shutdown() {
+        monitor.stop();
+        continuousQueries.values().forEach(ContinuousQuery::stop);
+        continuousQueries.clear();
+        onlineQueries.values().forEach(OnlineQuery::stop);
+        onlineQueries.clear();
+        transport.close();
     }
 
+    public boolean isRunning(String queryId) {
+        return queries.containsKey(queryId);
+    }
+
+    private static String newQueryId() {
+        return "q-" + UUID.randomUUID().toString().substring(0, 8);
+    }
 }
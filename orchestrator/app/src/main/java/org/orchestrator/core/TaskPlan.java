@@ -7,23 +7,47 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Stream;
 
 public class TaskPlan {
-    
-    private List<String> dataNodes;
+
+    public static final Path STORAGE_DIR = Path.of("../../student_scores");
+
+    private List<DataFile> dataFiles;
     private Map<String, String> workerPool;
+    // workerId -> storage directory the worker reads locally, used by the cost-based scheduler
+    private Map<String, String> affinity;
+    private SchedulerPolicy schedulerPolicy = SchedulerPolicy.fromParam(null);
+    private QuerySpec querySpec;
+    private ShuffleMode shuffleMode = ShuffleMode.TREE;
+    private OutputFormat outputFormat = OutputFormat.CSV;
+    // split each result file after this many rows; 0 keeps one file per writer
+    private long rowsPerFile;
+    // write output.txt rather than output-<queryId>.txt, for a /startTask without a queryId
+    private boolean defaultOutput;
 
     public TaskPlan() {
-        this.dataNodes = new ArrayList<>();
+        this(QuerySpec.DEFAULT);
+    }
+
+    public TaskPlan(QuerySpec querySpec) {
+        this.dataFiles = new ArrayList<>();
         this.workerPool = new HashMap<>();
+        this.querySpec = querySpec;
         initPlan();
     }
 
     public List<String> getDataNodes() {
-        return dataNodes;
+        return dataFiles.stream().map(DataFile::name).toList();
     }
     public void setDataNodes(List<String> dataNodes) {
-        this.dataNodes = dataNodes;
+        this.dataFiles = new ArrayList<>(dataNodes.stream().map(name -> DataFile.of(name, 0)).toList());
+    }
+    public List<DataFile> getDataFiles() {
+        return dataFiles;
+    }
+    public void setDataFiles(List<DataFile> dataFiles) {
+        this.dataFiles = dataFiles;
     }
     public Map<String, String> getworkerPool() {
         return workerPool;
@@ -32,20 +56,91 @@ public class TaskPlan {
         this.workerPool = workerPool;
     }
 
+    public QuerySpec getQuerySpec() {
+        return querySpec;
+    }
+    public void setQuerySpec(QuerySpec querySpec) {
+        this.querySpec = querySpec;
+    }
+
+    public ShuffleMode getShuffleMode() {
+        return shuffleMode;
+    }
+    public void setShuffleMode(ShuffleMode shuffleMode) {
+        this.shuffleMode = shuffleMode;
+    }
+
+    public OutputFormat getOutputFormat() {
+        return outputFormat;
+    }
+    public void setOutputFormat(OutputFormat outputFormat) {
+        this.outputFormat = outputFormat;
+    }
+
+    public long getRowsPerFile() {
+        return rowsPerFile;
+    }
+    public void setRowsPerFile(long rowsPerFile) {
+        this.rowsPerFile = rowsPerFile;
+    }
+
+    public boolean isDefaultOutput() {
+        return defaultOutput;
+    }
+    public void setDefaultOutput(boolean defaultOutput) {
+        this.defaultOutput = defaultOutput;
+    }
+
+    public Map<String, String> getAffinity() {
+        return affinity;
+    }
+    public void setAffinity(Map<String, String> affinity) {
+        this.affinity = affinity;
+    }
+
+    public SchedulerPolicy getSchedulerPolicy() {
+        return schedulerPolicy;
+    }
+    public void setSchedulerPolicy(SchedulerPolicy schedulerPolicy) {
+        this.schedulerPolicy = schedulerPolicy;
+    }
+
+    /** Build the blob scheduler this plan's execution should use. */
+    public BlobScheduler createScheduler() {
+        return schedulerPolicy.create(dataFiles, workerPool, affinity);
+    }
+
     private void initPlan() {
-        Path storageDir = Path.of("../../student_scores");
-        
-        try {
-            Files.list(storageDir)
-                .filter(p -> p.toString().endsWith(".csv"))
-                .forEach(p -> this.dataNodes.add(p.getFileName().toString()));
-            } catch (IOException e) {
-                e.printStackTrace();
-        }
+        // files the catalog can rule out for this query's year/score ranges aren't read at all
+        this.dataFiles.addAll(DatasetCatalog.shared().prune(STORAGE_DIR, listDataFiles(STORAGE_DIR), querySpec));
 
-        // Hard coded for now, determine in runtime using some args maybe
-        this.workerPool = org.orchestrator.config.WorkerConfig.getWorkerPool();
+        // the pool as it is now; workers registering later are added to the running query by TaskExecutor
+        this.workerPool = new HashMap<>(org.orchestrator.config.WorkerConfig.getWorkerPool());
+        this.affinity = org.orchestrator.config.WorkerConfig.getAffinity();
+    }
 
+    /**
+     * Every CSV under the storage root. Sub-directories are kept in the blob name
+     * ("dirA/file1.csv"), so they can stand for the storage location a worker is local to.
+     */
+    public static List<DataFile> listDataFiles(Path storageDir) {
+        List<DataFile> files = new ArrayList<>();
+        try (Stream<Path> paths = Files.walk(storageDir)) {
+            paths.filter(p -> p.toString().endsWith(".csv") && Files.isRegularFile(p))
+                .sorted()
+                .forEach(p -> files.add(DataFile.of(storageDir.relativize(p).toString().replace('\\', '/'), sizeOf(p))));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return files;
+    }
+
+    private static long sizeOf(Path p) {
+        try {
+            return Files.size(p);
+        } catch (IOException e) {
+            return 0;
+        }
     }
 
 }
@@ -0,0 +1,181 @@
+package org.orchestrator.core;
+
+import java.net.URLDecoder;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.orchestrator.utils.HttpUtils;
+
+/**
+ * Failure detection by heartbeats: every -Dorchestrator.heartbeat.intervalMs (default 2000; 0
+ * turns it off) each worker's GET /heartbeat is polled.
+ *
+ * - A worker that misses -Dorchestrator.heartbeat.misses (default 3) polls in a row is lost.
+ * - A worker whose reply carries a different start time than before has restarted; the reply also
+ *   names, per query, the blobs it restored from a checkpoint.
+ * - Any answer counts as alive, so workers without the endpoint (404) are never reported lost.
+ */
+public final class WorkerMonitor {
+
+    /** What the monitor reports. */
+    public interface Listener {
+        void onWorkerLost(String workerId);
+
+        /** @param restored blobs restored from checkpoints, by query id */
+        void onWorkerRestarted(String workerId, long startedMillis, Map<String, Set<String>> restored);
+    }
+
+    private static final class State {
+        int missed;
+        long startedMillis = -1;
+        boolean down;
+    }
+
+    private final Supplier<Map<String, String>> workers;
+    private final Listener listener;
+    private final int misses;
+    private final Map<String, State> states = new ConcurrentHashMap<>();
+    private ScheduledExecutorService timer;
+
+    /** @param workers current workerId -> host map, read on every round */
+    public WorkerMonitor(Supplier<Map<String, String>> workers, Listener listener, int misses) {
+        this.workers = workers;
+        this.listener = listener;
+        this.misses = Math.max(1, misses);
+    }
+
+    /** Monitor configured by the -Dorchestrator.heartbeat.* properties. */
+    public static WorkerMonitor configured(Supplier<Map<String, String>> workers, Listener listener) {
+        return new WorkerMonitor(workers, listener, Integer.getInteger("orchestrator.heartbeat.misses", 3));
+    }
+
+    public synchronized void start(long intervalMillis) {
+        if (timer != null || intervalMillis <= 0) {
+            return;
+        }
+        timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "orchestrator-heartbeat");
+            t.setDaemon(true);
+            return t;
+        });
+        timer.scheduleWithFixedDelay(() -> poll(Duration.ofMillis(intervalMillis)), intervalMillis, intervalMillis,
+                TimeUnit.MILLISECONDS);
+        System.out.println("[heartbeat] polling workers every " + intervalMillis + " ms, lost after " + misses + " misses");
+    }
+
+    public synchronized void stop() {
+        if (timer != null) {
+            timer.shutdownNow();
+            timer = null;
+        }
+    }
+
+    /** Workers currently considered lost. */
+    public Set<String> downWorkers() {
+        Set<String> down = new TreeSet<>();
+        states.forEach((worker, state) -> {
+            if (state.down) down.add(worker);
+        });
+        return down;
+    }
+
+    // one round: every worker at once, each allowed the whole interval to answer
+    private void poll(Duration timeout) {
+        try {
+            Map<String, CompletableFuture<HttpResponse<String>>> replies = new HashMap<>();
+            for (Map.Entry<String, String> worker : Map.copyOf(workers.get()).entrySet()) {
+                replies.put(worker.getKey(), HttpUtils.getText(HttpUtils.buildUrl(worker.getValue(), "/heartbeat"), timeout));
+            }
+            for (Map.Entry<String, CompletableFuture<HttpResponse<String>>> reply : replies.entrySet()) {
+                HttpResponse<String> response;
+                try {
+                    response = reply.getValue().join();
+                } catch (RuntimeException e) {
+                    response = null;
+                }
+                observe(reply.getKey(), response == null ? null
+                        : response.statusCode() == 200 ? response.body() : "");
+            }
+        } catch (RuntimeException e) {
+            // keep the schedule alive whatever one round runs into
+            System.err.println("[heartbeat] round failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Account for one poll of a worker: reply is the body of its answer ("" if it answered without
+     * one), or null if it didn't answer.
+     */
+    void observe(String workerId, String reply) {
+        State state = states.computeIfAbsent(workerId, w -> new State());
+        if (reply == null) {
+            state.missed++;
+            if (!state.down && state.missed >= misses) {
+                state.down = true;
+                System.err.println("[heartbeat] " + workerId + " missed " + state.missed + " heartbeats, treating it as lost");
+                listener.onWorkerLost(workerId);
+            }
+            return;
+        }
+        state.missed = 0;
+        if (state.down) {
+            state.down = false;
+            System.out.println("[heartbeat] " + workerId + " is answering again");
+        }
+        long startedMillis = -1;
+        Map<String, Set<String>> restored = new HashMap<>();
+        for (String line : reply.split("\n")) {
+            int eq = line.indexOf('=');
+            if (eq <= 0) {
+                continue;
+            }
+            String value = line.substring(eq + 1).trim();
+            switch (line.substring(0, eq)) {
+                case "startedAt" -> startedMillis = parseLong(value);
+                case "restored" -> {
+                    int colon = value.indexOf(':');
+                    if (colon > 0) {
+                        Set<String> blobs = new HashSet<>();
+                        for (String blob : value.substring(colon + 1).split(",")) {
+                            if (!blob.isEmpty()) blobs.add(decode(blob));
+                        }
+                        restored.put(decode(value.substring(0, colon)), blobs);
+                    }
+                }
+                default -> { }
+            }
+        }
+        if (startedMillis > 0) {
+            boolean restarted = state.startedMillis > 0 && state.startedMillis != startedMillis;
+            state.startedMillis = startedMillis;
+            if (restarted) {
+                System.out.println("[heartbeat] " + workerId + " restarted with " + restored.size() + " checkpointed queries");
+                listener.onWorkerRestarted(workerId, startedMillis, restored);
+            }
+        }
+    }
+
+    private static long parseLong(String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static String decode(String encoded) {
+        return URLDecoder.decode(encoded, StandardCharsets.UTF_8);
+    }
+}
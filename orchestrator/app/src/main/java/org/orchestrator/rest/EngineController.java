@@ -3,8 +3,20 @@ package org.orchestrator.rest;
 import io.javalin.Javalin;
 import io.javalin.http.Context;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
+import java.util.regex.Pattern;
 
+import org.orchestrator.core.ContinuousQuery;
+import org.orchestrator.core.DatasetCatalog;
+import org.orchestrator.core.ExecutionStatistics;
+import org.orchestrator.core.OnlineQuery;
+import org.orchestrator.core.OutputFormat;
+import org.orchestrator.core.QuerySpec;
+import org.orchestrator.core.SchedulerPolicy;
+import org.orchestrator.core.ShuffleMode;
 import org.orchestrator.core.TaskExecutor;
 import org.orchestrator.core.TaskPlan;
 
@@ -12,11 +24,27 @@ import org.orchestrator.core.TaskPlan;
  * EngineController implemented with Javalin.
  *
  * Endpoints:
- *  - GET /startTask
- *  - GET /completeTask (no workerId)
- *  - GET /completeTask/:workerId
+ *  - GET /startTask[?queryId=&groupBy=&agg=&where=&shuffle=tree|partitioned&scheduler=fifo|cost&format=csv|ndjson&rowsPerFile=]
+ *    (see {@link QuerySpec})
+ *  - GET /completeTask/:workerId?queryId=[&stats=]  stats: the task's encoded statistics
+ *  - GET /failTask/:workerId?queryId=&reason=       a task that failed; the query stops
+ *  - GET /reportStats/:workerId?queryId=&stats=     statistics of the final write
+ *  - GET /stats/:queryId                            execution profile of a running or recent query
+ *  - GET /catalog                                   file statistics used to skip files (see {@link DatasetCatalog})
+ *  - GET /register?host=[&workerId=&cores=]         a worker joining the pool; replies "workerId=<id>"
+ *  - GET /continuous/start[?name=&groupBy=&agg=&where=]  standing query kept current as files land
+ *  - GET /continuous/:name                              its current result
+ *  - GET /continuous/:name/stats
+ *  - GET /continuous/:name/stop
+ *  - GET /online/start[?name=&groupBy=&agg=&where=&confidence=0.95&seed=]  estimated while it reads (see {@link OnlineQuery})
+ *  - GET /online/:name                                    current estimates
+ *  - GET /online/:name/stream[?intervalMs=1000&maxError=] estimates every intervalMs until complete or within maxError
+ *  - GET /online/:name/stop
  */
 public class EngineController {
+	// Matches the worker's id for requests that carry no queryId
+	private static final String DEFAULT_QUERY_ID = "default";
+	private static final Pattern QUERY_ID = Pattern.compile("[A-Za-z0-9_-]+");
 	private Javalin app;
 
 	/** Start the HTTP server on the given port. */
@@ -29,6 +57,19 @@ public class EngineController {
 
 		app.get("/startTask", this::handleStartTask);
 		app.get("/completeTask/{workerId}", this::handleCompleteTaskWithId);
+		app.get("/failTask/{workerId}", this::handleFailTask);
+		app.get("/reportStats/{workerId}", this::handleReportStats);
+		app.get("/stats/{queryId}", this::handleStats);
+		app.get("/catalog", this::handleCatalog);
+		app.get("/register", this::handleRegister);
+		app.get("/continuous/start", this::handleStartContinuous);
+		app.get("/continuous/{name}", this::handleContinuousResult);
+		app.get("/continuous/{name}/stats", this::handleContinuousStats);
+		app.get("/continuous/{name}/stop", this::handleStopContinuous);
+		app.get("/online/start", this::handleStartOnline);
+		app.get("/online/{name}", this::handleOnlineEstimate);
+		app.get("/online/{name}/stream", this::handleOnlineStream);
+		app.get("/online/{name}/stop", this::handleStopOnline);
 
 		app.get("/", ctx -> ctx.result("EngineController running"));
 
@@ -45,14 +86,236 @@ public class EngineController {
 
 	// Handler implementations — currently skeletons; user will add logic.
 	private void handleStartTask(Context ctx) {
-		TaskPlan plan = new TaskPlan();
-		TaskExecutor.INSTANCE.startTask(plan);
-		ctx.result("status OK for start task");
+		QuerySpec spec;
+		ShuffleMode shuffleMode;
+		SchedulerPolicy scheduler;
+		OutputFormat format;
+		long rowsPerFile;
+		try {
+			spec = QuerySpec.fromParams(ctx::queryParam);
+			shuffleMode = ShuffleMode.fromParam(ctx.queryParam("shuffle"));
+			scheduler = SchedulerPolicy.fromParam(ctx.queryParam("scheduler"));
+			format = OutputFormat.fromParam(ctx.queryParam("format"));
+			String rows = ctx.queryParam("rowsPerFile");
+			rowsPerFile = rows == null || rows.isBlank() ? 0 : Long.parseLong(rows.trim());
+		} catch (IllegalArgumentException e) {
+			ctx.status(400).result("error: invalid query spec: " + e.getMessage());
+			return;
+		}
+		TaskPlan plan = new TaskPlan(spec);
+		plan.setShuffleMode(shuffleMode);
+		plan.setSchedulerPolicy(scheduler);
+		plan.setOutputFormat(format);
+		plan.setRowsPerFile(rowsPerFile);
+		String requested = ctx.queryParam("queryId");
+		if (requested != null && !requested.isBlank() && !QUERY_ID.matcher(requested).matches()) {
+			// workers name output files after the query id
+			ctx.status(400).result("error: queryId must match " + QUERY_ID.pattern() + ", got '" + requested + "'");
+			return;
+		}
+		plan.setDefaultOutput(requested == null || requested.isBlank());
+		try {
+			String queryId = requested == null || requested.isBlank()
+					? TaskExecutor.INSTANCE.startTask(plan)
+					: TaskExecutor.INSTANCE.startTask(requested, plan);
+			ctx.result("status OK for start task queryId=" + queryId);
+		} catch (IllegalStateException e) {
+			ctx.status(409).result("error: " + e.getMessage());
+		}
 	}
 
 	private void handleCompleteTaskWithId(Context ctx) {
 		String workerId = ctx.pathParam("workerId");
-		TaskExecutor.INSTANCE.onTaskComplete(workerId);
-		ctx.result("status OK for complete task and worker " + workerId);
+		String queryId = ctx.queryParam("queryId");
+		TaskExecutor.INSTANCE.onTaskComplete(queryId == null ? DEFAULT_QUERY_ID : queryId, workerId, ctx.queryParam("stats"));
+		ctx.result("status OK for complete task and worker " + workerId + " query " + queryId);
+	}
+
+	private void handleFailTask(Context ctx) {
+		String workerId = ctx.pathParam("workerId");
+		String queryId = ctx.queryParam("queryId");
+		TaskExecutor.INSTANCE.onTaskFailed(queryId == null ? DEFAULT_QUERY_ID : queryId, workerId, ctx.queryParam("reason"));
+		ctx.result("status OK for failed task and worker " + workerId + " query " + queryId);
+	}
+
+	private void handleReportStats(Context ctx) {
+		String workerId = ctx.pathParam("workerId");
+		String queryId = ctx.queryParam("queryId");
+		TaskExecutor.INSTANCE.onStatsReport(queryId == null ? DEFAULT_QUERY_ID : queryId, workerId, ctx.queryParam("stats"));
+		ctx.result("status OK for stats of worker " + workerId + " query " + queryId);
+	}
+
+	private void handleStats(Context ctx) {
+		ExecutionStatistics statistics = TaskExecutor.INSTANCE.getStatistics(ctx.pathParam("queryId"));
+		if (statistics == null) {
+			ctx.status(404).result("error: no statistics for query " + ctx.pathParam("queryId"));
+			return;
+		}
+		ctx.contentType("text/plain");
+		ctx.result(statistics.explain());
+	}
+
+	private void handleCatalog(Context ctx) {
+		StringBuilder sb = new StringBuilder("file\trows\tyear\tscore\tbytes\tmodified\n");
+		for (DatasetCatalog.FileStats stats : DatasetCatalog.shared().entries()) {
+			sb.append(stats.name()).append('\t').append(stats.rows())
+					.append('\t').append(stats.yearMin()).append("..").append(stats.yearMax())
+					.append('\t').append(stats.scoreMin()).append("..").append(stats.scoreMax())
+					.append('\t').append(stats.sizeBytes()).append('\t').append(stats.modifiedMillis()).append('\n');
+		}
+		ctx.contentType("text/plain");
+		ctx.result(sb.toString());
+	}
+
+	private void handleRegister(Context ctx) {
+		String host = ctx.queryParam("host");
+		String cores = ctx.queryParam("cores");
+		int coreCount;
+		try {
+			coreCount = cores == null || cores.isBlank() ? 0 : Integer.parseInt(cores.trim());
+		} catch (NumberFormatException e) {
+			ctx.status(400).result("error: invalid cores: " + cores);
+			return;
+		}
+		if (host == null || host.isBlank()) {
+			ctx.status(400).result("error: host is required");
+			return;
+		}
+		String workerId = TaskExecutor.INSTANCE.registerWorker(ctx.queryParam("workerId"), host.trim(), coreCount);
+		ctx.contentType("text/plain");
+		ctx.result("workerId=" + workerId + "\n");
+	}
+
+	private void handleStartContinuous(Context ctx) {
+		QuerySpec spec;
+		try {
+			spec = QuerySpec.fromParams(ctx::queryParam);
+		} catch (IllegalArgumentException e) {
+			ctx.status(400).result("error: invalid query spec: " + e.getMessage());
+			return;
+		}
+		try {
+			String name = TaskExecutor.INSTANCE.startContinuous(ctx.queryParam("name"), spec);
+			ctx.result("status OK for continuous query name=" + name);
+		} catch (IllegalStateException e) {
+			ctx.status(409).result("error: " + e.getMessage());
+		} catch (IllegalArgumentException e) {
+			ctx.status(400).result("error: " + e.getMessage());
+		}
+	}
+
+	private void handleContinuousResult(Context ctx) {
+		ContinuousQuery query = TaskExecutor.INSTANCE.getContinuous(ctx.pathParam("name"));
+		if (query == null) {
+			ctx.status(404).result("error: no continuous query " + ctx.pathParam("name"));
+			return;
+		}
+		ctx.contentType("text/plain");
+		ctx.result(String.join("\n", query.resultLines()) + "\n");
+	}
+
+	private void handleContinuousStats(Context ctx) {
+		ContinuousQuery query = TaskExecutor.INSTANCE.getContinuous(ctx.pathParam("name"));
+		if (query == null) {
+			ctx.status(404).result("error: no continuous query " + ctx.pathParam("name"));
+			return;
+		}
+		ctx.contentType("text/plain");
+		ctx.result(query.stats().toString());
+	}
+
+	private void handleStopContinuous(Context ctx) {
+		String name = ctx.pathParam("name");
+		if (!TaskExecutor.INSTANCE.stopContinuous(name)) {
+			ctx.status(404).result("error: no continuous query " + name);
+			return;
+		}
+		ctx.result("status OK, stopped continuous query " + name);
+	}
+
+	private void handleStartOnline(Context ctx) {
+		QuerySpec spec;
+		double confidence;
+		Long seed;
+		try {
+			spec = QuerySpec.fromParams(ctx::queryParam);
+			String level = ctx.queryParam("confidence");
+			confidence = level == null || level.isBlank() ? 0.95 : Double.parseDouble(level.trim());
+			String order = ctx.queryParam("seed");
+			seed = order == null || order.isBlank() ? null : Long.parseLong(order.trim());
+		} catch (IllegalArgumentException e) {
+			ctx.status(400).result("error: invalid query spec: " + e.getMessage());
+			return;
+		}
+		try {
+			String name = TaskExecutor.INSTANCE.startOnline(ctx.queryParam("name"), spec, confidence, seed);
+			ctx.result("status OK for online query name=" + name);
+		} catch (IllegalStateException e) {
+			ctx.status(409).result("error: " + e.getMessage());
+		} catch (IllegalArgumentException e) {
+			ctx.status(400).result("error: " + e.getMessage());
+		}
+	}
+
+	private void handleOnlineEstimate(Context ctx) {
+		OnlineQuery query = TaskExecutor.INSTANCE.getOnline(ctx.pathParam("name"));
+		if (query == null) {
+			ctx.status(404).result("error: no online query " + ctx.pathParam("name"));
+			return;
+		}
+		ctx.contentType("text/plain");
+		ctx.result(query.snapshot().render());
+	}
+
+	/**
+	 * Stream estimates as they tighten, one block per interval, until every file is read or every
+	 * interval is within maxError (relative, e.g. 0.01) of its estimate; then the query stops. A
+	 * client hanging up stops it too.
+	 */
+	private void handleOnlineStream(Context ctx) {
+		OnlineQuery query = TaskExecutor.INSTANCE.getOnline(ctx.pathParam("name"));
+		if (query == null) {
+			ctx.status(404).result("error: no online query " + ctx.pathParam("name"));
+			return;
+		}
+		long intervalMillis;
+		double maxError;
+		try {
+			String interval = ctx.queryParam("intervalMs");
+			intervalMillis = interval == null || interval.isBlank() ? 1000 : Math.max(100, Long.parseLong(interval.trim()));
+			String error = ctx.queryParam("maxError");
+			maxError = error == null || error.isBlank() ? 0 : Double.parseDouble(error.trim());
+		} catch (NumberFormatException e) {
+			ctx.status(400).result("error: " + e.getMessage());
+			return;
+		}
+		ctx.contentType("text/plain");
+		OutputStream out = ctx.outputStream();
+		try {
+			while (true) {
+				OnlineQuery.Snapshot snapshot = query.snapshot();
+				out.write((snapshot.render() + "\n").getBytes(StandardCharsets.UTF_8));
+				out.flush();
+				if (snapshot.within(maxError)) {
+					break;
+				}
+				Thread.sleep(intervalMillis);
+			}
+		} catch (IOException e) {
+			System.out.println("[" + query.getName() + "] stream closed by the client");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		// good enough, or nobody is listening any more
+		query.stop();
+	}
+
+	private void handleStopOnline(Context ctx) {
+		String name = ctx.pathParam("name");
+		if (!TaskExecutor.INSTANCE.stopOnline(name)) {
+			ctx.status(404).result("error: no online query " + name);
+			return;
+		}
+		ctx.result("status OK, stopped online query " + name);
 	}
 }
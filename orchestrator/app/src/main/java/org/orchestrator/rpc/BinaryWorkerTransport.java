@@ -0,0 +1,234 @@
+package org.orchestrator.rpc;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Commands over one persistent binary connection per worker ({@link ControlProtocol}).
+ *
+ * - Sends never wait for the worker's ack, so several commands can be in flight on a connection.
+ *   Acks arrive batched and are matched back to their command by correlation id.
+ * - Every connection opens with a HELLO naming this orchestrator, so workers send a query's events
+ *   back only to the orchestrator that commanded it.
+ * - Completion, failure and statistics events come back on the same connection and are passed to
+ *   events, replacing the worker's GET /completeTask, /failTask and /reportStats. Each is acked, so the worker can
+ *   send it again after a dropped connection.
+ * - A worker without a reachable control port (or whose connection broke) is sent plain HTTP, so
+ *   mixed deployments keep working. Commands still unacked when a connection breaks are sent
+ *   again over HTTP; the worker runs a task id it already accepted only once.
+ */
+public class BinaryWorkerTransport implements WorkerTransport {
+
+    private final int portOffset;
+    private final WorkerEvents events;
+    private final WorkerTransport fallback = new HttpWorkerTransport();
+    private final Map<String, Connection> connections = new ConcurrentHashMap<>();
+    private final AtomicLong nextCorrelationId = new AtomicLong();
+    // named in every HELLO; a new one per orchestrator run
+    private final String orchestratorId = UUID.randomUUID().toString();
+    private volatile boolean closed;
+
+    /**
+     * @param portOffset control port of a worker relative to its HTTP port
+     * @param events     receives every completion and statistics event
+     */
+    public BinaryWorkerTransport(int portOffset, WorkerEvents events) {
+        this.portOffset = portOffset;
+        this.events = events;
+    }
+
+    @Override
+    public void send(String workerId, String host, WorkerCommand command) {
+        Connection connection = connection(workerId, host);
+        if (connection != null) {
+            long correlationId = nextCorrelationId.incrementAndGet();
+            try {
+                connection.send(correlationId, command);
+                return;
+            } catch (IOException e) {
+                System.err.println("Control connection to " + workerId + " failed, falling back to HTTP: " + e.getMessage());
+                connection.close();
+            }
+        }
+        fallback.send(workerId, host, command);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        connections.values().forEach(Connection::close);
+        connections.clear();
+    }
+
+    private Connection connection(String workerId, String host) {
+        Connection existing = connections.get(workerId);
+        if (existing != null && existing.channel.isOpen()) {
+            return existing;
+        }
+        synchronized (this) {
+            existing = connections.get(workerId);
+            if (existing != null && existing.channel.isOpen()) {
+                return existing;
+            }
+            try {
+                URI uri = URI.create(host.contains("://") ? host : "http://" + host);
+                InetSocketAddress address = new InetSocketAddress(uri.getHost(), uri.getPort() + portOffset);
+                SocketChannel channel = SocketChannel.open();
+                channel.socket().connect(address, 3000);
+                channel.socket().setTcpNoDelay(true);
+                Connection connection = new Connection(workerId, host, channel);
+                connection.write(ByteBuffer.wrap(ControlProtocol.encodeHello(orchestratorId)));
+                connections.put(workerId, connection);
+                connection.startReader();
+                System.out.println("Control connection to " + workerId + " at " + address);
+                return connection;
+            } catch (IOException | IllegalArgumentException e) {
+                System.err.println("No control connection to " + workerId + " (" + e.getMessage() + "), using HTTP");
+                return null;
+            }
+        }
+    }
+
+    private final class Connection {
+        private final String workerId;
+        private final String host;
+        private final SocketChannel channel;
+        // commands sent but not yet acked, sent again over HTTP if the connection breaks
+        private final Map<Long, WorkerCommand> outstanding = new ConcurrentHashMap<>();
+
+        Connection(String workerId, String host, SocketChannel channel) {
+            this.workerId = workerId;
+            this.host = host;
+            this.channel = channel;
+        }
+
+        void send(long correlationId, WorkerCommand command) throws IOException {
+            ByteBuffer frame = ByteBuffer.wrap(ControlProtocol.encodeCommand(correlationId, command));
+            outstanding.put(correlationId, command);
+            try {
+                write(frame);
+            } catch (IOException e) {
+                // the caller sends it over HTTP itself
+                outstanding.remove(correlationId);
+                throw e;
+            }
+        }
+
+        void write(ByteBuffer frame) throws IOException {
+            synchronized (channel) {
+                while (frame.hasRemaining()) {
+                    channel.write(frame);
+                }
+            }
+        }
+
+        void startReader() {
+            Thread reader = new Thread(this::readLoop, "control-" + workerId);
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        private void readLoop() {
+            ByteBuffer header = ByteBuffer.allocate(Integer.BYTES);
+            try {
+                while (true) {
+                    header.clear();
+                    readFully(header);
+                    int length = header.getInt(0);
+                    if (length < 2 || length > ControlProtocol.MAX_FRAME_LENGTH) {
+                        throw new IOException("bad control frame length " + length);
+                    }
+                    ByteBuffer frame = ByteBuffer.allocate(length);
+                    readFully(frame);
+                    frame.flip();
+                    try {
+                        handleFrame(frame);
+                    } catch (BufferUnderflowException e) {
+                        throw new IOException("truncated control frame");
+                    }
+                }
+            } catch (IOException e) {
+                if (channel.isOpen()) {
+                    System.err.println("Control connection to " + workerId + " closed: " + e.getMessage());
+                }
+            } finally {
+                close();
+            }
+        }
+
+        private void handleFrame(ByteBuffer frame) throws IOException {
+            byte version = frame.get();
+            if (version != ControlProtocol.VERSION) {
+                throw new IOException("unsupported control protocol version " + version);
+            }
+            byte type = frame.get();
+            switch (type) {
+                case ControlProtocol.TYPE_ACKS -> {
+                    for (ControlProtocol.Ack ack : ControlProtocol.decodeAcks(frame)) {
+                        WorkerCommand command = outstanding.remove(ack.correlationId());
+                        if (ack.status() != 200) {
+                            System.err.println("Command " + command + " failed on " + workerId + ": " + ack.status() + " " + ack.message());
+                        }
+                    }
+                }
+                case ControlProtocol.TYPE_EVENTS -> {
+                    List<Long> delivered = new ArrayList<>();
+                    for (ControlProtocol.Event event : ControlProtocol.decodeEvents(frame)) {
+                        switch (event.kind()) {
+                            case ControlProtocol.EVENT_COMPLETE -> events.onTaskComplete(event.queryId(), event.workerId(), event.stats());
+                            case ControlProtocol.EVENT_STATS -> events.onStatsReport(event.queryId(), event.workerId(), event.stats());
+                            case ControlProtocol.EVENT_FAILED -> events.onTaskFailed(event.queryId(), event.workerId(), event.stats());
+                            default -> System.err.println("Ignoring unknown control event " + event.kind() + " from " + workerId);
+                        }
+                        delivered.add(event.eventId());
+                    }
+                    write(ByteBuffer.wrap(ControlProtocol.encodeEventAcks(delivered)));
+                }
+                default -> throw new IOException("unexpected control frame type " + type);
+            }
+        }
+
+        private void readFully(ByteBuffer buf) throws IOException {
+            while (buf.hasRemaining()) {
+                if (channel.read(buf) < 0) {
+                    throw new IOException("worker closed the connection");
+                }
+            }
+        }
+
+        void close() {
+            connections.remove(workerId, this);
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+            if (!outstanding.isEmpty()) {
+                List<WorkerCommand> unacked = new ArrayList<>();
+                for (Long correlationId : outstanding.keySet().stream().sorted().toList()) {
+                    WorkerCommand command = outstanding.remove(correlationId);
+                    if (command != null) {
+                        unacked.add(command);
+                    }
+                }
+                if (closed) {
+                    System.err.println("Control connection to " + workerId + " closed with unacked commands " + unacked);
+                    return;
+                }
+                // the worker may or may not have them; it ignores a task it already accepted
+                System.err.println("Control connection to " + workerId + " dropped, sending " + unacked.size()
+                        + " unacked command(s) over HTTP");
+                unacked.forEach(command -> fallback.send(workerId, host, command));
+            }
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package org.orchestrator.rpc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Frame format of the binary control channel, the orchestrator's copy of the worker's
+ * org.worker.rpc.ControlProtocol. Keep the two in sync.
+ *
+ * Every frame (big endian):
+ *   int length (of everything after it), byte version, byte type, body
+ *
+ * Bodies:
+ *   HELLO       str orchestratorId
+ *   COMMAND     long correlationId, byte op, str target, short n, n * (str key, str value)
+ *   ACKS        int n, n * (long correlationId, short status, str message)
+ *   EVENTS      int n, n * (long eventId, byte kind, str workerId, str queryId, str stats)
+ *   EVENT_ACKS  int n, n * long eventId
+ *
+ * str is a short byte length followed by UTF-8 bytes.
+ */
+public final class ControlProtocol {
+
+    public static final byte VERSION = 3;
+
+    public static final byte TYPE_COMMAND = 1;
+    public static final byte TYPE_ACKS = 2;
+    public static final byte TYPE_EVENTS = 3;
+    public static final byte TYPE_HELLO = 4;
+    public static final byte TYPE_EVENT_ACKS = 5;
+
+    public static final byte EVENT_COMPLETE = 1;
+    public static final byte EVENT_STATS = 2;
+    public static final byte EVENT_FAILED = 3;
+
+    public static final int MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+
+    private ControlProtocol() {}
+
+    public record Command(long correlationId, byte op, String target, Map<String, String> params) {}
+
+    public record Ack(long correlationId, short status, String message) {}
+
+    public record Event(long eventId, byte kind, String workerId, String queryId, String stats) {}
+
+    /** The first frame on every connection, naming this orchestrator. */
+    public static byte[] encodeHello(String orchestratorId) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = beginFrame(bytes, TYPE_HELLO);
+        writeString(out, orchestratorId);
+        return endFrame(bytes);
+    }
+
+    public static byte[] encodeCommand(long correlationId, WorkerCommand command) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream out = beginFrame(bytes, TYPE_COMMAND);
+        out.writeLong(correlationId);
+        out.writeByte(command.op().code());
+        writeString(out, command.target());
+        out.writeShort(command.params().size());
+        for (Map.Entry<String, String> param : command.params().entrySet()) {
+            writeString(out, param.getKey());
+            writeString(out, param.getValue());
+        }
+        return endFrame(bytes);
+    }
+
+    /** Tell the worker these events arrived, so it stops keeping them for a resend. */
+    public static byte[] encodeEventAcks(List<Long> eventIds) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(8 * eventIds.size() + 16);
+        DataOutputStream out = beginFrame(bytes, TYPE_EVENT_ACKS);
+        out.writeInt(eventIds.size());
+        for (long eventId : eventIds) {
+            out.writeLong(eventId);
+        }
+        return endFrame(bytes);
+    }
+
+    public static byte[] encodeAcks(List<Ack> acks) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 * acks.size() + 16);
+        DataOutputStream out = beginFrame(bytes, TYPE_ACKS);
+        out.writeInt(acks.size());
+        for (Ack ack : acks) {
+            out.writeLong(ack.correlationId());
+            out.writeShort(ack.status());
+            writeString(out, ack.message());
+        }
+        return endFrame(bytes);
+    }
+
+    public static byte[] encodeEvents(List<Event> events) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(160 * events.size() + 16);
+        DataOutputStream out = beginFrame(bytes, TYPE_EVENTS);
+        out.writeInt(events.size());
+        for (Event event : events) {
+            out.writeLong(event.eventId());
+            out.writeByte(event.kind());
+            writeString(out, event.workerId());
+            writeString(out, event.queryId());
+            writeString(out, event.stats());
+        }
+        return endFrame(bytes);
+    }
+
+    /** Decode a HELLO body, the orchestrator's id; body is positioned just after the type byte. */
+    public static String decodeHello(ByteBuffer body) {
+        return readString(body);
+    }
+
+    /** Decode a COMMAND body; body is positioned just after the type byte. */
+    public static Command decodeCommand(ByteBuffer body) {
+        long correlationId = body.getLong();
+        byte op = body.get();
+        String target = readString(body);
+        int n = body.getShort() & 0xFFFF;
+        Map<String, String> params = new LinkedHashMap<>();
+        for (int i = 0; i < n; i++) {
+            params.put(readString(body), readString(body));
+        }
+        return new Command(correlationId, op, target, params);
+    }
+
+    /** Decode an EVENT_ACKS body; body is positioned just after the type byte. */
+    public static List<Long> decodeEventAcks(ByteBuffer body) {
+        int n = body.getInt();
+        List<Long> eventIds = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            eventIds.add(body.getLong());
+        }
+        return eventIds;
+    }
+
+    /** Decode an ACKS body; body is positioned just after the type byte. */
+    public static List<Ack> decodeAcks(ByteBuffer body) {
+        int n = body.getInt();
+        List<Ack> acks = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            acks.add(new Ack(body.getLong(), body.getShort(), readString(body)));
+        }
+        return acks;
+    }
+
+    /** Decode an EVENTS body; body is positioned just after the type byte. */
+    public static List<Event> decodeEvents(ByteBuffer body) {
+        int n = body.getInt();
+        List<Event> events = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            events.add(new Event(body.getLong(), body.get(), readString(body), readString(body), readString(body)));
+        }
+        return events;
+    }
+
+    private static DataOutputStream beginFrame(ByteArrayOutputStream bytes, byte type) throws IOException {
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0); // length, patched in endFrame
+        out.writeByte(VERSION);
+        out.writeByte(type);
+        return out;
+    }
+
+    private static byte[] endFrame(ByteArrayOutputStream bytes) {
+        byte[] frame = bytes.toByteArray();
+        ByteBuffer.wrap(frame).putInt(0, frame.length - Integer.BYTES);
+        return frame;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] utf8 = (value == null ? "" : value).getBytes(StandardCharsets.UTF_8);
+        if (utf8.length > 0xFFFF) {
+            throw new IOException("control frame string too long: " + utf8.length + " bytes");
+        }
+        out.writeShort(utf8.length);
+        out.write(utf8);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getShort() & 0xFFFF;
+        if (length > in.remaining()) {
+            // never read past the frame into whatever follows it
+            throw new BufferUnderflowException();
+        }
+        String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return value;
+    }
+}
@@ -0,0 +1,12 @@
+package org.orchestrator.rpc;
+
+import org.orchestrator.utils.HttpUtils;
+
+/** One asynchronous HTTP GET per command, against the worker's REST endpoints. */
+public class HttpWorkerTransport implements WorkerTransport {
+
+    @Override
+    public void send(String workerId, String host, WorkerCommand command) {
+        HttpUtils.callGet(HttpUtils.buildUrl(host, command.toPath()));
+    }
+}
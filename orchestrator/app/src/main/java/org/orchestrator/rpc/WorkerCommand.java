@@ -0,0 +1,73 @@
+package org.orchestrator.rpc;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.orchestrator.utils.HttpUtils;
+
+/**
+ * One instruction for a worker, independent of how it is delivered. Parameters are kept unencoded;
+ * each {@link WorkerTransport} encodes them its own way.
+ *
+ * @param target the path parameter of the HTTP endpoint (blob, peer worker or query id), or null
+ */
+public record WorkerCommand(Op op, String target, Map<String, String> params) {
+
+    /** Worker operations, with their HTTP endpoint and their code on the binary control channel. */
+    public enum Op {
+        READ(1, "/invokeRead/"),
+        READ_BATCH(2, "/invokeReadBatch"),
+        SHUFFLE(3, "/invokeShuffle/"),
+        PARTITION_SHUFFLE(4, "/invokePartitionShuffle"),
+        WRITE(5, "/writeResult"),
+        RELEASE(6, "/releaseQuery/");
+
+        private final byte code;
+        private final String path;
+
+        Op(int code, String path) {
+            this.code = (byte) code;
+            this.path = path;
+        }
+
+        public byte code() {
+            return code;
+        }
+    }
+
+    /** Start a command scoped to a query; further parameters are added with {@link #with}. */
+    public static WorkerCommand of(Op op, String target, String queryId) {
+        Map<String, String> params = new LinkedHashMap<>();
+        params.put("queryId", queryId);
+        return new WorkerCommand(op, target, params);
+    }
+
+    public WorkerCommand with(String name, String value) {
+        params.put(name, value);
+        return this;
+    }
+
+    public WorkerCommand with(Map<String, String> more) {
+        params.putAll(more);
+        return this;
+    }
+
+    /** Path and query string of the equivalent HTTP request. */
+    public String toPath() {
+        StringBuilder sb = new StringBuilder(op.path);
+        if (target != null) {
+            sb.append(HttpUtils.encode(target));
+        }
+        char separator = '?';
+        for (Map.Entry<String, String> param : params.entrySet()) {
+            sb.append(separator).append(param.getKey()).append('=').append(HttpUtils.encode(param.getValue()));
+            separator = '&';
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return toPath();
+    }
+}
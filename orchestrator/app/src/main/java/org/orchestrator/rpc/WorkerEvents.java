@@ -0,0 +1,18 @@
+package org.orchestrator.rpc;
+
+/**
+ * Receives what workers report back about their tasks, whichever way it arrives (GET /completeTask,
+ * /failTask and /reportStats, or events on the binary control channel). stats is the worker's
+ * encoded task statistics and may be null for workers that don't send any.
+ */
+public interface WorkerEvents {
+
+    /** A task the query was waiting on finished on workerId. */
+    void onTaskComplete(String queryId, String workerId, String stats);
+
+    /** A task the query was waiting on failed on workerId and won't be reported complete. */
+    void onTaskFailed(String queryId, String workerId, String reason);
+
+    /** Statistics of a task nothing waits on, such as the final write. */
+    void onStatsReport(String queryId, String workerId, String stats);
+}
@@ -0,0 +1,31 @@
+package org.orchestrator.rpc;
+
+/**
+ * How the orchestrator delivers commands to workers. Sends are fire-and-forget: the outcome of the
+ * work itself comes back later as a completion report.
+ */
+public interface WorkerTransport {
+
+    /**
+     * @param workerId worker the command is for, e.g. "W1"
+     * @param host     the worker's HTTP host, e.g. "http://localhost:9001"
+     */
+    void send(String workerId, String host, WorkerCommand command);
+
+    default void close() {}
+
+    /**
+     * Transport selected by -Dorchestrator.transport=http|binary (default http).
+     *
+     * @param events receives completions and statistics that arrive over the transport itself; HTTP
+     *               reports keep arriving at /completeTask and /reportStats
+     */
+    static WorkerTransport fromConfig(WorkerEvents events) {
+        String name = System.getProperty("orchestrator.transport", "http");
+        return switch (name.trim().toLowerCase()) {
+            case "http" -> new HttpWorkerTransport();
+            case "binary" -> new BinaryWorkerTransport(Integer.getInteger("orchestrator.control.portOffset", 1000), events);
+            default -> throw new IllegalArgumentException("unknown transport '" + name + "'");
+        };
+    }
+}
@@ -1,15 +1,21 @@
 package org.orchestrator.utils;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
+import java.net.URLEncoder;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Small HTTP helper utilities used across the orchestrator.
  * - async GET with logging
+ * - blocking streamed GET for results the orchestrator consumes itself
+ * - async text GET for small replies such as heartbeats
  * - URL builder that tolerates missing scheme or slashes
  */
 public final class HttpUtils {
@@ -44,6 +50,11 @@ public final class HttpUtils {
         }
     }
 
+    /** URL-encode a path segment or query parameter value. */
+    public static String encode(String raw) {
+        return URLEncoder.encode(raw == null ? "" : raw, StandardCharsets.UTF_8);
+    }
+
     /**
      * Fire-and-forget async GET. Logs status and body when the response arrives.
      * Uses a short request timeout and logs exceptions.
@@ -70,4 +81,29 @@ public final class HttpUtils {
             System.err.println("Invalid URL for HTTP GET: " + urlStr + " : " + e.getMessage());
         }
     }
+
+    /** Async GET of a short text body; completes exceptionally when the host doesn't answer in time. */
+    public static CompletableFuture<HttpResponse<String>> getText(String urlStr, Duration timeout) {
+        HttpRequest req = HttpRequest.newBuilder()
+                .uri(URI.create(urlStr))
+                .timeout(timeout)
+                .GET()
+                .build();
+        return getHttpClient().sendAsync(req, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Blocking GET that hands back the body as a stream. The timeout covers the whole exchange
+     * up to the response headers, so it has to allow for work the callee does before answering.
+     */
+    public static HttpResponse<InputStream> getStream(String urlStr, String accept, Duration timeout)
+            throws IOException, InterruptedException {
+        HttpRequest req = HttpRequest.newBuilder()
+                .uri(URI.create(urlStr))
+                .timeout(timeout)
+                .header("Accept", accept)
+                .GET()
+                .build();
+        return getHttpClient().send(req, HttpResponse.BodyHandlers.ofInputStream());
+    }
 }
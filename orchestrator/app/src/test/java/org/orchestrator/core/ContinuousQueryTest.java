@@ -0,0 +1,145 @@
+package org.orchestrator.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+public class ContinuousQueryTest {
+    private static final long TIMEOUT_MILLIS = 20_000;
+
+    // a fake worker: each line of a file "year,score" is one row, aggregated per year
+    private HttpServer server;
+    private Path storage;
+    private ContinuousQuery query;
+    private final Map<String, AtomicInteger> pulls = new ConcurrentHashMap<>();
+
+    @Before public void setUp() throws IOException {
+        storage = Files.createTempDirectory("continuous");
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/aggregateBlob/", this::aggregateBlob);
+        server.start();
+        query = new ContinuousQuery("t", QuerySpec.fromParams(Map.of("groupBy", "year", "agg", "sum,count")::get),
+                Map.of("W1", "http://localhost:" + server.getAddress().getPort()), Map.of(), storage);
+    }
+
+    @After public void tearDown() throws IOException {
+        query.stop();
+        server.stop(0);
+        try (Stream<Path> files = Files.walk(storage)) {
+            for (Path file : files.sorted((a, b) -> b.compareTo(a)).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Test public void newFileMergesOnlyItsOwnPartial() throws Exception {
+        write("a.csv", "2010,5\n2011,7\n");
+        query.start();
+        awaitResult(List.of("2010,5,1", "2011,7,1"));
+
+        write("b.csv", "2010,10\n2012,1\n");
+        awaitResult(List.of("2010,15,2", "2011,7,1", "2012,1,1"));
+        assertEquals(1, pulls("a.csv"));
+        assertEquals(1, pulls("b.csv"));
+        assertEquals(2, query.stats().get("files"));
+    }
+
+    @Test public void modifiedFileReplacesItsOldPartial() throws Exception {
+        write("a.csv", "2010,5\n2011,7\n");
+        write("b.csv", "2010,10\n");
+        query.start();
+        awaitResult(List.of("2010,15,2", "2011,7,1"));
+
+        // a different size, so the version differs even within one mtime tick
+        write("a.csv", "2010,100\n2010,200\n");
+        awaitResult(List.of("2010,310,3"));
+        assertEquals(2, pulls("a.csv"));
+        assertEquals(1, pulls("b.csv"));
+        assertEquals(2, query.stats().get("files"));
+    }
+
+    @Test public void removedFileDropsItsPartial() throws Exception {
+        write("a.csv", "2010,5\n2011,7\n");
+        write("b.csv", "2010,10\n");
+        query.start();
+        awaitResult(List.of("2010,15,2", "2011,7,1"));
+
+        Files.delete(storage.resolve("a.csv"));
+        awaitResult(List.of("2010,10,1"));
+        assertEquals(1, pulls("a.csv"));
+        assertEquals(1, pulls("b.csv"));
+        assertEquals(1, query.stats().get("files"));
+    }
+
+    private void awaitResult(List<String> expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        List<String> lines = query.resultLines();
+        while (!lines.equals(expected) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+            lines = query.resultLines();
+        }
+        assertEquals(expected, lines);
+    }
+
+    private int pulls(String name) {
+        AtomicInteger count = pulls.get(name);
+        return count == null ? 0 : count.get();
+    }
+
+    // moved into place whole, so a refresh never sees half a file
+    private void write(String name, String contents) throws IOException {
+        Path tmp = storage.resolve(name + ".tmp");
+        Files.writeString(tmp, contents);
+        Files.move(tmp, storage.resolve(name), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // answers in the workers' binary table format, version 1 (no sketches), uncompressed
+    private void aggregateBlob(HttpExchange exchange) throws IOException {
+        String name = URLDecoder.decode(exchange.getRequestURI().getRawPath().substring("/aggregateBlob/".length()),
+                StandardCharsets.UTF_8);
+        pulls.computeIfAbsent(name, n -> new AtomicInteger()).incrementAndGet();
+        Map<String, GroupAggregate> groups = new ConcurrentHashMap<>();
+        for (String line : Files.readAllLines(storage.resolve(name))) {
+            String[] fields = line.split(",");
+            int score = Integer.parseInt(fields[1]);
+            groups.computeIfAbsent(fields[0], g -> new GroupAggregate()).merge(score, score, score, 1);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0x44514553);
+        out.writeByte(1);
+        out.writeByte(0);
+        for (Map.Entry<String, GroupAggregate> group : groups.entrySet()) {
+            byte[] key = group.getKey().getBytes(StandardCharsets.UTF_8);
+            out.writeInt(key.length);
+            out.write(key);
+            out.writeInt(group.getValue().getMin());
+            out.writeInt(group.getValue().getMax());
+            out.writeLong(group.getValue().getSum());
+            out.writeLong(group.getValue().getCount());
+        }
+        out.writeInt(-1);
+        exchange.sendResponseHeaders(200, bytes.size());
+        exchange.getResponseBody().write(bytes.toByteArray());
+        exchange.close();
+    }
+}
@@ -0,0 +1,78 @@
+package org.orchestrator.core;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+public class CostBasedSchedulerTest {
+
+    @Test public void largeFileGoesAloneAndSmallOnesAreBundled() {
+        List<DataFile> files = new ArrayList<>();
+        files.add(DataFile.of("big", 10_000));
+        for (int i = 0; i < 100; i++) {
+            files.add(DataFile.of("small" + i, 100));
+        }
+        CostBasedScheduler scheduler = new CostBasedScheduler(files, 1, Map.of(), 1_000);
+
+        assertEquals(List.of("big"), names(scheduler.next("W1")));
+        List<DataFile> bundle = scheduler.next("W1");
+        assertEquals(10, bundle.size());
+        assertEquals(1_000, bytes(bundle));
+        assertEquals(90, scheduler.remaining());
+    }
+
+    @Test public void assignmentsShrinkTowardsTheTail() {
+        List<DataFile> files = new ArrayList<>();
+        for (int i = 0; i < 64; i++) {
+            files.add(DataFile.of("f" + i, 100));
+        }
+        CostBasedScheduler scheduler = new CostBasedScheduler(files, 2, Map.of(), 1_600);
+
+        List<Integer> sizes = new ArrayList<>();
+        while (scheduler.hasRemaining()) {
+            sizes.add(scheduler.next(sizes.size() % 2 == 0 ? "W1" : "W2").size());
+        }
+        // full target first, then about a quarter of what's left, down to single files
+        assertEquals(16, (int) sizes.get(0));
+        for (int i = 1; i < sizes.size(); i++) {
+            assertTrue(sizes.toString(), sizes.get(i) <= sizes.get(i - 1));
+        }
+        assertEquals(1, (int) sizes.get(sizes.size() - 1));
+        assertEquals(64, sizes.stream().mapToInt(Integer::intValue).sum());
+    }
+
+    @Test public void workerReadsItsOwnDirectoryBeforeStealing() {
+        List<DataFile> files = List.of(DataFile.of("a/1.csv", 500), DataFile.of("b/1.csv", 900),
+                DataFile.of("a/2.csv", 400));
+        CostBasedScheduler scheduler = new CostBasedScheduler(files, 1, Map.of("W1", "a"), 1);
+
+        assertEquals(List.of("a/1.csv"), names(scheduler.next("W1")));
+        assertEquals(List.of("a/2.csv"), names(scheduler.next("W1")));
+        assertEquals(List.of("b/1.csv"), names(scheduler.next("W1")));
+        assertFalse(scheduler.hasRemaining());
+    }
+
+    @Test public void requeuedFilesKeepLargestFirstOrder() {
+        CostBasedScheduler scheduler = new CostBasedScheduler(
+                List.of(DataFile.of("x", 300), DataFile.of("y", 100)), 1, Map.of(), 1);
+        List<DataFile> lost = scheduler.next("W1");
+        assertEquals(List.of("x"), names(lost));
+
+        scheduler.requeue(List.of(DataFile.of("z", 200)));
+        scheduler.requeue(lost);
+        assertEquals(List.of("x"), names(scheduler.next("W1")));
+        assertEquals(List.of("z"), names(scheduler.next("W1")));
+        assertEquals(List.of("y"), names(scheduler.next("W1")));
+    }
+
+    private static List<String> names(List<DataFile> files) {
+        return files.stream().map(DataFile::name).toList();
+    }
+
+    private static long bytes(List<DataFile> files) {
+        return files.stream().mapToLong(DataFile::sizeBytes).sum();
+    }
+}
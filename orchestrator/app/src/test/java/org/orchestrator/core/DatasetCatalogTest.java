@@ -0,0 +1,117 @@
+package org.orchestrator.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+public class DatasetCatalogTest {
+    private Path dir;
+    private Path storage;
+    private DatasetCatalog catalog;
+
+    @Before public void setUp() throws IOException {
+        dir = Files.createTempDirectory("catalog");
+        storage = Files.createDirectory(dir.resolve("storage"));
+        catalog = new DatasetCatalog(dir.resolve("catalog.txt"));
+    }
+
+    @After public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : files.sorted((a, b) -> b.compareTo(a)).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Test public void fileStatsRoundTrip() {
+        // names may hold colons; everything before the last seven fields is the name
+        DatasetCatalog.FileStats stats = new DatasetCatalog.FileStats("2024/a:b.csv", 1234, 1700000000123L, 99,
+                1990, 2020, -5, 800);
+        assertEquals(stats, DatasetCatalog.FileStats.parse(stats.encode()));
+        try {
+            DatasetCatalog.FileStats.parse("a.csv:1:2:3");
+            fail("parsed stats with fields missing");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test public void minMaxRulesFilesOut() throws IOException {
+        List<DataFile> files = List.of(file("old.csv", 100, 1990, 1999, 0, 500), file("new.csv", 200, 2010, 2020, 0, 500),
+                file("low.csv", 300, 2010, 2020, 0, 100));
+
+        List<DataFile> kept = catalog.prune(storage, files, spec("year:between:2010:2015,score:gte:400"));
+
+        assertEquals(List.of("new.csv"), names(kept));
+        // what the catalog knows comes along for the planner
+        assertEquals(1000, kept.get(0).rows());
+    }
+
+    @Test public void specMatchingNothingKeepsTheSmallestFile() throws IOException {
+        List<DataFile> files = List.of(file("a.csv", 300, 2000, 2001, 0, 1), file("b.csv", 100, 2000, 2001, 0, 1),
+                file("c.csv", 200, 2000, 2001, 0, 1));
+
+        assertEquals(List.of("b.csv"), names(catalog.prune(storage, files, spec("year:between:2015:2010"))));
+        // also when the ranges rule out everything
+        assertEquals(List.of("b.csv"), names(catalog.prune(storage, files, spec("year:gte:2050"))));
+    }
+
+    @Test public void filesWithoutCurrentStatsAreKept() throws IOException {
+        DataFile unknown = write("unknown.csv", 100);
+        DataFile rewritten = file("rewritten.csv", 100, 1990, 1999, 0, 500);
+        // same name, new contents: the stats describe the old file
+        DataFile now = write("rewritten.csv", 150);
+
+        List<DataFile> kept = catalog.prune(storage, List.of(unknown, now), spec("year:gte:2010"));
+
+        assertEquals(List.of("unknown.csv", "rewritten.csv"), names(kept));
+        assertNotEquals(rewritten.sizeBytes(), kept.get(1).sizeBytes());
+    }
+
+    @Test public void recordStatsTakesTheCatalogFieldAndPersistsIt() throws IOException {
+        DatasetCatalog.FileStats a = new DatasetCatalog.FileStats("a.csv", 10, 1, 5, 2000, 2001, 1, 2);
+        DatasetCatalog.FileStats b = new DatasetCatalog.FileStats("dir/b.csv", 20, 2, 6, 2002, 2003, 3, 4);
+        catalog.recordStats("phase=read;task=3;rows=11;catalog=" + a.encode() + "|garbage|" + b.encode() + ";files=2");
+        catalog.recordStats(null);
+        catalog.recordStats("phase=shuffle;task=4");
+
+        assertEquals(List.of(a, b), catalog.entries());
+        assertEquals(a, catalog.lookup("a.csv", 10, 1));
+        assertNull(catalog.lookup("a.csv", 10, 2));
+        // a new orchestrator process reads it back
+        assertEquals(List.of(a, b), new DatasetCatalog(dir.resolve("catalog.txt")).entries());
+    }
+
+    // a file in storage and the catalog's stats of it as it is now
+    private DataFile file(String name, long sizeBytes, int yearMin, int yearMax, int scoreMin, int scoreMax) throws IOException {
+        DataFile dataFile = write(name, sizeBytes);
+        long modified = Files.getLastModifiedTime(storage.resolve(name)).toMillis();
+        catalog.record(List.of(new DatasetCatalog.FileStats(name, sizeBytes, modified, 1000, yearMin, yearMax, scoreMin, scoreMax)));
+        return dataFile;
+    }
+
+    private DataFile write(String name, long sizeBytes) throws IOException {
+        Files.write(storage.resolve(name), new byte[(int) sizeBytes]);
+        return DataFile.of(name, sizeBytes);
+    }
+
+    private static QuerySpec spec(String where) {
+        return QuerySpec.fromParams(Map.of("where", where)::get);
+    }
+
+    private static List<String> names(List<DataFile> files) {
+        List<String> names = new ArrayList<>();
+        for (DataFile file : files) {
+            names.add(file.name());
+        }
+        return names;
+    }
+}
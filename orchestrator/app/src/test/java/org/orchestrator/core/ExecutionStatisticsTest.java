@@ -0,0 +1,44 @@
+package org.orchestrator.core;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ExecutionStatisticsTest {
+    // as the worker's TaskStats encodes them (see its TaskStatsTest)
+    private static final String READ_REPORT = "phase=read;task=7;parseNanos=2000000;rows=120;files=2;fileMs=3,15";
+    private static final String PARTITION_REPORT = "phase=partition;task=12;serializeNanos=1000000;rows=40;payloadBytes=4096";
+
+    @Test public void sumsWorkerReportsPerPhaseAndWorker() {
+        ExecutionStatistics statistics = new ExecutionStatistics("q", "groupBy=year");
+        statistics.commandSent("read");
+        statistics.record("W1", READ_REPORT);
+        statistics.record("W2", READ_REPORT);
+        statistics.record("W1", READ_REPORT.replace("task=7", "task=8"));
+        statistics.commandSent("partition");
+        statistics.record("W2", PARTITION_REPORT);
+        statistics.record("W3", null);
+
+        String explain = statistics.explain();
+        // task ids are matched by QueryExecution, they aren't counters
+        assertFalse(explain, explain.contains("task="));
+        assertTrue(explain, explain.contains("-> read  wall="));
+        assertTrue(explain, explain.contains(" tasks=3 parse=6.0ms rows=360 files=6\n"));
+        assertTrue(explain, explain.contains("     W1: tasks=2 parse=4.0ms rows=240 files=4\n"));
+        assertTrue(explain, explain.contains("     W2: tasks=1 parse=2.0ms rows=120 files=2\n"));
+        assertTrue(explain, explain.contains(" tasks=1 serialize=1.0ms rows=40 payloadBytes=4096\n"));
+        // phases in query order, whatever order the reports came in
+        assertTrue(explain, explain.indexOf("-> read") < explain.indexOf("-> partition"));
+        assertTrue(explain, explain.contains("File latency: n=6 p50=3 ms p90=15 ms p99=15 ms max=15 ms\n"));
+        assertTrue(explain, explain.contains("running"));
+
+        statistics.finished();
+        assertTrue(statistics.explain().contains("finished"));
+    }
+
+    @Test public void badFieldsAreSkipped() {
+        ExecutionStatistics statistics = new ExecutionStatistics("q", "");
+        statistics.record("W1", "phase=shuffle;rows=abc;mergeNanos=3000000;junk");
+        String explain = statistics.explain();
+        assertTrue(explain, explain.contains("W1: tasks=1 merge=3.0ms\n"));
+    }
+}
@@ -0,0 +1,92 @@
+package org.orchestrator.core;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+public class OnlineQueryTest {
+    // never contacted: the tests feed partials in through add()
+    private static final Map<String, String> WORKERS = Map.of("W1", "http://localhost:1");
+
+    @Test public void zScoreMatchesTheNormalTable() {
+        assertEquals(1.645, OnlineQuery.zScore(0.90), 1e-3);
+        assertEquals(1.960, OnlineQuery.zScore(0.95), 1e-3);
+        assertEquals(2.576, OnlineQuery.zScore(0.99), 1e-3);
+    }
+
+    @Test public void ratioEstimateClosesOnTheExactAnswer() {
+        Random random = new Random(3);
+        List<DataFile> files = new ArrayList<>();
+        List<GroupAggregate> aggregates = new ArrayList<>();
+        long sum = 0;
+        long count = 0;
+        for (int i = 0; i < 8; i++) {
+            int rows = 1000 + random.nextInt(1000);
+            GroupAggregate aggregate = new GroupAggregate();
+            long fileSum = 0;
+            for (int row = 0; row < rows; row++) {
+                int score = random.nextInt(1000);
+                aggregate.merge(score, score, score, 1);
+                fileSum += score;
+            }
+            files.add(DataFile.of("f" + i, rows * 20L));
+            aggregates.add(aggregate);
+            sum += fileSum;
+            count += rows;
+        }
+        OnlineQuery query = new OnlineQuery("t", spec("sum,count,avg"), WORKERS, files, 0.95, 1);
+
+        for (int i = 0; i < 4; i++) {
+            query.add(files.get(i), Map.of("2010", aggregates.get(i)));
+        }
+        OnlineQuery.Snapshot half = query.snapshot();
+        assertEquals(4, half.filesRead());
+        assertTrue(half.lines().get(0), half.lines().get(0).contains("+-"));
+        assertTrue(half.maxRelativeError() > 0 && half.maxRelativeError() < 0.1);
+
+        for (int i = 4; i < files.size(); i++) {
+            query.add(files.get(i), Map.of("2010", aggregates.get(i)));
+        }
+        OnlineQuery.Snapshot all = query.snapshot();
+        assertEquals(OnlineQuery.Status.COMPLETE, all.status());
+        assertEquals(0, all.maxRelativeError(), 0);
+        assertEquals(List.of(String.format(Locale.ROOT, "2010,sum=%.2f,count=%.2f,avg=%.2f", (double) sum, (double) count,
+                (double) sum / count)), all.lines());
+    }
+
+    @Test public void boundsKeepTheErrorUnknownUntilEveryFileIsRead() {
+        List<DataFile> files = List.of(DataFile.of("a", 100), DataFile.of("b", 100), DataFile.of("c", 100));
+        OnlineQuery query = new OnlineQuery("t", spec("min,max"), WORKERS, files, 0.95, 1);
+        for (int i = 0; i < 2; i++) {
+            GroupAggregate aggregate = new GroupAggregate();
+            aggregate.merge(10 + i, 20 + i, 30, 2);
+            query.add(files.get(i), Map.of("2010", aggregate));
+        }
+        OnlineQuery.Snapshot partial = query.snapshot();
+        assertEquals(List.of("2010,min<=10,max>=21"), partial.lines());
+        assertTrue(Double.isInfinite(partial.maxRelativeError()));
+        // what /online/{name}/stream checks with its default maxError=0 while the pulls go on
+        assertFalse(running(partial).within(0));
+
+        GroupAggregate last = new GroupAggregate();
+        last.merge(5, 25, 15, 1);
+        query.add(files.get(2), Map.of("2010", last));
+        OnlineQuery.Snapshot all = query.snapshot();
+        assertEquals(List.of("2010,min=5,max=25"), all.lines());
+        assertTrue(all.within(0));
+    }
+
+    private static QuerySpec spec(String aggregates) {
+        return QuerySpec.fromParams(Map.of("groupBy", "year", "agg", aggregates)::get);
+    }
+
+    private static OnlineQuery.Snapshot running(OnlineQuery.Snapshot snapshot) {
+        return new OnlineQuery.Snapshot(snapshot.filesRead(), snapshot.files(), snapshot.bytesRead(), snapshot.bytes(),
+                snapshot.confidence(), OnlineQuery.Status.RUNNING, snapshot.maxRelativeError(), snapshot.lines());
+    }
+}
@@ -0,0 +1,228 @@
+package org.orchestrator.core;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.orchestrator.rpc.WorkerCommand;
+
+public class QueryExecutionTest {
+    private record Sent(String worker, WorkerCommand command) {}
+
+    // every command sent, and those not yet delivered, in the order they were sent
+    private final List<Sent> sent = new ArrayList<>();
+    private final List<Sent> outbox = new ArrayList<>();
+    private QueryExecution query;
+
+    private void start(int workers) {
+        start(workers, ShuffleMode.TREE);
+    }
+
+    private void start(int workers, ShuffleMode shuffleMode) {
+        TaskPlan plan = new TaskPlan();
+        Map<String, String> pool = new TreeMap<>();
+        for (int w = 1; w <= workers; w++) {
+            pool.put("W" + w, "http://h" + w);
+        }
+        plan.setworkerPool(pool);
+        List<DataFile> files = new ArrayList<>();
+        // FIFO hands files out from the end of the list
+        for (int i = 5; i >= 0; i--) {
+            files.add(DataFile.of("f" + i, 100));
+        }
+        plan.setDataFiles(files);
+        plan.setShuffleMode(shuffleMode);
+        plan.setSchedulerPolicy(SchedulerPolicy.FIFO);
+        query = new QueryExecution("q", plan, (worker, host, command) -> {
+            sent.add(new Sent(worker, command));
+            outbox.add(new Sent(worker, command));
+        });
+        query.start();
+    }
+
+    private void startTwo() {
+        start(2);
+        // two reads ahead per worker, handed out round by round
+        assertEquals(List.of("W1:f0", "W2:f1", "W1:f2", "W2:f3"), reads(sent));
+    }
+
+    @Test public void lostWorkerIsReadAgainByTheOthers() {
+        startTwo();
+        // W1 finishes f0 and picks up f4; f2 and f4 are still in flight when it goes
+        deliver("W1", "f0");
+        assertEquals(List.of("W1:f4"), reads(since(4)));
+        outbox.removeIf(pending -> pending.worker().equals("W1"));
+
+        int lost = sent.size();
+        query.onWorkerLost("W1");
+        drain();
+        List<Sent> after = since(lost);
+
+        // what W1 read and was reading goes to W2, along with the blob nobody had yet
+        assertEquals(List.of("W2:f0", "W2:f2", "W2:f4", "W2:f5"), sorted(reads(after)));
+        // only told to drop its state, in case it comes back holding a checkpoint of the query
+        assertTrue(after.stream().filter(command -> command.worker().equals("W1"))
+                .allMatch(command -> command.command().op() == WorkerCommand.Op.RELEASE));
+        assertEquals(List.of("W2:WRITE"), writes(after));
+    }
+
+    @Test public void restartedWorkerKeepsWhatItsCheckpointCovers() throws InterruptedException {
+        startTwo();
+        deliver("W1", "f0");
+        deliver("W1", "f2");
+        assertEquals(List.of("W1:f4", "W1:f5"), reads(since(4)));
+        // the old process never got to them
+        outbox.removeIf(pending -> pending.worker().equals("W1"));
+
+        // the new process restored f0 from its checkpoint; f2 was read after the checkpoint, f4 and f5 in flight
+        Thread.sleep(5);
+        int restarted = sent.size();
+        query.onWorkerRestarted("W1", System.currentTimeMillis(), Set.of("f0"));
+        drain();
+        List<Sent> after = since(restarted);
+
+        assertEquals(List.of("f2", "f4", "f5"), sorted(blobs(reads(after))));
+        assertEquals(1, writes(after).size());
+    }
+
+    @Test public void restartedWorkerWithoutCheckpointReadsEverythingAgain() throws InterruptedException {
+        startTwo();
+        deliver("W1", "f0");
+        deliver("W2", "f1");
+        assertEquals(List.of("W1:f4", "W2:f5"), reads(since(4)));
+        outbox.removeIf(pending -> pending.worker().equals("W1"));
+
+        Thread.sleep(5);
+        int restarted = sent.size();
+        query.onWorkerRestarted("W1", System.currentTimeMillis(), Set.of());
+        drain();
+        List<Sent> after = since(restarted);
+
+        // f0, and f2 and f4 that W1's old process was reading, are read again; W2's f1, f3 and f5 are not
+        assertEquals(List.of("f0", "f2", "f4"), sorted(blobs(reads(after))));
+        assertEquals(1, writes(after).size());
+    }
+
+    @Test public void shuffleFetcherKeepsALostPeersRows() {
+        start(3);
+        assertEquals(List.of("W1:f0", "W2:f1", "W3:f2", "W1:f3", "W2:f4", "W3:f5"), reads(sent));
+        for (String read : List.of("W1:f0", "W2:f1", "W1:f3", "W2:f4")) {
+            deliver(read.substring(0, 2), read.substring(3));
+        }
+        // W1 and W2 are done and one pulls in the other's table, while W3 still reads
+        Sent shuffle = outbox.stream().filter(pending -> pending.command().op() == WorkerCommand.Op.SHUFFLE)
+                .findFirst().orElseThrow();
+        outbox.remove(shuffle);
+        String fetcher = shuffle.worker();
+        String peer = shuffle.command().target();
+        complete(fetcher, shuffle.command());
+
+        // the peer's rows already live in the fetcher's table, so nothing is read again
+        int lost = sent.size();
+        query.onWorkerLost(peer);
+        outbox.removeIf(pending -> pending.worker().equals(peer));
+        drain();
+        List<Sent> after = since(lost);
+        assertEquals(List.of(), reads(after));
+        assertEquals(1, writes(after).size());
+        assertNotEquals(peer + ":WRITE", writes(after).get(0));
+    }
+
+    @Test public void failedPartitionPushStopsTheQuery() {
+        start(2, ShuffleMode.PARTITIONED);
+        drainReads();
+        List<Sent> pushes = outbox.stream().filter(pending -> pending.command().op() == WorkerCommand.Op.PARTITION_SHUFFLE).toList();
+        assertEquals(2, pushes.size());
+
+        // W2 pushed its partitions; W1 couldn't reach W2 and never will
+        int failed = sent.size();
+        query.onTaskComplete("W2", "phase=partition");
+        query.onTaskFailed("W1", "partitioned shuffle failed: push to W2 failed");
+
+        assertFalse(query.isRunning());
+        List<Sent> after = since(failed);
+        assertEquals(List.of(), writes(after));
+        assertEquals(List.of("W1", "W2"), sorted(after.stream()
+                .filter(command -> command.command().op() == WorkerCommand.Op.RELEASE).map(Sent::worker).toList()));
+        assertTrue(query.getStatistics().explain(), query.getStatistics().explain().contains("failed (W1: partitioned shuffle failed"));
+
+        // a late report changes nothing
+        query.onTaskComplete("W1", "phase=partition");
+        assertEquals(after.size(), since(failed).size());
+    }
+
+    // complete every read, in order, until the partitioned shuffle is handed out
+    private void drainReads() {
+        while (outbox.stream().anyMatch(pending -> pending.command().op() == WorkerCommand.Op.READ)) {
+            Sent next = outbox.stream().filter(pending -> pending.command().op() == WorkerCommand.Op.READ).findFirst().orElseThrow();
+            outbox.remove(next);
+            complete(next.worker(), next.command());
+        }
+    }
+
+    // deliver the oldest read of blob sent to worker and report it done
+    private void deliver(String worker, String blob) {
+        for (Sent sent : outbox) {
+            if (sent.worker().equals(worker) && blob.equals(sent.command().target())) {
+                outbox.remove(sent);
+                complete(worker, sent.command());
+                return;
+            }
+        }
+        fail("no read of " + blob + " sent to " + worker + " in " + outbox);
+    }
+
+    private void complete(String worker, WorkerCommand command) {
+        query.onTaskComplete(worker, "phase=read;task=" + command.params().get("task"));
+    }
+
+    // run the query to its end, delivering commands in order
+    private void drain() {
+        while (!outbox.isEmpty()) {
+            Sent next = outbox.remove(0);
+            switch (next.command().op()) {
+                case READ, SHUFFLE -> complete(next.worker(), next.command());
+                default -> {
+                }
+            }
+        }
+        assertFalse(query.isRunning());
+    }
+
+    private List<Sent> since(int mark) {
+        return List.copyOf(sent.subList(mark, sent.size()));
+    }
+
+    private static List<String> reads(List<Sent> sent) {
+        List<String> reads = new ArrayList<>();
+        for (Sent s : sent) {
+            if (s.command().op() == WorkerCommand.Op.READ) {
+                reads.add(s.worker() + ":" + s.command().target());
+            }
+        }
+        return reads;
+    }
+
+    private static List<String> writes(List<Sent> sent) {
+        List<String> writes = new ArrayList<>();
+        for (Sent s : sent) {
+            if (s.command().op() == WorkerCommand.Op.WRITE) {
+                writes.add(s.worker() + ":WRITE");
+            }
+        }
+        return writes;
+    }
+
+    private static List<String> blobs(List<String> reads) {
+        return reads.stream().map(read -> read.substring(read.indexOf(':') + 1)).toList();
+    }
+
+    private static List<String> sorted(List<String> values) {
+        return values.stream().sorted().toList();
+    }
+}
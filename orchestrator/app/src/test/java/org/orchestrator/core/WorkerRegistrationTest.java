@@ -0,0 +1,87 @@
+package org.orchestrator.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.orchestrator.config.WorkerConfig;
+import org.orchestrator.utils.HttpUtils;
+
+public class WorkerRegistrationTest {
+
+    // a worker whose /hostMap fails the first `failures` pushes
+    private HttpServer server;
+    private String host;
+    private final AtomicInteger failures = new AtomicInteger();
+    private final BlockingQueue<String> pushes = new LinkedBlockingQueue<>();
+
+    @Before public void startWorker() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/hostMap", exchange -> {
+            pushes.add(URLDecoder.decode(exchange.getRequestURI().getRawQuery(), StandardCharsets.UTF_8));
+            if (failures.getAndDecrement() > 0) {
+                reply(exchange, 503, "busy");
+            } else {
+                reply(exchange, 200, "status OK");
+            }
+        });
+        server.start();
+        host = "http://localhost:" + server.getAddress().getPort();
+    }
+
+    @After public void stopWorker() {
+        server.stop(0);
+    }
+
+    @Test public void registeredWorkerJoinsThePoolAndGetsTheHostMap() throws Exception {
+        String id = TaskExecutor.INSTANCE.registerWorker("reg-ok", "localhost:" + server.getAddress().getPort() + "/", 6);
+
+        assertEquals("reg-ok", id);
+        assertEquals(host, WorkerConfig.getWorkerPool().get(id));
+        assertEquals(6, WorkerConfig.getCores(id));
+        String push = pushes.poll(10, TimeUnit.SECONDS);
+        assertNotNull("the worker never got the host map", push);
+        // ids and hosts are encoded once more inside the decoded query, so the worker can split on ',' and '='
+        assertTrue(push, push.startsWith("hosts="));
+        assertTrue(push, push.contains("reg-ok=" + HttpUtils.encode(host)));
+        assertNull(pushes.poll(300, TimeUnit.MILLISECONDS));
+
+        // announcing itself again unchanged keeps its id and gets the map again
+        assertEquals(id, TaskExecutor.INSTANCE.registerWorker("other", host, 6));
+        assertNotNull(pushes.poll(10, TimeUnit.SECONDS));
+    }
+
+    @Test public void failedHostMapPushIsRetried() throws Exception {
+        failures.set(2);
+        String id = TaskExecutor.INSTANCE.registerWorker("reg-retry", host, 2);
+
+        for (int push = 1; push <= 3; push++) {
+            String hosts = pushes.poll(20, TimeUnit.SECONDS);
+            assertNotNull("push " + push + " never came", hosts);
+            assertTrue(hosts, hosts.contains(id + "=" + HttpUtils.encode(host)));
+        }
+        // taken on the third try, nothing more is sent
+        assertNull(pushes.poll(1500, TimeUnit.MILLISECONDS));
+        assertEquals(host, WorkerConfig.getWorkerPool().get(id));
+    }
+
+    private static void reply(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+        exchange.close();
+    }
+}
@@ -0,0 +1,82 @@
+package org.orchestrator.rpc;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.HexFormat;
+import java.util.List;
+
+public class ControlProtocolTest {
+    // the worker's copy encodes this EVENTS frame (see its ControlProtocolTest); this one must read it
+    private static final String EVENT_FRAME = "00000029" + "03" + "03" + "00000001" + "000000000000002a" + "01"
+            + "00025731" + "000171" + "001170686173653d726561643b7461736b3d37";
+
+    @Test public void helloRoundTrips() throws IOException {
+        assertEquals("3f2a-orchestrator", ControlProtocol.decodeHello(body(ControlProtocol.encodeHello("3f2a-orchestrator"),
+                ControlProtocol.TYPE_HELLO)));
+    }
+
+    @Test public void commandRoundTrips() throws IOException {
+        WorkerCommand command = WorkerCommand.of(WorkerCommand.Op.READ, "dir/ünï.csv", "q1").with("task", "7");
+        ControlProtocol.Command decoded = ControlProtocol.decodeCommand(body(ControlProtocol.encodeCommand(99, command),
+                ControlProtocol.TYPE_COMMAND));
+        assertEquals(99, decoded.correlationId());
+        assertEquals(WorkerCommand.Op.READ.code(), decoded.op());
+        assertEquals("dir/ünï.csv", decoded.target());
+        assertEquals(command.params(), decoded.params());
+        assertEquals(List.copyOf(command.params().keySet()), List.copyOf(decoded.params().keySet()));
+    }
+
+    @Test public void acksRoundTrip() throws IOException {
+        List<ControlProtocol.Ack> acks = List.of(new ControlProtocol.Ack(1, (short) 200, "accepted"),
+                new ControlProtocol.Ack(Long.MAX_VALUE, (short) 400, "error: queryId must match"));
+        assertEquals(acks, ControlProtocol.decodeAcks(body(ControlProtocol.encodeAcks(acks), ControlProtocol.TYPE_ACKS)));
+    }
+
+    @Test public void eventsRoundTrip() throws IOException {
+        List<ControlProtocol.Event> events = List.of(
+                new ControlProtocol.Event(1, ControlProtocol.EVENT_COMPLETE, "W2", "q", "phase=shuffle"),
+                new ControlProtocol.Event(2, ControlProtocol.EVENT_STATS, "W2", "q", ""));
+        assertEquals(events, ControlProtocol.decodeEvents(body(ControlProtocol.encodeEvents(events), ControlProtocol.TYPE_EVENTS)));
+    }
+
+    @Test public void eventAcksRoundTrip() throws IOException {
+        List<Long> ids = List.of(3L, 4L, 5L);
+        assertEquals(ids, ControlProtocol.decodeEventAcks(body(ControlProtocol.encodeEventAcks(ids), ControlProtocol.TYPE_EVENT_ACKS)));
+        assertEquals(List.of(), ControlProtocol.decodeEventAcks(body(ControlProtocol.encodeEventAcks(List.of()),
+                ControlProtocol.TYPE_EVENT_ACKS)));
+    }
+
+    @Test public void decodesTheWorkersEventFrame() {
+        byte[] frame = HexFormat.of().parseHex(EVENT_FRAME);
+        assertEquals(List.of(new ControlProtocol.Event(42, ControlProtocol.EVENT_COMPLETE, "W1", "q", "phase=read;task=7")),
+                ControlProtocol.decodeEvents(body(frame, ControlProtocol.TYPE_EVENTS)));
+    }
+
+    @Test public void truncatedFrameIsRejected() throws IOException {
+        byte[] frame = ControlProtocol.encodeAcks(List.of(new ControlProtocol.Ack(1, (short) 200, "accepted: invokeRead")));
+        ByteBuffer whole = body(frame, ControlProtocol.TYPE_ACKS);
+        // cut inside the message, and inside the correlation id; the bytes past the cut stay in the array
+        for (int cut : new int[] {whole.remaining() - 4, 8}) {
+            ByteBuffer truncated = whole.slice(whole.position(), cut);
+            try {
+                ControlProtocol.decodeAcks(truncated);
+                fail("decoded a frame cut to " + cut + " bytes");
+            } catch (BufferUnderflowException expected) {
+            }
+        }
+    }
+
+    // check the frame header and return the body, positioned after the type byte
+    private static ByteBuffer body(byte[] frame, byte type) {
+        ByteBuffer buf = ByteBuffer.wrap(frame);
+        assertEquals(frame.length - Integer.BYTES, buf.getInt(0));
+        ByteBuffer body = buf.slice(Integer.BYTES, frame.length - Integer.BYTES);
+        assertEquals(ControlProtocol.VERSION, body.get());
+        assertEquals(type, body.get());
+        return body;
+    }
+}